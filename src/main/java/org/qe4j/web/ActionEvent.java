@@ -0,0 +1,128 @@
+package org.qe4j.web;
+
+import java.util.Arrays;
+
+import org.openqa.selenium.WebElement;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Action an OpenWebElement is about to perform, published to the
+ * ActionEventBus of its driver. The element info is taken on the acting
+ * thread before the action, since local drivers such as HtmlUnit are not
+ * safe to read from other threads and would show the state after the action;
+ * remote elements describe themselves by their locator without a command.
+ * The message is built when first asked for, so listeners not formatting it
+ * cost the test thread only the element info.
+ */
+public class ActionEvent {
+
+    public enum Type {
+        CLICK,
+        SUBMIT,
+        SEND_KEYS,
+        CLEAR
+    }
+
+    private final Type type;
+    private final WebElement element;
+    private final String elementInfo;
+    private final CharSequence[] keys;
+    private final String threadName;
+    private final long timeMillis;
+    private String message;
+
+    /**
+     * @param type
+     * @param element
+     *            element of the driver acting
+     * @param keys
+     *            keys sent, else null
+     */
+    public ActionEvent(Type type, WebElement element, CharSequence[] keys) {
+        this.type = type;
+        this.element = element;
+        this.elementInfo = element == null ? null : OpenWebElement
+                .extractElementInfo(element);
+        this.keys = keys;
+        this.threadName = Thread.currentThread().getName();
+        this.timeMillis = System.currentTimeMillis();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return element acting, only safe to use on the acting thread
+     */
+    public WebElement getElement() {
+        return element;
+    }
+
+    /**
+     * @return keys sent, else null for other actions
+     */
+    public CharSequence[] getKeys() {
+        return keys;
+    }
+
+    /**
+     * @return thread performing the action
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return identifying information of the element before the action, as
+     *         OpenWebElement.extractElementInfo gives it
+     */
+    public String getElementInfo() {
+        return elementInfo;
+    }
+
+    /**
+     * @return log message of the action, built on first use
+     */
+    public String getMessage() {
+        if (message == null) {
+            switch (type) {
+            case CLICK:
+                message = "click " + getElementInfo();
+                break;
+            case SUBMIT:
+                message = "submit " + getElementInfo();
+                break;
+            case SEND_KEYS:
+                message = "sendKeys " + Arrays.toString(keys) + " to "
+                        + getElementInfo();
+                break;
+            default:
+                message = "clearing element " + getElementInfo();
+            }
+        }
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return getMessage();
+    }
+}
@@ -0,0 +1,87 @@
+package org.qe4j.web;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Delivers the ActionEvents of one session to the subscribed listeners, on
+ * the thread performing the action. Listeners are expected to return quickly;
+ * a listener throwing is logged and does not fail the action. Without
+ * listeners interested in actions, e.g. a logger with INFO off, no event is
+ * created.
+ */
+public class ActionEventBus {
+
+    /**
+     * Receives the actions of a session.
+     */
+    public interface Listener {
+        void onAction(ActionEvent event);
+
+        /**
+         * @return true if the listener wants the actions now, checked before
+         *         each event is created
+         */
+        boolean isEnabled();
+    }
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(ActionEventBus.class);
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return true if any listener is enabled
+     */
+    public boolean hasListeners() {
+        for (Listener listener : listeners) {
+            if (listener.isEnabled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param event
+     *            delivered to the enabled listeners
+     */
+    public void publish(ActionEvent event) {
+        for (Listener listener : listeners) {
+            try {
+                if (listener.isEnabled()) {
+                    listener.onAction(event);
+                }
+            } catch (RuntimeException e) {
+                log.warn("action listener " + listener + " failed", e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ActionEventBus[" + listeners.size() + " listeners]";
+    }
+}
@@ -0,0 +1,213 @@
+package org.qe4j.web;
+
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Default listener of the ActionEventBus, logging each action at INFO under
+ * the OpenWebElement logger as the element used to log itself. With INFO off
+ * the logger is not enabled, so the bus creates no event. Otherwise it is handed to a
+ * bounded queue and formatted and logged on a background thread, started with
+ * the first event; when the queue is full, e.g. with a slow appender, events
+ * are dropped and counted rather than slowing the test down. The thread of
+ * the action is appended to each message, since the log shows the logging
+ * thread.
+ *
+ * With webdriver.action.log.async false, events are logged on the thread of
+ * the action, in order with the other log messages of the test.
+ */
+public class ActionLogger implements ActionEventBus.Listener {
+
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(OpenWebElement.class);
+
+    private static ActionLogger defaultLogger;
+
+    private final boolean async;
+    private final BlockingQueue<ActionEvent> queue;
+    private final AtomicLong logged = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private long droppedReported;
+    private final AtomicLong pending = new AtomicLong();
+    private volatile Thread worker;
+
+    /**
+     * Returns the JVM wide logger, created from the properties of the first
+     * session, since all sessions log through the same logger.
+     *
+     * @param properties
+     * @return action logger shared by all sessions
+     */
+    public static synchronized ActionLogger getInstance(Properties properties) {
+        if (defaultLogger == null) {
+            String queueSize = properties
+                    .getProperty(OpenWebDriver.ACTION_LOG_QUEUE_PROP_KEY);
+            defaultLogger = new ActionLogger(!"false"
+                    .equalsIgnoreCase(properties
+                            .getProperty(OpenWebDriver.ACTION_LOG_ASYNC_PROP_KEY)),
+                    queueSize == null || queueSize.trim().equals("") ? DEFAULT_QUEUE_SIZE
+                            : Integer.parseInt(queueSize.trim()));
+        }
+        return defaultLogger;
+    }
+
+    /**
+     * @param async
+     *            true to log on a background thread
+     * @param queueSize
+     *            events waiting to be logged before events are dropped
+     */
+    public ActionLogger(boolean async, int queueSize) {
+        this.async = async;
+        queue = new ArrayBlockingQueue<ActionEvent>(Math.max(1, queueSize));
+    }
+
+    @Override
+    public void onAction(ActionEvent event) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (!async) {
+            write(event, false);
+            return;
+        }
+        if (worker == null) {
+            startWorker();
+        }
+        pending.incrementAndGet();
+        if (!queue.offer(event)) {
+            pending.decrementAndGet();
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits for the queued events to be logged.
+     *
+     * @param timeoutMillis
+     * @return true if all events queued were logged in time
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        long end = System.nanoTime() + timeoutMillis * 1000000L;
+        while (pending.get() > 0) {
+            if (System.nanoTime() >= end) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public long getLoggedCount() {
+        return logged.get();
+    }
+
+    /**
+     * @return events not logged because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ActionLogger[" + (async ? "async" : "sync") + ", queued "
+                + queue.size() + ", logged " + logged.get() + ", dropped "
+                + dropped.get() + "]";
+    }
+
+    private synchronized void startWorker() {
+        if (worker != null) {
+            return;
+        }
+        Thread thread = new Thread("action-logger") {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread("action-logger-flush") {
+            @Override
+            public void run() {
+                ActionEvent event;
+                while ((event = queue.poll()) != null) {
+                    write(event, true);
+                    pending.decrementAndGet();
+                }
+            }
+        });
+        worker = thread;
+    }
+
+    private void drain() {
+        while (true) {
+            ActionEvent event;
+            try {
+                event = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                write(event, true);
+                long drops = dropped.get();
+                if (drops > droppedReported) {
+                    log.warn("{} action log messages dropped, queue full",
+                            drops - droppedReported);
+                    droppedReported = drops;
+                }
+            } catch (RuntimeException e) {
+                log.debug("unable to log action", e);
+            } finally {
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return true if actions are logged
+     */
+    @Override
+    public boolean isEnabled() {
+        return log.isInfoEnabled();
+    }
+
+    /**
+     * Logs the action.
+     *
+     * @param event
+     * @param background
+     *            true if logged on the background thread
+     */
+    protected void write(ActionEvent event, boolean background) {
+        if (background) {
+            log.info("{} [{}]", event, event.getThreadName());
+        } else {
+            log.info("{}", event);
+        }
+        logged.incrementAndGet();
+    }
+}
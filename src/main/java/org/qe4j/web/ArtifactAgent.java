@@ -0,0 +1,390 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Companion agent of a grid node serving the files below a root directory,
+ * the download directory of the node (webdriver.download.directory within
+ * webdriver.grid.node.homedir), so ArtifactRetriever can stream downloads of
+ * remote sessions back. It answers one HTTP GET or HEAD per
+ * connection and supports single byte ranges for resuming. File contents are
+ * sent with FileChannel.transferTo, so they go from the page cache to the
+ * socket without passing through the JVM heap. Paths leaving the root and
+ * path segments starting with a dot (hidden files and directories) are
+ * refused.
+ *
+ * The agent does not authenticate requests: anyone reaching its port can read
+ * every file below the root. So never root it at the home directory, and it
+ * listens on 127.0.0.1 unless given the address of the network the hub and
+ * test runners use; keep the port closed to others.
+ *
+ * Run on a node with:
+ *
+ * java -cp qe4j.jar org.qe4j.web.ArtifactAgent <download directory> [port
+ * [bind address]]
+ */
+public class ArtifactAgent {
+
+    public static final int DEFAULT_PORT = 4455;
+    public static final String DEFAULT_ADDRESS = "127.0.0.1";
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(ArtifactAgent.class);
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int MAX_HEAD_BYTES = 8192;
+    private static final int SOCKET_TIMEOUT_MILLIS = 30000;
+
+    private final File root;
+    private final ServerSocketChannel server;
+    private final ExecutorService workers;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private volatile boolean running;
+
+    /**
+     * Creates an agent listening on 127.0.0.1 only.
+     *
+     * @param root
+     *            directory of the files served
+     * @param port
+     *            port to listen on, zero for any free port
+     * @throws IOException
+     *             if the port cannot be bound
+     */
+    public ArtifactAgent(File root, int port) throws IOException {
+        this(root, DEFAULT_ADDRESS, port);
+    }
+
+    /**
+     * @param root
+     *            directory of the files served
+     * @param address
+     *            address to listen on (e.g. the node address in the grid
+     *            network, 0.0.0.0 for all interfaces), null for 127.0.0.1
+     * @param port
+     *            port to listen on, zero for any free port
+     * @throws IOException
+     *             if the port cannot be bound
+     */
+    public ArtifactAgent(File root, String address, int port)
+            throws IOException {
+        this.root = root.getCanonicalFile();
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(
+                new InetSocketAddress(address == null ? DEFAULT_ADDRESS
+                        : address, port));
+        final AtomicInteger threads = new AtomicInteger();
+        workers = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "artifact-agent-"
+                        + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts accepting connections in a background thread.
+     */
+    public void start() {
+        running = true;
+        Thread acceptor = new Thread("artifact-agent-accept") {
+            @Override
+            public void run() {
+                accept();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("artifact agent serving {} on {}:{}", new Object[] { root,
+                getAddress().getHostAddress(), getPort() });
+    }
+
+    public void shutdown() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            log.debug("unable to close artifact agent", e);
+        }
+        workers.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * @return address listened on, the wildcard address for all interfaces
+     */
+    public InetAddress getAddress() {
+        return server.socket().getInetAddress();
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ArtifactAgent[" + root + ", port " + getPort() + ", requests "
+                + requestCount.get() + ", sent " + bytesSent.get() + "]";
+    }
+
+    private void accept() {
+        while (running) {
+            final SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                log.warn("artifact agent accept failed", e);
+                continue;
+            }
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        channel.socket().setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+                        serve(channel);
+                    } catch (IOException e) {
+                        log.debug("artifact agent connection failed", e);
+                    } finally {
+                        try {
+                            channel.close();
+                        } catch (IOException e) {
+                            log.debug("unable to close connection", e);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void serve(SocketChannel channel) throws IOException {
+        String head = readHead(channel);
+        if (head == null) {
+            return;
+        }
+        requestCount.incrementAndGet();
+        String[] lines = head.split("\r\n");
+        String[] request = lines[0].split(" ");
+        if (request.length != 3) {
+            send(channel, 400, "Bad Request", -1, null);
+            return;
+        }
+        String method = request[0];
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            send(channel, 405, "Method Not Allowed", -1, null);
+            return;
+        }
+        String range = null;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0
+                    && lines[i].substring(0, colon).trim()
+                            .toLowerCase(Locale.ENGLISH).equals("range")) {
+                range = lines[i].substring(colon + 1).trim();
+            }
+        }
+
+        File file = resolve(request[1]);
+        if (file == null || !file.isFile()) {
+            send(channel, 404, "Not Found", -1, null);
+            return;
+        }
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel source = input.getChannel();
+            long length = source.size();
+            long start = 0;
+            long end = length - 1;
+            boolean partial = false;
+            if (range != null && range.startsWith("bytes=")
+                    && range.indexOf(',') == -1 && range.indexOf('-') != -1) {
+                String[] bounds = range.substring(6).split("-", -1);
+                try {
+                    if (bounds[0].trim().equals("")) {
+                        start = Math.max(0,
+                                length - Long.parseLong(bounds[1].trim()));
+                    } else {
+                        start = Long.parseLong(bounds[0].trim());
+                        if (!bounds[1].trim().equals("")) {
+                            end = Math.min(end,
+                                    Long.parseLong(bounds[1].trim()));
+                        }
+                    }
+                    partial = true;
+                } catch (NumberFormatException e) {
+                    log.debug("ignoring range {}", range);
+                }
+                if (partial && (start >= length || end < start)) {
+                    send(channel, 416, "Range Not Satisfiable", -1,
+                            "Content-Range: bytes */" + length);
+                    return;
+                }
+            }
+            long count = Math.max(0, end - start + 1);
+            if (partial) {
+                send(channel, 206, "Partial Content", count,
+                        "Content-Range: bytes " + start + "-" + end + "/"
+                                + length);
+            } else {
+                send(channel, 200, "OK", count, null);
+            }
+            if (method.equals("HEAD")) {
+                return;
+            }
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = source.transferTo(position, remaining, channel);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+                bytesSent.addAndGet(sent);
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @param target
+     *            request target
+     * @return file below the root, else null if the path leaves the root or
+     *         has a segment starting with a dot
+     */
+    File resolve(String target) throws IOException {
+        String path;
+        try {
+            path = new URI(target).getPath();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        if (path == null) {
+            return null;
+        }
+        for (String segment : path.split("[/\\\\]")) {
+            if (segment.startsWith(".")) {
+                return null;
+            }
+        }
+        File file = new File(root, path).getCanonicalFile();
+        String rootPath = root.getPath();
+        if (!file.getPath().startsWith(rootPath + File.separator)) {
+            return null;
+        }
+        return file;
+    }
+
+    private static String readHead(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_HEAD_BYTES);
+        // read a byte at a time from the blocking socket stream, the head is
+        // small and nothing may be read past it
+        InputStream in = channel.socket().getInputStream();
+        int matched = 0;
+        while (buffer.hasRemaining()) {
+            int read = in.read();
+            if (read == -1) {
+                return null;
+            }
+            buffer.put((byte) read);
+            if (read == '\r') {
+                matched = matched == 2 ? 3 : 1;
+            } else if (read == '\n' && (matched == 1 || matched == 3)) {
+                matched++;
+            } else {
+                matched = 0;
+            }
+            if (matched == 4) {
+                buffer.flip();
+                return ASCII.decode(buffer).toString().trim();
+            }
+        }
+        return null;
+    }
+
+    private static void send(SocketChannel channel, int status,
+            String reason, long length, String header) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append(' ').append(reason)
+                .append("\r\n");
+        head.append("Content-Length: ").append(Math.max(length, 0))
+                .append("\r\n");
+        head.append("Accept-Ranges: bytes\r\n");
+        if (status == 200 || status == 206) {
+            head.append("Content-Type: application/octet-stream\r\n");
+        }
+        if (header != null) {
+            head.append(header).append("\r\n");
+        }
+        head.append("Connection: close\r\n\r\n");
+        ByteBuffer buffer = ASCII.encode(head.toString());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public static void main(String[] args) throws IOException,
+            InterruptedException {
+        if (args.length < 1) {
+            System.err.println("usage: ArtifactAgent <download directory> "
+                    + "[port [bind address]]");
+            System.exit(2);
+        }
+        ArtifactAgent agent = new ArtifactAgent(new File(args[0]),
+                args.length > 2 ? args[2] : DEFAULT_ADDRESS,
+                args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT);
+        agent.start();
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,320 @@
+package org.qe4j.web;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Streams files from the ArtifactAgent of a grid node to local disk. The body
+ * is moved from the socket to the file in chunks with FileChannel.transferFrom,
+ * so memory use stays bounded however large the file is. The transfer goes to
+ * a .part file next to the target first; when the connection fails the next
+ * attempt asks for the remaining bytes only with a Range header, and the .part
+ * file is renamed to the target once complete. A .part file left by an earlier
+ * call is resumed as well.
+ */
+public class ArtifactRetriever {
+
+    public static final int DEFAULT_CHUNK_BYTES = 1024 * 1024;
+    public static final int DEFAULT_RETRIES = 3;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+    public static final String PART_SUFFIX = ".part";
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(ArtifactRetriever.class);
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int MAX_HEAD_BYTES = 8192;
+
+    private final String host;
+    private final int port;
+    private final int chunkBytes;
+    private final int retries;
+    private final int timeoutMillis;
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong resumeCount = new AtomicLong();
+
+    /**
+     * @param host
+     *            grid node address
+     * @param port
+     *            port of the artifact agent
+     */
+    public ArtifactRetriever(String host, int port) {
+        this(host, port, DEFAULT_CHUNK_BYTES, DEFAULT_RETRIES,
+                DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param host
+     *            grid node address
+     * @param port
+     *            port of the artifact agent
+     * @param chunkBytes
+     *            most bytes moved to the file per transfer
+     * @param retries
+     *            attempts resuming a failed transfer
+     * @param timeoutMillis
+     *            connect timeout, and longest time without receiving data
+     */
+    public ArtifactRetriever(String host, int port, int chunkBytes,
+            int retries, int timeoutMillis) {
+        this.host = host;
+        this.port = port;
+        this.chunkBytes = chunkBytes;
+        this.retries = retries;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Streams a file of the node to local disk, replacing the target.
+     *
+     * @param remotePath
+     *            path relative to the root directory of the agent
+     * @param target
+     *            local file
+     * @return the target
+     * @throws FileNotFoundException
+     *             if the node has no such file
+     * @throws IOException
+     *             if the transfer failed after all retries, the .part file is
+     *             kept for resuming
+     */
+    public File retrieve(String remotePath, File target) throws IOException {
+        File part = new File(target.getPath() + PART_SUFFIX);
+        File parent = target.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        IOException failure = null;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            try {
+                transfer(remotePath, part);
+                if (target.exists() && !target.delete()) {
+                    throw new IOException("unable to replace " + target);
+                }
+                if (!part.renameTo(target)) {
+                    throw new IOException("unable to rename " + part + " to "
+                            + target);
+                }
+                log.info("retrieved {} from {}:{} to {}", new Object[] {
+                        remotePath, host, port, target });
+                return target;
+            } catch (FileNotFoundException e) {
+                throw e;
+            } catch (IOException e) {
+                log.debug("attempt " + (attempt + 1) + " to retrieve "
+                        + remotePath + " failed", e);
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * @return transfers continued from a partial file
+     */
+    public long getResumeCount() {
+        return resumeCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ArtifactRetriever[" + host + ":" + port + ", received "
+                + bytesReceived.get() + ", resumed " + resumeCount.get() + "]";
+    }
+
+    private void transfer(String remotePath, File part) throws IOException {
+        long offset = part.isFile() ? part.length() : 0;
+        if (offset > 0) {
+            resumeCount.incrementAndGet();
+        }
+        SocketChannel channel = SocketChannel.open();
+        Selector selector = null;
+        RandomAccessFile output = null;
+        try {
+            channel.socket().connect(new InetSocketAddress(host, port),
+                    timeoutMillis);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+
+            ByteBuffer request = ASCII.encode("GET " + encode(remotePath)
+                    + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\n"
+                    + (offset > 0 ? "Range: bytes=" + offset + "-\r\n" : "")
+                    + "Connection: close\r\n\r\n");
+            while (request.hasRemaining()) {
+                channel.write(request);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_HEAD_BYTES);
+            int headEnd = readHead(channel, selector, buffer);
+            String[] lines = new String(buffer.array(), 0, headEnd, ASCII)
+                    .split("\r\n");
+            String[] status = lines[0].split(" ", 3);
+            int code = Integer.parseInt(status[1]);
+            long length = -1;
+            String contentRange = null;
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim()
+                        .toLowerCase(Locale.ENGLISH);
+                String value = lines[i].substring(colon + 1).trim();
+                if (name.equals("content-length")) {
+                    length = Long.parseLong(value);
+                } else if (name.equals("content-range")) {
+                    contentRange = value;
+                }
+            }
+
+            long position;
+            if (code == 404) {
+                throw new FileNotFoundException(remotePath + " not found on "
+                        + host);
+            } else if (code == 416 && contentRange != null
+                    && contentRange.equals("bytes */" + offset)) {
+                // an earlier attempt got everything
+                return;
+            } else if (code == 206 && contentRange != null
+                    && contentRange.startsWith("bytes " + offset + "-")) {
+                position = offset;
+            } else if (code == 200) {
+                position = 0;
+            } else {
+                part.delete();
+                throw new IOException("unexpected response " + lines[0]
+                        + " retrieving " + remotePath + " from " + host);
+            }
+            if (length < 0) {
+                throw new IOException("no content length retrieving "
+                        + remotePath);
+            }
+
+            output = new RandomAccessFile(part, "rw");
+            FileChannel file = output.getChannel();
+            file.truncate(position);
+
+            // body bytes read together with the head
+            buffer.limit(buffer.position()).position(headEnd + 4);
+            long remaining = length;
+            while (buffer.hasRemaining() && remaining > 0) {
+                int written = file.write(buffer, position);
+                position += written;
+                remaining -= written;
+                bytesReceived.addAndGet(written);
+            }
+
+            boolean readable = true;
+            while (remaining > 0) {
+                long moved = file.transferFrom(channel, position,
+                        Math.min(chunkBytes, remaining));
+                if (moved > 0) {
+                    position += moved;
+                    remaining -= moved;
+                    bytesReceived.addAndGet(moved);
+                    readable = true;
+                    continue;
+                }
+                if (readable) {
+                    // nothing buffered, wait for the socket
+                    await(selector);
+                    readable = false;
+                } else {
+                    throw new EOFException("connection closed with "
+                            + remaining + " bytes of " + remotePath
+                            + " remaining");
+                }
+            }
+        } finally {
+            if (output != null) {
+                output.close();
+            }
+            if (selector != null) {
+                selector.close();
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads until the end of the response head.
+     *
+     * @return offset of the blank line ending the head
+     */
+    private int readHead(SocketChannel channel, Selector selector,
+            ByteBuffer buffer) throws IOException {
+        int scanned = 0;
+        while (true) {
+            int read = channel.read(buffer);
+            if (read == -1) {
+                throw new EOFException("connection closed before response");
+            }
+            byte[] bytes = buffer.array();
+            for (int i = Math.max(0, scanned - 3); i + 3 < buffer.position(); i++) {
+                if (bytes[i] == '\r' && bytes[i + 1] == '\n'
+                        && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                    return i;
+                }
+            }
+            scanned = buffer.position();
+            if (!buffer.hasRemaining()) {
+                throw new IOException("response head too large");
+            }
+            if (read == 0) {
+                await(selector);
+            }
+        }
+    }
+
+    private void await(Selector selector) throws IOException {
+        if (selector.select(timeoutMillis) == 0) {
+            throw new SocketTimeoutException("no data from " + host + ":"
+                    + port + " in " + timeoutMillis + " ms");
+        }
+        selector.selectedKeys().clear();
+    }
+
+    private static String encode(String path) throws IOException {
+        try {
+            return new URI(null, null, path.startsWith("/") ? path : "/"
+                    + path, null).toASCIIString();
+        } catch (URISyntaxException e) {
+            throw new IOException("invalid path " + path, e);
+        }
+    }
+}
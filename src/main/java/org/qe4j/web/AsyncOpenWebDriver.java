@@ -0,0 +1,320 @@
+package org.qe4j.web;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Asynchronous facade of an OpenWebDriver returning listenable futures, so
+ * one thread can drive several sessions and overlap their navigation, ajax
+ * waits and screenshots. Callbacks added to the futures, e.g. with
+ * Futures.addCallback() or Futures.transform(), chain the operations of
+ * several sessions without blocking a thread per session. Operations of one
+ * session run one at a time in the order they were submitted, since a browser
+ * session is not safe for concurrent use; operations of different sessions
+ * run concurrently on the executor, which by default is a cached pool shared
+ * by all facades.
+ *
+ * A failed operation fails its own future only; later operations of the
+ * session still run.
+ */
+public class AsyncOpenWebDriver {
+
+    private static ExecutorService defaultExecutor;
+
+    private final OpenWebDriver driver;
+    private final Executor executor;
+    private final Queue<Runnable> queue = new LinkedList<Runnable>();
+    private boolean running;
+
+    /**
+     * @param driver
+     *            session operations are run against
+     */
+    public AsyncOpenWebDriver(OpenWebDriver driver) {
+        this(driver, getDefaultExecutor());
+    }
+
+    /**
+     * @param driver
+     *            session operations are run against
+     * @param executor
+     *            runs the operations, possibly shared with other sessions
+     */
+    public AsyncOpenWebDriver(OpenWebDriver driver, Executor executor) {
+        this.driver = driver;
+        this.executor = executor;
+    }
+
+    /**
+     * @return cached pool of daemon threads shared by facades created without
+     *         an executor
+     */
+    public static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "async-driver-"
+                            + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultExecutor;
+    }
+
+    public OpenWebDriver getDriver() {
+        return driver;
+    }
+
+    /**
+     * Runs any operation against the session after the ones already
+     * submitted.
+     *
+     * @param operation
+     * @return result of the operation
+     */
+    public <T> ListenableFuture<T> submit(Callable<T> operation) {
+        ListenableFutureTask<T> task = ListenableFutureTask.create(operation);
+        synchronized (queue) {
+            queue.add(task);
+            if (running) {
+                return task;
+            }
+            running = true;
+        }
+        schedule();
+        return task;
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        } catch (RuntimeException e) {
+            synchronized (queue) {
+                running = false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Runs queued operations until the queue is empty, one at a time.
+     */
+    private void drain() {
+        while (true) {
+            Runnable task;
+            synchronized (queue) {
+                task = queue.poll();
+                if (task == null) {
+                    running = false;
+                    return;
+                }
+            }
+            // failures are kept by the task's future
+            task.run();
+        }
+    }
+
+    /**
+     * @return operations submitted and not yet started
+     */
+    public int getQueuedCount() {
+        synchronized (queue) {
+            return queue.size();
+        }
+    }
+
+    public ListenableFuture<Void> get(final String url) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                driver.get(url);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<Void> refresh() {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                driver.refresh();
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<OpenWebElement> findElement(final By by) {
+        return submit(new Callable<OpenWebElement>() {
+            @Override
+            public OpenWebElement call() {
+                return driver.findElement(by);
+            }
+        });
+    }
+
+    public ListenableFuture<List<WebElement>> findElements(final By by) {
+        return submit(new Callable<List<WebElement>>() {
+            @Override
+            public List<WebElement> call() {
+                return driver.findElements(by);
+            }
+        });
+    }
+
+    /**
+     * Finds and clicks the element, then waits for ajax.
+     *
+     * @param by
+     * @return element clicked on
+     */
+    public ListenableFuture<WebElement> click(final By by) {
+        return submit(new Callable<WebElement>() {
+            @Override
+            public WebElement call() {
+                return driver.clickElement(by);
+            }
+        });
+    }
+
+    /**
+     * Clicks the element, then waits for ajax.
+     *
+     * @param element
+     *            element found by this session
+     * @return completion of the click
+     */
+    public ListenableFuture<Void> click(final WebElement element) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                element.click();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @see OpenWebDriver#sendInput(By, Object)
+     */
+    public ListenableFuture<WebElement> sendInput(final By by,
+            final Object value) {
+        return submit(new Callable<WebElement>() {
+            @Override
+            public WebElement call() {
+                return driver.sendInput(by, value);
+            }
+        });
+    }
+
+    /**
+     * @see OpenWebDriver#editInput(By, Object)
+     */
+    public ListenableFuture<WebElement> editInput(final By by,
+            final Object value) {
+        return submit(new Callable<WebElement>() {
+            @Override
+            public WebElement call() {
+                return driver.editInput(by, value);
+            }
+        });
+    }
+
+    public ListenableFuture<String> getInputValue(final By by) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return driver.getInputValue(by);
+            }
+        });
+    }
+
+    public ListenableFuture<Void> waitForAjax() {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                driver.waitForAjax();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @see OpenWebDriver#screenshot(String, String)
+     */
+    public ListenableFuture<Void> screenshot(final String folderName,
+            final String fileName) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                driver.screenshot(folderName, fileName);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<Object> executeJavaScript(final String script,
+            final Object... args) {
+        return submit(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return driver.executeJavaScript(script, args);
+            }
+        });
+    }
+
+    public ListenableFuture<String> getTitle() {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return driver.getTitle();
+            }
+        });
+    }
+
+    public ListenableFuture<Void> quit() {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                driver.quit();
+                return null;
+            }
+        });
+    }
+}
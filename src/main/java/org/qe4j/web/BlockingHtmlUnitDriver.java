@@ -0,0 +1,50 @@
+package org.qe4j.web;
+
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * HtmlUnit driver with javascript enabled answering the requests blocked
+ * by a RequestBlocker in its own web connection.
+ */
+public class BlockingHtmlUnitDriver extends HtmlUnitDriver {
+
+    private final RequestBlocker blocker;
+
+    /**
+     * @param version
+     * @param blocker
+     *            request blocking rules of the session, else null
+     */
+    public BlockingHtmlUnitDriver(BrowserVersion version,
+            RequestBlocker blocker) {
+        super(version);
+        setJavascriptEnabled(true);
+        this.blocker = blocker;
+        if (blocker != null) {
+            blocker.apply(getWebClient());
+        }
+    }
+
+    /**
+     * @return request blocking rules of the session, else null
+     */
+    public RequestBlocker getBlocker() {
+        return blocker;
+    }
+}
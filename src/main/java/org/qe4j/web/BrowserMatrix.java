@@ -0,0 +1,261 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Runs one scenario against a matrix of browser, version and platform
+ * targets in parallel, so a full pass takes about as long as the slowest
+ * target rather than the sum of all of them. Each target is the base
+ * properties with its own overrides applied. Drivers are created
+ * concurrently, limited per browser by setCreationLimit() (e.g. to keep a
+ * small grid from being flooded with Firefox sessions), and quit once the
+ * scenario finished. Failures of one target do not stop the others; every
+ * outcome lands in the returned BrowserMatrixReport.
+ */
+public class BrowserMatrix {
+
+    /**
+     * Scenario run against every target.
+     */
+    public interface Scenario {
+        void run(OpenWebDriver driver, Target target) throws Exception;
+    }
+
+    /**
+     * Named set of property overrides.
+     */
+    public static class Target {
+        private final String name;
+        private final Properties overrides;
+
+        public Target(String name, Properties overrides) {
+            this.name = name;
+            this.overrides = overrides;
+        }
+
+        /**
+         * @param name
+         * @param browser
+         *            webdriver.browser value
+         * @param version
+         *            webdriver.browser-version value, else null to keep the
+         *            base value
+         * @param platform
+         *            webdriver.platform value, else null to keep the base
+         *            value
+         */
+        public Target(String name, String browser, String version,
+                String platform) {
+            this(name, new Properties());
+            overrides.setProperty(OpenWebDriver.BROWSER_PROP_KEY, browser);
+            if (version != null) {
+                overrides.setProperty(OpenWebDriver.BROWSER_VERSION_PROP_KEY,
+                        version);
+            }
+            if (platform != null) {
+                overrides.setProperty(OpenWebDriver.PLATFORM_PROP_KEY,
+                        platform);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Properties getOverrides() {
+            return overrides;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(BrowserMatrix.class);
+
+    private final Properties baseProperties;
+    private final List<Target> targets = new ArrayList<Target>();
+    private final Map<String, Integer> creationLimits = new HashMap<String, Integer>();
+
+    /**
+     * @param baseProperties
+     *            properties shared by all targets
+     */
+    public BrowserMatrix(Properties baseProperties) {
+        this.baseProperties = baseProperties;
+    }
+
+    public BrowserMatrix addTarget(Target target) {
+        targets.add(target);
+        return this;
+    }
+
+    public BrowserMatrix addTarget(String name, String browser,
+            String version, String platform) {
+        return addTarget(new Target(name, browser, version, platform));
+    }
+
+    public List<Target> getTargets() {
+        return Collections.unmodifiableList(targets);
+    }
+
+    /**
+     * Limits how many drivers of a browser are created at the same time.
+     * Browsers without a limit are created all at once.
+     *
+     * @param browser
+     *            webdriver.browser value, case insensitive
+     * @param limit
+     */
+    public BrowserMatrix setCreationLimit(String browser, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("creation limit for " + browser
+                    + " must be one or more");
+        }
+        creationLimits.put(browser.toLowerCase(), limit);
+        return this;
+    }
+
+    /**
+     * @param target
+     * @return base properties with the target overrides applied
+     */
+    public Properties getProperties(Target target) {
+        Properties properties = new Properties();
+        properties.putAll(baseProperties);
+        properties.putAll(target.getOverrides());
+        return properties;
+    }
+
+    /**
+     * Runs the scenario against all targets in parallel and waits for all of
+     * them to finish.
+     *
+     * @param scenario
+     * @return outcome and timings of each target
+     * @throws InterruptedException
+     */
+    public BrowserMatrixReport run(final Scenario scenario)
+            throws InterruptedException {
+        if (targets.isEmpty()) {
+            throw new IllegalStateException("no targets in browser matrix");
+        }
+        Map<String, Semaphore> limits = new HashMap<String, Semaphore>();
+        for (Map.Entry<String, Integer> limit : creationLimits.entrySet()) {
+            limits.put(limit.getKey(), new Semaphore(limit.getValue(), true));
+        }
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(targets
+                .size());
+        List<Future<BrowserMatrixReport.Result>> futures = new ArrayList<Future<BrowserMatrixReport.Result>>();
+        try {
+            for (final Target target : targets) {
+                final Properties properties = getProperties(target);
+                String browser = properties.getProperty(
+                        OpenWebDriver.BROWSER_PROP_KEY, "").toLowerCase();
+                final Semaphore limit = limits.get(browser);
+                futures.add(executor
+                        .submit(new Callable<BrowserMatrixReport.Result>() {
+                            @Override
+                            public BrowserMatrixReport.Result call() {
+                                return runTarget(scenario, target,
+                                        properties, limit);
+                            }
+                        }));
+            }
+            List<BrowserMatrixReport.Result> results = new ArrayList<BrowserMatrixReport.Result>();
+            for (Future<BrowserMatrixReport.Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // runTarget catches everything
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            BrowserMatrixReport report = new BrowserMatrixReport(results,
+                    System.nanoTime() - start);
+            log.info("browser matrix finished\n{}", report);
+            return report;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private BrowserMatrixReport.Result runTarget(Scenario scenario,
+            Target target, Properties properties, Semaphore limit) {
+        long start = System.nanoTime();
+        long createNanos = 0;
+        OpenWebDriver driver = null;
+        Throwable error = null;
+        try {
+            if (limit != null) {
+                limit.acquire();
+            }
+            try {
+                log.info("creating driver for target {}", target);
+                driver = newDriver(properties);
+            } finally {
+                if (limit != null) {
+                    limit.release();
+                }
+                createNanos = System.nanoTime() - start;
+            }
+            scenario.run(driver, target);
+        } catch (Throwable e) {
+            log.warn("target " + target + " failed", e);
+            error = e;
+        } finally {
+            if (driver != null) {
+                try {
+                    driver.quit();
+                } catch (RuntimeException e) {
+                    log.warn("unable to quit driver of target " + target, e);
+                }
+            }
+        }
+        long totalNanos = System.nanoTime() - start;
+        return new BrowserMatrixReport.Result(target, error, createNanos,
+                totalNanos);
+    }
+
+    /**
+     * Creates the driver of a target.
+     *
+     * @param properties
+     * @return driver
+     * @throws IOException
+     */
+    protected OpenWebDriver newDriver(Properties properties)
+            throws IOException {
+        return new OpenWebDriver(properties);
+    }
+}
@@ -0,0 +1,151 @@
+package org.qe4j.web;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Outcome and timings of a BrowserMatrix run, one result per target in the
+ * order the targets were added.
+ */
+public class BrowserMatrixReport {
+
+    /**
+     * Outcome of one target.
+     */
+    public static class Result {
+        private final BrowserMatrix.Target target;
+        private final Throwable error;
+        private final long createNanos;
+        private final long totalNanos;
+
+        public Result(BrowserMatrix.Target target, Throwable error,
+                long createNanos, long totalNanos) {
+            this.target = target;
+            this.error = error;
+            this.createNanos = createNanos;
+            this.totalNanos = totalNanos;
+        }
+
+        public BrowserMatrix.Target getTarget() {
+            return target;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return failure of the driver creation or scenario, else null
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return nanoseconds spent waiting for and creating the driver
+         */
+        public long getCreateNanos() {
+            return createNanos;
+        }
+
+        /**
+         * @return nanoseconds spent in the scenario
+         */
+        public long getScenarioNanos() {
+            return totalNanos - createNanos;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+    }
+
+    private final List<Result> results;
+    private final long wallNanos;
+
+    public BrowserMatrixReport(List<Result> results, long wallNanos) {
+        this.results = Collections.unmodifiableList(new ArrayList<Result>(
+                results));
+        this.wallNanos = wallNanos;
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * @param name
+     *            target name
+     * @return result of the target, else null if it was not part of the run
+     */
+    public Result getResult(String name) {
+        for (Result result : results) {
+            if (result.getTarget().getName().equals(name)) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if every target passed
+     */
+    public boolean isSuccess() {
+        for (Result result : results) {
+            if (!result.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return nanoseconds from start to the last target finishing
+     */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    /**
+     * @return nanoseconds the targets would have taken one after another
+     */
+    public long getSerialNanos() {
+        long total = 0;
+        for (Result result : results) {
+            total += result.getTotalNanos();
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%-20s %-6s %10s %10s %10s%n", "target",
+                "result", "create ms", "run ms", "total ms"));
+        for (Result result : results) {
+            builder.append(String.format("%-20s %-6s %10d %10d %10d%n", result
+                    .getTarget().getName(), result.isSuccess() ? "pass"
+                    : "fail", result.getCreateNanos() / 1000000, result
+                    .getScenarioNanos() / 1000000,
+                    result.getTotalNanos() / 1000000));
+        }
+        builder.append(String.format("wall %d ms, serial %d ms",
+                wallNanos / 1000000, getSerialNanos() / 1000000));
+        return builder.toString();
+    }
+}
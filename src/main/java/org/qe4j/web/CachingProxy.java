@@ -0,0 +1,1221 @@
+package org.qe4j.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.params.CookiePolicy;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * In JVM HTTP proxy shared by the local Firefox, Chrome and HtmlUnit sessions
+ * when webdriver.proxy.enabled is true, so static resources fetched by one
+ * session are served to the others from a shared cache. A selector thread
+ * accepts connections and watches idle keep-alive connections, handing each
+ * readable connection to a worker which serves the request and returns the
+ * connection to the selector. Requests go to origin servers over a pool of
+ * keep-alive connections.
+ *
+ * GET responses with status 200 are cached when their Cache-Control or
+ * Expires headers make them fresh, or for the time to live of the
+ * webdriver.proxy.cache.ttl property when their url matches one of the
+ * webdriver.proxy.cache.patterns. Responses marked no-store, no-cache or
+ * private, setting cookies, or matching webdriver.proxy.cache.exclude are
+ * never cached. HTTPS is tunnelled through CONNECT and not cached.
+ *
+ * Sessions needing their own request rules, e.g. a RequestBlocker, or
+ * recording their traffic with a HarRecorder open a Session listening on a
+ * port of its own. Requests arriving on the session port follow its rules and
+ * may skip the cache.
+ *
+ * Hit rates and bytes saved are exposed over JMX.
+ */
+public class CachingProxy implements CachingProxyMXBean {
+
+    public static final long DEFAULT_MEMORY_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_DISK_BYTES = 512L * 1024 * 1024;
+    public static final long DEFAULT_MAX_ENTRY_BYTES = 8L * 1024 * 1024;
+    public static final long DEFAULT_TTL = 3600;
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(CachingProxy.class);
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int MAX_HEAD_BYTES = 64 * 1024;
+    private static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+    private static final Set<String> HOP_BY_HOP_HEADERS = new HashSet<String>(
+            Arrays.asList("connection", "keep-alive", "proxy-authenticate",
+                    "proxy-authorization", "proxy-connection", "te",
+                    "trailer", "trailers", "transfer-encoding", "upgrade",
+                    "content-length", "expect"));
+
+    private static CachingProxy instance;
+
+    private final ProxyCache cache;
+    private final List<Pattern> cachePatterns;
+    private final List<Pattern> excludePatterns;
+    private final long ttlMillis;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Queue<Connection> idle = new ConcurrentLinkedQueue<Connection>();
+    private final Queue<Session> opened = new ConcurrentLinkedQueue<Session>();
+    private final Session defaultSession = new Session(null, null, true,
+            null);
+    private final PoolingClientConnectionManager connectionManager;
+    private final DefaultHttpClient httpClient;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong bytesFetched = new AtomicLong();
+    private volatile boolean running;
+    private ObjectName objectName;
+
+    /**
+     * Port of the proxy serving one browser session with its own rules.
+     */
+    public class Session {
+        private final ServerSocketChannel channel;
+        private final RequestBlocker blocker;
+        private final boolean caching;
+        private final HarRecorder recorder;
+
+        private Session(ServerSocketChannel channel, RequestBlocker blocker,
+                boolean caching, HarRecorder recorder) {
+            this.channel = channel;
+            this.blocker = blocker;
+            this.caching = caching;
+            this.recorder = recorder;
+        }
+
+        /**
+         * @return local port the browser of the session connects to
+         */
+        public int getPort() {
+            return channel == null ? CachingProxy.this.getPort() : channel
+                    .socket().getLocalPort();
+        }
+
+        /**
+         * @return request blocking rules of the session, else null
+         */
+        public RequestBlocker getBlocker() {
+            return blocker;
+        }
+
+        /**
+         * @return recorder of the session traffic, else null
+         */
+        public HarRecorder getRecorder() {
+            return recorder;
+        }
+
+        /**
+         * @return true if requests of the session use the shared cache
+         */
+        public boolean isCaching() {
+            return caching;
+        }
+
+        /**
+         * Stops accepting connections of the session. Open connections are
+         * closed by the browser or when idle.
+         */
+        public void close() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("unable to close proxy session", e);
+            }
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Connection from a browser. Bytes read past the current request stay in
+     * the buffer for the next one.
+     */
+    private static class Connection {
+        private final SocketChannel channel;
+        private final Session session;
+        private HarRecorder.Entry exchange;
+        private ByteBuffer buffer = ByteBuffer.allocate(8192);
+        private long lastActive = System.currentTimeMillis();
+
+        private Connection(SocketChannel channel, Session session) {
+            this.channel = channel;
+            this.session = session;
+        }
+
+        /**
+         * @return request line and headers, else null if closed before a
+         *         request
+         */
+        private String readHead() throws IOException {
+            while (true) {
+                int end = indexOfHeadEnd();
+                if (end >= 0) {
+                    String head = new String(buffer.array(), 0, end,
+                            ISO_8859_1);
+                    take(end + 4);
+                    return head;
+                }
+                if (!buffer.hasRemaining()) {
+                    if (buffer.capacity() >= MAX_HEAD_BYTES) {
+                        throw new IOException("request head too large");
+                    }
+                    ByteBuffer larger = ByteBuffer
+                            .allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+                if (channel.read(buffer) < 0) {
+                    if (buffer.position() == 0) {
+                        return null;
+                    }
+                    throw new IOException("connection closed in request head");
+                }
+            }
+        }
+
+        private int indexOfHeadEnd() {
+            byte[] bytes = buffer.array();
+            for (int i = 0; i + 3 < buffer.position(); i++) {
+                if (bytes[i] == '\r' && bytes[i + 1] == '\n'
+                        && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private byte[] readBody(int length) throws IOException {
+            byte[] body = new byte[length];
+            int buffered = Math.min(length, buffer.position());
+            System.arraycopy(buffer.array(), 0, body, 0, buffered);
+            take(buffered);
+            ByteBuffer rest = ByteBuffer.wrap(body, buffered, length
+                    - buffered);
+            while (rest.hasRemaining()) {
+                if (channel.read(rest) < 0) {
+                    throw new IOException("connection closed in request body");
+                }
+            }
+            return body;
+        }
+
+        private void take(int count) {
+            buffer.flip();
+            buffer.position(count);
+            buffer.compact();
+        }
+
+        private boolean hasBuffered() {
+            return buffer.position() > 0;
+        }
+
+        private void write(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+
+        private void write(String text) throws IOException {
+            write(ByteBuffer.wrap(text.getBytes(ISO_8859_1)));
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("unable to close proxy connection", e);
+            }
+        }
+    }
+
+    /**
+     * Gets the proxy shared by all local sessions, starting it from the proxy
+     * properties on first use. Later calls share the proxy regardless of their
+     * properties.
+     *
+     * @param properties
+     * @return running proxy
+     * @throws IOException
+     *             if the proxy port cannot be bound
+     */
+    public static synchronized CachingProxy getInstance(Properties properties)
+            throws IOException {
+        if (instance == null || !instance.running) {
+            String dir = properties
+                    .getProperty(OpenWebDriver.PROXY_CACHE_DIR_PROP_KEY);
+            File directory = dir == null || dir.trim().equals("") ? new File(
+                    System.getProperty("java.io.tmpdir"), "qe4j-proxy-cache")
+                    : new File(dir.trim());
+            ProxyCache cache = new ProxyCache(getLong(properties,
+                    OpenWebDriver.PROXY_CACHE_MEMORY_PROP_KEY,
+                    DEFAULT_MEMORY_BYTES), getLong(properties,
+                    OpenWebDriver.PROXY_CACHE_DISK_PROP_KEY,
+                    DEFAULT_DISK_BYTES), getLong(properties,
+                    OpenWebDriver.PROXY_CACHE_MAX_ENTRY_PROP_KEY,
+                    DEFAULT_MAX_ENTRY_BYTES), directory);
+            instance = new CachingProxy((int) getLong(properties,
+                    OpenWebDriver.PROXY_PORT_PROP_KEY, 0), cache,
+                    HtmlUnitProfile.parsePatterns(properties
+                            .getProperty(OpenWebDriver.PROXY_CACHE_PATTERNS_PROP_KEY)),
+                    getLong(properties, OpenWebDriver.PROXY_CACHE_TTL_PROP_KEY,
+                            DEFAULT_TTL),
+                    HtmlUnitProfile.parsePatterns(properties
+                            .getProperty(OpenWebDriver.PROXY_CACHE_EXCLUDE_PROP_KEY)));
+            instance.start();
+        }
+        return instance;
+    }
+
+    /**
+     * @param port
+     *            local port to listen on, zero for any free port
+     * @param cache
+     * @param cachePatterns
+     *            urls cached for the time to live when their headers do not
+     *            say otherwise
+     * @param ttl
+     *            seconds responses matching the cache patterns stay fresh
+     * @param excludePatterns
+     *            urls never cached
+     * @throws IOException
+     *             if the port cannot be bound
+     */
+    public CachingProxy(int port, ProxyCache cache,
+            List<Pattern> cachePatterns, long ttl,
+            List<Pattern> excludePatterns) throws IOException {
+        this.cache = cache;
+        this.cachePatterns = cachePatterns;
+        this.excludePatterns = excludePatterns;
+        this.ttlMillis = ttl * 1000;
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(
+                new InetSocketAddress(InetAddress.getByName("127.0.0.1"),
+                        port));
+        server.configureBlocking(false);
+        selector = Selector.open();
+        server.register(selector, SelectionKey.OP_ACCEPT, defaultSession);
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        workers = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "caching-proxy-"
+                        + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        connectionManager = new PoolingClientConnectionManager(
+                SchemeRegistryFactory.createDefault());
+        connectionManager.setMaxTotal(200);
+        connectionManager.setDefaultMaxPerRoute(20);
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, 60 * 1000);
+        HttpConnectionParams.setSoTimeout(params, 5 * 60 * 1000);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        HttpClientParams.setRedirecting(params, false);
+        HttpClientParams.setCookiePolicy(params, CookiePolicy.IGNORE_COOKIES);
+        httpClient = new DefaultHttpClient(connectionManager, params);
+    }
+
+    private static long getLong(Properties properties, String key,
+            long defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().equals("")) {
+            return defaultValue;
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                select();
+            }
+        }, "caching-proxy-selector");
+        thread.setDaemon(true);
+        thread.start();
+        register();
+        log.info("started caching proxy on port {}", getPort());
+    }
+
+    /**
+     * Opens a port of the proxy for one browser session.
+     *
+     * @param blocker
+     *            request blocking rules of the session, else null
+     * @param caching
+     *            whether requests of the session use the shared cache
+     * @return session listening on a free local port
+     * @throws IOException
+     *             if no port can be bound
+     */
+    public Session openSession(RequestBlocker blocker, boolean caching)
+            throws IOException {
+        return openSession(blocker, caching, null);
+    }
+
+    /**
+     * Opens a port of the proxy for one browser session.
+     *
+     * @param blocker
+     *            request blocking rules of the session, else null
+     * @param caching
+     *            whether requests of the session use the shared cache
+     * @param recorder
+     *            recorder of the session traffic, else null
+     * @return session listening on a free local port
+     * @throws IOException
+     *             if no port can be bound
+     */
+    public Session openSession(RequestBlocker blocker, boolean caching,
+            HarRecorder recorder) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.socket().bind(
+                new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        channel.configureBlocking(false);
+        Session session = new Session(channel, blocker, caching, recorder);
+        opened.add(session);
+        selector.wakeup();
+        log.debug("opened caching proxy session on port {}",
+                session.getPort());
+        return session;
+    }
+
+    private void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("org.qe4j.web:type=CachingProxy,port="
+                    + getPort());
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+            }
+        } catch (JMException e) {
+            log.warn("unable to register caching proxy with JMX", e);
+        }
+    }
+
+    private void select() {
+        try {
+            while (running) {
+                selector.select(1000);
+                Session session;
+                while ((session = opened.poll()) != null) {
+                    try {
+                        session.channel.register(selector,
+                                SelectionKey.OP_ACCEPT, session);
+                    } catch (IOException e) {
+                        log.debug("proxy session closed before it opened", e);
+                    }
+                }
+                Connection returned;
+                while ((returned = idle.poll()) != null) {
+                    try {
+                        returned.channel.configureBlocking(false);
+                        returned.channel.register(selector,
+                                SelectionKey.OP_READ, returned);
+                    } catch (IOException e) {
+                        returned.close();
+                    }
+                }
+
+                List<Connection> readable = new ArrayList<Connection>();
+                Iterator<SelectionKey> keys = selector.selectedKeys()
+                        .iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(key);
+                    } else if (key.isReadable()) {
+                        key.cancel();
+                        readable.add((Connection) key.attachment());
+                    }
+                }
+                closeIdleConnections();
+                if (!readable.isEmpty()) {
+                    // deregister cancelled keys so workers can block
+                    selector.selectNow();
+                    for (Connection connection : readable) {
+                        dispatch(connection);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("caching proxy selector failed", e);
+        } catch (ClosedSelectorException e) {
+            log.debug("caching proxy selector closed");
+        }
+    }
+
+    private void accept(SelectionKey key) throws IOException {
+        SocketChannel channel = ((ServerSocketChannel) key.channel()).accept();
+        if (channel == null) {
+            return;
+        }
+        channel.socket().setTcpNoDelay(true);
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, new Connection(
+                channel, (Session) key.attachment()));
+    }
+
+    private void closeIdleConnections() {
+        long cutoff = System.currentTimeMillis() - IDLE_TIMEOUT_MILLIS;
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection
+                    && ((Connection) attachment).lastActive < cutoff) {
+                key.cancel();
+                ((Connection) attachment).close();
+            }
+        }
+    }
+
+    private void dispatch(final Connection connection) {
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                handle(connection);
+            }
+        });
+    }
+
+    private void handle(Connection connection) {
+        boolean keepAlive = false;
+        try {
+            connection.channel.configureBlocking(true);
+            do {
+                keepAlive = serve(connection);
+            } while (keepAlive && connection.hasBuffered());
+        } catch (IOException e) {
+            log.debug("proxy connection failed", e);
+            keepAlive = false;
+        }
+        if (keepAlive && running) {
+            connection.lastActive = System.currentTimeMillis();
+            idle.add(connection);
+            selector.wakeup();
+        } else {
+            connection.close();
+        }
+    }
+
+    /**
+     * Serves one request of the connection.
+     *
+     * @return true if the connection stays open for another request
+     */
+    private boolean serve(Connection connection) throws IOException {
+        String head = connection.readHead();
+        if (head == null) {
+            return false;
+        }
+        requests.incrementAndGet();
+        String[] lines = head.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            sendError(connection, 400, "Bad Request", "malformed request line");
+            return false;
+        }
+        String method = requestLine[0].toUpperCase(Locale.ENGLISH);
+        String target = requestLine[1];
+        String version = requestLine[2];
+        List<String[]> headers = new ArrayList<String[]>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.add(new String[] {
+                        lines[i].substring(0, colon).trim(),
+                        lines[i].substring(colon + 1).trim() });
+            }
+        }
+
+        HarRecorder recorder = connection.session.getRecorder();
+        if (recorder != null) {
+            connection.exchange = recorder.newEntry(method, target, version,
+                    headers, head.length() + 4);
+        }
+        try {
+            return serve(connection, method, target, version, headers);
+        } finally {
+            finishExchange(connection);
+        }
+    }
+
+    private void finishExchange(Connection connection) {
+        if (connection.exchange != null) {
+            connection.session.getRecorder().write(connection.exchange);
+            connection.exchange = null;
+        }
+    }
+
+    private boolean serve(Connection connection, String method,
+            String target, String version, List<String[]> headers)
+            throws IOException {
+        RequestBlocker blocker = connection.session.getBlocker();
+        if (method.equals("CONNECT")) {
+            String host = target.indexOf(':') < 0 ? target : target
+                    .substring(0, target.lastIndexOf(':'));
+            if (blocker != null && blocker.block("https://" + host + "/")) {
+                comment(connection, "blocked");
+                sendError(connection, 403, "Forbidden", "blocked " + target);
+                return false;
+            }
+            tunnel(connection, target);
+            return false;
+        }
+
+        boolean keepAlive = isKeepAlive(version, headers);
+        byte[] body = null;
+        String contentLength = getHeader(headers, "Content-Length");
+        if (contentLength != null) {
+            body = connection.readBody(Integer.parseInt(contentLength));
+            if (connection.exchange != null) {
+                connection.exchange.setRequestBody(body);
+            }
+        } else if (getHeader(headers, "Transfer-Encoding") != null) {
+            sendError(connection, 411, "Length Required",
+                    "chunked request bodies are not supported");
+            return false;
+        }
+
+        URI uri;
+        try {
+            uri = new URI(target);
+        } catch (URISyntaxException e) {
+            sendError(connection, 400, "Bad Request", "malformed url "
+                    + target);
+            return false;
+        }
+        if (!uri.isAbsolute() || uri.getHost() == null) {
+            sendError(connection, 400, "Bad Request",
+                    "proxy requests need an absolute url");
+            return false;
+        }
+
+        if (blocker != null && blocker.block(target)) {
+            comment(connection, "blocked");
+            List<String[]> blockedHeaders = new ArrayList<String[]>();
+            blockedHeaders.add(new String[] { "Content-Length", "0" });
+            sendHead(connection, 204, "No Content", blockedHeaders,
+                    keepAlive, "BLOCKED");
+            return keepAlive;
+        }
+
+        String key = null;
+        if (connection.session.isCaching() && method.equals("GET")
+                && getHeader(headers, "Authorization") == null
+                && !matches(excludePatterns, target)) {
+            key = target + " " + nullToEmpty(getHeader(headers,
+                    "Accept-Encoding"));
+            ProxyCache.Entry entry = cache.get(key);
+            if (entry != null && sendCached(connection, entry, keepAlive)) {
+                hits.incrementAndGet();
+                return keepAlive;
+            }
+            misses.incrementAndGet();
+        }
+        return forward(connection, method, uri, headers, body, key, keepAlive);
+    }
+
+    private boolean forward(Connection connection, String method, URI uri,
+            List<String[]> headers, byte[] body, String key, boolean keepAlive)
+            throws IOException {
+        String path = uri.getRawPath() == null || uri.getRawPath().equals("") ? "/"
+                : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        HttpRequest request;
+        if (body != null) {
+            BasicHttpEntityEnclosingRequest enclosing = new BasicHttpEntityEnclosingRequest(
+                    method, path);
+            enclosing.setEntity(new ByteArrayEntity(body));
+            request = enclosing;
+        } else {
+            request = new BasicHttpRequest(method, path);
+        }
+        for (String[] header : headers) {
+            if (!HOP_BY_HOP_HEADERS.contains(header[0]
+                    .toLowerCase(Locale.ENGLISH))) {
+                request.addHeader(header[0], header[1]);
+            }
+        }
+
+        HttpResponse response;
+        try {
+            if (connection.exchange != null) {
+                connection.exchange.markSend();
+            }
+            response = httpClient.execute(new HttpHost(uri.getHost(), uri
+                    .getPort(), uri.getScheme()), request);
+            if (connection.exchange != null) {
+                connection.exchange.markWait();
+            }
+        } catch (IOException e) {
+            log.debug("unable to reach " + uri, e);
+            sendError(connection, 502, "Bad Gateway", e.toString());
+            return false;
+        }
+
+        HttpEntity entity = response.getEntity();
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            String reason = response.getStatusLine().getReasonPhrase();
+            List<String[]> responseHeaders = new ArrayList<String[]>();
+            for (Header header : response.getAllHeaders()) {
+                if (!HOP_BY_HOP_HEADERS.contains(header.getName().toLowerCase(
+                        Locale.ENGLISH))) {
+                    responseHeaders.add(new String[] { header.getName(),
+                            header.getValue() });
+                }
+            }
+
+            if (entity == null || method.equals("HEAD")) {
+                Header length = response.getFirstHeader("Content-Length");
+                if (length != null) {
+                    responseHeaders.add(new String[] { length.getName(),
+                            length.getValue() });
+                }
+                sendHead(connection, status, reason, responseHeaders,
+                        keepAlive, "MISS");
+                return keepAlive;
+            }
+
+            long expires = key == null || status != 200 ? 0 : getExpires(
+                    uri.toString(), response);
+            InputStream in = entity.getContent();
+            long length = entity.getContentLength();
+            if (expires > 0 && cache.accepts(Math.max(length, 0))) {
+                ByteArrayOutputStream buffered = new ByteArrayOutputStream(
+                        length > 0 ? (int) length : 8192);
+                boolean complete = copy(in, buffered,
+                        cache.getMaxEntryBytes());
+                if (complete) {
+                    byte[] bytes = buffered.toByteArray();
+                    bytesFetched.addAndGet(bytes.length);
+                    cache.put(new ProxyCache.Entry(key, status, reason,
+                            responseHeaders, expires, bytes));
+                    responseHeaders.add(new String[] { "Content-Length",
+                            String.valueOf(bytes.length) });
+                    sendHead(connection, status, reason, responseHeaders,
+                            keepAlive, "MISS");
+                    writeBody(connection, bytes, 0, bytes.length);
+                    return keepAlive;
+                }
+                // too large to cache, send what was read and stream the rest
+                sendStreamed(connection, status, reason, responseHeaders,
+                        keepAlive, buffered.toByteArray(), in, length);
+                return keepAlive;
+            }
+            sendStreamed(connection, status, reason, responseHeaders,
+                    keepAlive, new byte[0], in, length);
+            return keepAlive;
+        } finally {
+            EntityUtils.consume(entity);
+        }
+    }
+
+    /**
+     * Copies the stream while no more than the limit has been read.
+     *
+     * @return true if the stream ended within the limit
+     */
+    private static boolean copy(InputStream in, ByteArrayOutputStream out,
+            long limit) throws IOException {
+        byte[] buffer = new byte[16384];
+        int read;
+        while (out.size() <= limit && (read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.size() <= limit;
+    }
+
+    private void sendStreamed(Connection connection, int status,
+            String reason, List<String[]> headers, boolean keepAlive,
+            byte[] prefix, InputStream in, long length) throws IOException {
+        boolean chunked = length < 0;
+        if (chunked) {
+            headers.add(new String[] { "Transfer-Encoding", "chunked" });
+        } else {
+            headers.add(new String[] { "Content-Length",
+                    String.valueOf(length) });
+        }
+        sendHead(connection, status, reason, headers, keepAlive, "MISS");
+        long fetched = 0;
+        byte[] buffer = prefix;
+        int read = prefix.length;
+        do {
+            if (read > 0) {
+                if (chunked) {
+                    connection.write(Integer.toHexString(read) + "\r\n");
+                }
+                writeBody(connection, buffer, 0, read);
+                if (chunked) {
+                    connection.write("\r\n");
+                }
+                fetched += read;
+            }
+            if (buffer == prefix) {
+                buffer = new byte[16384];
+            }
+        } while ((read = in.read(buffer)) != -1);
+        if (chunked) {
+            connection.write("0\r\n\r\n");
+        }
+        bytesFetched.addAndGet(fetched);
+    }
+
+    /**
+     * @return false if the body was evicted from disk meanwhile
+     */
+    private boolean sendCached(Connection connection, ProxyCache.Entry entry,
+            boolean keepAlive) throws IOException {
+        List<String[]> headers = new ArrayList<String[]>(entry.getHeaders());
+        headers.add(new String[] { "Content-Length",
+                String.valueOf(entry.getLength()) });
+        byte[] body = entry.getBody();
+        FileChannel file = body == null ? cache.openBody(entry) : null;
+        if (body == null && file == null) {
+            return false;
+        }
+        comment(connection, body != null ? "memory cache hit"
+                : "disk cache hit");
+        sendHead(connection, entry.getStatus(), entry.getReason(), headers,
+                keepAlive, "HIT");
+        if (body != null) {
+            writeBody(connection, body, 0, body.length);
+        } else {
+            if (connection.exchange != null) {
+                connection.exchange.addResponseBodySize(entry.getLength());
+            }
+            try {
+                long position = 0;
+                while (position < entry.getLength()) {
+                    position += file.transferTo(position, entry.getLength()
+                            - position, connection.channel);
+                }
+            } finally {
+                file.close();
+            }
+        }
+        bytesSaved.addAndGet(entry.getLength());
+        return true;
+    }
+
+    private void sendHead(Connection connection, int status, String reason,
+            List<String[]> headers, boolean keepAlive, String cacheStatus)
+            throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append(' ')
+                .append(reason == null ? "" : reason).append("\r\n");
+        for (String[] header : headers) {
+            head.append(header[0]).append(": ").append(header[1])
+                    .append("\r\n");
+        }
+        head.append("X-Cache: ").append(cacheStatus).append("\r\n");
+        head.append("Connection: ").append(keepAlive ? "keep-alive" : "close")
+                .append("\r\n\r\n");
+        if (connection.exchange != null) {
+            connection.exchange.setResponse(status, reason, headers,
+                    head.length());
+        }
+        connection.write(head.toString());
+    }
+
+    private void writeBody(Connection connection, byte[] bytes, int offset,
+            int length) throws IOException {
+        if (connection.exchange != null) {
+            connection.exchange.addResponseBody(bytes, offset, length);
+        }
+        connection.write(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    private static void comment(Connection connection, String comment) {
+        if (connection.exchange != null) {
+            connection.exchange.setComment(comment);
+        }
+    }
+
+    private void sendError(Connection connection, int status, String reason,
+            String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(ISO_8859_1);
+        List<String[]> headers = new ArrayList<String[]>();
+        headers.add(new String[] { "Content-Type", "text/plain" });
+        headers.add(new String[] { "Content-Length",
+                String.valueOf(body.length) });
+        sendHead(connection, status, reason, headers, false, "MISS");
+        writeBody(connection, body, 0, body.length);
+    }
+
+    /**
+     * Relays the bytes of a CONNECT request both ways until either side
+     * closes.
+     */
+    private void tunnel(final Connection connection, String target)
+            throws IOException {
+        int colon = target.lastIndexOf(':');
+        final SocketChannel upstream;
+        long connectStart = System.nanoTime();
+        try {
+            upstream = SocketChannel.open(new InetSocketAddress(
+                    colon < 0 ? target : target.substring(0, colon),
+                    colon < 0 ? 443 : Integer.parseInt(target
+                            .substring(colon + 1))));
+        } catch (IOException e) {
+            sendError(connection, 502, "Bad Gateway", e.toString());
+            return;
+        } catch (RuntimeException e) {
+            sendError(connection, 400, "Bad Request", "malformed target "
+                    + target);
+            return;
+        }
+        if (connection.exchange != null) {
+            connection.exchange.setConnect(System.nanoTime() - connectStart);
+            connection.exchange.setResponse(200, "Connection established",
+                    new ArrayList<String[]>(), 39);
+        }
+        connection.write("HTTP/1.1 200 Connection established\r\n\r\n");
+        finishExchange(connection);
+        connection.buffer.flip();
+        try {
+            while (connection.buffer.hasRemaining()) {
+                upstream.write(connection.buffer);
+            }
+        } finally {
+            connection.buffer.clear();
+        }
+        Future<?> back = workers.submit(new Runnable() {
+            @Override
+            public void run() {
+                relay(upstream, connection.channel);
+            }
+        });
+        relay(connection.channel, upstream);
+        try {
+            back.get();
+        } catch (Exception e) {
+            log.debug("tunnel to " + target + " failed", e);
+        } finally {
+            upstream.close();
+        }
+    }
+
+    private static void relay(SocketChannel from, SocketChannel to) {
+        ByteBuffer buffer = ByteBuffer.allocate(16384);
+        try {
+            while (from.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    to.write(buffer);
+                }
+                buffer.clear();
+            }
+            to.socket().shutdownOutput();
+        } catch (IOException e) {
+            // closing both sides ends the relay in the other direction
+            try {
+                from.close();
+                to.close();
+            } catch (IOException closing) {
+                log.debug("unable to close tunnel", closing);
+            }
+        }
+    }
+
+    /**
+     * @return epoch milliseconds the response stays fresh until, else zero
+     *         if it may not be cached
+     */
+    private long getExpires(String url, HttpResponse response) {
+        if (response.getFirstHeader("Set-Cookie") != null) {
+            return 0;
+        }
+        Header vary = response.getFirstHeader("Vary");
+        if (vary != null
+                && !vary.getValue().trim().equalsIgnoreCase("Accept-Encoding")) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        Header cacheControl = response.getFirstHeader("Cache-Control");
+        if (cacheControl != null) {
+            long maxAge = -1;
+            for (String directive : cacheControl.getValue().toLowerCase(
+                    Locale.ENGLISH).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store")
+                        || directive.equals("no-cache")
+                        || directive.startsWith("private")) {
+                    return 0;
+                }
+                try {
+                    if (directive.startsWith("s-maxage=")) {
+                        maxAge = Long.parseLong(directive.substring(9));
+                    } else if (directive.startsWith("max-age=")
+                            && maxAge < 0) {
+                        maxAge = Long.parseLong(directive.substring(8));
+                    }
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+            if (maxAge >= 0) {
+                return maxAge == 0 ? 0 : now + maxAge * 1000;
+            }
+        }
+        Header expires = response.getFirstHeader("Expires");
+        if (expires != null) {
+            try {
+                long expiry = DateUtils.parseDate(expires.getValue())
+                        .getTime();
+                return expiry > now ? expiry : 0;
+            } catch (DateParseException e) {
+                return 0;
+            }
+        }
+        if (ttlMillis > 0 && matches(cachePatterns, url)) {
+            return now + ttlMillis;
+        }
+        return 0;
+    }
+
+    private static boolean isKeepAlive(String version, List<String[]> headers) {
+        String connection = getHeader(headers, "Proxy-Connection");
+        if (connection == null) {
+            connection = getHeader(headers, "Connection");
+        }
+        if (version.equals("HTTP/1.0")) {
+            return connection != null
+                    && connection.equalsIgnoreCase("keep-alive");
+        }
+        return connection == null || !connection.equalsIgnoreCase("close");
+    }
+
+    private static String getHeader(List<String[]> headers, String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(List<Pattern> patterns, String url) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(url).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Stops the proxy, closing all connections. Sessions still using the
+     * proxy will fail.
+     */
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        synchronized (CachingProxy.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                        objectName);
+            } catch (JMException e) {
+                log.debug("caching proxy was not registered", e);
+            }
+        }
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                } else if (key.channel() != server) {
+                    key.channel().close();
+                }
+            }
+            selector.close();
+            server.close();
+        } catch (IOException e) {
+            log.debug("unable to close caching proxy", e);
+        }
+        workers.shutdownNow();
+        connectionManager.shutdown();
+        log.info("shut down caching proxy, {}", this);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return cache of the proxy
+     */
+    public ProxyCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    @Override
+    public long getBytesFetched() {
+        return bytesFetched.get();
+    }
+
+    @Override
+    public int getCacheEntries() {
+        return cache.getEntryCount();
+    }
+
+    @Override
+    public long getCacheMemoryBytes() {
+        return cache.getMemoryBytes();
+    }
+
+    @Override
+    public long getCacheDiskBytes() {
+        return cache.getDiskBytes();
+    }
+
+    @Override
+    public void clearCache() {
+        cache.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CachingProxy[port %d, requests %d, hits %d, "
+                + "misses %d, hit ratio %.2f, bytes saved %d, fetched %d]",
+                getPort(), getRequestCount(), getHitCount(), getMissCount(),
+                getHitRatio(), getBytesSaved(), getBytesFetched());
+    }
+}
@@ -0,0 +1,77 @@
+package org.qe4j.web;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * JMX management interface for the embedded caching proxy, registered as
+ * org.qe4j.web:type=CachingProxy,port=port.
+ */
+public interface CachingProxyMXBean {
+
+    /**
+     * @return local port the proxy listens on
+     */
+    int getPort();
+
+    /**
+     * @return requests received from browsers, tunnels included
+     */
+    long getRequestCount();
+
+    /**
+     * @return requests answered from the memory or disk cache
+     */
+    long getHitCount();
+
+    /**
+     * @return cacheable requests fetched from the origin server
+     */
+    long getMissCount();
+
+    /**
+     * @return hits divided by cacheable requests, zero before any
+     */
+    double getHitRatio();
+
+    /**
+     * @return body bytes served from the cache instead of the network
+     */
+    long getBytesSaved();
+
+    /**
+     * @return body bytes fetched from origin servers
+     */
+    long getBytesFetched();
+
+    /**
+     * @return responses held in the cache
+     */
+    int getCacheEntries();
+
+    /**
+     * @return body bytes held in memory
+     */
+    long getCacheMemoryBytes();
+
+    /**
+     * @return body bytes held on disk
+     */
+    long getCacheDiskBytes();
+
+    /**
+     * Drops all cached responses.
+     */
+    void clearCache();
+}
@@ -0,0 +1,181 @@
+package org.qe4j.web;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.openqa.selenium.By;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Latency histograms per WebDriver command and per command and locator
+ * strategy. Histograms are indexed by enum ordinal and created lazily, so
+ * recording never takes a lock or builds a key. The JVM wide default instance
+ * is shared by all OpenWebDriver instances and exposed over JMX.
+ */
+public class CommandMetrics implements CommandMetricsMXBean {
+
+    public static final String OBJECT_NAME = "org.qe4j.web:type=CommandMetrics";
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(CommandMetrics.class);
+
+    private static final WebCommand[] COMMANDS = WebCommand.values();
+    private static final LocatorStrategy[] STRATEGIES = LocatorStrategy
+            .values();
+
+    private static CommandMetrics defaultMetrics;
+
+    private final AtomicReferenceArray<LatencyHistogram> commandHistograms = new AtomicReferenceArray<LatencyHistogram>(
+            COMMANDS.length);
+    private final AtomicReferenceArray<LatencyHistogram> locatorHistograms = new AtomicReferenceArray<LatencyHistogram>(
+            COMMANDS.length * STRATEGIES.length);
+
+    /**
+     * @return the JVM wide metrics, registered with the platform MBean server
+     *         on first use
+     */
+    public static synchronized CommandMetrics getDefault() {
+        if (defaultMetrics == null) {
+            defaultMetrics = new CommandMetrics();
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(defaultMetrics, name);
+                }
+            } catch (JMException e) {
+                log.warn("unable to register command metrics with JMX", e);
+            }
+        }
+        return defaultMetrics;
+    }
+
+    /**
+     * Records the latency of a command.
+     *
+     * @param command
+     * @param by
+     *            locator used by the command, else null
+     * @param nanos
+     *            duration of the command
+     * @param success
+     *            false if the command threw an exception
+     */
+    public void record(WebCommand command, By by, long nanos, boolean success) {
+        histogram(commandHistograms, command.ordinal()).record(nanos, success);
+        if (by != null) {
+            int index = command.ordinal() * STRATEGIES.length
+                    + LocatorStrategy.of(by).ordinal();
+            histogram(locatorHistograms, index).record(nanos, success);
+        }
+    }
+
+    /**
+     * @param command
+     * @return histogram of the command, else null if it was never recorded
+     */
+    public LatencyHistogram getHistogram(WebCommand command) {
+        return commandHistograms.get(command.ordinal());
+    }
+
+    /**
+     * @param command
+     * @param strategy
+     * @return histogram of the command by locator strategy, else null if it
+     *         was never recorded
+     */
+    public LatencyHistogram getHistogram(WebCommand command,
+            LocatorStrategy strategy) {
+        return locatorHistograms.get(command.ordinal() * STRATEGIES.length
+                + strategy.ordinal());
+    }
+
+    /**
+     * @return programmatic snapshot of the stats of each command invoked
+     */
+    @Override
+    public List<CommandStats> getCommandStats() {
+        List<CommandStats> stats = new ArrayList<CommandStats>();
+        for (WebCommand command : COMMANDS) {
+            LatencyHistogram histogram = getHistogram(command);
+            if (histogram != null) {
+                stats.add(new CommandStats(command.getCommandName(), null,
+                        histogram));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return programmatic snapshot of the stats of each command and locator
+     *         strategy combination invoked
+     */
+    @Override
+    public List<CommandStats> getLocatorStats() {
+        List<CommandStats> stats = new ArrayList<CommandStats>();
+        for (WebCommand command : COMMANDS) {
+            for (LocatorStrategy strategy : STRATEGIES) {
+                LatencyHistogram histogram = getHistogram(command, strategy);
+                if (histogram != null) {
+                    stats.add(new CommandStats(command.getCommandName(),
+                            strategy.toString(), histogram));
+                }
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public long getTotalCount() {
+        long count = 0;
+        for (int i = 0; i < commandHistograms.length(); i++) {
+            LatencyHistogram histogram = commandHistograms.get(i);
+            if (histogram != null) {
+                count += histogram.getCount();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < commandHistograms.length(); i++) {
+            commandHistograms.set(i, null);
+        }
+        for (int i = 0; i < locatorHistograms.length(); i++) {
+            locatorHistograms.set(i, null);
+        }
+    }
+
+    private static LatencyHistogram histogram(
+            AtomicReferenceArray<LatencyHistogram> histograms, int index) {
+        LatencyHistogram histogram = histograms.get(index);
+        while (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            if (histograms.compareAndSet(index, null, created)) {
+                return created;
+            }
+            histogram = histograms.get(index);
+        }
+        return histogram;
+    }
+}
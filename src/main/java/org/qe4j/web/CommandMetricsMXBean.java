@@ -0,0 +1,45 @@
+package org.qe4j.web;
+
+import java.util.List;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * JMX management interface for WebDriver command latency metrics, registered
+ * as org.qe4j.web:type=CommandMetrics.
+ */
+public interface CommandMetricsMXBean {
+
+    /**
+     * @return stats for each command that has been invoked
+     */
+    List<CommandStats> getCommandStats();
+
+    /**
+     * @return stats for each command and locator strategy combination that
+     *         has been invoked
+     */
+    List<CommandStats> getLocatorStats();
+
+    /**
+     * @return number of commands recorded across all commands
+     */
+    long getTotalCount();
+
+    /**
+     * Clears all recorded metrics.
+     */
+    void reset();
+}
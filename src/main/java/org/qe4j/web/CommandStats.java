@@ -0,0 +1,99 @@
+package org.qe4j.web;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Point in time summary of the latencies recorded for a command, optionally
+ * narrowed to a single locator strategy. Times are in milliseconds.
+ */
+public class CommandStats {
+
+    private static final double NANOS_PER_MILLI = 1000000d;
+
+    private final String command;
+    private final String locator;
+    private final long count;
+    private final long errorCount;
+    private final double mean;
+    private final double p50;
+    private final double p90;
+    private final double p99;
+    private final double max;
+
+    public CommandStats(String command, String locator,
+            LatencyHistogram histogram) {
+        this.command = command;
+        this.locator = locator;
+        this.count = histogram.getCount();
+        this.errorCount = histogram.getErrorCount();
+        this.mean = count == 0 ? 0 : histogram.getTotalNanos()
+                / NANOS_PER_MILLI / count;
+        this.p50 = histogram.getPercentileNanos(50) / NANOS_PER_MILLI;
+        this.p90 = histogram.getPercentileNanos(90) / NANOS_PER_MILLI;
+        this.p99 = histogram.getPercentileNanos(99) / NANOS_PER_MILLI;
+        this.max = histogram.getMaxNanos() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * @return command name (e.g. findElement)
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return locator strategy (e.g. css selector) else null when the stats
+     *         cover all invocations of the command
+     */
+    public String getLocator() {
+        return locator;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getP50() {
+        return p50;
+    }
+
+    public double getP90() {
+        return p90;
+    }
+
+    public double getP99() {
+        return p99;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s count=%d errors=%d mean=%.3fms "
+                + "p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms", command,
+                locator == null ? "" : " [" + locator + "]", count,
+                errorCount, mean, p50, p90, p99, max);
+    }
+}
@@ -0,0 +1,448 @@
+package org.qe4j.web;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Offline analyzer of trace files written by CommandTraceRecorder. Summarizes
+ * the commands and targets where time is spent, splits time between waiting
+ * for ajax and doing work, and compares two traces for regressions.
+ *
+ * <pre>
+ * java org.qe4j.web.CommandTraceAnalyzer summary trace.jsonl [top]
+ * java org.qe4j.web.CommandTraceAnalyzer compare base.jsonl new.jsonl [threshold%]
+ * </pre>
+ *
+ * Compare exits with status 1 when a regression is found so it can gate a
+ * nightly build.
+ */
+public class CommandTraceAnalyzer {
+
+    public static final int DEFAULT_TOP = 10;
+    public static final double DEFAULT_THRESHOLD = 20;
+
+    /**
+     * Minimum number of invocations in both traces before a command can be
+     * flagged as a regression, to avoid noise from one-off commands.
+     */
+    public static final int MIN_REGRESSION_COUNT = 5;
+
+    /**
+     * A single command read from a trace file. Times are in microseconds.
+     */
+    public static class Record {
+        private final long start;
+        private final long duration;
+        private final String command;
+        private final String target;
+        private final String thread;
+        private final boolean success;
+
+        public Record(long start, long duration, String command,
+                String target, String thread, boolean success) {
+            this.start = start;
+            this.duration = duration;
+            this.command = command;
+            this.target = target;
+            this.thread = thread;
+            this.success = success;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return start + duration;
+        }
+
+        public long getDuration() {
+            return duration;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+    }
+
+    /**
+     * Aggregated view of a trace. Times are in microseconds.
+     */
+    public static class Summary {
+        private final Map<String, LatencyHistogram> commands = new TreeMap<String, LatencyHistogram>();
+        private final Map<String, Long> targets = new HashMap<String, Long>();
+        private long records;
+        private long wall;
+        private long wait;
+        private long work;
+
+        public Map<String, LatencyHistogram> getCommands() {
+            return commands;
+        }
+
+        /**
+         * @return total time per command and target (e.g. findElement By.id:
+         *         login)
+         */
+        public Map<String, Long> getTargets() {
+            return targets;
+        }
+
+        public long getRecordCount() {
+            return records;
+        }
+
+        /**
+         * @return time from the first command start to the last command end
+         */
+        public long getWallTime() {
+            return wall;
+        }
+
+        /**
+         * @return time spent in waitForAjax
+         */
+        public long getWaitTime() {
+            return wait;
+        }
+
+        /**
+         * @return time spent in commands other than waitForAjax, excluding
+         *         commands issued while waiting
+         */
+        public long getWorkTime() {
+            return work;
+        }
+
+        /**
+         * @return wall time outside of any command, e.g. test code and sleeps
+         */
+        public long getOtherTime() {
+            return Math.max(0, wall - wait - work);
+        }
+    }
+
+    /**
+     * Reads a trace file, skipping blank and unparsable lines such as the
+     * zero filled tail of a trace that was not closed.
+     *
+     * @param file
+     * @return records in file order
+     * @throws IOException
+     */
+    public static List<Record> read(File file) throws IOException {
+        List<Record> records = new ArrayList<Record>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.replace("\u0000", "").trim();
+                if (line.length() == 0) {
+                    continue;
+                }
+                try {
+                    JSONObject json = new JSONObject(line);
+                    records.add(new Record(json.getLong("start"), json
+                            .getLong("duration"), json.getString("command"),
+                            json.optString("target"), json
+                                    .optString("thread"), json
+                                    .optBoolean("success", true)));
+                } catch (JSONException e) {
+                    // partially written record, ignore it
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return records;
+    }
+
+    /**
+     * Aggregates the records of a trace.
+     *
+     * @param records
+     * @return summary of the trace
+     */
+    public static Summary summarize(List<Record> records) {
+        Summary summary = new Summary();
+        summary.records = records.size();
+        if (records.isEmpty()) {
+            return summary;
+        }
+
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        Map<String, List<Record>> waitsByThread = new HashMap<String, List<Record>>();
+        String waitCommand = WebCommand.WAIT_FOR_AJAX.getCommandName();
+        for (Record record : records) {
+            first = Math.min(first, record.getStart());
+            last = Math.max(last, record.getEnd());
+
+            LatencyHistogram histogram = summary.commands.get(record
+                    .getCommand());
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                summary.commands.put(record.getCommand(), histogram);
+            }
+            histogram.record(record.getDuration() * 1000, record.isSuccess());
+
+            String key = record.getCommand() + " " + record.getTarget();
+            Long total = summary.targets.get(key);
+            summary.targets.put(key, (total == null ? 0 : total)
+                    + record.getDuration());
+
+            if (record.getCommand().equals(waitCommand)) {
+                summary.wait += record.getDuration();
+                List<Record> waits = waitsByThread.get(record.getThread());
+                if (waits == null) {
+                    waits = new ArrayList<Record>();
+                    waitsByThread.put(record.getThread(), waits);
+                }
+                waits.add(record);
+            }
+        }
+        summary.wall = last - first;
+        Map<String, WaitIndex> waitIndexes = new HashMap<String, WaitIndex>();
+        for (Map.Entry<String, List<Record>> waits : waitsByThread.entrySet()) {
+            waitIndexes.put(waits.getKey(), new WaitIndex(waits.getValue()));
+        }
+
+        // commands issued by waitForAjax itself count as waiting, not work
+        for (Record record : records) {
+            if (record.getCommand().equals(waitCommand)) {
+                continue;
+            }
+            WaitIndex waits = waitIndexes.get(record.getThread());
+            if (waits == null || !waits.contains(record)) {
+                summary.work += record.getDuration();
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Waits of one thread sorted by start, with the latest end of the waits
+     * started so far, so whether a record lies within any wait is one binary
+     * search instead of a scan of all waits.
+     */
+    private static class WaitIndex {
+        private final long[] starts;
+        private final long[] maxEnds;
+
+        WaitIndex(List<Record> waits) {
+            List<Record> sorted = new ArrayList<Record>(waits);
+            Collections.sort(sorted, new Comparator<Record>() {
+                @Override
+                public int compare(Record a, Record b) {
+                    return a.getStart() < b.getStart() ? -1 : a.getStart() > b
+                            .getStart() ? 1 : 0;
+                }
+            });
+            starts = new long[sorted.size()];
+            maxEnds = new long[sorted.size()];
+            long maxEnd = Long.MIN_VALUE;
+            for (int i = 0; i < starts.length; i++) {
+                starts[i] = sorted.get(i).getStart();
+                maxEnd = Math.max(maxEnd, sorted.get(i).getEnd());
+                maxEnds[i] = maxEnd;
+            }
+        }
+
+        /**
+         * @return true if a wait started no later and ended no earlier than
+         *         the record
+         */
+        boolean contains(Record record) {
+            // last wait started at or before the record
+            int low = 0;
+            int high = starts.length - 1;
+            int last = -1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (starts[middle] <= record.getStart()) {
+                    last = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return last >= 0 && maxEnds[last] >= record.getEnd();
+        }
+    }
+
+    /**
+     * Formats the summary of a trace.
+     *
+     * @param summary
+     * @param top
+     *            number of hotspot targets to list
+     * @return human readable report
+     */
+    public static String report(Summary summary, int top) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(
+                "%d commands over %.3fs: wait %.3fs, work %.3fs, other %.3fs%n",
+                summary.getRecordCount(), seconds(summary.getWallTime()),
+                seconds(summary.getWaitTime()),
+                seconds(summary.getWorkTime()),
+                seconds(summary.getOtherTime())));
+
+        report.append(String.format("%n%-20s %8s %7s %10s %10s %10s %10s%n",
+                "command", "count", "errors", "total(s)", "p50(ms)",
+                "p90(ms)", "max(ms)"));
+        List<Map.Entry<String, LatencyHistogram>> commands = new ArrayList<Map.Entry<String, LatencyHistogram>>(
+                summary.getCommands().entrySet());
+        Collections.sort(commands,
+                new Comparator<Map.Entry<String, LatencyHistogram>>() {
+                    @Override
+                    public int compare(Map.Entry<String, LatencyHistogram> a,
+                            Map.Entry<String, LatencyHistogram> b) {
+                        return compareLongs(b.getValue().getTotalNanos(), a
+                                .getValue().getTotalNanos());
+                    }
+                });
+        for (Map.Entry<String, LatencyHistogram> entry : commands) {
+            CommandStats stats = new CommandStats(entry.getKey(), null,
+                    entry.getValue());
+            report.append(String.format(
+                    "%-20s %8d %7d %10.3f %10.3f %10.3f %10.3f%n",
+                    stats.getCommand(), stats.getCount(),
+                    stats.getErrorCount(),
+                    entry.getValue().getTotalNanos() / 1e9, stats.getP50(),
+                    stats.getP90(), stats.getMax()));
+        }
+
+        report.append(String.format("%nhotspots%n"));
+        List<Map.Entry<String, Long>> targets = new ArrayList<Map.Entry<String, Long>>(
+                summary.getTargets().entrySet());
+        Collections.sort(targets, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a,
+                    Map.Entry<String, Long> b) {
+                return compareLongs(b.getValue(), a.getValue());
+            }
+        });
+        for (int i = 0; i < Math.min(top, targets.size()); i++) {
+            report.append(String.format("%10.3fs  %s%n",
+                    seconds(targets.get(i).getValue()), targets.get(i)
+                            .getKey()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Compares the p90 latency of each command between two traces.
+     *
+     * @param baseline
+     * @param current
+     * @param threshold
+     *            percentage increase of p90 considered a regression
+     * @return lines describing regressed commands, empty if there are none
+     */
+    public static List<String> findRegressions(Summary baseline,
+            Summary current, double threshold) {
+        List<String> regressions = new ArrayList<String>();
+        for (Map.Entry<String, LatencyHistogram> entry : current
+                .getCommands().entrySet()) {
+            LatencyHistogram before = baseline.getCommands().get(
+                    entry.getKey());
+            LatencyHistogram after = entry.getValue();
+            if (before == null || before.getCount() < MIN_REGRESSION_COUNT
+                    || after.getCount() < MIN_REGRESSION_COUNT) {
+                continue;
+            }
+            double p90Before = before.getPercentileNanos(90) / 1e6;
+            double p90After = after.getPercentileNanos(90) / 1e6;
+            if (p90Before > 0
+                    && (p90After - p90Before) / p90Before * 100 > threshold) {
+                regressions.add(String.format(
+                        "%s p90 %.3fms -> %.3fms (+%.0f%%)", entry.getKey(),
+                        p90Before, p90After, (p90After - p90Before)
+                                / p90Before * 100));
+            }
+        }
+        return regressions;
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static double seconds(long micros) {
+        return micros / 1e6;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("summary")) {
+            int top = args.length > 2 ? Integer.parseInt(args[2])
+                    : DEFAULT_TOP;
+            System.out.print(report(summarize(read(new File(args[1]))), top));
+        } else if (args.length >= 3 && args[0].equals("compare")) {
+            double threshold = args.length > 3 ? Double.parseDouble(args[3])
+                    : DEFAULT_THRESHOLD;
+            Summary baseline = summarize(read(new File(args[1])));
+            Summary current = summarize(read(new File(args[2])));
+            System.out.printf("baseline wall %.3fs wait %.3fs work %.3fs%n",
+                    seconds(baseline.getWallTime()),
+                    seconds(baseline.getWaitTime()),
+                    seconds(baseline.getWorkTime()));
+            System.out.printf("current  wall %.3fs wait %.3fs work %.3fs%n",
+                    seconds(current.getWallTime()),
+                    seconds(current.getWaitTime()),
+                    seconds(current.getWorkTime()));
+            List<String> regressions = findRegressions(baseline, current,
+                    threshold);
+            for (String regression : regressions) {
+                System.out.println("REGRESSION " + regression);
+            }
+            if (!regressions.isEmpty()) {
+                System.exit(1);
+            }
+        } else {
+            System.err.println("usage: CommandTraceAnalyzer summary "
+                    + "<trace> [top] | compare <baseline> <current> "
+                    + "[threshold%]");
+            System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Appends a JSON line per delegated WebDriver command to a memory mapped trace
+ * file of bounded size. Once the file is full further records are dropped and
+ * counted. Each record looks like
+ *
+ * <pre>
+ * {"start":1381234567890123,"duration":5321,"command":"findElement",
+ *  "target":"By.id: login","thread":"main","success":true}
+ * </pre>
+ *
+ * where start is epoch microseconds and duration is microseconds. Targets are
+ * redacted: urls lose their credentials, query and fragment, scripts are
+ * reduced to their length and hash, and keys sent to elements are never
+ * recorded. Recorders are shared per file within the JVM and closed on
+ * shutdown. Use CommandTraceAnalyzer to summarize trace files.
+ */
+public class CommandTraceRecorder {
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(CommandTraceRecorder.class);
+
+    private static final Map<String, CommandTraceRecorder> recorders = new HashMap<String, CommandTraceRecorder>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(
+                new Thread("trace-recorder-close") {
+                    @Override
+                    public void run() {
+                        closeAll();
+                    }
+                });
+    }
+
+    private final File file;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private final long epochOffsetNanos;
+    private long recorded;
+    private long dropped;
+    private boolean closed;
+
+    /**
+     * Gets the recorder already writing to the file, else starts a new trace
+     * replacing any existing file.
+     *
+     * @param file
+     * @param maxBytes
+     *            size the trace file is bounded to
+     * @return recorder for the file
+     * @throws IOException
+     */
+    public static CommandTraceRecorder open(File file, long maxBytes)
+            throws IOException {
+        String key = file.getCanonicalPath();
+        synchronized (recorders) {
+            CommandTraceRecorder recorder = recorders.get(key);
+            if (recorder == null || recorder.isClosed()) {
+                recorder = new CommandTraceRecorder(file, maxBytes);
+                recorders.put(key, recorder);
+            }
+            return recorder;
+        }
+    }
+
+    /**
+     * Closes all open recorders, truncating their files to the recorded data.
+     */
+    public static void closeAll() {
+        List<CommandTraceRecorder> open;
+        synchronized (recorders) {
+            open = new ArrayList<CommandTraceRecorder>(recorders.values());
+            recorders.clear();
+        }
+        for (CommandTraceRecorder recorder : open) {
+            recorder.close();
+        }
+    }
+
+    protected CommandTraceRecorder(File file, long maxBytes)
+            throws IOException {
+        if (maxBytes < 1 || maxBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("trace size " + maxBytes
+                    + " must be between 1 and " + Integer.MAX_VALUE);
+        }
+        this.file = file;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        buffer = randomAccessFile.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, maxBytes);
+        epochOffsetNanos = System.currentTimeMillis() * 1000000
+                - System.nanoTime();
+        log.info("tracing commands to {} bounded to {} bytes",
+                file.getAbsolutePath(), maxBytes);
+    }
+
+    /**
+     * Appends a command record unless the trace is full or closed.
+     *
+     * @param command
+     * @param by
+     *            locator used by the command, else null
+     * @param target
+     *            url, script, element or other target of the command
+     * @param start
+     *            System.nanoTime() when the command started
+     * @param end
+     *            System.nanoTime() when the command completed
+     * @param success
+     *            false if the command threw an exception
+     */
+    public void record(WebCommand command, By by, Object target, long start,
+            long end, boolean success) {
+        StringBuilder line = new StringBuilder(160);
+        line.append("{\"start\":").append((start + epochOffsetNanos) / 1000);
+        line.append(",\"duration\":").append((end - start) / 1000);
+        line.append(",\"command\":\"").append(command.getCommandName());
+        line.append("\",\"target\":");
+        line.append(JSONObject.quote(redact(command, by, target)));
+        line.append(",\"thread\":");
+        line.append(JSONObject.quote(Thread.currentThread().getName()));
+        line.append(",\"success\":").append(success).append("}\n");
+        byte[] bytes;
+        try {
+            bytes = line.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (buffer.remaining() < bytes.length) {
+                if (dropped == 0) {
+                    log.warn("trace file {} is full, dropping further records",
+                            file.getAbsolutePath());
+                }
+                dropped++;
+                return;
+            }
+            buffer.put(bytes);
+            recorded++;
+        }
+    }
+
+    /**
+     * Converts the command target to a string safe to persist.
+     *
+     * @param command
+     * @param by
+     * @param target
+     * @return redacted target, empty if there is none
+     */
+    protected String redact(WebCommand command, By by, Object target) {
+        if (by != null) {
+            return by.toString();
+        }
+        if (target == null) {
+            return "";
+        }
+        if (target instanceof WebElement) {
+            return OpenWebElement.extractElementInfo((WebElement) target);
+        }
+        String text = target.toString();
+        if (command == WebCommand.GET) {
+            return redactUrl(text);
+        }
+        if (command == WebCommand.EXECUTE_JAVASCRIPT) {
+            return "script[length=" + text.length() + ", hash="
+                    + Integer.toHexString(text.hashCode()) + "]";
+        }
+        return text;
+    }
+
+    /**
+     * @param url
+     * @return url without user info, query or fragment
+     */
+    static String redactUrl(String url) {
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query != -1) {
+            end = query;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment != -1 && fragment < end) {
+            end = fragment;
+        }
+        String redacted = url.substring(0, end);
+        int scheme = redacted.indexOf("://");
+        int userInfo = redacted.indexOf('@');
+        int path = redacted.indexOf('/', scheme == -1 ? 0 : scheme + 3);
+        if (scheme != -1 && userInfo > scheme
+                && (path == -1 || userInfo < path)) {
+            redacted = redacted.substring(0, scheme + 3)
+                    + redacted.substring(userInfo + 1);
+        }
+        return redacted;
+    }
+
+    /**
+     * Flushes the trace and truncates the file to the recorded data where the
+     * platform allows it. Windows refuses to truncate a file that is still
+     * mapped, so there the file keeps its zero filled tail, which
+     * CommandTraceAnalyzer skips.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        try {
+            randomAccessFile.setLength(buffer.position());
+        } catch (IOException e) {
+            log.info("trace file {} not truncated, records end at byte {}: {}",
+                    new Object[] { file.getAbsolutePath(), buffer.position(),
+                            e.getMessage() });
+        }
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            log.warn("unable to close trace file " + file.getAbsolutePath(),
+                    e);
+        }
+        log.info("closed trace {} with {} records, {} dropped",
+                new Object[] { file.getAbsolutePath(), recorded, dropped });
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return number of records written
+     */
+    public synchronized long getRecordedCount() {
+        return recorded;
+    }
+
+    /**
+     * @return number of records dropped because the trace was full
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -0,0 +1,176 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Detects completed downloads in the download directory of one session. Each
+ * scan lists the directory once and compares the size and modification time
+ * of every file with the previous scan, so a download is complete when:
+ *
+ * it is not an in-progress temp file (.crdownload of Chrome, .part of Firefox)
+ *
+ * no in-progress temp file of the same name is next to it, as Firefox creates
+ * the final file empty before the download starts
+ *
+ * its size and modification time have not changed for the stable time
+ *
+ * Files are reported once, so consecutive downloads are returned in turn.
+ */
+public class DownloadWatcher {
+
+    /**
+     * Suffixes of files the browsers write to while downloading.
+     */
+    public static final List<String> TEMP_SUFFIXES = Collections
+            .unmodifiableList(Arrays.asList(".crdownload", ".part",
+                    ".download"));
+
+    public static final long DEFAULT_STABLE_MILLIS = 500;
+
+    private final File directory;
+    private final long stableMillis;
+    private final Map<String, long[]> observed = new HashMap<String, long[]>();
+    private final Set<String> reported = new HashSet<String>();
+
+    /**
+     * @param directory
+     *            download directory of the session
+     * @param stableMillis
+     *            time the size of a download must not change before it is
+     *            complete
+     */
+    public DownloadWatcher(File directory, long stableMillis) {
+        this.directory = directory;
+        this.stableMillis = stableMillis;
+    }
+
+    /**
+     * @param file
+     * @return true if the file is a temp file of a download in progress
+     */
+    public static boolean isInProgress(File file) {
+        String name = file.getName();
+        for (String suffix : TEMP_SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scans the directory once.
+     *
+     * @param filter
+     *            downloads of interest, null for any
+     * @return a completed download accepted by the filter and not returned
+     *         before, else null
+     */
+    public synchronized File poll(FileFilter filter) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Set<String> names = new HashSet<String>();
+        for (File file : files) {
+            names.add(file.getName());
+        }
+        observed.keySet().retainAll(names);
+
+        File completed = null;
+        for (File file : files) {
+            String name = file.getName();
+            if (reported.contains(name) || !file.isFile()
+                    || isInProgress(file) || hasTempFile(name, names)) {
+                continue;
+            }
+            long length = file.length();
+            long modified = file.lastModified();
+            long[] previous = observed.get(name);
+            if (previous == null || previous[0] != length
+                    || previous[1] != modified) {
+                // changed since the last scan, start over
+                observed.put(name, new long[] { length, modified, now });
+                continue;
+            }
+            if (now - previous[2] < stableMillis) {
+                continue;
+            }
+            if (filter != null && !filter.accept(file)) {
+                continue;
+            }
+            if (completed == null
+                    || file.lastModified() < completed.lastModified()) {
+                completed = file;
+            }
+        }
+        if (completed != null) {
+            reported.add(completed.getName());
+            observed.remove(completed.getName());
+        }
+        return completed;
+    }
+
+    /**
+     * @return temp files of downloads in progress
+     */
+    public List<File> getInProgress() {
+        List<File> inProgress = new ArrayList<File>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (isInProgress(file)) {
+                    inProgress.add(file);
+                }
+            }
+        }
+        return inProgress;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getStableMillis() {
+        return stableMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadWatcher[" + directory + ", " + reported.size()
+                + " reported]";
+    }
+
+    private static boolean hasTempFile(String name, Set<String> names) {
+        for (String suffix : TEMP_SUFFIXES) {
+            if (names.contains(name + suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
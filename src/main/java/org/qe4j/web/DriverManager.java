@@ -0,0 +1,193 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Gives each thread its own OpenWebDriver so tests can run in parallel
+ * without sharing a browser. Drivers are created on first use in a thread
+ * from the manager's properties, which default to webdriver.properties on the
+ * classpath. Process wide setup such as the chrome and IE driver binary
+ * system properties is done once, before the first driver is created.
+ *
+ * DriverManagerListener releases the drivers per test method, class or suite
+ * when registered with TestNG.
+ */
+public class DriverManager {
+
+    public static final String PROPERTIES_RESOURCE = "/webdriver.properties";
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(DriverManager.class);
+
+    private static final ThreadLocal<OpenWebDriver> drivers = new ThreadLocal<OpenWebDriver>();
+
+    private static final ConcurrentMap<OpenWebDriver, Thread> activeDrivers = new ConcurrentHashMap<OpenWebDriver, Thread>();
+
+    private static volatile Properties properties;
+
+    private static volatile boolean initialized;
+
+    /**
+     * Sets the properties drivers are created from. Drivers already created
+     * keep their properties.
+     *
+     * @param properties
+     */
+    public static synchronized void setProperties(Properties properties) {
+        DriverManager.properties = properties;
+        initialized = false;
+    }
+
+    /**
+     * @return properties drivers are created from, loading
+     *         webdriver.properties from the classpath if none were set
+     * @throws IOException
+     */
+    public static Properties getProperties() throws IOException {
+        Properties current = properties;
+        if (current != null) {
+            return current;
+        }
+        synchronized (DriverManager.class) {
+            if (properties == null) {
+                InputStream in = DriverManager.class
+                        .getResourceAsStream(PROPERTIES_RESOURCE);
+                if (in == null) {
+                    throw new IllegalStateException(
+                            "no driver properties set and "
+                                    + PROPERTIES_RESOURCE
+                                    + " not found on the classpath");
+                }
+                try {
+                    Properties loaded = new Properties();
+                    loaded.load(in);
+                    properties = loaded;
+                } finally {
+                    in.close();
+                }
+            }
+            return properties;
+        }
+    }
+
+    /**
+     * Runs the process wide driver setup for the current properties exactly
+     * once, no matter how many threads ask for it at the same time.
+     *
+     * @throws IOException
+     */
+    public static void initialize() throws IOException {
+        if (initialized) {
+            return;
+        }
+        Properties current = getProperties();
+        synchronized (DriverManager.class) {
+            if (initialized) {
+                return;
+            }
+            String browser = current
+                    .getProperty(OpenWebDriver.BROWSER_PROP_KEY, "");
+            boolean local = "local".equalsIgnoreCase(current
+                    .getProperty(OpenWebDriver.PLATFORM_PROP_KEY));
+            if (local
+                    && OpenWebDriver.Browser.CHROME.name().equalsIgnoreCase(
+                            browser)) {
+                OpenWebDriver.initChromeDriverBinary(current);
+            } else if (local
+                    && OpenWebDriver.Browser.IEXPLORE.name()
+                            .equalsIgnoreCase(browser)) {
+                OpenWebDriver.initIExploreDriverBinary(current);
+            }
+            initialized = true;
+            log.debug("initialized driver manager for browser {}", browser);
+        }
+    }
+
+    /**
+     * @return driver of the current thread, created on first use
+     * @throws IOException
+     */
+    public static OpenWebDriver getDriver() throws IOException {
+        OpenWebDriver driver = drivers.get();
+        if (driver == null || !activeDrivers.containsKey(driver)) {
+            initialize();
+            driver = new OpenWebDriver(getProperties());
+            drivers.set(driver);
+            activeDrivers.put(driver, Thread.currentThread());
+            log.info("created driver for thread {}", Thread.currentThread()
+                    .getName());
+        }
+        return driver;
+    }
+
+    /**
+     * @return true if the current thread holds a driver
+     */
+    public static boolean hasDriver() {
+        OpenWebDriver driver = drivers.get();
+        return driver != null && activeDrivers.containsKey(driver);
+    }
+
+    /**
+     * Quits and forgets the driver of the current thread, if any.
+     */
+    public static void releaseDriver() {
+        OpenWebDriver driver = drivers.get();
+        drivers.remove();
+        if (driver != null) {
+            quit(driver);
+        }
+    }
+
+    /**
+     * Quits the drivers of all threads. Threads using the manager afterwards
+     * get a new driver.
+     */
+    public static void releaseAll() {
+        List<OpenWebDriver> current = new ArrayList<OpenWebDriver>(
+                activeDrivers.keySet());
+        for (OpenWebDriver driver : current) {
+            quit(driver);
+        }
+        drivers.remove();
+    }
+
+    /**
+     * @return number of drivers created and not yet released
+     */
+    public static int getActiveCount() {
+        return activeDrivers.size();
+    }
+
+    private static void quit(OpenWebDriver driver) {
+        if (activeDrivers.remove(driver) == null) {
+            // already released by another thread
+            return;
+        }
+        try {
+            driver.quit();
+        } catch (RuntimeException e) {
+            log.warn("unable to quit driver", e);
+        }
+    }
+}
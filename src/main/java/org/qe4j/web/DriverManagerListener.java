@@ -0,0 +1,184 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+
+import org.testng.IInvokedMethod;
+import org.testng.IInvokedMethodListener;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestResult;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * TestNG listener releasing the drivers of DriverManager, so suites can run
+ * with parallel="methods" and each test thread uses its own browser. The
+ * webdriver.manager.scope property decides how long a driver lives:
+ *
+ * method - quit after each test method (default)
+ *
+ * class - reused by the test methods of one class running on the same thread,
+ * quit before the thread moves on to another class
+ *
+ * suite - reused by every test method running on the same thread, quit when
+ * the suite finishes
+ *
+ * Test methods without a TestNG timeOut get the wait deadline of
+ * webdriver.wait.deadline seconds through WaitDeadline; methods with a
+ * timeOut run on a TestNG timer thread and are bounded by it instead.
+ *
+ * All remaining drivers are quit when the suite finishes. Drivers are created
+ * lazily by DriverManager.getDriver(), so tests not using a browser do not
+ * start one. Register with the listeners element of the suite xml or
+ * the @Listeners annotation.
+ */
+public class DriverManagerListener implements IInvokedMethodListener,
+        ISuiteListener {
+
+    public enum Scope {
+        METHOD,
+        CLASS,
+        SUITE
+    }
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(DriverManagerListener.class);
+
+    private final ThreadLocal<Class<?>> driverClass = new ThreadLocal<Class<?>>();
+    private final ThreadLocal<Span> testSpan = new ThreadLocal<Span>();
+
+    private volatile Scope scope;
+    private volatile long deadline = -1;
+    private volatile Tracer tracer;
+
+    /**
+     * @return lifetime of drivers from the webdriver.manager.scope property
+     */
+    public Scope getScope() {
+        if (scope == null) {
+            String value = null;
+            try {
+                value = DriverManager.getProperties().getProperty(
+                        OpenWebDriver.MANAGER_SCOPE_PROP_KEY);
+            } catch (IOException e) {
+                log.warn("unable to read driver properties, using method "
+                        + "scope", e);
+            }
+            scope = value == null || value.trim().equals("") ? Scope.METHOD
+                    : Scope.valueOf(value.trim().toUpperCase());
+        }
+        return scope;
+    }
+
+    public void setScope(Scope scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * @return seconds each test method may wait for, else zero for no
+     *         deadline
+     */
+    public long getDeadline() {
+        if (deadline < 0) {
+            String value = null;
+            try {
+                value = DriverManager.getProperties().getProperty(
+                        OpenWebDriver.WAIT_DEADLINE_PROP_KEY);
+            } catch (IOException e) {
+                log.warn("unable to read driver properties, using no "
+                        + "deadline", e);
+            }
+            deadline = value == null || value.trim().equals("") ? 0 : Long
+                    .parseLong(value.trim());
+        }
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return tracer of the drivers, starting a root span per test method so
+     *         the spans of a test are one trace
+     */
+    public Tracer getTracer() {
+        if (tracer == null) {
+            try {
+                tracer = Tracer.getInstance(DriverManager.getProperties());
+            } catch (IOException e) {
+                log.warn("unable to read driver properties, tracing "
+                        + "disabled", e);
+                tracer = Tracer.disabled();
+            }
+        }
+        return tracer;
+    }
+
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @Override
+    public void beforeInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (!method.isTestMethod()) {
+            return;
+        }
+        if (getDeadline() > 0 && method.getTestMethod().getTimeOut() <= 0) {
+            WaitDeadline.set(getDeadline() * 1000);
+        }
+        if (getTracer().isEnabled()) {
+            testSpan.set(getTracer().start(
+                    "test " + testResult.getTestClass().getRealClass()
+                            .getSimpleName() + "."
+                            + method.getTestMethod().getMethodName()));
+        }
+        if (getScope() != Scope.CLASS) {
+            return;
+        }
+        Class<?> testClass = testResult.getTestClass().getRealClass();
+        if (testClass != driverClass.get()) {
+            DriverManager.releaseDriver();
+            driverClass.set(testClass);
+        }
+    }
+
+    @Override
+    public void afterInvocation(IInvokedMethod method, ITestResult testResult) {
+        if (method.isTestMethod()) {
+            WaitDeadline.clear();
+            Span span = testSpan.get();
+            if (span != null) {
+                testSpan.remove();
+                span.end(testResult.isSuccess());
+            }
+        }
+        if (method.isTestMethod() && getScope() == Scope.METHOD) {
+            DriverManager.releaseDriver();
+        }
+    }
+
+    @Override
+    public void onStart(ISuite suite) {
+        // drivers are created on first use
+    }
+
+    @Override
+    public void onFinish(ISuite suite) {
+        log.info("releasing {} drivers after suite {}",
+                DriverManager.getActiveCount(), suite.getName());
+        DriverManager.releaseAll();
+    }
+}
@@ -0,0 +1,322 @@
+package org.qe4j.web;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.openqa.selenium.Alert;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriver.Navigation;
+import org.openqa.selenium.WebDriver.TargetLocator;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.security.Credentials;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Caches the title, current url and window handles of a driver until
+ * something that may change them happens: navigation, clicks, submits, keys,
+ * scripts of the caller, window or frame switches and alerts. The read-only
+ * library scripts the driver runs itself, e.g. while waiting for ajax, keep
+ * the cache. OpenWebDriver and
+ * OpenWebElement invalidate the cache for their own actions, and the
+ * navigation and target locator wrappers here cover navigate() and
+ * switchTo(). Changes made behind the driver's back, such as a timer in the
+ * page or actions performed through getKeyboard(), getMouse() or
+ * newActions(), are not seen until the next invalidation, so call
+ * OpenWebDriver.invalidateReadCache() after them.
+ */
+public class DriverReadCache {
+
+    public enum Value {
+        TITLE,
+        CURRENT_URL,
+        WINDOW_HANDLE,
+        WINDOW_HANDLES
+    }
+
+    private static final Value[] VALUES = Value.values();
+
+    private final Object[] values = new Object[VALUES.length];
+    private final AtomicLongArray hits = new AtomicLongArray(VALUES.length);
+    private final AtomicLongArray misses = new AtomicLongArray(VALUES.length);
+    private long generation;
+
+    /**
+     * @param value
+     * @return cached value, else null on a miss
+     */
+    public synchronized Object get(Value value) {
+        Object cached = values[value.ordinal()];
+        if (cached == null) {
+            misses.incrementAndGet(value.ordinal());
+        } else {
+            hits.incrementAndGet(value.ordinal());
+        }
+        return cached;
+    }
+
+    /**
+     * @return cached window handles, else null on a miss
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> getWindowHandles() {
+        Set<String> handles = (Set<String>) get(Value.WINDOW_HANDLES);
+        return handles == null ? null : new LinkedHashSet<String>(handles);
+    }
+
+    /**
+     * @return generation to pass to put when the value is read remotely
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches a value read remotely, unless the cache was invalidated while it
+     * was being read.
+     *
+     * @param value
+     * @param cached
+     * @param readGeneration
+     *            generation before the value was read
+     */
+    public synchronized void put(Value value, Object cached,
+            long readGeneration) {
+        if (readGeneration != generation || cached == null) {
+            return;
+        }
+        if (value == Value.WINDOW_HANDLES) {
+            cached = Collections.unmodifiableSet(new LinkedHashSet<Object>(
+                    (Set<?>) cached));
+        }
+        values[value.ordinal()] = cached;
+    }
+
+    /**
+     * Drops all cached values.
+     */
+    public synchronized void invalidate() {
+        generation++;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = null;
+        }
+    }
+
+    public long getHitCount(Value value) {
+        return hits.get(value.ordinal());
+    }
+
+    public long getMissCount(Value value) {
+        return misses.get(value.ordinal());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("DriverReadCache[");
+        for (Value value : VALUES) {
+            if (value.ordinal() > 0) {
+                builder.append(", ");
+            }
+            builder.append(value).append(" hits ")
+                    .append(getHitCount(value)).append(" misses ")
+                    .append(getMissCount(value));
+        }
+        return builder.append("]").toString();
+    }
+
+    /**
+     * @param navigation
+     * @return navigation invalidating this cache after each call
+     */
+    public Navigation wrap(Navigation navigation) {
+        return new InvalidatingNavigation(navigation);
+    }
+
+    /**
+     * @param targetLocator
+     * @return target locator invalidating this cache after each switch
+     */
+    public TargetLocator wrap(TargetLocator targetLocator) {
+        return new InvalidatingTargetLocator(targetLocator);
+    }
+
+    private class InvalidatingNavigation implements Navigation {
+        private final Navigation navigation;
+
+        InvalidatingNavigation(Navigation navigation) {
+            this.navigation = navigation;
+        }
+
+        @Override
+        public void back() {
+            try {
+                navigation.back();
+            } finally {
+                invalidate();
+            }
+        }
+
+        @Override
+        public void forward() {
+            try {
+                navigation.forward();
+            } finally {
+                invalidate();
+            }
+        }
+
+        @Override
+        public void to(String url) {
+            try {
+                navigation.to(url);
+            } finally {
+                invalidate();
+            }
+        }
+
+        @Override
+        public void to(URL url) {
+            try {
+                navigation.to(url);
+            } finally {
+                invalidate();
+            }
+        }
+
+        @Override
+        public void refresh() {
+            try {
+                navigation.refresh();
+            } finally {
+                invalidate();
+            }
+        }
+    }
+
+    private class InvalidatingTargetLocator implements TargetLocator {
+        private final TargetLocator targetLocator;
+
+        InvalidatingTargetLocator(TargetLocator targetLocator) {
+            this.targetLocator = targetLocator;
+        }
+
+        @Override
+        public WebDriver frame(int index) {
+            try {
+                return targetLocator.frame(index);
+            } finally {
+                invalidate();
+            }
+        }
+
+        @Override
+        public WebDriver frame(String nameOrId) {
+            try {
+                return targetLocator.frame(nameOrId);
+            } finally {
+                invalidate();
+            }
+        }
+
+        @Override
+        public WebDriver frame(WebElement frameElement) {
+            if (frameElement instanceof OpenWebElement) {
+                frameElement = ((OpenWebElement) frameElement)
+                        .getWebElement();
+            }
+            try {
+                return targetLocator.frame(frameElement);
+            } finally {
+                invalidate();
+            }
+        }
+
+        @Override
+        public WebDriver window(String nameOrHandle) {
+            try {
+                return targetLocator.window(nameOrHandle);
+            } finally {
+                invalidate();
+            }
+        }
+
+        @Override
+        public WebDriver defaultContent() {
+            try {
+                return targetLocator.defaultContent();
+            } finally {
+                invalidate();
+            }
+        }
+
+        @Override
+        public WebElement activeElement() {
+            return targetLocator.activeElement();
+        }
+
+        @Override
+        public Alert alert() {
+            return new InvalidatingAlert(targetLocator.alert());
+        }
+    }
+
+    private class InvalidatingAlert implements Alert {
+        private final Alert alert;
+
+        InvalidatingAlert(Alert alert) {
+            this.alert = alert;
+        }
+
+        @Override
+        public void dismiss() {
+            try {
+                alert.dismiss();
+            } finally {
+                invalidate();
+            }
+        }
+
+        @Override
+        public void accept() {
+            try {
+                alert.accept();
+            } finally {
+                invalidate();
+            }
+        }
+
+        @Override
+        public String getText() {
+            return alert.getText();
+        }
+
+        @Override
+        public void sendKeys(String keysToSend) {
+            alert.sendKeys(keysToSend);
+        }
+
+        @Override
+        public void authenticateUsing(Credentials credentials) {
+            try {
+                alert.authenticateUsing(credentials);
+            } finally {
+                invalidate();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.qe4j.web;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.RemoteWebElement;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Canonical OpenWebElement wrappers of one session, so finding the same DOM
+ * element twice returns the same wrapper. Wrappers are keyed by the element
+ * id of the remote driver, else by the element itself for local drivers
+ * such as HtmlUnit, whose elements compare equal when they wrap the same
+ * node. Wrappers are held weakly: once the test drops a wrapper its entry is
+ * removed on a later lookup.
+ */
+public class ElementIdentityMap {
+
+    private final OpenWebDriver driver;
+    private final ConcurrentMap<Object, WrapperReference> wrappers = new ConcurrentHashMap<Object, WrapperReference>();
+    private final ReferenceQueue<OpenWebElement> collected = new ReferenceQueue<OpenWebElement>();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong reusedCount = new AtomicLong();
+
+    /**
+     * @param driver
+     *            session the wrappers belong to
+     */
+    public ElementIdentityMap(OpenWebDriver driver) {
+        this.driver = driver;
+    }
+
+    /**
+     * @param element
+     * @return identity of the element within its session
+     */
+    public static Object keyOf(WebElement element) {
+        if (element instanceof RemoteWebElement) {
+            String id = ((RemoteWebElement) element).getId();
+            if (id != null) {
+                return id;
+            }
+        }
+        return element;
+    }
+
+    /**
+     * @param element
+     *            element found by the underlying driver
+     * @return the canonical wrapper of the element
+     */
+    public OpenWebElement wrap(WebElement element) {
+        expunge();
+        Object key = keyOf(element);
+        while (true) {
+            WrapperReference reference = wrappers.get(key);
+            OpenWebElement wrapper = reference == null ? null : reference
+                    .get();
+            if (wrapper != null) {
+                reusedCount.incrementAndGet();
+                return wrapper;
+            }
+            wrapper = new OpenWebElement(driver, element);
+            WrapperReference created = new WrapperReference(wrapper, key,
+                    collected);
+            if (reference == null ? wrappers.putIfAbsent(key, created) == null
+                    : wrappers.replace(key, reference, created)) {
+                createdCount.incrementAndGet();
+                return wrapper;
+            }
+        }
+    }
+
+    /**
+     * Maps the wrapper by the element it found again after the wrapped one
+     * went stale, so finding the new element returns the same wrapper.
+     *
+     * @param wrapper
+     *            re-located wrapper
+     * @param stale
+     *            element wrapped before
+     */
+    public void relocated(OpenWebElement wrapper, WebElement stale) {
+        Object staleKey = keyOf(stale);
+        WrapperReference reference = wrappers.get(staleKey);
+        if (reference != null && reference.get() == wrapper) {
+            wrappers.remove(staleKey, reference);
+        }
+        Object key = keyOf(wrapper.getWebElement());
+        WrapperReference existing = wrappers.get(key);
+        if (existing == null || existing.get() == null) {
+            WrapperReference created = new WrapperReference(wrapper, key,
+                    collected);
+            if (existing == null) {
+                wrappers.putIfAbsent(key, created);
+            } else {
+                wrappers.replace(key, existing, created);
+            }
+        }
+    }
+
+    /**
+     * @return wrappers currently mapped, including ones collected but not
+     *         yet removed
+     */
+    public int size() {
+        expunge();
+        return wrappers.size();
+    }
+
+    public void clear() {
+        wrappers.clear();
+    }
+
+    /**
+     * @return wrappers allocated
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * @return lookups answered with an existing wrapper
+     */
+    public long getReusedCount() {
+        return reusedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ElementIdentityMap[" + wrappers.size() + " wrappers, created "
+                + createdCount.get() + ", reused " + reusedCount.get() + "]";
+    }
+
+    private void expunge() {
+        WrapperReference reference;
+        while ((reference = (WrapperReference) collected.poll()) != null) {
+            wrappers.remove(reference.key, reference);
+        }
+    }
+
+    private static class WrapperReference extends
+            WeakReference<OpenWebElement> {
+
+        private final Object key;
+
+        WrapperReference(OpenWebElement wrapper, Object key,
+                ReferenceQueue<OpenWebElement> queue) {
+            super(wrapper, queue);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.qe4j.web;
+
+import com.gargoylesoftware.htmlunit.BrowserVersion;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * HtmlUnit driver with javascript enabled and the fast HtmlUnitProfile
+ * applied to its web client. Requests blocked by the profile are counted
+ * apart from those blocked by webdriver.block.patterns.
+ */
+public class FastHtmlUnitDriver extends BlockingHtmlUnitDriver {
+
+    private final HtmlUnitProfile.FilteringWebConnection connection;
+
+    public FastHtmlUnitDriver(BrowserVersion version, HtmlUnitProfile profile) {
+        this(version, profile, null);
+    }
+
+    /**
+     * @param version
+     * @param profile
+     * @param blocker
+     *            request blocking rules of the session, else null
+     */
+    public FastHtmlUnitDriver(BrowserVersion version, HtmlUnitProfile profile,
+            RequestBlocker blocker) {
+        super(version, blocker);
+        connection = profile.apply(getWebClient());
+    }
+
+    /**
+     * @return requests made by this session, blocked or not
+     */
+    public long getRequestCount() {
+        return connection.getRequestCount();
+    }
+
+    /**
+     * @return requests answered locally because the profile blocked them
+     */
+    public long getBlockedCount() {
+        return connection.getBlockedCount();
+    }
+}
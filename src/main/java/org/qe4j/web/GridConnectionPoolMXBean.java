@@ -0,0 +1,57 @@
+package org.qe4j.web;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * JMX management interface for the keep-alive connection pool to a grid hub,
+ * registered as org.qe4j.web:type=GridConnectionPool,hub=host_port.
+ */
+public interface GridConnectionPoolMXBean {
+
+    /**
+     * @return hub host and port the pool connects to
+     */
+    String getHub();
+
+    /**
+     * @return connections currently executing a command
+     */
+    int getLeased();
+
+    /**
+     * @return idle keep-alive connections ready for reuse
+     */
+    int getAvailable();
+
+    /**
+     * @return commands waiting for a connection
+     */
+    int getPending();
+
+    /**
+     * @return maximum connections to the hub
+     */
+    int getMaxConnections();
+
+    /**
+     * @return commands sent through the pool
+     */
+    long getRequestCount();
+
+    /**
+     * Closes connections idle for longer than the configured idle time.
+     */
+    void closeIdleConnections();
+}
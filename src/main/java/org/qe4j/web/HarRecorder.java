@@ -0,0 +1,481 @@
+package org.qe4j.web;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Base64;
+import org.json.JSONObject;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Records the http traffic of one session passing through its CachingProxy
+ * session port as a HAR 1.2 file. Entries are written to the file as their
+ * responses complete, so memory stays bounded however long the session runs;
+ * only the page list is held until the recorder is closed. Bodies are
+ * recorded when webdriver.har.bodies is true, each cut to
+ * webdriver.har.body.max bytes, text as is and binary content base64 encoded.
+ *
+ * Timings are milliseconds: blocked is the time spent in the proxy before the
+ * request is sent, wait the time until the response headers arrive and
+ * receive the time to relay the body. Send, dns and ssl are not measured and
+ * recorded as 0 or -1; connect is only measured for CONNECT tunnels. Cached
+ * responses carry a comment naming the cache tier.
+ *
+ * Pages group the entries requested between startPage() and endPage(), e.g.
+ * around OpenWebDriver get() or an element click().
+ */
+public class HarRecorder {
+
+    public static final int DEFAULT_MAX_BODY_BYTES = 64 * 1024;
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(HarRecorder.class);
+
+    private static final AtomicInteger fileCount = new AtomicInteger();
+
+    /**
+     * Request and response of one entry, filled in by the proxy while the
+     * exchange is relayed.
+     */
+    public class Entry {
+        private final String pageref;
+        private final long started = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final String method;
+        private final String url;
+        private final String httpVersion;
+        private final List<String[]> requestHeaders;
+        private final int requestHeadersSize;
+        private byte[] requestBody;
+        private int status;
+        private String statusText = "";
+        private List<String[]> responseHeaders = new ArrayList<String[]>();
+        private int responseHeadersSize = -1;
+        private long responseBodySize;
+        private ByteArrayOutputStream responseBody;
+        private long sendNanos = -1;
+        private long waitNanos = -1;
+        private long connectNanos = -1;
+        private String comment;
+
+        private Entry(String method, String url, String httpVersion,
+                List<String[]> requestHeaders, int requestHeadersSize) {
+            this.pageref = currentPage;
+            this.method = method;
+            this.url = url;
+            this.httpVersion = httpVersion;
+            this.requestHeaders = requestHeaders;
+            this.requestHeadersSize = requestHeadersSize;
+        }
+
+        void setRequestBody(byte[] body) {
+            requestBody = body;
+        }
+
+        /**
+         * Marks the request being sent to the origin server.
+         */
+        void markSend() {
+            sendNanos = System.nanoTime();
+        }
+
+        /**
+         * Marks the response headers arriving from the origin server.
+         */
+        void markWait() {
+            waitNanos = System.nanoTime();
+        }
+
+        void setConnect(long nanos) {
+            connectNanos = nanos;
+        }
+
+        void setResponse(int status, String statusText,
+                List<String[]> headers, int headersSize) {
+            this.status = status;
+            this.statusText = statusText == null ? "" : statusText;
+            this.responseHeaders = new ArrayList<String[]>(headers);
+            this.responseHeadersSize = headersSize;
+        }
+
+        /**
+         * Counts body bytes relayed to the browser, keeping them up to the
+         * body limit if bodies are recorded.
+         */
+        void addResponseBody(byte[] bytes, int offset, int length) {
+            responseBodySize += length;
+            if (bodies) {
+                if (responseBody == null) {
+                    responseBody = new ByteArrayOutputStream();
+                }
+                int room = maxBodyBytes - responseBody.size();
+                if (room > 0) {
+                    responseBody.write(bytes, offset, Math.min(room, length));
+                }
+            }
+        }
+
+        void addResponseBodySize(long length) {
+            responseBodySize += length;
+        }
+
+        void setComment(String comment) {
+            this.comment = comment;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    private final File file;
+    private final boolean bodies;
+    private final int maxBodyBytes;
+    private final Writer writer;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat(
+            "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+    private final List<String> pages = new ArrayList<String>();
+    private volatile String currentPage;
+    private String currentTitle;
+    private long pageStarted;
+    private long pageStartNanos;
+    private long entries;
+    private boolean closed;
+
+    /**
+     * @param properties
+     * @return recorder writing to a new file in webdriver.har.directory, else
+     *         null if no directory is set
+     * @throws IOException
+     */
+    public static HarRecorder fromProperties(Properties properties)
+            throws IOException {
+        String directory = properties
+                .getProperty(OpenWebDriver.HAR_DIRECTORY_PROP_KEY);
+        if (directory == null || directory.trim().equals("")) {
+            return null;
+        }
+        String maxBody = properties
+                .getProperty(OpenWebDriver.HAR_BODY_MAX_PROP_KEY);
+        File file = new File(directory.trim(), "session-"
+                + System.currentTimeMillis() + "-"
+                + fileCount.incrementAndGet() + ".har");
+        return new HarRecorder(file, Boolean.parseBoolean(properties
+                .getProperty(OpenWebDriver.HAR_BODIES_PROP_KEY)),
+                maxBody == null || maxBody.trim().equals("") ? DEFAULT_MAX_BODY_BYTES
+                        : Integer.parseInt(maxBody.trim()));
+    }
+
+    /**
+     * @param file
+     *            HAR file, replaced if it exists
+     * @param bodies
+     *            whether request and response bodies are recorded
+     * @param maxBodyBytes
+     *            bytes of each body recorded
+     * @throws IOException
+     */
+    public HarRecorder(File file, boolean bodies, int maxBodyBytes)
+            throws IOException {
+        this.file = file;
+        this.bodies = bodies;
+        this.maxBodyBytes = maxBodyBytes;
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"));
+        writer.write("{\"log\":{\"version\":\"1.2\",\"creator\":"
+                + "{\"name\":\"qe4j\",\"version\":\"1.0\"},\"entries\":[\n");
+        writer.flush();
+        log.info("recording http traffic to {}", file.getAbsolutePath());
+    }
+
+    /**
+     * Starts an entry for a request received by the proxy.
+     *
+     * @param method
+     * @param url
+     * @param httpVersion
+     * @param headers
+     *            request headers as sent by the browser
+     * @param headersSize
+     *            bytes of the request line and headers
+     * @return entry to fill in and write()
+     */
+    public Entry newEntry(String method, String url, String httpVersion,
+            List<String[]> headers, int headersSize) {
+        return new Entry(method, url, httpVersion, headers, headersSize);
+    }
+
+    /**
+     * Starts a page; entries requested until the next page or endPage()
+     * belong to it.
+     *
+     * @param title
+     *            e.g. the url loaded or the element clicked
+     */
+    public synchronized void startPage(String title) {
+        endPage();
+        currentPage = "page_" + (pages.size() + 1);
+        currentTitle = title;
+        pageStarted = System.currentTimeMillis();
+        pageStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Ends the current page, recording the time since it started as its
+     * onLoad time. Later entries belong to no page.
+     */
+    public synchronized void endPage() {
+        if (currentPage == null) {
+            return;
+        }
+        StringBuilder page = new StringBuilder();
+        page.append("{\"id\":\"").append(currentPage);
+        page.append("\",\"startedDateTime\":\"")
+                .append(dateFormat.format(new Date(pageStarted)));
+        page.append("\",\"title\":").append(JSONObject.quote(currentTitle));
+        page.append(",\"pageTimings\":{\"onContentLoad\":-1,\"onLoad\":")
+                .append(millis(System.nanoTime() - pageStartNanos))
+                .append("}}");
+        pages.add(page.toString());
+        currentPage = null;
+    }
+
+    /**
+     * Appends the completed entry to the file.
+     *
+     * @param entry
+     */
+    public void write(Entry entry) {
+        long end = System.nanoTime();
+        // requests answered by the proxy itself are never sent
+        long send = entry.sendNanos < 0 ? entry.startNanos : entry.sendNanos;
+        long wait = entry.waitNanos < 0 ? send : entry.waitNanos;
+        StringBuilder json = new StringBuilder(1024);
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (entry.pageref != null) {
+                json.append("{\"pageref\":\"").append(entry.pageref)
+                        .append("\",");
+            } else {
+                json.append('{');
+            }
+            json.append("\"startedDateTime\":\"")
+                    .append(dateFormat.format(new Date(entry.started)))
+                    .append("\",\"time\":")
+                    .append(millis(end - entry.startNanos));
+        }
+
+        json.append(",\"request\":{\"method\":")
+                .append(JSONObject.quote(entry.method)).append(",\"url\":")
+                .append(JSONObject.quote(entry.url))
+                .append(",\"httpVersion\":")
+                .append(JSONObject.quote(entry.httpVersion))
+                .append(",\"cookies\":[],\"headers\":");
+        appendHeaders(json, entry.requestHeaders);
+        json.append(",\"queryString\":[],\"headersSize\":")
+                .append(entry.requestHeadersSize).append(",\"bodySize\":")
+                .append(entry.requestBody == null ? 0
+                        : entry.requestBody.length);
+        if (entry.requestBody != null && bodies) {
+            String mimeType = header(entry.requestHeaders, "Content-Type");
+            json.append(",\"postData\":{\"mimeType\":")
+                    .append(JSONObject.quote(mimeType)).append(",\"text\":")
+                    .append(JSONObject.quote(text(entry.requestBody,
+                            entry.requestBody.length, mimeType)))
+                    .append('}');
+        }
+
+        String mimeType = header(entry.responseHeaders, "Content-Type");
+        String location = header(entry.responseHeaders, "Location");
+        json.append("},\"response\":{\"status\":").append(entry.status)
+                .append(",\"statusText\":")
+                .append(JSONObject.quote(entry.statusText))
+                .append(",\"httpVersion\":\"HTTP/1.1\",\"cookies\":[],"
+                        + "\"headers\":");
+        appendHeaders(json, entry.responseHeaders);
+        json.append(",\"content\":{\"size\":").append(entry.responseBodySize)
+                .append(",\"mimeType\":").append(JSONObject.quote(mimeType));
+        if (entry.responseBody != null) {
+            byte[] body = entry.responseBody.toByteArray();
+            if (isText(mimeType)) {
+                json.append(",\"text\":").append(
+                        JSONObject.quote(text(body, body.length, mimeType)));
+            } else {
+                json.append(",\"text\":\"")
+                        .append(Base64.encodeBase64String(body))
+                        .append("\",\"encoding\":\"base64\"");
+            }
+        }
+        json.append("},\"redirectURL\":").append(JSONObject.quote(location))
+                .append(",\"headersSize\":")
+                .append(entry.responseHeadersSize)
+                .append(",\"bodySize\":").append(entry.responseBodySize)
+                .append("},\"cache\":{},\"timings\":{\"blocked\":")
+                .append(millis(send - entry.startNanos))
+                .append(",\"dns\":-1,\"connect\":")
+                .append(entry.connectNanos < 0 ? "-1"
+                        : millis(entry.connectNanos))
+                .append(",\"send\":0,\"wait\":").append(millis(wait - send))
+                .append(",\"receive\":").append(millis(end - wait))
+                .append(",\"ssl\":-1}");
+        if (entry.comment != null) {
+            json.append(",\"comment\":")
+                    .append(JSONObject.quote(entry.comment));
+        }
+        json.append('}');
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            try {
+                if (entries > 0) {
+                    writer.write(",\n");
+                }
+                writer.write(json.toString());
+                writer.flush();
+                entries++;
+            } catch (IOException e) {
+                log.warn("unable to write HAR entry to " + file, e);
+            }
+        }
+    }
+
+    private static void appendHeaders(StringBuilder json,
+            List<String[]> headers) {
+        json.append('[');
+        for (int i = 0; i < headers.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":").append(JSONObject.quote(headers.get(i)[0]))
+                    .append(",\"value\":")
+                    .append(JSONObject.quote(headers.get(i)[1])).append('}');
+        }
+        json.append(']');
+    }
+
+    private static String header(List<String[]> headers, String name) {
+        for (String[] header : headers) {
+            if (header[0].equalsIgnoreCase(name)) {
+                return header[1];
+            }
+        }
+        return "";
+    }
+
+    private static boolean isText(String mimeType) {
+        String type = mimeType.toLowerCase(Locale.ENGLISH);
+        return type.startsWith("text/") || type.contains("json")
+                || type.contains("javascript") || type.contains("xml")
+                || type.contains("x-www-form-urlencoded");
+    }
+
+    /**
+     * @return body decoded up to the body limit, empty for binary content
+     */
+    private String text(byte[] body, int length, String mimeType) {
+        if (!isText(mimeType)) {
+            return "";
+        }
+        try {
+            return new String(body, 0, Math.min(length, maxBodyBytes), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.valueOf(Math.round(nanos / 1000.0) / 1000.0);
+    }
+
+    /**
+     * Ends the current page and completes the file with the page list.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        endPage();
+        closed = true;
+        try {
+            writer.write("\n],\"pages\":[\n");
+            for (int i = 0; i < pages.size(); i++) {
+                if (i > 0) {
+                    writer.write(",\n");
+                }
+                writer.write(pages.get(i));
+            }
+            writer.write("\n]}}\n");
+            writer.close();
+        } catch (IOException e) {
+            log.warn("unable to close HAR file " + file, e);
+        }
+        log.info("recorded {} HAR entries in {} pages to {}", new Object[] {
+                entries, pages.size(), file.getAbsolutePath() });
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isBodies() {
+        return bodies;
+    }
+
+    /**
+     * @return entries written so far
+     */
+    public synchronized long getEntryCount() {
+        return entries;
+    }
+
+    /**
+     * @return pages ended so far
+     */
+    public synchronized int getPageCount() {
+        return pages.size();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,244 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.gargoylesoftware.htmlunit.Cache;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.util.FalsifyingWebConnection;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Settings of the fast HtmlUnit mode, enabled by webdriver.htmlunit.fast.
+ * CSS parsing and image loading are turned off, requests are filtered by
+ * the allow and deny patterns, and all fast sessions of the JVM share one
+ * size bounded cache of http responses, compiled scripts and style sheets.
+ *
+ * Patterns are comma separated regular expressions found anywhere in the
+ * request url. When allow patterns are set only matching urls are fetched;
+ * deny patterns are checked after them. Blocked requests are answered
+ * locally with an empty 204 response.
+ */
+public class HtmlUnitProfile {
+
+    public static final int DEFAULT_CACHE_SIZE = 500;
+
+    private static final Pattern IMAGE_PATTERN = Pattern.compile(
+            "\\.(png|jpe?g|gif|ico|bmp|svg|webp)(\\?|#|$)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static SharedCache sharedCache;
+
+    private final List<Pattern> allow;
+    private final List<Pattern> deny;
+    private final int cacheSize;
+
+    /**
+     * @param properties
+     * @return profile from the webdriver.htmlunit properties
+     */
+    public static HtmlUnitProfile fromProperties(Properties properties) {
+        String cacheSize = properties
+                .getProperty(OpenWebDriver.HTMLUNIT_CACHE_SIZE_PROP_KEY);
+        return new HtmlUnitProfile(
+                parsePatterns(properties
+                        .getProperty(OpenWebDriver.HTMLUNIT_ALLOW_PROP_KEY)),
+                parsePatterns(properties
+                        .getProperty(OpenWebDriver.HTMLUNIT_DENY_PROP_KEY)),
+                cacheSize == null || cacheSize.trim().equals("") ? DEFAULT_CACHE_SIZE
+                        : Integer.parseInt(cacheSize.trim()));
+    }
+
+    /**
+     * @param allow
+     *            patterns of urls to fetch, all when empty
+     * @param deny
+     *            patterns of urls never to fetch
+     * @param cacheSize
+     *            maximum entries of the shared cache
+     */
+    public HtmlUnitProfile(List<Pattern> allow, List<Pattern> deny,
+            int cacheSize) {
+        this.allow = Collections.unmodifiableList(new ArrayList<Pattern>(
+                allow));
+        this.deny = Collections
+                .unmodifiableList(new ArrayList<Pattern>(deny));
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * @param value
+     *            comma separated regular expressions
+     * @return compiled patterns
+     */
+    public static List<Pattern> parsePatterns(String value) {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        if (value == null) {
+            return patterns;
+        }
+        for (String pattern : value.split(",")) {
+            if (!pattern.trim().equals("")) {
+                patterns.add(Pattern.compile(pattern.trim()));
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * Gets the cache shared by all fast sessions, created on first use. The
+     * size grows to the largest size asked for.
+     *
+     * @param maxSize
+     * @return shared cache
+     */
+    public static synchronized SharedCache getSharedCache(int maxSize) {
+        if (sharedCache == null) {
+            sharedCache = new SharedCache();
+        }
+        if (sharedCache.getMaxSize() < maxSize) {
+            sharedCache.setMaxSize(maxSize);
+        }
+        return sharedCache;
+    }
+
+    /**
+     * @param url
+     * @return true if the url may be fetched
+     */
+    public boolean isAllowed(String url) {
+        if (IMAGE_PATTERN.matcher(url).find()) {
+            return false;
+        }
+        if (!allow.isEmpty() && !matches(allow, url)) {
+            return false;
+        }
+        return !matches(deny, url);
+    }
+
+    private static boolean matches(List<Pattern> patterns, String url) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(url).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Applies the profile to the web client of a session.
+     *
+     * @param webClient
+     * @return connection filtering and counting the requests of the session
+     */
+    public FilteringWebConnection apply(WebClient webClient) {
+        webClient.getOptions().setCssEnabled(false);
+        webClient.setCache(getSharedCache(cacheSize));
+        return new FilteringWebConnection(webClient);
+    }
+
+    public List<Pattern> getAllow() {
+        return allow;
+    }
+
+    public List<Pattern> getDeny() {
+        return deny;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Web connection answering blocked requests locally.
+     */
+    public class FilteringWebConnection extends FalsifyingWebConnection {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong blocked = new AtomicLong();
+
+        FilteringWebConnection(WebClient webClient) {
+            super(webClient);
+        }
+
+        @Override
+        public WebResponse getResponse(WebRequest request) throws IOException {
+            requests.incrementAndGet();
+            String accept = request.getAdditionalHeaders().get("Accept");
+            if ((accept != null && accept.startsWith("image/"))
+                    || !isAllowed(request.getUrl().toString())) {
+                blocked.incrementAndGet();
+                return createWebResponse(request, "", "text/plain", 204,
+                        "No Content");
+            }
+            return super.getResponse(request);
+        }
+
+        /**
+         * @return requests made by the session, blocked or not
+         */
+        public long getRequestCount() {
+            return requests.get();
+        }
+
+        public long getBlockedCount() {
+            return blocked.get();
+        }
+    }
+
+    /**
+     * HtmlUnit cache counting hits and misses. HtmlUnit synchronizes the
+     * cache entries, so one instance serves every session.
+     */
+    public static class SharedCache extends Cache {
+        private static final long serialVersionUID = 1L;
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        @Override
+        public Object getCachedObject(WebRequest request) {
+            return count(super.getCachedObject(request));
+        }
+
+        @Override
+        public org.w3c.dom.css.CSSStyleSheet getCachedStyleSheet(String url) {
+            return count(super.getCachedStyleSheet(url));
+        }
+
+        private <T> T count(T cached) {
+            if (cached == null) {
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return cached;
+        }
+
+        public long getHitCount() {
+            return hits.get();
+        }
+
+        public long getMissCount() {
+            return misses.get();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.qe4j.web;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Lock free log-linear histogram of nanosecond latencies. Each power of two is
+ * split into eight linear sub buckets, so recorded values are accurate to
+ * within 12.5% while the whole range of a long fits in under 500 counters.
+ * Recording is a handful of atomic increments, which keeps the cost of
+ * measuring every WebDriver command well under a microsecond.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1)
+            * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a single latency value.
+     *
+     * @param nanos
+     *            duration in nanoseconds, negative values are recorded as zero
+     * @param success
+     *            false to also count the value as an error
+     */
+    public void record(long nanos, boolean success) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketIndex(nanos));
+        total.addAndGet(nanos);
+        if (!success) {
+            errors.incrementAndGet();
+        }
+        long currentMax = max.get();
+        while (nanos > currentMax) {
+            if (max.compareAndSet(currentMax, nanos)) {
+                break;
+            }
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Adds all recorded values of another histogram into this one.
+     *
+     * @param other
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        errors.addAndGet(other.errors.get());
+        total.addAndGet(other.total.get());
+        long otherMax = other.max.get();
+        long currentMax = max.get();
+        while (otherMax > currentMax) {
+            if (max.compareAndSet(currentMax, otherMax)) {
+                break;
+            }
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently with a reset
+     * may be partially kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        errors.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return number of values recorded as errors
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * @return sum of all values recorded in nanoseconds
+     */
+    public long getTotalNanos() {
+        return total.get();
+    }
+
+    /**
+     * @return largest value recorded in nanoseconds
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Calculates the value at the given percentile. The result is the upper
+     * bound of the bucket containing the percentile, capped at the recorded
+     * maximum.
+     *
+     * @param percentile
+     *            between 0 and 100
+     * @return value in nanoseconds, zero if nothing has been recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile " + percentile
+                    + " must be between 0 and 100");
+        }
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @param nanos
+     *            non-negative value
+     * @return index of the bucket counting the value
+     */
+    static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS))
+                & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param index
+     * @return largest value counted by the bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        int shift = magnitude - SUB_BUCKET_BITS;
+        long lower = ((long) (SUB_BUCKETS + subBucket)) << shift;
+        long upper = lower + (1L << shift) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+}
@@ -0,0 +1,102 @@
+package org.qe4j.web;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * How many virtual users a LoadRunner runs and when. Users start evenly
+ * spread over the ramp up, all of them run through the steady state, and they
+ * leave evenly spread over the ramp down, the last one started leaving first.
+ * A user leaving finishes the journey it is in.
+ */
+public class LoadProfile {
+
+    private final int users;
+    private final long rampUpMillis;
+    private final long steadyMillis;
+    private final long rampDownMillis;
+
+    /**
+     * @param users
+     *            concurrent virtual users in the steady state
+     * @param rampUpMillis
+     *            time over which the users start
+     * @param steadyMillis
+     *            time all users run
+     * @param rampDownMillis
+     *            time over which the users stop
+     */
+    public LoadProfile(int users, long rampUpMillis, long steadyMillis,
+            long rampDownMillis) {
+        if (users < 1 || rampUpMillis < 0 || steadyMillis < 0
+                || rampDownMillis < 0) {
+            throw new IllegalArgumentException("users must be one or more and"
+                    + " durations must not be negative");
+        }
+        this.users = users;
+        this.rampUpMillis = rampUpMillis;
+        this.steadyMillis = steadyMillis;
+        this.rampDownMillis = rampDownMillis;
+    }
+
+    /**
+     * @param user
+     *            index of the user, from zero
+     * @return time after the start of the run the user starts
+     */
+    public long getStartMillis(int user) {
+        return rampUpMillis * user / users;
+    }
+
+    /**
+     * @param user
+     *            index of the user, from zero
+     * @return time after the start of the run the user starts no more
+     *         journeys
+     */
+    public long getStopMillis(int user) {
+        return rampUpMillis + steadyMillis + rampDownMillis * (users - user)
+                / users;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public long getRampUpMillis() {
+        return rampUpMillis;
+    }
+
+    public long getSteadyMillis() {
+        return steadyMillis;
+    }
+
+    public long getRampDownMillis() {
+        return rampDownMillis;
+    }
+
+    /**
+     * @return length of the run, not counting the last journeys finishing
+     */
+    public long getTotalMillis() {
+        return rampUpMillis + steadyMillis + rampDownMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadProfile[" + users + " users, ramp up " + rampUpMillis
+                + " ms, steady " + steadyMillis + " ms, ramp down "
+                + rampDownMillis + " ms]";
+    }
+}
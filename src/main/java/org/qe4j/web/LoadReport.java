@@ -0,0 +1,188 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * State of a LoadRunner run at one moment, either a periodic snapshot while
+ * it runs or the final report. Step and journey latencies are in
+ * milliseconds, as CommandStats report them.
+ */
+public class LoadReport {
+
+    private final long elapsedMillis;
+    private final int activeUsers;
+    private final long completedJourneys;
+    private final long failedJourneys;
+    private final CommandStats journeyStats;
+    private final List<CommandStats> stepStats;
+    private final Map<String, Long> errors;
+    private final boolean finished;
+
+    public LoadReport(long elapsedMillis, int activeUsers,
+            long completedJourneys, long failedJourneys,
+            CommandStats journeyStats, List<CommandStats> stepStats,
+            Map<String, Long> errors, boolean finished) {
+        this.elapsedMillis = elapsedMillis;
+        this.activeUsers = activeUsers;
+        this.completedJourneys = completedJourneys;
+        this.failedJourneys = failedJourneys;
+        this.journeyStats = journeyStats;
+        this.stepStats = Collections.unmodifiableList(stepStats);
+        this.errors = Collections.unmodifiableMap(errors);
+        this.finished = finished;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return users running at the time of the report
+     */
+    public int getActiveUsers() {
+        return activeUsers;
+    }
+
+    public long getCompletedJourneys() {
+        return completedJourneys;
+    }
+
+    /**
+     * @return journeys failed, including iterations whose session could not
+     *         be opened
+     */
+    public long getFailedJourneys() {
+        return failedJourneys;
+    }
+
+    /**
+     * @return failed journeys of all journeys ended, zero if none ended
+     */
+    public double getErrorRate() {
+        long ended = completedJourneys + failedJourneys;
+        return ended == 0 ? 0 : (double) failedJourneys / ended;
+    }
+
+    /**
+     * @return journeys ended per second of the run
+     */
+    public double getJourneysPerSecond() {
+        return elapsedMillis == 0 ? 0 : (completedJourneys + failedJourneys)
+                * 1000d / elapsedMillis;
+    }
+
+    /**
+     * @return latencies of whole journeys, failed ones counted as errors
+     */
+    public CommandStats getJourneyStats() {
+        return journeyStats;
+    }
+
+    /**
+     * @return latencies of each step by name, in the order first run
+     */
+    public List<CommandStats> getStepStats() {
+        return stepStats;
+    }
+
+    /**
+     * @param name
+     * @return latencies of the step, else null if it never ran
+     */
+    public CommandStats getStepStats(String name) {
+        for (CommandStats stats : stepStats) {
+            if (stats.getCommand().equals(name)) {
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return failures counted by exception class
+     */
+    public Map<String, Long> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return true for the final report of a run
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return text table of the journeys, each step and the errors
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(
+                "%s after %.1f s: %d users, %d journeys (%.2f/s),"
+                        + " %d failed (%.2f%%)%n", finished ? "finished"
+                        : "running", elapsedMillis / 1000d, activeUsers,
+                completedJourneys + failedJourneys, getJourneysPerSecond(),
+                failedJourneys, getErrorRate() * 100));
+        summary.append(String.format("%-30s %7s %7s %9s %9s %9s %9s %9s%n",
+                "step", "count", "errors", "mean", "p50", "p90", "p99", "max"));
+        appendStats(summary, "(journey)", journeyStats);
+        for (CommandStats stats : stepStats) {
+            appendStats(summary, stats.getCommand(), stats);
+        }
+        for (Map.Entry<String, Long> error : errors.entrySet()) {
+            summary.append(String.format("%7d x %s%n", error.getValue(),
+                    error.getKey()));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Writes the summary to the file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void writeReport(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        FileUtils.writeStringToFile(file, getSummary(), "UTF-8");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LoadReport[%.1f s, %d users, %d journeys,"
+                + " %d failed, p90 %.1f ms]", elapsedMillis / 1000d,
+                activeUsers, completedJourneys + failedJourneys,
+                failedJourneys, journeyStats.getP90());
+    }
+
+    private static void appendStats(StringBuilder summary, String name,
+            CommandStats stats) {
+        summary.append(String.format(
+                "%-30s %7d %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n", name,
+                stats.getCount(), stats.getErrorCount(), stats.getMean(),
+                stats.getP50(), stats.getP90(), stats.getP99(), stats.getMax()));
+    }
+}
@@ -0,0 +1,474 @@
+package org.qe4j.web;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Runs a user journey built from OpenWebDriver page flows as load, across
+ * concurrent virtual users following a LoadProfile. Each user has a thread
+ * and a session of its own and repeats the journey with think time in
+ * between until its stop time. Journeys time their steps through the
+ * Session, which keeps a latency histogram and error count per step name; a
+ * step throwing, including a failed assertion, fails the journey, and the
+ * session of a failed journey is replaced, since the state of its browser is
+ * unknown. An iteration whose session cannot be opened counts as a failed
+ * journey.
+ *
+ * While running, a snapshot is handed to the listener every snapshot period,
+ * by default logging it; run() returns the final report.
+ */
+public class LoadRunner {
+
+    public static final String JOURNEY = "(journey)";
+    public static final String NEW_SESSION = "(new session)";
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(LoadRunner.class);
+
+    /**
+     * Flow a virtual user repeats.
+     */
+    public interface Journey {
+        void run(Session session) throws Exception;
+    }
+
+    /**
+     * Timed part of a journey.
+     */
+    public interface Step {
+        void run(OpenWebDriver driver) throws Exception;
+    }
+
+    /**
+     * Receives the periodic snapshots and the final report.
+     */
+    public interface Listener {
+        void report(LoadReport report);
+    }
+
+    private final Properties properties;
+    private final LoadProfile profile;
+    private final ThinkTime thinkTime;
+    private long snapshotMillis = 10000;
+    private int maxIterations;
+    private Listener listener = new Listener() {
+        @Override
+        public void report(LoadReport report) {
+            log.info("{}", report);
+        }
+    };
+
+    private final ConcurrentMap<String, LatencyHistogram> steps = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final List<String> stepOrder = new CopyOnWriteArrayList<String>();
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+    private final LatencyHistogram journeys = new LatencyHistogram();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final CountDownLatch stopSignal = new CountDownLatch(1);
+    private volatile long startNanos;
+
+    /**
+     * @param properties
+     *            driver properties of every session
+     * @param profile
+     * @param thinkTime
+     *            pause after each journey and on Session.think()
+     */
+    public LoadRunner(Properties properties, LoadProfile profile,
+            ThinkTime thinkTime) {
+        this.properties = properties;
+        this.profile = profile;
+        this.thinkTime = thinkTime;
+    }
+
+    /**
+     * @param snapshotMillis
+     *            period of the snapshots, zero for none
+     */
+    public LoadRunner setSnapshotMillis(long snapshotMillis) {
+        this.snapshotMillis = snapshotMillis;
+        return this;
+    }
+
+    /**
+     * @param maxIterations
+     *            journeys each user runs at most, zero for as many as fit
+     *            until its stop time
+     */
+    public LoadRunner setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+        return this;
+    }
+
+    public LoadRunner setListener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public LoadProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Runs the journey following the profile and waits for all users to
+     * finish.
+     *
+     * @param journey
+     * @return final report
+     * @throws InterruptedException
+     *             if interrupted while waiting for the users, they are
+     *             stopped
+     */
+    public LoadReport run(final Journey journey) throws InterruptedException {
+        log.info("starting load of {} with think time {}", profile, thinkTime);
+        startNanos = System.nanoTime();
+        ScheduledExecutorService snapshots = null;
+        if (snapshotMillis > 0) {
+            snapshots = Executors
+                    .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "load-snapshot");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            snapshots.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        listener.report(getSnapshot());
+                    } catch (RuntimeException e) {
+                        log.warn("load snapshot listener failed", e);
+                    }
+                }
+            }, snapshotMillis, snapshotMillis, TimeUnit.MILLISECONDS);
+        }
+
+        List<Thread> users = new ArrayList<Thread>();
+        for (int i = 0; i < profile.getUsers(); i++) {
+            final int user = i;
+            Thread thread = new Thread("load-user-" + (user + 1)) {
+                @Override
+                public void run() {
+                    runUser(user, journey);
+                }
+            };
+            thread.setDaemon(true);
+            thread.start();
+            users.add(thread);
+        }
+        try {
+            for (Thread thread : users) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            stop();
+            throw e;
+        } finally {
+            if (snapshots != null) {
+                snapshots.shutdownNow();
+            }
+        }
+
+        LoadReport report = createReport(true);
+        log.info("load finished\n{}", report.getSummary());
+        listener.report(report);
+        return report;
+    }
+
+    /**
+     * Stops all users after the journey they are in.
+     */
+    public void stop() {
+        stopSignal.countDown();
+    }
+
+    /**
+     * @return state of the run so far
+     */
+    public LoadReport getSnapshot() {
+        return createReport(false);
+    }
+
+    private void runUser(int user, Journey journey) {
+        long stopNanos = startNanos + profile.getStopMillis(user) * 1000000L;
+        if (!pause(startNanos + profile.getStartMillis(user) * 1000000L
+                - System.nanoTime(), stopNanos)) {
+            return;
+        }
+        active.incrementAndGet();
+        Random random = new Random();
+        Session session = new Session(user, random, stopNanos);
+        try {
+            int iteration = 0;
+            while (System.nanoTime() < stopNanos && !isStopped()
+                    && (maxIterations == 0 || iteration < maxIterations)) {
+                iteration++;
+                session.iteration = iteration;
+                if (session.driver == null && !session.open()) {
+                    // a user without a browser, e.g. on a saturated farm,
+                    // is a failed journey
+                    failed.incrementAndGet();
+                    pause(Math.max(1000, thinkTime.nextMillis(random))
+                            * 1000000L, stopNanos);
+                    continue;
+                }
+                long start = System.nanoTime();
+                boolean success = false;
+                try {
+                    journey.run(session);
+                    success = true;
+                } catch (Exception e) {
+                    journeyFailed(session, e);
+                } catch (AssertionError e) {
+                    // asserts of reused page flows fail the journey alone
+                    journeyFailed(session, e);
+                } finally {
+                    journeys.record(System.nanoTime() - start, success);
+                    if (success) {
+                        completed.incrementAndGet();
+                    } else {
+                        failed.incrementAndGet();
+                    }
+                }
+                session.think();
+            }
+        } finally {
+            session.close();
+            active.decrementAndGet();
+        }
+    }
+
+    /**
+     * Counts the error and closes the session, so the next journey of the
+     * user starts with a new browser.
+     */
+    private void journeyFailed(Session session, Throwable e) {
+        countError(e);
+        log.debug("journey of user " + (session.user + 1) + " failed", e);
+        session.close();
+    }
+
+    /**
+     * Sleeps until the time passed, the stop time of the user or the run is
+     * stopped.
+     *
+     * @return false if the run was stopped or the stop time reached
+     */
+    private boolean pause(long nanos, long stopNanos) {
+        long wait = Math.min(nanos, stopNanos - System.nanoTime());
+        try {
+            if (wait > 0 && stopSignal.await(wait, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return System.nanoTime() < stopNanos && !isStopped();
+    }
+
+    private boolean isStopped() {
+        return stopSignal.getCount() == 0
+                || Thread.currentThread().isInterrupted();
+    }
+
+    private LatencyHistogram histogram(String step) {
+        LatencyHistogram histogram = steps.get(step);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = steps.putIfAbsent(step, created);
+            if (histogram == null) {
+                histogram = created;
+                stepOrder.add(step);
+            }
+        }
+        return histogram;
+    }
+
+    private void countError(Throwable e) {
+        String type = e.getClass().getName();
+        AtomicLong count = errors.get(type);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = errors.putIfAbsent(type, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private LoadReport createReport(boolean finished) {
+        List<CommandStats> stepStats = new ArrayList<CommandStats>();
+        for (String step : stepOrder) {
+            stepStats.add(new CommandStats(step, null, steps.get(step)));
+        }
+        Map<String, Long> errorCounts = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> error : errors.entrySet()) {
+            errorCounts.put(error.getKey(), error.getValue().get());
+        }
+        return new LoadReport((System.nanoTime() - startNanos) / 1000000L,
+                active.get(), completed.get(), failed.get(), new CommandStats(
+                        JOURNEY, null, journeys), stepStats, errorCounts,
+                finished);
+    }
+
+    /**
+     * Virtual user running journeys, with the session of the user.
+     */
+    public class Session {
+
+        private final int user;
+        private final Random random;
+        private final long stopNanos;
+        private OpenWebDriver driver;
+        private int iteration;
+
+        Session(int user, Random random, long stopNanos) {
+            this.user = user;
+            this.random = random;
+            this.stopNanos = stopNanos;
+        }
+
+        /**
+         * @return the session of the user
+         */
+        public OpenWebDriver getDriver() {
+            return driver;
+        }
+
+        /**
+         * @return index of the user, from zero
+         */
+        public int getUser() {
+            return user;
+        }
+
+        /**
+         * @return journey of the user running, from one
+         */
+        public int getIteration() {
+            return iteration;
+        }
+
+        /**
+         * @return random numbers of the user, e.g. to pick test data
+         */
+        public Random getRandom() {
+            return random;
+        }
+
+        /**
+         * Runs and times a step of the journey.
+         *
+         * @param name
+         *            step the latency is recorded under
+         * @param step
+         * @throws Exception
+         *             the failure of the step, failing the journey
+         */
+        public void step(String name, Step step) throws Exception {
+            LatencyHistogram histogram = histogram(name);
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                step.run(driver);
+                success = true;
+            } finally {
+                histogram.record(System.nanoTime() - start, success);
+            }
+        }
+
+        /**
+         * Pauses for the think time, ending early when the user stops.
+         */
+        public void think() {
+            think(thinkTime.nextMillis(random));
+        }
+
+        /**
+         * @param millis
+         *            pause, ending early when the user stops
+         */
+        public void think(long millis) {
+            pause(millis * 1000000L, stopNanos);
+        }
+
+        private boolean open() {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                driver = newDriver(properties);
+                success = true;
+            } catch (Exception e) {
+                countError(e);
+                log.warn("unable to open session of user " + (user + 1), e);
+            } finally {
+                histogram(NEW_SESSION).record(System.nanoTime() - start,
+                        success);
+            }
+            return success;
+        }
+
+        private void close() {
+            if (driver == null) {
+                return;
+            }
+            try {
+                driver.quit();
+            } catch (RuntimeException e) {
+                log.warn("unable to quit session of user " + (user + 1), e);
+            }
+            driver = null;
+        }
+    }
+
+    /**
+     * Creates the session of a user.
+     *
+     * @param properties
+     * @return new session
+     */
+    protected OpenWebDriver newDriver(Properties properties) throws Exception {
+        return new OpenWebDriver(properties);
+    }
+
+    @Override
+    public String toString() {
+        return "LoadRunner[" + profile + ", active " + active.get()
+                + ", completed " + completed.get() + ", failed "
+                + failed.get() + "]";
+    }
+}
@@ -0,0 +1,72 @@
+package org.qe4j.web;
+
+import org.openqa.selenium.By;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * The strategy a By locator uses to find elements, used to break down find
+ * command measurements.
+ */
+public enum LocatorStrategy {
+    ID("id"),
+    NAME("name"),
+    CLASS_NAME("class name"),
+    CSS_SELECTOR("css selector"),
+    XPATH("xpath"),
+    TAG_NAME("tag name"),
+    LINK_TEXT("link text"),
+    PARTIAL_LINK_TEXT("partial link text"),
+    OTHER("other");
+
+    private final String strategyName;
+
+    private LocatorStrategy(String strategyName) {
+        this.strategyName = strategyName;
+    }
+
+    /**
+     * Determines the strategy of the locator without building its string
+     * representation.
+     *
+     * @param by
+     * @return locator strategy, or OTHER for custom and composite locators
+     */
+    public static LocatorStrategy of(By by) {
+        if (by instanceof By.ById) {
+            return ID;
+        } else if (by instanceof By.ByCssSelector) {
+            return CSS_SELECTOR;
+        } else if (by instanceof By.ByXPath) {
+            return XPATH;
+        } else if (by instanceof By.ByName) {
+            return NAME;
+        } else if (by instanceof By.ByClassName) {
+            return CLASS_NAME;
+        } else if (by instanceof By.ByTagName) {
+            return TAG_NAME;
+        } else if (by instanceof By.ByLinkText) {
+            return LINK_TEXT;
+        } else if (by instanceof By.ByPartialLinkText) {
+            return PARTIAL_LINK_TEXT;
+        }
+        return OTHER;
+    }
+
+    @Override
+    public String toString() {
+        return strategyName;
+    }
+}
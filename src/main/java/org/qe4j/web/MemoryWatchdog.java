@@ -0,0 +1,215 @@
+package org.qe4j.web;
+
+import java.util.Properties;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Watches the browser memory of a long running session. OpenWebDriver samples
+ * the javascript heap (performance.memory where the browser has it) and the
+ * number of DOM elements after a navigation, refresh, click or submit once
+ * the sample interval passed, so a single page application is sampled as it
+ * is used. Sampling happens on the thread of the test since WebDriver
+ * sessions are not thread safe; there is no background sampling, so a session
+ * doing none of these actions is not sampled. The trend since the session
+ * started is logged with each sample, and crossing a threshold asks for the
+ * session to be recycled.
+ *
+ * When the first sample after a recycle crosses a threshold again, recycling
+ * cannot help, e.g. a page with more elements than allowed, so recycles are
+ * suspended until a sample falls below the thresholds.
+ */
+public class MemoryWatchdog {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(MemoryWatchdog.class);
+
+    private static final double BYTES_PER_MB = 1024d * 1024d;
+
+    private final long intervalMillis;
+    private final long maxHeapBytes;
+    private final long maxDomNodes;
+
+    private long lastSampleNanos;
+    private boolean sampled;
+    private long firstSampleNanos;
+    private long firstHeapBytes = -1;
+    private long lastHeapBytes = -1;
+    private long peakHeapBytes = -1;
+    private long lastDomNodes = -1;
+    private long sampleCount;
+    private long recycleCount;
+    private boolean recycled;
+    private boolean suspended;
+
+    /**
+     * @param properties
+     * @return watchdog of the webdriver.memory properties, else null if
+     *         webdriver.memory.watchdog.enabled is not set
+     */
+    public static MemoryWatchdog fromProperties(Properties properties) {
+        if (!Boolean.parseBoolean(properties
+                .getProperty(OpenWebDriver.MEMORY_WATCHDOG_PROP_KEY))) {
+            return null;
+        }
+        return new MemoryWatchdog(getLong(properties,
+                OpenWebDriver.MEMORY_INTERVAL_PROP_KEY, 60) * 1000, getLong(
+                properties, OpenWebDriver.MEMORY_HEAP_MAX_PROP_KEY, 0),
+                getLong(properties, OpenWebDriver.MEMORY_DOM_MAX_PROP_KEY, 0));
+    }
+
+    /**
+     * @param intervalMillis
+     *            least time between samples
+     * @param maxHeapBytes
+     *            javascript heap recycling the session, zero for no limit
+     * @param maxDomNodes
+     *            DOM elements recycling the session, zero for no limit
+     */
+    public MemoryWatchdog(long intervalMillis, long maxHeapBytes,
+            long maxDomNodes) {
+        this.intervalMillis = intervalMillis;
+        this.maxHeapBytes = maxHeapBytes;
+        this.maxDomNodes = maxDomNodes;
+    }
+
+    /**
+     * @return true if the sample interval passed since the last sample
+     */
+    public synchronized boolean isDue() {
+        return !sampled
+                || (System.nanoTime() - lastSampleNanos) / 1000000L >= intervalMillis;
+    }
+
+    /**
+     * Records a sample of the browser.
+     *
+     * @param heapBytes
+     *            used javascript heap, negative if the browser does not tell
+     * @param domNodes
+     *            elements in the document
+     * @return true if the session should be recycled
+     */
+    public synchronized boolean record(long heapBytes, long domNodes) {
+        long now = System.nanoTime();
+        if (!sampled || recycled) {
+            firstSampleNanos = now;
+            firstHeapBytes = heapBytes;
+            peakHeapBytes = heapBytes;
+        }
+        sampled = true;
+        lastSampleNanos = now;
+        lastHeapBytes = heapBytes;
+        lastDomNodes = domNodes;
+        peakHeapBytes = Math.max(peakHeapBytes, heapBytes);
+        sampleCount++;
+
+        double minutes = (now - firstSampleNanos) / 60e9;
+        if (heapBytes >= 0) {
+            log.info("browser heap {} MB ({} MB/min since {}), {} dom nodes",
+                    new Object[] {
+                            String.format("%.1f", heapBytes / BYTES_PER_MB),
+                            String.format("%+.2f", minutes <= 0 ? 0
+                                    : (heapBytes - firstHeapBytes)
+                                            / BYTES_PER_MB / minutes),
+                            recycleCount == 0 ? "session start"
+                                    : "last recycle", domNodes });
+        } else {
+            log.info("browser heap not available, {} dom nodes", domNodes);
+        }
+
+        boolean exceeded = (maxHeapBytes > 0 && heapBytes > maxHeapBytes)
+                || (maxDomNodes > 0 && domNodes > maxDomNodes);
+        boolean afterRecycle = recycled;
+        recycled = false;
+        if (!exceeded) {
+            suspended = false;
+            return false;
+        }
+        if (afterRecycle) {
+            suspended = true;
+            log.warn("browser memory thresholds crossed right after recycling"
+                    + " (heap {} of {} bytes, {} of {} dom nodes), recycling"
+                    + " suspended", new Object[] { heapBytes, maxHeapBytes,
+                    domNodes, maxDomNodes });
+            return false;
+        }
+        return !suspended;
+    }
+
+    /**
+     * Notes the session was recycled.
+     */
+    public synchronized void recycled() {
+        recycleCount++;
+        recycled = true;
+        // sample the fresh session with the next navigation
+        sampled = false;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public long getMaxHeapBytes() {
+        return maxHeapBytes;
+    }
+
+    public long getMaxDomNodes() {
+        return maxDomNodes;
+    }
+
+    public synchronized long getLastHeapBytes() {
+        return lastHeapBytes;
+    }
+
+    public synchronized long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    public synchronized long getLastDomNodes() {
+        return lastDomNodes;
+    }
+
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    public synchronized long getRecycleCount() {
+        return recycleCount;
+    }
+
+    /**
+     * @return true while recycling is suspended
+     */
+    public synchronized boolean isSuspended() {
+        return suspended;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MemoryWatchdog[heap " + lastHeapBytes + " of " + maxHeapBytes
+                + ", dom " + lastDomNodes + " of " + maxDomNodes
+                + ", samples " + sampleCount + ", recycles " + recycleCount
+                + "]";
+    }
+
+    private static long getLong(Properties properties, String key,
+            long defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.trim().equals("") ? defaultValue : Long
+                .parseLong(value.trim());
+    }
+}
@@ -1,7 +1,10 @@
 package org.qe4j.web;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Properties;
+
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
@@ -85,4 +88,46 @@ public class OpenSeleniumGrid {
 
         return gridNodeAddress;
     }
+
+    /**
+     * Streams a file from the grid node of the session to local disk through
+     * the ArtifactAgent running on the node at webdriver.grid.node.agent.port.
+     * Local sessions retrieve from an agent on 127.0.0.1.
+     *
+     * @param awd
+     * @param remotePath
+     *            path relative to the root directory of the agent, the
+     *            download directory of the node
+     * @param target
+     *            local file, replaced once the transfer completed
+     * @return the target
+     * @throws IOException
+     *             if the node cannot be found or the transfer failed
+     */
+    public static File retrieveFile(OpenWebDriver awd, String remotePath,
+            File target) throws IOException {
+        String nodeAddress;
+        try {
+            nodeAddress = getNodeAddress(awd);
+        } catch (JSONException e) {
+            throw new IOException("unable to find grid node of session", e);
+        }
+        Properties properties = awd.getProperties();
+        ArtifactRetriever retriever = new ArtifactRetriever(nodeAddress,
+                getInt(properties, OpenWebDriver.AGENT_PORT_PROP_KEY,
+                        ArtifactAgent.DEFAULT_PORT), getInt(properties,
+                        OpenWebDriver.AGENT_CHUNK_PROP_KEY,
+                        ArtifactRetriever.DEFAULT_CHUNK_BYTES), getInt(
+                        properties, OpenWebDriver.AGENT_RETRIES_PROP_KEY,
+                        ArtifactRetriever.DEFAULT_RETRIES),
+                ArtifactRetriever.DEFAULT_TIMEOUT_MILLIS);
+        return retriever.retrieve(remotePath, target);
+    }
+
+    private static int getInt(Properties properties, String key,
+            int defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.trim().equals("") ? defaultValue
+                : Integer.parseInt(value.trim());
+    }
 }
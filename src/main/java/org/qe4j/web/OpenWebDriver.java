@@ -1,6 +1,7 @@
 package org.qe4j.web;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -12,6 +13,8 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FileUtils;
 import org.openqa.selenium.By;
@@ -22,10 +25,12 @@ import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.interactions.Keyboard;
 import org.openqa.selenium.interactions.Mouse;
 import org.openqa.selenium.Alert;
+import org.openqa.selenium.Cookie;
 import org.openqa.selenium.NoAlertPresentException;
 import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.Platform;
+import org.openqa.selenium.Proxy;
 import org.openqa.selenium.TakesScreenshot;
 import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebDriver;
@@ -39,7 +44,10 @@ import org.openqa.selenium.htmlunit.HtmlUnitDriver;
 import org.openqa.selenium.ie.InternetExplorerDriver;
 import org.openqa.selenium.interactions.Actions;
 import org.openqa.selenium.remote.Augmenter;
+import org.openqa.selenium.remote.CapabilityType;
+import org.openqa.selenium.remote.CommandExecutor;
 import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.HttpCommandExecutor;
 import org.openqa.selenium.remote.RemoteWebDriver;
 import org.openqa.selenium.support.ui.Select;
 
@@ -105,7 +113,11 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
     public static final String ASYNC_ENABLED_PROP_KEY = "webdriver.async.enabled";
     public static final String SCREENSHOT_DIR_PROP_KEY = "webdriver.screenshot.directory";
     public static final String DOWNLOAD_DIR_PROP_KEY = "webdriver.download.directory";
+    public static final String DOWNLOAD_STABLE_PROP_KEY = "webdriver.download.stable.millis";
     public static final String REMOTE_HOME_DIR_PROP_KEY = "webdriver.grid.node.homedir";
+    public static final String AGENT_PORT_PROP_KEY = "webdriver.grid.node.agent.port";
+    public static final String AGENT_CHUNK_PROP_KEY = "webdriver.grid.node.agent.chunk";
+    public static final String AGENT_RETRIES_PROP_KEY = "webdriver.grid.node.agent.retries";
     public static final String BROWSER_MAC_CHROME_PROP_KEY = "webdriver.mac.chrome.";
     public static final String BROWSER_MAC_FIREFOX_PROP_KEY = "webdriver.mac.firefox.";
     public static final String BROWSER_LINUX_CHROME_PROP_KEY = "webdriver.linux.chrome.";
@@ -113,16 +125,65 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
     public static final String BROWSER_WIN_CHROME_PROP_KEY = "webdriver.windows.chrome.";
     public static final String BROWSER_WIN_FIREFOX_PROP_KEY = "webdriver.windows.firefox.";
     public static final String BROWSER_WIN_INTERNETEXPLORER_PROP_KEY = "webdriver.windows.iexplore.";
-
-    private static boolean chromeDriverInitialized;
+    public static final String METRICS_ENABLED_PROP_KEY = "webdriver.metrics.enabled";
+    public static final String TRACE_FILE_PROP_KEY = "webdriver.trace.file";
+    public static final String TRACE_MAX_BYTES_PROP_KEY = "webdriver.trace.max.bytes";
+    public static final String READ_CACHE_ENABLED_PROP_KEY = "webdriver.cache.reads";
+    public static final String SCRIPT_LIBRARY_ENABLED_PROP_KEY = "webdriver.script.library.enabled";
+    public static final String MANAGER_SCOPE_PROP_KEY = "webdriver.manager.scope";
+    public static final String WAIT_POLL_PROP_KEY = "webdriver.wait.poll.millis";
+    public static final String WAIT_DEADLINE_PROP_KEY = "webdriver.wait.deadline";
+    public static final String HTMLUNIT_FAST_PROP_KEY = "webdriver.htmlunit.fast";
+    public static final String HTMLUNIT_ALLOW_PROP_KEY = "webdriver.htmlunit.allow";
+    public static final String HTMLUNIT_DENY_PROP_KEY = "webdriver.htmlunit.deny";
+    public static final String HTMLUNIT_CACHE_SIZE_PROP_KEY = "webdriver.htmlunit.cache.size";
+    public static final String PROXY_ENABLED_PROP_KEY = "webdriver.proxy.enabled";
+    public static final String PROXY_PORT_PROP_KEY = "webdriver.proxy.port";
+    public static final String PROXY_CACHE_MEMORY_PROP_KEY = "webdriver.proxy.cache.memory";
+    public static final String PROXY_CACHE_DISK_PROP_KEY = "webdriver.proxy.cache.disk";
+    public static final String PROXY_CACHE_DIR_PROP_KEY = "webdriver.proxy.cache.directory";
+    public static final String PROXY_CACHE_MAX_ENTRY_PROP_KEY = "webdriver.proxy.cache.max.entry";
+    public static final String PROXY_CACHE_PATTERNS_PROP_KEY = "webdriver.proxy.cache.patterns";
+    public static final String PROXY_CACHE_TTL_PROP_KEY = "webdriver.proxy.cache.ttl";
+    public static final String PROXY_CACHE_EXCLUDE_PROP_KEY = "webdriver.proxy.cache.exclude";
+    public static final String BLOCK_PATTERNS_PROP_KEY = "webdriver.block.patterns";
+    public static final String HAR_DIRECTORY_PROP_KEY = "webdriver.har.directory";
+    public static final String HAR_BODIES_PROP_KEY = "webdriver.har.bodies";
+    public static final String HAR_BODY_MAX_PROP_KEY = "webdriver.har.body.max";
+    public static final String TIMING_ENABLED_PROP_KEY = "webdriver.timing.enabled";
+    public static final String TIMING_PATTERNS_PROP_KEY = "webdriver.timing.patterns";
+    public static final String TIMING_REPORT_PROP_KEY = "webdriver.timing.report";
+    public static final String MEMORY_WATCHDOG_PROP_KEY = "webdriver.memory.watchdog.enabled";
+    public static final String MEMORY_INTERVAL_PROP_KEY = "webdriver.memory.interval";
+    public static final String MEMORY_HEAP_MAX_PROP_KEY = "webdriver.memory.heap.max";
+    public static final String MEMORY_DOM_MAX_PROP_KEY = "webdriver.memory.dom.max";
+    public static final String ACTION_LOG_ASYNC_PROP_KEY = "webdriver.action.log.async";
+    public static final String ACTION_LOG_QUEUE_PROP_KEY = "webdriver.action.log.queue";
+    public static final String RELOCATE_MAX_PROP_KEY = "webdriver.element.relocate.max";
+    public static final String TRACING_SAMPLE_PROP_KEY = "webdriver.tracing.sample";
+    public static final String TRACING_FILE_PROP_KEY = "webdriver.tracing.file";
+    public static final String GRID_POOL_ENABLED_PROP_KEY = "webdriver.grid.pool.enabled";
+    public static final String GRID_POOL_MAX_CONNECTIONS_PROP_KEY = "webdriver.grid.pool.max.connections";
+    public static final String GRID_POOL_IDLE_TIMEOUT_PROP_KEY = "webdriver.grid.pool.idle.timeout";
+    public static final String GRID_CONNECT_TIMEOUT_PROP_KEY = "webdriver.grid.connect.timeout";
+    public static final String GRID_SOCKET_TIMEOUT_PROP_KEY = "webdriver.grid.socket.timeout";
+    public static final String GRID_COMPRESSION_PROP_KEY = "webdriver.grid.compression";
+
+    public static final long DEFAULT_WAIT_POLL_MILLIS = 100;
+    public static final int DEFAULT_RELOCATE_MAX = 2;
+
+    private static volatile boolean chromeDriverInitialized;
+    private static final AtomicInteger downloadSessions = new AtomicInteger();
 
     private final org.slf4j.Logger log = org.slf4j.LoggerFactory
             .getLogger(getClass());
 
     private WebDriver webDriver;
     private Browser browserType;
-    private final Keyboard keyboard;
-    private final Mouse mouse;
+    private String browserVersion;
+    private Platform platform;
+    private Keyboard keyboard;
+    private Mouse mouse;
     private Properties properties;
     private String gridUrl;
     private boolean local;
@@ -131,6 +192,26 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
     private int waitForAjaxIdle;
     private int waitForAjaxSleep;
     private int waitForAjaxSleepAfter;
+    private CommandMetrics commandMetrics;
+    private CommandTraceRecorder commandTrace;
+    private DriverReadCache readCache;
+    private ScriptLibrary scriptLibrary = ScriptLibrary.getDefault();
+    private boolean scriptLibraryEnabled;
+    private long waitPollMillis = DEFAULT_WAIT_POLL_MILLIS;
+    private RequestBlocker requestBlocker;
+    private CachingProxy.Session proxySession;
+    private boolean pageBlocking;
+    private HarRecorder harRecorder;
+    private PageTimings pageTimings;
+    private String timingPage;
+    private File sessionDownloadDir;
+    private DownloadWatcher downloadWatcher;
+    private final ElementIdentityMap elementMap = new ElementIdentityMap(this);
+    private MemoryWatchdog memoryWatchdog;
+    private final ActionEventBus actionEvents = new ActionEventBus();
+    private Tracer tracer = Tracer.disabled();
+    private int relocateMax = DEFAULT_RELOCATE_MAX;
+    private final AtomicLong relocateCount = new AtomicLong();
 
     /**
      * Takes properties configuration and instantiates a local or remote
@@ -142,6 +223,31 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
     public OpenWebDriver(Properties properties) throws IOException {
         setProperties(properties);
         initWaitForAjax();
+        initCommandMetrics();
+        initCommandTrace();
+        if (Boolean.parseBoolean(properties
+                .getProperty(READ_CACHE_ENABLED_PROP_KEY))) {
+            readCache = new DriverReadCache();
+        }
+        scriptLibraryEnabled = !"false".equalsIgnoreCase(properties
+                .getProperty(SCRIPT_LIBRARY_ENABLED_PROP_KEY));
+        String waitPoll = properties.getProperty(WAIT_POLL_PROP_KEY);
+        if (waitPoll != null && !waitPoll.trim().equals("")) {
+            setWaitPollMillis(Long.parseLong(waitPoll.trim()));
+        }
+        requestBlocker = RequestBlocker.fromProperties(properties);
+        harRecorder = HarRecorder.fromProperties(properties);
+        if (Boolean.parseBoolean(properties
+                .getProperty(TIMING_ENABLED_PROP_KEY))) {
+            pageTimings = PageTimings.getInstance(properties);
+        }
+        memoryWatchdog = MemoryWatchdog.fromProperties(properties);
+        actionEvents.subscribe(ActionLogger.getInstance(properties));
+        tracer = Tracer.getInstance(properties);
+        String relocate = properties.getProperty(RELOCATE_MAX_PROP_KEY);
+        if (relocate != null && !relocate.trim().equals("")) {
+            setRelocateMax(Integer.parseInt(relocate.trim()));
+        }
 
         String browserProperty = properties.getProperty(BROWSER_PROP_KEY);
         Browser browser = Browser.get(browserProperty.toUpperCase());
@@ -168,15 +274,39 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
         setBrowserType(browser);
         String version = properties.getProperty(BROWSER_VERSION_PROP_KEY);
         Platform platform = lookupPlatform(platformProperty);
+        browserVersion = version;
+        this.platform = platform;
 
-        if (local) {
-            webDriver = initLocalWebDriver(browser, version, platform,
-                    properties);
-        } else {
-            webDriver = initRemoteWebDriver(browser, version, platform,
-                    properties);
+        boolean started = false;
+        try {
+            if (local) {
+                webDriver = initLocalWebDriver(browser, version, platform,
+                        properties);
+            } else {
+                webDriver = initRemoteWebDriver(browser, version, platform,
+                        properties);
+            }
+            started = true;
+        } finally {
+            // the file of a session that never started is completed now
+            if (!started && harRecorder != null) {
+                harRecorder.close();
+                harRecorder = null;
+            }
+        }
+
+        if (harRecorder != null && proxySession == null) {
+            log.warn("http traffic of {} {} sessions can not be recorded",
+                    local ? "local" : "remote", browser);
+            harRecorder.close();
+            harRecorder = null;
         }
 
+        // browsers without a proxy or web connection of their own block in
+        // the page
+        pageBlocking = requestBlocker != null && proxySession == null
+                && !(webDriver instanceof BlockingHtmlUnitDriver);
+
         keyboard = ((HasInputDevices) webDriver).getKeyboard();
         mouse = ((HasInputDevices) webDriver).getMouse();
 
@@ -234,56 +364,120 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
         String browserBinaryPath = getBrowserBinaryPath(platform, browser,
                 version, properties);
 
-        DesiredCapabilities capabilities = null;
-        switch (browser) {
-            case FIREFOX:
-            default:
-                FirefoxProfile profile = getFireFoxProfile();
-                // TODO investigate adding JSErrorCollector data extraction
-                // JavaScriptError.addExtension(profile);
-                driver = OpenWebDriver.newLocalFirefoxDriver(browserBinaryPath,
-                        profile);
-                break;
-            case IEXPLORE:
-                /*
-                 * TODO investigate possibility of dynamically running
-                 * non-default version of IE with IEDriverServer
-                 */
-
-                // pass driver path to system properties
-                System.setProperty(IEXPLORE_DRIVER_PROP_KEY,
-                        properties.getProperty(IEXPLORE_DRIVER_PROP_KEY));
-
-                capabilities = DesiredCapabilities.internetExplorer();
-                driver = new InternetExplorerDriver(capabilities);
-                break;
-            case HTMLUNIT:
-                log.info("creating HtmlUnit driver emulating "
-                        + "FireFox17 with javascript enabled");
-                driver = new HtmlUnitDriver(BrowserVersion.FIREFOX_17);
-                ((HtmlUnitDriver) driver).setJavascriptEnabled(true);
-                break;
-            case CHROME:
-                initChromeDriver(properties);
+        // route through the shared caching proxy if enabled, and through a
+        // port of the proxy of their own if Firefox or Chrome block requests
+        // or the session traffic is recorded
+        boolean caching = Boolean.parseBoolean(properties
+                .getProperty(PROXY_ENABLED_PROP_KEY));
+        boolean proxyBlocking = requestBlocker != null
+                && browser != Browser.IEXPLORE && browser != Browser.HTMLUNIT;
+        boolean recording = harRecorder != null
+                && browser != Browser.IEXPLORE;
+        CachingProxy proxy = null;
+        int proxyPort = 0;
+        if (caching || proxyBlocking || recording) {
+            proxy = CachingProxy.getInstance(properties);
+            proxyPort = proxy.getPort();
+            if (proxyBlocking || recording) {
+                proxySession = proxy.openSession(proxyBlocking ? requestBlocker
+                        : null, caching, harRecorder);
+                proxyPort = proxySession.getPort();
+            }
+        }
 
-                // enable testability of this without actually executing
-                if (Boolean.parseBoolean(System
-                        .getProperty("os.name.overriden"))) {
-                    throw new IllegalStateException(
-                            "os overriden so can't detect driver reliably");
-                }
+        // the session port of the proxy is released if the browser does not
+        // start, else it would stay open for the life of the jvm
+        boolean started = false;
+        try {
+            DesiredCapabilities capabilities = null;
+            switch (browser) {
+                case FIREFOX:
+                default:
+                    FirefoxProfile profile = getFireFoxProfile();
+                    if (proxy != null) {
+                        profile.setPreference("network.proxy.type", 1);
+                        profile.setPreference("network.proxy.http", "127.0.0.1");
+                        profile.setPreference("network.proxy.http_port",
+                                proxyPort);
+                        profile.setPreference("network.proxy.ssl", "127.0.0.1");
+                        profile.setPreference("network.proxy.ssl_port", proxyPort);
+                        profile.setPreference("network.proxy.no_proxies_on", "");
+                    }
+                    // TODO investigate adding JSErrorCollector data extraction
+                    // JavaScriptError.addExtension(profile);
+                    driver = OpenWebDriver.newLocalFirefoxDriver(browserBinaryPath,
+                            profile);
+                    break;
+                case IEXPLORE:
+                    /*
+                     * TODO investigate possibility of dynamically running
+                     * non-default version of IE with IEDriverServer
+                     */
+
+                    // pass driver path to system properties
+                    initIExploreDriverBinary(properties);
+
+                    capabilities = DesiredCapabilities.internetExplorer();
+                    driver = new InternetExplorerDriver(capabilities);
+                    break;
+                case HTMLUNIT:
+                    if (Boolean.parseBoolean(properties
+                            .getProperty(HTMLUNIT_FAST_PROP_KEY))) {
+                        log.info("creating fast HtmlUnit driver emulating "
+                                + "FireFox17 with javascript enabled");
+                        driver = new FastHtmlUnitDriver(BrowserVersion.FIREFOX_17,
+                                HtmlUnitProfile.fromProperties(properties),
+                                requestBlocker);
+                    } else if (requestBlocker != null) {
+                        log.info("creating HtmlUnit driver emulating "
+                                + "FireFox17 with javascript enabled and "
+                                + "request blocking");
+                        driver = new BlockingHtmlUnitDriver(
+                                BrowserVersion.FIREFOX_17, requestBlocker);
+                    } else {
+                        log.info("creating HtmlUnit driver emulating "
+                                + "FireFox17 with javascript enabled");
+                        driver = new HtmlUnitDriver(BrowserVersion.FIREFOX_17);
+                        ((HtmlUnitDriver) driver).setJavascriptEnabled(true);
+                    }
+                    if (proxy != null) {
+                        ((HtmlUnitDriver) driver).setProxy("127.0.0.1", proxyPort);
+                    }
+                    break;
+                case CHROME:
+                    initChromeDriver(properties);
+
+                    // enable testability of this without actually executing
+                    if (Boolean.parseBoolean(System
+                            .getProperty("os.name.overriden"))) {
+                        throw new IllegalStateException(
+                                "os overriden so can't detect driver reliably");
+                    }
 
-                capabilities = DesiredCapabilities.chrome();
+                    capabilities = DesiredCapabilities.chrome();
 
-                if (browserBinaryPath != null) {
-                    capabilities.setCapability("chrome.binary",
-                            browserBinaryPath);
-                }
+                    if (browserBinaryPath != null) {
+                        capabilities.setCapability("chrome.binary",
+                                browserBinaryPath);
+                    }
 
-                initChromeProfile(capabilities);
+                    initChromeProfile(capabilities);
+                    if (proxy != null) {
+                        String address = "127.0.0.1:" + proxyPort;
+                        capabilities.setCapability(CapabilityType.PROXY,
+                                new Proxy().setHttpProxy(address).setSslProxy(
+                                        address));
+                    }
 
-                driver = new ChromeDriver(capabilities);
-                break;
+                    driver = new ChromeDriver(capabilities);
+                    break;
+            }
+            started = true;
+        } finally {
+            if (!started && proxySession != null) {
+                proxySession.close();
+                proxySession = null;
+            }
         }
 
         return driver;
@@ -383,7 +577,8 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
         WebDriver remoteDriver = null;
         gridUrl = properties.getProperty(GRID_URL_PROP_KEY);
         if (gridUrl != null && !gridUrl.equals("")) {
-            remoteDriver = OpenWebDriver.newRemoteWebDriver(gridUrl,
+            remoteDriver = OpenWebDriver.newRemoteWebDriver(
+                    initCommandExecutor(new URL(gridUrl), properties),
                     capabilities);
         } else {
             // TODO remoteDriver = initSauceWebDriver(properties, capabilities);
@@ -398,6 +593,33 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
         return new RemoteWebDriver(new URL(gridUrl), capabilities);
     }
 
+    protected static synchronized RemoteWebDriver newRemoteWebDriver(
+            CommandExecutor commandExecutor, Capabilities capabilities) {
+        return new RemoteWebDriver(commandExecutor, capabilities);
+    }
+
+    /**
+     * Builds the executor sending remote commands to the grid hub. Uses a
+     * keep-alive connection pool shared by all sessions on the hub when
+     * webdriver.grid.pool.enabled is true, else Selenium's default executor.
+     * Override to plug in a different executor.
+     *
+     * @param hubUrl
+     * @param properties
+     * @return command executor for the remote driver
+     */
+    protected CommandExecutor initCommandExecutor(URL hubUrl,
+            Properties properties) {
+        if (Boolean.parseBoolean(properties
+                .getProperty(GRID_POOL_ENABLED_PROP_KEY))) {
+            GridConnectionPool pool = GridConnectionPool.getInstance(hubUrl,
+                    properties);
+            log.debug("sending remote commands through {}", pool);
+            return new PooledHttpCommandExecutor(hubUrl, pool);
+        }
+        return new HttpCommandExecutor(hubUrl);
+    }
+
     /**
      * Constructs the property key to lookup the browser binary path.
      *
@@ -468,36 +690,69 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
      * @param properties
      */
     protected void initChromeDriver(Properties properties) {
+        initChromeDriverBinary(properties);
+    }
+
+    /**
+     * Process wide part of initChromeDriver(), run at most once per JVM even
+     * when drivers are created from many threads at the same time.
+     *
+     * @param properties
+     */
+    static void initChromeDriverBinary(Properties properties) {
         if (chromeDriverInitialized) {
             return;
         }
-        // assuming bin directory is peer to config directory
-        String chromePath = new File(
-                properties.getProperty(CHROME_DRIVER_PROP_KEY))
-                .getAbsolutePath();
+        synchronized (OpenWebDriver.class) {
+            if (chromeDriverInitialized) {
+                return;
+            }
+            // assuming bin directory is peer to config directory
+            String chromePath = new File(
+                    properties.getProperty(CHROME_DRIVER_PROP_KEY))
+                    .getAbsolutePath();
+
+            // determine which binary to execute based on OS
+            String os = System.getProperty("os.name").toLowerCase();
+            String osSuffix = "-";
+            if (os.contains("linux")) {
+                osSuffix += "linux64";
+            } else if (os.contains("mac")) {
+                osSuffix += "mac";
+            } else if (os.contains("win")) {
+                osSuffix += "win.exe";
+            }
 
-        // determine which binary to execute based on OS
-        String os = System.getProperty("os.name").toLowerCase();
-        String osSuffix = "-";
-        if (os.contains("linux")) {
-            osSuffix += "linux64";
-        } else if (os.contains("mac")) {
-            osSuffix += "mac";
-        } else if (os.contains("win")) {
-            osSuffix += "win.exe";
+            // set the appropriate OS-specific chrome binary
+            String chromeBinary = chromePath + osSuffix;
+            org.slf4j.LoggerFactory.getLogger(OpenWebDriver.class).debug(
+                    "setting System property {} to {}",
+                    CHROME_DRIVER_PROP_KEY, chromeBinary);
+            if (!new File(chromeBinary).isFile()) {
+                throw new IllegalArgumentException(
+                        "chromeBinary path constructed [" + chromeBinary
+                                + "] does not match an existing file");
+            }
+            System.setProperty(CHROME_DRIVER_PROP_KEY, chromeBinary);
+            chromeDriverInitialized = true;
         }
+    }
 
-        // set the appropriate OS-specific chrome binary
-        String chromeBinary = chromePath + osSuffix;
-        log.debug("setting System property {} to {}", CHROME_DRIVER_PROP_KEY,
-                chromeBinary);
-        if (!new File(chromeBinary).isFile()) {
-            throw new IllegalArgumentException(
-                    "chromeBinary path constructed [" + chromeBinary
-                            + "] does not match an existing file");
+    /**
+     * Passes the IEDriverServer path to the process wide system property,
+     * leaving it alone when another driver already set the same path.
+     *
+     * @param properties
+     */
+    static void initIExploreDriverBinary(Properties properties) {
+        String driverPath = properties.getProperty(IEXPLORE_DRIVER_PROP_KEY);
+        synchronized (OpenWebDriver.class) {
+            if (driverPath != null
+                    && !driverPath.equals(System
+                            .getProperty(IEXPLORE_DRIVER_PROP_KEY))) {
+                System.setProperty(IEXPLORE_DRIVER_PROP_KEY, driverPath);
+            }
         }
-        System.setProperty(CHROME_DRIVER_PROP_KEY, chromeBinary);
-        chromeDriverInitialized = true;
     }
 
     /**
@@ -513,8 +768,9 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
         prefs.put("download.prompt_for_download", "false");
 
         // directory has to be absolute path
-        prefs.put("download.default_directory", System.getenv("HOME")
-                + File.separator + getDownloadDir());
+        prefs.put("download.default_directory", local ? getSessionDownloadDir()
+                .getAbsolutePath() : System.getenv("HOME") + File.separator
+                + getDownloadDir());
         prefs.put("download.extensions_to_open", "pdf");
 
         capabilities.setCapability("chrome.prefs", prefs);
@@ -529,8 +785,14 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
      */
     protected FirefoxProfile getFireFoxProfile() {
         FirefoxProfile profile = new FirefoxProfile();
-        profile.setPreference("browser.download.dir", getDownloadDir());
-        profile.setPreference("browser.download.folderList", 0); // desktop
+        if (local) {
+            profile.setPreference("browser.download.dir",
+                    getSessionDownloadDir().getAbsolutePath());
+            profile.setPreference("browser.download.folderList", 2); // custom
+        } else {
+            profile.setPreference("browser.download.dir", getDownloadDir());
+            profile.setPreference("browser.download.folderList", 0); // desktop
+        }
         profile.setPreference("browser.download.manager.showWhenStarting",
                 false);
         profile.setPreference("browser.helperApps.neverAsk.saveToDisk",
@@ -575,6 +837,69 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
         }
     }
 
+    /**
+     * Uses the JVM wide command metrics unless disabled by configuration.
+     */
+    protected void initCommandMetrics() {
+        String enabled = properties.getProperty(METRICS_ENABLED_PROP_KEY);
+        if (enabled == null || Boolean.parseBoolean(enabled.trim())) {
+            commandMetrics = CommandMetrics.getDefault();
+        }
+    }
+
+    /**
+     * Opens the command trace file when tracing is configured.
+     *
+     * @throws IOException
+     */
+    protected void initCommandTrace() throws IOException {
+        String traceFile = properties.getProperty(TRACE_FILE_PROP_KEY);
+        if (traceFile == null || traceFile.trim().equals("")) {
+            return;
+        }
+        long maxBytes = CommandTraceRecorder.DEFAULT_MAX_BYTES;
+        String maxBytesProperty = properties
+                .getProperty(TRACE_MAX_BYTES_PROP_KEY);
+        if (maxBytesProperty != null && !maxBytesProperty.trim().equals("")) {
+            maxBytes = Long.parseLong(maxBytesProperty.trim());
+            if (maxBytes < 1) {
+                throw new IllegalArgumentException(TRACE_MAX_BYTES_PROP_KEY
+                        + " must be one or more");
+            }
+        }
+        commandTrace = CommandTraceRecorder.open(new File(traceFile.trim()),
+                maxBytes);
+    }
+
+    /**
+     * Records a command delegated to the underlying driver or one of its
+     * elements.
+     *
+     * @param command
+     * @param by
+     *            locator used by the command, else null
+     * @param target
+     *            what the command acted on (e.g. url, script or element),
+     *            only converted to a redacted string when tracing
+     * @param start
+     *            System.nanoTime() when the command started
+     * @param success
+     *            false if the command threw an exception
+     */
+    void commandCompleted(WebCommand command, By by, Object target,
+            long start, boolean success) {
+        if (commandMetrics == null && commandTrace == null) {
+            return;
+        }
+        long end = System.nanoTime();
+        if (commandMetrics != null) {
+            commandMetrics.record(command, by, end - start, success);
+        }
+        if (commandTrace != null) {
+            commandTrace.record(command, by, target, start, end, success);
+        }
+    }
+
     /**
      * Converts the property definition of the platform to the Selenium enum
      * representation of it. Throws exception if the platform is not supported
@@ -612,7 +937,15 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
 
     @Override
     public void close() {
-        webDriver.close();
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            webDriver.close();
+            success = true;
+        } finally {
+            invalidateReadCache();
+            commandCompleted(WebCommand.CLOSE, null, null, start, success);
+        }
     }
 
     /**
@@ -622,13 +955,21 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
     public OpenWebElement findElement(By arg0) {
         log.debug("findElement by {}...", arg0);
         WebElement element = null;
+        Span span = startSpan("findElement", arg0);
+        long start = System.nanoTime();
+        boolean success = false;
         try {
             element = webDriver.findElement(arg0);
+            success = true;
         } catch (NoSuchElementException e) {
             throw new NoSuchElementException("Failed to find element by "
                     + arg0 + " ." + e.getMessage());
+        } finally {
+            commandCompleted(WebCommand.FIND_ELEMENT, arg0,
+                    null, start, success);
+            span.end(success);
         }
-        return new OpenWebElement(this, element);
+        return elementMap.wrap(element).located(arg0, null);
     }
 
     /**
@@ -637,10 +978,22 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
     @Override
     public List<WebElement> findElements(By arg0) {
         log.debug("findElements by {}...", arg0);
-        List<WebElement> original = webDriver.findElements(arg0);
+        List<WebElement> original;
+        Span span = startSpan("findElements", arg0);
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            original = webDriver.findElements(arg0);
+            span.setAttribute("count", original.size());
+            success = true;
+        } finally {
+            commandCompleted(WebCommand.FIND_ELEMENTS, arg0,
+                    null, start, success);
+            span.end(success);
+        }
         List<WebElement> elements = new ArrayList<WebElement>();
         for (int i = 0; i < original.size(); i++) {
-            elements.add(new OpenWebElement(this, original.get(i)));
+            elements.add(elementMap.wrap(original.get(i)));
         }
         return elements;
     }
@@ -683,7 +1036,28 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
 
     @Override
     public void get(String arg0) {
-        webDriver.get(arg0);
+        Span span = tracer.start("get").setAttribute("url", arg0);
+        boolean completed = false;
+        try {
+            collectPageBlocked();
+            startHarPage(arg0);
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                webDriver.get(arg0);
+                success = true;
+            } finally {
+                invalidateReadCache();
+                commandCompleted(WebCommand.GET, null, arg0, start, success);
+                endHarPage();
+            }
+            installPageBlocking();
+            recordPageTiming(arg0);
+            checkMemory();
+            completed = true;
+        } finally {
+            span.end(completed);
+        }
     }
 
     /**
@@ -698,22 +1072,165 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
 
     @Override
     public String getCurrentUrl() {
-        return webDriver.getCurrentUrl();
+        long generation = 0;
+        if (readCache != null) {
+            String cached = (String) readCache
+                    .get(DriverReadCache.Value.CURRENT_URL);
+            if (cached != null) {
+                return cached;
+            }
+            generation = readCache.getGeneration();
+        }
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String result = webDriver.getCurrentUrl();
+            success = true;
+            if (readCache != null) {
+                readCache.put(DriverReadCache.Value.CURRENT_URL, result,
+                        generation);
+            }
+            return result;
+        } finally {
+            commandCompleted(WebCommand.GET_CURRENT_URL, null,
+                    null, start, success);
+        }
     }
 
     @Override
     public String getPageSource() {
-        return webDriver.getPageSource();
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String result = webDriver.getPageSource();
+            success = true;
+            return result;
+        } finally {
+            commandCompleted(WebCommand.GET_PAGE_SOURCE, null,
+                    null, start, success);
+        }
+    }
+
+    /**
+     * Reads the page source in chunks, for documents too large to fetch as
+     * one string.
+     *
+     * @param chunkChars
+     *            characters transferred per script call
+     * @return reader of the current page source, to be closed after use
+     */
+    public PageSourceReader getPageSourceReader(int chunkChars) {
+        return new PageSourceReader(this, chunkChars);
+    }
+
+    /**
+     * @return reader of the current page source in chunks of
+     *         PageSourceReader.DEFAULT_CHUNK_CHARS
+     */
+    public PageSourceReader getPageSourceReader() {
+        return getPageSourceReader(PageSourceReader.DEFAULT_CHUNK_CHARS);
+    }
+
+    /**
+     * Computes a digest of the whole DOM in the browser, so detecting a
+     * change costs a few bytes instead of the page source.
+     *
+     * @return 16 hex character digest of the current DOM
+     */
+    public String getDomDigest() {
+        return getDomDigest(null);
+    }
+
+    /**
+     * @param element
+     *            root of the subtree, null for the whole document
+     * @return 16 hex character digest of the DOM below the element
+     */
+    public String getDomDigest(WebElement element) {
+        if (element instanceof OpenWebElement) {
+            element = ((OpenWebElement) element).getWebElement();
+        }
+        if (element == null) {
+            return (String) callLibraryScript(ScriptLibrary.DOM_DIGEST);
+        }
+        return (String) callLibraryScript(ScriptLibrary.DOM_DIGEST, element);
+    }
+
+    /**
+     * Waits up to the implicit wait time (webdriver.wait) for the DOM to
+     * differ from the baseline.
+     *
+     * @param baselineDigest
+     *            digest of getDomDigest() before the action
+     * @return true if the DOM changed
+     */
+    public boolean waitForDomChange(String baselineDigest) {
+        return waitForDomChange(baselineDigest,
+                Integer.valueOf(properties.getProperty(WAIT_PROP_KEY)) * 1000L);
+    }
+
+    /**
+     * @param baselineDigest
+     *            digest of getDomDigest() before the action
+     * @param maxMillis
+     * @return true if the DOM changed within the time given
+     */
+    public boolean waitForDomChange(String baselineDigest, long maxMillis) {
+        return waitUntil(ReadyConditions.domChanged(baselineDigest),
+                maxMillis);
     }
 
     @Override
     public String getTitle() {
-        return webDriver.getTitle();
+        long generation = 0;
+        if (readCache != null) {
+            String cached = (String) readCache
+                    .get(DriverReadCache.Value.TITLE);
+            if (cached != null) {
+                return cached;
+            }
+            generation = readCache.getGeneration();
+        }
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String result = webDriver.getTitle();
+            success = true;
+            if (readCache != null) {
+                readCache.put(DriverReadCache.Value.TITLE, result,
+                        generation);
+            }
+            return result;
+        } finally {
+            commandCompleted(WebCommand.GET_TITLE, null, null, start, success);
+        }
     }
 
     @Override
     public String getWindowHandle() {
-        return webDriver.getWindowHandle();
+        long generation = 0;
+        if (readCache != null) {
+            String cached = (String) readCache
+                    .get(DriverReadCache.Value.WINDOW_HANDLE);
+            if (cached != null) {
+                return cached;
+            }
+            generation = readCache.getGeneration();
+        }
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            String result = webDriver.getWindowHandle();
+            success = true;
+            if (readCache != null) {
+                readCache.put(DriverReadCache.Value.WINDOW_HANDLE, result,
+                        generation);
+            }
+            return result;
+        } finally {
+            commandCompleted(WebCommand.GET_WINDOW_HANDLE, null,
+                    null, start, success);
+        }
     }
 
     @Override
@@ -721,7 +1238,28 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
         if (webDriver == null) {
             throw new IllegalStateException();
         }
-        return webDriver.getWindowHandles();
+        long generation = 0;
+        if (readCache != null) {
+            Set<String> cached = readCache.getWindowHandles();
+            if (cached != null) {
+                return cached;
+            }
+            generation = readCache.getGeneration();
+        }
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Set<String> handles = webDriver.getWindowHandles();
+            success = true;
+            if (readCache != null) {
+                readCache.put(DriverReadCache.Value.WINDOW_HANDLES, handles,
+                        generation);
+            }
+            return handles;
+        } finally {
+            commandCompleted(WebCommand.GET_WINDOW_HANDLES, null,
+                    null, start, success);
+        }
     }
 
     @Override
@@ -731,16 +1269,62 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
 
     @Override
     public Navigation navigate() {
+        if (readCache != null) {
+            return readCache.wrap(webDriver.navigate());
+        }
         return webDriver.navigate();
     }
 
     @Override
     public void quit() {
-        webDriver.quit();
+        if (requestBlocker != null) {
+            collectPageBlocked();
+            log.info("blocked {} requests matching {}",
+                    requestBlocker.getBlockedCount(),
+                    requestBlocker.getPatterns());
+        }
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            webDriver.quit();
+            success = true;
+        } finally {
+            invalidateReadCache();
+            commandCompleted(WebCommand.QUIT, null, null, start, success);
+            elementMap.clear();
+            if (proxySession != null) {
+                proxySession.close();
+            }
+            if (harRecorder != null) {
+                harRecorder.close();
+            }
+            removeSessionDownloadDir();
+        }
+    }
+
+    /**
+     * Removes the download directory of the session if nothing was
+     * downloaded, so sessions do not leave empty directories behind.
+     */
+    private void removeSessionDownloadDir() {
+        if (sessionDownloadDir == null) {
+            return;
+        }
+        String[] files = sessionDownloadDir.list();
+        if (files != null && files.length == 0 && sessionDownloadDir.delete()) {
+            log.debug("removed empty download directory {}",
+                    sessionDownloadDir);
+        } else if (sessionDownloadDir.exists()) {
+            log.info("downloads of the session kept in {}",
+                    sessionDownloadDir);
+        }
     }
 
     @Override
     public TargetLocator switchTo() {
+        if (readCache != null) {
+            return readCache.wrap(webDriver.switchTo());
+        }
         return webDriver.switchTo();
     }
 
@@ -804,6 +1388,182 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
         return properties;
     }
 
+    /**
+     * @return command latency metrics recorded by this driver, else null if
+     *         metrics are disabled
+     */
+    public CommandMetrics getCommandMetrics() {
+        return commandMetrics;
+    }
+
+    public void setCommandMetrics(CommandMetrics commandMetrics) {
+        this.commandMetrics = commandMetrics;
+    }
+
+    /**
+     * @return recorder tracing each command of this driver, else null if
+     *         tracing is not enabled
+     */
+    public CommandTraceRecorder getCommandTrace() {
+        return commandTrace;
+    }
+
+    public void setCommandTrace(CommandTraceRecorder commandTrace) {
+        this.commandTrace = commandTrace;
+    }
+
+    /**
+     * @return cache of title, current url and window handles, else null if
+     *         read caching is not enabled
+     */
+    public DriverReadCache getReadCache() {
+        return readCache;
+    }
+
+    public void setReadCache(DriverReadCache readCache) {
+        this.readCache = readCache;
+    }
+
+    /**
+     * Drops cached reads after the page or window may have changed outside of
+     * the driver's knowledge, e.g. through newActions(). Does nothing when
+     * read caching is not enabled.
+     */
+    public void invalidateReadCache() {
+        if (readCache != null) {
+            readCache.invalidate();
+        }
+    }
+
+    /**
+     * @return recorder of the session traffic when webdriver.har.directory is
+     *         set, else null
+     */
+    public HarRecorder getHarRecorder() {
+        return harRecorder;
+    }
+
+    /**
+     * Starts a page of the HAR recording, e.g. before clicking an element
+     * that loads one. get() starts and ends a page by itself. Does nothing if
+     * the session traffic is not recorded.
+     *
+     * @param title
+     */
+    public void startHarPage(String title) {
+        if (harRecorder != null) {
+            harRecorder.startPage(title);
+        }
+    }
+
+    /**
+     * Ends the current page of the HAR recording, e.g. once the page loaded
+     * by a click is ready.
+     */
+    public void endHarPage() {
+        if (harRecorder != null) {
+            harRecorder.endPage();
+        }
+    }
+
+    /**
+     * @return request blocking rules of webdriver.block.patterns, else null
+     */
+    public RequestBlocker getRequestBlocker() {
+        return requestBlocker;
+    }
+
+    /**
+     * @return requests blocked in this session, counting those of the
+     *         current page for browsers blocking in the page
+     */
+    public long getBlockedRequestCount() {
+        if (requestBlocker == null) {
+            return 0;
+        }
+        long count = requestBlocker.getBlockedCount();
+        if (pageBlocking) {
+            count += getPageBlocked();
+        }
+        return count;
+    }
+
+    /**
+     * Blocks requests of the current page for browsers without a proxy or web
+     * connection of their own.
+     */
+    private void installPageBlocking() {
+        if (!pageBlocking) {
+            return;
+        }
+        try {
+            callLibraryScript(ScriptLibrary.BLOCK_REQUESTS,
+                    requestBlocker.getExpressions());
+        } catch (WebDriverException e) {
+            log.debug("unable to block requests in the page", e);
+        }
+    }
+
+    /**
+     * Adds the requests blocked in the current page to the session count
+     * before it is left.
+     */
+    private void collectPageBlocked() {
+        if (pageBlocking) {
+            requestBlocker.addBlocked(getPageBlocked());
+        }
+    }
+
+    private long getPageBlocked() {
+        try {
+            Object count = callLibraryScript(ScriptLibrary.BLOCKED_COUNT);
+            return count instanceof Number ? ((Number) count).longValue() : 0;
+        } catch (WebDriverException e) {
+            log.debug("unable to count requests blocked in the page", e);
+            return 0;
+        }
+    }
+
+    /**
+     * @return library of named scripts invoked through callScript()
+     */
+    public ScriptLibrary getScriptLibrary() {
+        return scriptLibrary;
+    }
+
+    /**
+     * @return milliseconds between checks of waitUntil() conditions
+     */
+    public long getWaitPollMillis() {
+        return waitPollMillis;
+    }
+
+    public void setWaitPollMillis(long waitPollMillis) {
+        if (waitPollMillis < 1) {
+            throw new IllegalArgumentException(WAIT_POLL_PROP_KEY
+                    + " must be one or more");
+        }
+        this.waitPollMillis = waitPollMillis;
+    }
+
+    public void setScriptLibrary(ScriptLibrary scriptLibrary) {
+        this.scriptLibrary = scriptLibrary;
+    }
+
+    public boolean isScriptLibraryEnabled() {
+        return scriptLibraryEnabled;
+    }
+
+    /**
+     * @param scriptLibraryEnabled
+     *            true to install the script library into each page and call
+     *            functions by name, false to send the whole function on
+     *            every call
+     */
+    public void setScriptLibraryEnabled(boolean scriptLibraryEnabled) {
+        this.scriptLibraryEnabled = scriptLibraryEnabled;
+    }
+
     public void setProperties(Properties properties) {
         this.properties = properties;
     }
@@ -839,21 +1599,109 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
         Dimension dimension = element.getSize();
         actions.moveToElement(element, dimension.width / 2,
                 dimension.height / 2);
-        actions.build().perform();
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            actions.build().perform();
+            success = true;
+        } finally {
+            commandCompleted(WebCommand.MOUSE_OVER, by, null, start, success);
+        }
     }
 
     public Object executeJavaScript(String script) {
+        return executeJavaScript(script, new Object[0]);
+    }
+
+    /**
+     * Executes the script with arguments available to it as the javascript
+     * arguments array. The read cache is invalidated, since the script may
+     * change the page.
+     *
+     * @param script
+     * @param args
+     * @return script response
+     */
+    public Object executeJavaScript(String script, Object... args) {
+        return executeJavaScript(script, args, true);
+    }
+
+    /**
+     * @param invalidate
+     *            false for scripts of the driver that only read the page or
+     *            keep state of their own, keeping the read cache
+     */
+    private Object executeJavaScript(String script, Object[] args,
+            boolean invalidate) {
         JavascriptExecutor javascript = (JavascriptExecutor) webDriver;
         Object response = null;
         log.trace("executing javascript script: [{}]", script);
+        long start = System.nanoTime();
+        boolean success = false;
         try {
-            response = javascript.executeScript(script);
+            response = javascript.executeScript(script, args);
+            success = true;
         } catch (Exception e) {
             log.error("javascript failed to execute [{}]", script);
             throw new WebDriverException("javascript failed to execute: "
                     + e.getMessage(), e);
+        } finally {
+            if (invalidate) {
+                invalidateReadCache();
+            }
+            commandCompleted(WebCommand.EXECUTE_JAVASCRIPT, null,
+                    script, start, success);
+        }
+        log.trace("javascript response [{}]", response);
+        return response;
+    }
+
+    /**
+     * Calls a function of the script library by name. The library is
+     * installed into the page on first use and again whenever a navigation
+     * replaced the document, so later calls only send the function name and
+     * arguments. The read cache is invalidated, since the function may change
+     * the page.
+     *
+     * @param name
+     *            name the function was registered with
+     * @param args
+     * @return function response
+     */
+    public Object callScript(String name, Object... args) {
+        try {
+            return callLibraryScript(name, args);
+        } finally {
+            invalidateReadCache();
+        }
+    }
+
+    /**
+     * Calls a function of the script library the driver uses itself, such as
+     * AJAX_ACTIVE on every wait poll. These only read the page or keep state
+     * of their own, so the read cache is kept.
+     *
+     * @param name
+     * @param args
+     * @return function response
+     */
+    Object callLibraryScript(String name, Object... args) {
+        if (!scriptLibraryEnabled) {
+            return executeJavaScript(scriptLibrary.getInlineScript(name),
+                    args, false);
+        }
+        String callScript = scriptLibrary.getCallScript(name);
+        Object response = executeJavaScript(callScript, args, false);
+        if (ScriptLibrary.isMissing(response)) {
+            log.debug("installing script library into the current page");
+            executeJavaScript(scriptLibrary.getInstallScript(), new Object[0],
+                    false);
+            response = executeJavaScript(callScript, args, false);
+            if (ScriptLibrary.isMissing(response)) {
+                throw new WebDriverException("script library could not be "
+                        + "installed into the current page");
+            }
         }
-        log.trace("javascript response [{}]", response.toString());
         return response;
     }
 
@@ -879,25 +1727,72 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
      * of each wait.
      */
     public void waitForAjax() {
+        waitForAjax((ReadyCondition) null);
+    }
+
+    /**
+     * Waits for ajax as waitForAjax() does, but ends the idle confirmation
+     * and the sleep after ajax calls completed as soon as the page specific
+     * condition is ready, instead of sleeping their full configured time.
+     *
+     * @param ready
+     *            condition ending the idle and sleep after periods early,
+     *            else null to sleep them fully
+     */
+    public void waitForAjax(ReadyCondition ready) {
         if (!waitForAjaxEnabled) {
             return;
         }
+        Span span = tracer.start("waitForAjax");
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            pollForAjax(ready, span);
+            success = true;
+        } finally {
+            span.end(success);
+            commandCompleted(WebCommand.WAIT_FOR_AJAX, null,
+                    null, start, success);
+            if (pageTimings != null && timingPage != null) {
+                pageTimings.record(timingPage, PageTimings.AJAX_WAIT,
+                        System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * @return active ajax calls of the javascript framework used by the page
+     */
+    private long getAjaxActive(Span span) {
+        long active = ((Number) callLibraryScript(ScriptLibrary.AJAX_ACTIVE))
+                .longValue();
+        if (span.increment("polls") == 1) {
+            span.setAttribute("ajax.active", active);
+        }
+        return active;
+    }
+
+    /**
+     * Polls the javascript framework until active connections are zero, as
+     * described in waitForAjax().
+     *
+     * @param ready
+     *            condition ending idle and sleep after periods early, else
+     *            null
+     * @param span
+     *            span of the wait, counting the polls
+     */
+    private void pollForAjax(ReadyCondition ready, Span span) {
         int timeout = waitForAjaxTimeout;
         int idle = waitForAjaxIdle;
         int sleep = 1;
         int sleepAfter = waitForAjaxSleepAfter;
         int duration = 0;
-        StringBuilder jsQuery = new StringBuilder();
-        jsQuery.append("return (");
-        jsQuery.append("(typeof jQuery === 'undefined' || jQuery == null) ? 0 : ");
-        jsQuery.append("((jQuery.active == 0) ? 0 : (jQuery.active - ");
-        jsQuery.append("((jQuery.activeError == undefined) ? 0 : jQuery.activeError)");
-        jsQuery.append(")))");
         while (true) {
             // wrap in a try block in case javascript executes fail
             long ajaxActive = 0;
             try {
-                ajaxActive = (Long) executeJavaScript(jsQuery.toString());
+                ajaxActive = getAjaxActive(span);
                 log.debug("ajaxActive count: {}", ajaxActive);
 
                 if (ajaxActive < 0) {
@@ -909,16 +1804,12 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
                     log.debug("ajax active calls is zero");
                     if (idle > 0) {
                         log.debug("sleeping {} seconds before confirming idle state...");
-                        try {
-                            Thread.sleep(idle * 1000);
-                        } catch (InterruptedException e) {
-                            throw new RuntimeException(e);
-                        }
+                        waitUntilOrSleep(ready, idle * 1000L);
                     }
                     // TODO change idles and other waits to milliseconds
 
                     // if ajax remains inactive, wait is complete
-                    ajaxActive = (Long) executeJavaScript(jsQuery.toString());
+                    ajaxActive = getAjaxActive(span);
                     log.debug("ajaxActive count: {}", ajaxActive);
                     if (ajaxActive <= 0) {
                         log.info("confirmed no ajax calls currently pending");
@@ -951,12 +1842,17 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
 
                         // updating polling
                         log.debug("sleeping for {} seconds...", sleep);
-                        Thread.sleep(sleep * 1000);
+                        sleep(sleep * 1000L);
 
                         duration += sleep;
                         log.debug("...polled for " + duration + " seconds");
 
-                    } catch (Exception e) {
+                    } catch (RuntimeException e) {
+                        // cancelled sessions and late tests must stop waiting
+                        if (Thread.currentThread().isInterrupted()
+                                || WaitDeadline.isPassed()) {
+                            throw e;
+                        }
                         // this is not typically a fatal error to timeout
                         // TODO add configurable to let exception through
                         break;
@@ -966,11 +1862,100 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
         }
         if (sleepAfter > 0) {
             log.debug("sleeping for {} seconds after async idle...", sleepAfter);
-            try {
-                Thread.sleep(sleepAfter * 1000);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+            waitUntilOrSleep(ready, sleepAfter * 1000L);
+        }
+    }
+
+    private void waitUntilOrSleep(ReadyCondition ready, long millis) {
+        if (ready == null) {
+            sleep(millis);
+        } else {
+            waitUntil(ready, millis);
+        }
+    }
+
+    /**
+     * Waits until the condition is ready, checking it every poll interval
+     * (webdriver.wait.poll.millis), for at most the time given. A condition
+     * failing to evaluate, e.g. on a stale element, counts as not ready.
+     *
+     * @param condition
+     * @param maxMillis
+     *            upper bound of the wait
+     * @return true if the condition became ready, false if the upper bound
+     *         was reached first
+     * @throws TimeoutException
+     *             if the test deadline of WaitDeadline passed
+     */
+    public boolean waitUntil(ReadyCondition condition, long maxMillis) {
+        Span span = tracer.start("waitUntil");
+        if (span.isRecording()) {
+            span.setAttribute("condition", String.valueOf(condition));
+        }
+        boolean ready = false;
+        boolean completed = false;
+        try {
+            ready = pollUntil(condition, maxMillis, span);
+            completed = true;
+            return ready;
+        } finally {
+            span.setAttribute("ready", ready);
+            span.end(completed);
+        }
+    }
+
+    private boolean pollUntil(ReadyCondition condition, long maxMillis,
+            Span span) {
+        long end = System.nanoTime() + maxMillis * 1000000L;
+        while (true) {
+            span.increment("polls");
+            if (isReady(condition)) {
+                return true;
+            }
+            long left = (end - System.nanoTime()) / 1000000L;
+            if (left <= 0) {
+                log.debug("{} not ready after {} ms", condition, maxMillis);
+                return false;
             }
+            sleep(Math.min(waitPollMillis, left));
+        }
+    }
+
+    private boolean isReady(ReadyCondition condition) {
+        try {
+            return condition.isReady(this);
+        } catch (WebDriverException e) {
+            log.trace("{} could not be checked: {}", condition, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Sleeps without holding any locks, so the waits of a session can be
+     * cancelled by interrupting its thread. Restores the interrupt status and
+     * throws a WebDriverException when interrupted. Never sleeps past the
+     * test deadline of WaitDeadline and throws a TimeoutException once it
+     * passed.
+     *
+     * @param millis
+     */
+    void sleep(long millis) {
+        checkDeadline();
+        long remaining = WaitDeadline.remainingMillis();
+        try {
+            Thread.sleep(Math.max(0, Math.min(millis, remaining)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebDriverException("interrupted while waiting", e);
+        }
+        if (remaining < millis) {
+            checkDeadline();
+        }
+    }
+
+    private void checkDeadline() {
+        if (WaitDeadline.isPassed()) {
+            throw new TimeoutException("test deadline passed while waiting");
         }
     }
 
@@ -1035,8 +2020,16 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
             screenshotDriver = augment;
         }
 
-        File srcFile = ((TakesScreenshot) screenshotDriver)
-                .getScreenshotAs(OutputType.FILE);
+        File srcFile;
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            srcFile = ((TakesScreenshot) screenshotDriver)
+                    .getScreenshotAs(OutputType.FILE);
+            success = true;
+        } finally {
+            commandCompleted(WebCommand.SCREENSHOT, null, null, start, success);
+        }
         log.debug("screenshot srcFile: {}", srcFile.getCanonicalPath());
 
         // store screen shot in specified location
@@ -1048,7 +2041,7 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
         return chromeDriverInitialized;
     }
 
-    public static void setChromeDriverInitialized(
+    public static synchronized void setChromeDriverInitialized(
             boolean chromeDriverInitialized) {
         OpenWebDriver.chromeDriverInitialized = chromeDriverInitialized;
     }
@@ -1313,7 +2306,7 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
      */
     public void refresh() throws InterruptedException {
         log.info("refreshing current page {}...", getCurrentUrl());
-        webDriver.navigate().refresh();
+        navigateRefresh();
         waitForAjax();
     }
 
@@ -1324,11 +2317,258 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
      */
     public void refreshForce() throws InterruptedException {
         log.info("refreshing current page {}...", getCurrentUrl());
-        webDriver.navigate().refresh();
+        navigateRefresh();
         clearAlert();
         waitForAjax();
     }
 
+    /**
+     * Refreshes the current page through the underlying driver.
+     */
+    private void navigateRefresh() {
+        collectPageBlocked();
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            webDriver.navigate().refresh();
+            success = true;
+        } finally {
+            invalidateReadCache();
+            commandCompleted(WebCommand.REFRESH, null, null, start, success);
+        }
+        installPageBlocking();
+        if (pageTimings != null) {
+            recordPageTiming(getCurrentUrl());
+        }
+        checkMemory();
+    }
+
+    /**
+     * Samples the browser memory when the watchdog is enabled and its
+     * interval passed, and recycles the session once a threshold is crossed.
+     * Called after navigations, refreshes, clicks and submits.
+     */
+    void checkMemory() {
+        if (memoryWatchdog == null || !memoryWatchdog.isDue()) {
+            return;
+        }
+        Map<?, ?> sample;
+        try {
+            sample = (Map<?, ?>) callLibraryScript(ScriptLibrary.MEMORY_SAMPLE);
+        } catch (WebDriverException e) {
+            log.debug("unable to sample browser memory", e);
+            return;
+        }
+        if (memoryWatchdog.record(((Number) sample.get("heap")).longValue(),
+                ((Number) sample.get("nodes")).longValue())) {
+            log.warn("browser memory crossed thresholds, {}", memoryWatchdog);
+            try {
+                recycle();
+            } catch (IOException e) {
+                throw new WebDriverException("unable to recycle session", e);
+            }
+        }
+    }
+
+    /**
+     * Replaces the browser session with a new one of the same configuration,
+     * restoring the current url and its cookies. Elements found before are
+     * stale afterwards. The new session is started before the old one is
+     * quit, so a session that cannot be replaced stays usable.
+     *
+     * @throws IOException
+     *             if the new session cannot be started
+     */
+    public void recycle() throws IOException {
+        String url = webDriver.getCurrentUrl();
+        Set<Cookie> cookies = webDriver.manage().getCookies();
+        log.info("recycling {} session at {} with {} cookies", new Object[] {
+                browserType, url, cookies.size() });
+        WebDriver previous = webDriver;
+        CachingProxy.Session previousSession = proxySession;
+        proxySession = null;
+        WebDriver replacement = null;
+        try {
+            if (local) {
+                replacement = initLocalWebDriver(browserType, browserVersion,
+                        platform, properties);
+            } else {
+                replacement = initRemoteWebDriver(browserType,
+                        browserVersion, platform, properties);
+            }
+        } finally {
+            if (replacement == null) {
+                proxySession = previousSession;
+            }
+        }
+
+        webDriver = replacement;
+        keyboard = ((HasInputDevices) webDriver).getKeyboard();
+        mouse = ((HasInputDevices) webDriver).getMouse();
+        elementMap.clear();
+        invalidateReadCache();
+        try {
+            previous.quit();
+        } catch (WebDriverException e) {
+            log.warn("unable to quit recycled session", e);
+        }
+        if (previousSession != null) {
+            previousSession.close();
+        }
+        resetImplicitWaitTime();
+
+        if (url != null && url.startsWith("http")) {
+            // cookies can only be set for the domain of the current page
+            webDriver.get(url);
+            for (Cookie cookie : cookies) {
+                try {
+                    webDriver.manage().addCookie(cookie);
+                } catch (WebDriverException e) {
+                    log.debug("unable to restore cookie {}", cookie.getName(),
+                            e);
+                }
+            }
+            webDriver.navigate().refresh();
+            invalidateReadCache();
+            installPageBlocking();
+        }
+        if (memoryWatchdog != null) {
+            memoryWatchdog.recycled();
+        }
+        log.info("recycled session restored at {}", url);
+    }
+
+    /**
+     * @return memory watchdog of the session, else null if
+     *         webdriver.memory.watchdog.enabled is not set
+     */
+    public MemoryWatchdog getMemoryWatchdog() {
+        return memoryWatchdog;
+    }
+
+    /**
+     * Reads the navigation timing of the page just loaded when page timings
+     * are enabled.
+     *
+     * @param url
+     *            url navigated to
+     */
+    private void recordPageTiming(String url) {
+        if (pageTimings == null) {
+            return;
+        }
+        timingPage = pageTimings.getPage(url);
+        try {
+            Object timing = callLibraryScript(ScriptLibrary.NAVIGATION_TIMING);
+            if (timing instanceof Map) {
+                pageTimings.recordNavigation(timingPage, (Map<?, ?>) timing);
+            }
+        } catch (WebDriverException e) {
+            log.debug("unable to read navigation timing of {}", url, e);
+        }
+    }
+
+    /**
+     * @param element
+     *            element found by the underlying driver
+     * @return the canonical wrapper of the element in this session
+     */
+    OpenWebElement wrapElement(WebElement element) {
+        return elementMap.wrap(element);
+    }
+
+    /**
+     * Called by an element re-located after going stale.
+     *
+     * @param element
+     * @param stale
+     *            element wrapped before
+     */
+    void elementRelocated(OpenWebElement element, WebElement stale) {
+        relocateCount.incrementAndGet();
+        elementMap.relocated(element, stale);
+    }
+
+    /**
+     * @return times elements of this session were found again by their
+     *         locator after going stale
+     */
+    public long getRelocateCount() {
+        return relocateCount.get();
+    }
+
+    /**
+     * @return re-locations of a stale element allowed per command
+     */
+    public int getRelocateMax() {
+        return relocateMax;
+    }
+
+    /**
+     * @param relocateMax
+     *            re-locations of a stale element allowed per command, zero
+     *            to fail on the first stale reference
+     */
+    public void setRelocateMax(int relocateMax) {
+        if (relocateMax < 0) {
+            throw new IllegalArgumentException(RELOCATE_MAX_PROP_KEY
+                    + " must be zero or more");
+        }
+        this.relocateMax = relocateMax;
+    }
+
+    public Tracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * @param tracer
+     *            starts the spans of this session, e.g. with an exporter of
+     *            its own
+     */
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Starts a span of this session with the locator as attribute.
+     *
+     * @param name
+     * @param by
+     *            locator, else null
+     * @return the span, never null
+     */
+    Span startSpan(String name, By by) {
+        Span span = tracer.start(name);
+        if (by != null && span.isRecording()) {
+            span.setAttribute("locator", by.toString());
+        }
+        return span;
+    }
+
+    /**
+     * @return bus of the click, submit, sendKeys and clear actions of the
+     *         elements of this session
+     */
+    public ActionEventBus getActionEvents() {
+        return actionEvents;
+    }
+
+    /**
+     * @return canonical element wrappers of this session
+     */
+    public ElementIdentityMap getElementIdentityMap() {
+        return elementMap;
+    }
+
+    /**
+     * @return page timings shared by all sessions, else null if
+     *         webdriver.timing.enabled is not set
+     */
+    public PageTimings getPageTimings() {
+        return pageTimings;
+    }
+
     /**
      * Checks if an element exists without any implicit wait. Temporarily
      * changes the driver implicit wait to nothing and then restores it after
@@ -1366,9 +2606,8 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
      */
     public boolean isElementVisible(By by) {
         webDriver.manage().timeouts().implicitlyWait(10, TimeUnit.MILLISECONDS);
-        WebElement webElement = null;
         try {
-            webElement = findElement(by);
+            WebElement webElement = findElement(by);
             if (webElement.isDisplayed()) {
                 return true;
             } else {
@@ -1377,12 +2616,26 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
             }
         } catch (NoSuchElementException e) {
             log.info("element not found by " + by);
-        }
-        resetImplicitWaitTime();
-        if (webElement == null) {
             return false;
+        } finally {
+            resetImplicitWaitTime();
+        }
+    }
+
+    /**
+     * Finds elements without any implicit wait or logging, for conditions
+     * checked many times a second.
+     *
+     * @param by
+     * @return elements currently found
+     */
+    List<WebElement> findElementsNow(By by) {
+        webDriver.manage().timeouts().implicitlyWait(0, TimeUnit.MILLISECONDS);
+        try {
+            return webDriver.findElements(by);
+        } finally {
+            resetImplicitWaitTime();
         }
-        return true;
     }
 
     /**
@@ -1393,6 +2646,100 @@ public class OpenWebDriver implements WebDriver, HasInputDevices {
         return properties.getProperty(DOWNLOAD_DIR_PROP_KEY);
     }
 
+    /**
+     * Local Firefox and Chrome sessions download into a subdirectory of their
+     * own, so parallel sessions never see each other's files. quit() removes
+     * the directory if it is still empty.
+     *
+     * @return download directory of this session within the download
+     *         directory of the user's home directory, created on first use,
+     *         else null for remote sessions
+     */
+    public File getSessionDownloadDir() {
+        if (!local) {
+            return null;
+        }
+        if (sessionDownloadDir == null) {
+            File base = new File(getDownloadDir());
+            if (!base.isAbsolute()) {
+                String home = System.getenv("HOME");
+                base = new File(home == null ? System.getProperty("user.home")
+                        : home, getDownloadDir());
+            }
+            File directory = new File(base, "session-"
+                    + System.currentTimeMillis() + "-"
+                    + downloadSessions.incrementAndGet());
+            if (!directory.mkdirs() && !directory.isDirectory()) {
+                throw new WebDriverException(
+                        "unable to create download directory " + directory);
+            }
+            sessionDownloadDir = directory;
+        }
+        return sessionDownloadDir;
+    }
+
+    /**
+     * Waits for the next download of the session accepted by the filter to
+     * complete. Downloads still written to a .crdownload or .part file are
+     * in progress, and a download is complete once its size has not changed
+     * for webdriver.download.stable.millis. Each download is returned once.
+     *
+     * @param filter
+     *            downloads of interest, null for any
+     * @param timeoutMillis
+     * @return the completed download
+     * @throws TimeoutException
+     *             if no download completed in time
+     * @throws UnsupportedOperationException
+     *             for remote sessions, which download on the grid node
+     */
+    public File awaitDownload(FileFilter filter, long timeoutMillis) {
+        File directory = getSessionDownloadDir();
+        if (directory == null) {
+            throw new UnsupportedOperationException(
+                    "remote sessions download on the grid node");
+        }
+        if (downloadWatcher == null) {
+            String stable = properties.getProperty(DOWNLOAD_STABLE_PROP_KEY);
+            downloadWatcher = new DownloadWatcher(directory,
+                    stable == null || stable.trim().equals("")
+                            ? DownloadWatcher.DEFAULT_STABLE_MILLIS
+                            : Long.parseLong(stable.trim()));
+        }
+        long end = System.nanoTime() + timeoutMillis * 1000000L;
+        while (true) {
+            File download = downloadWatcher.poll(filter);
+            if (download != null) {
+                log.info("download {} complete", download);
+                return download;
+            }
+            long left = (end - System.nanoTime()) / 1000000L;
+            if (left <= 0) {
+                throw new TimeoutException("no download completed in "
+                        + directory + " after " + timeoutMillis
+                        + " ms, in progress "
+                        + downloadWatcher.getInProgress());
+            }
+            sleep(Math.min(waitPollMillis, left));
+        }
+    }
+
+    /**
+     * Streams a download of the session from its grid node to local disk,
+     * see OpenSeleniumGrid.retrieveFile. The agent of the node serves its
+     * download directory, so the name is sent as is.
+     *
+     * @param name
+     *            file name in the download directory of the node
+     * @param target
+     *            local file
+     * @return the target
+     * @throws IOException
+     */
+    public File retrieveDownload(String name, File target) throws IOException {
+        return OpenSeleniumGrid.retrieveFile(this, name, target);
+    }
+
     /**
      * @return the remote driver home directory
      */
@@ -5,7 +5,9 @@ import java.util.List;
 
 import org.openqa.selenium.By;
 import org.openqa.selenium.Dimension;
+import org.openqa.selenium.NoSuchElementException;
 import org.openqa.selenium.Point;
+import org.openqa.selenium.StaleElementReferenceException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.interactions.Actions;
 import org.openqa.selenium.interactions.internal.Coordinates;
@@ -41,12 +43,17 @@ public class OpenWebElement implements WebElement, Locatable {
     protected final org.slf4j.Logger log = org.slf4j.LoggerFactory
             .getLogger(getClass());
 
+    private final Object identity;
     private WebElement webElement;
     private OpenWebDriver webDriver;
+    private By by;
+    private OpenWebElement parent;
+    private int relocateCount;
 
     public OpenWebElement(OpenWebDriver webDriver, WebElement webElement) {
         setWebDriver(webDriver);
         setWebElement(webElement);
+        identity = ElementIdentityMap.keyOf(webElement);
     }
 
     /**
@@ -68,23 +75,106 @@ public class OpenWebElement implements WebElement, Locatable {
         return "[element " + elementInfo;
     }
 
+    /**
+     * Publishes the action to the listeners of the session, if any, instead
+     * of formatting a log message on the thread of the test.
+     */
+    private void publish(ActionEvent.Type type, CharSequence[] keys) {
+        ActionEventBus actionEvents = webDriver.getActionEvents();
+        if (actionEvents.hasListeners()) {
+            actionEvents.publish(new ActionEvent(type, webElement, keys));
+        }
+    }
+
+    /**
+     * Starts a span of the session with the element as attribute, so the
+     * waits of an action are its children in the trace.
+     */
+    private Span startSpan(String name) {
+        Span span = webDriver.getTracer().start(name);
+        if (span.isRecording()) {
+            span.setAttribute("element", extractElementInfo(webElement));
+        }
+        return span;
+    }
+
+    /**
+     * Clicks the wrapped element, recording the latency of the click alone,
+     * and samples the browser memory if due.
+     */
+    private void clickElement() {
+        publish(ActionEvent.Type.CLICK, null);
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                webElement.click();
+                success = true;
+                break;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.invalidateReadCache();
+                webDriver.commandCompleted(WebCommand.CLICK, null,
+                        webElement, start, success);
+            }
+        }
+        webDriver.checkMemory();
+    }
+
+    /**
+     * Submits the wrapped element, recording the latency of the submit
+     * alone, and samples the browser memory if due.
+     */
+    private void submitElement() {
+        publish(ActionEvent.Type.SUBMIT, null);
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                webElement.submit();
+                success = true;
+                break;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.invalidateReadCache();
+                webDriver.commandCompleted(WebCommand.SUBMIT, null,
+                        webElement, start, success);
+            }
+        }
+        webDriver.checkMemory();
+    }
+
     /**
      * The usual click, but with dynamic wait for ajax and logging about what's
      * being clicked.
      */
     @Override
     public void click() {
-        log.info("click " + extractElementInfo(webElement));
-        webElement.click();
-        webDriver.waitForAjax(webElement);
+        Span span = startSpan("click");
+        boolean success = false;
+        try {
+            clickElement();
+            webDriver.waitForAjax(webElement);
+            success = true;
+        } finally {
+            span.end(success);
+        }
     }
 
     /**
      * The usual WebDriver click without any additional dynamic waits.
      */
     public void clickNoWait() {
-        log.info("click " + extractElementInfo(webElement));
-        webElement.click();
+        Span span = startSpan("click");
+        boolean success = false;
+        try {
+            clickElement();
+            success = true;
+        } finally {
+            span.end(success);
+        }
     }
 
     /**
@@ -95,15 +185,41 @@ public class OpenWebElement implements WebElement, Locatable {
      * @throws InterruptedException
      */
     public void clickMinWait(int sleep) {
-        log.debug("sleeping for {} seconds...", sleep);
+        Span span = startSpan("clickMinWait");
+        boolean success = false;
         try {
-            Thread.sleep(sleep * 1000);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            log.debug("sleeping for {} seconds...", sleep);
+            webDriver.sleep(sleep * 1000L);
+
+            clickElement();
+            success = true;
+        } finally {
+            span.end(success);
         }
+    }
+
+    /**
+     * Clicks as soon as the condition is ready, waiting at most the specified
+     * time for it, instead of always sleeping the full time.
+     *
+     * @param maxWait
+     *            most number of seconds to wait before clicking
+     * @param ready
+     *            condition allowing the click, checked every
+     *            webdriver.wait.poll.millis
+     */
+    public void clickMinWait(int maxWait, ReadyCondition ready) {
+        Span span = startSpan("clickMinWait");
+        boolean success = false;
+        try {
+            log.debug("waiting up to {} seconds for {}...", maxWait, ready);
+            webDriver.waitUntil(ready, maxWait * 1000L);
 
-        log.info("click " + extractElementInfo(webElement));
-        webElement.click();
+            clickElement();
+            success = true;
+        } finally {
+            span.end(success);
+        }
     }
 
     /**
@@ -111,14 +227,26 @@ public class OpenWebElement implements WebElement, Locatable {
      */
     @Override
     public void submit() {
-        log.info("submit " + extractElementInfo(webElement));
-        webElement.submit();
-        webDriver.waitForAjax(webElement);
+        Span span = startSpan("submit");
+        boolean success = false;
+        try {
+            submitElement();
+            webDriver.waitForAjax(webElement);
+            success = true;
+        } finally {
+            span.end(success);
+        }
     }
 
     public void submitNoWait() {
-        log.info("submit " + extractElementInfo(webElement));
-        webElement.submit();
+        Span span = startSpan("submit");
+        boolean success = false;
+        try {
+            submitElement();
+            success = true;
+        } finally {
+            span.end(success);
+        }
     }
 
     /**
@@ -129,53 +257,199 @@ public class OpenWebElement implements WebElement, Locatable {
      * @throws InterruptedException
      */
     public void submitMinWait(int sleep) {
-        log.debug("sleeping for {} seconds...", sleep);
+        Span span = startSpan("submitMinWait");
+        boolean success = false;
         try {
-            Thread.sleep(sleep * 1000);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            log.debug("sleeping for {} seconds...", sleep);
+            webDriver.sleep(sleep * 1000L);
+
+            submitElement();
+            success = true;
+        } finally {
+            span.end(success);
         }
+    }
 
-        log.info("submit " + extractElementInfo(webElement));
-        webElement.submit();
+    /**
+     * Submits as soon as the condition is ready, waiting at most the
+     * specified time for it, instead of always sleeping the full time.
+     *
+     * @param maxWait
+     *            most number of seconds to wait before submitting
+     * @param ready
+     *            condition allowing the submit, checked every
+     *            webdriver.wait.poll.millis
+     */
+    public void submitMinWait(int maxWait, ReadyCondition ready) {
+        Span span = startSpan("submitMinWait");
+        boolean success = false;
+        try {
+            log.debug("waiting up to {} seconds for {}...", maxWait, ready);
+            webDriver.waitUntil(ready, maxWait * 1000L);
+
+            submitElement();
+            success = true;
+        } finally {
+            span.end(success);
+        }
     }
 
     @Override
     public void sendKeys(CharSequence... keysToSend) {
-        log.info("sendKeys {} to {}", keysToSend,
-                extractElementInfo(webElement));
-        webElement.sendKeys(keysToSend);
+        publish(ActionEvent.Type.SEND_KEYS, keysToSend);
+        Span span = startSpan("sendKeys");
+        boolean success = false;
+        try {
+            sendKeysElement(keysToSend);
+            success = true;
+        } finally {
+            span.end(success);
+        }
+    }
+
+    /**
+     * Types into the wrapped element, recording the latency of each attempt.
+     */
+    private void sendKeysElement(CharSequence... keysToSend) {
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                webElement.sendKeys(keysToSend);
+                success = true;
+                return;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.invalidateReadCache();
+                webDriver.commandCompleted(WebCommand.SEND_KEYS, null,
+                        webElement, start, success);
+            }
+        }
     }
 
     @Override
     public void clear() {
-        log.info("clearing element {}", extractElementInfo(webElement));
-        webElement.clear();
+        publish(ActionEvent.Type.CLEAR, null);
+        Span span = startSpan("clear");
+        boolean success = false;
+        try {
+            clearElement();
+            success = true;
+        } finally {
+            span.end(success);
+        }
+    }
+
+    /**
+     * Clears the wrapped element, recording the latency of each attempt.
+     */
+    private void clearElement() {
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                webElement.clear();
+                success = true;
+                return;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.invalidateReadCache();
+                webDriver.commandCompleted(WebCommand.CLEAR, null,
+                        webElement, start, success);
+            }
+        }
     }
 
     @Override
     public String getTagName() {
-        return webElement.getTagName();
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                String result = webElement.getTagName();
+                success = true;
+                return result;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.commandCompleted(WebCommand.GET_TAG_NAME, null,
+                        webElement, start, success);
+            }
+        }
     }
 
     @Override
     public String getAttribute(String name) {
-        return webElement.getAttribute(name);
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                String result = webElement.getAttribute(name);
+                success = true;
+                return result;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.commandCompleted(WebCommand.GET_ATTRIBUTE, null,
+                        webElement, start, success);
+            }
+        }
     }
 
     @Override
     public boolean isSelected() {
-        return webElement.isSelected();
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                boolean result = webElement.isSelected();
+                success = true;
+                return result;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.commandCompleted(WebCommand.IS_SELECTED, null,
+                        webElement, start, success);
+            }
+        }
     }
 
     @Override
     public boolean isEnabled() {
-        return webElement.isEnabled();
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                boolean result = webElement.isEnabled();
+                success = true;
+                return result;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.commandCompleted(WebCommand.IS_ENABLED, null,
+                        webElement, start, success);
+            }
+        }
     }
 
     @Override
     public String getText() {
-        return webElement.getText();
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                String result = webElement.getText();
+                success = true;
+                return result;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.commandCompleted(WebCommand.GET_TEXT, null,
+                        webElement, start, success);
+            }
+        }
     }
 
     /**
@@ -183,46 +457,196 @@ public class OpenWebElement implements WebElement, Locatable {
      */
     @Override
     public List<WebElement> findElements(By by) {
-        List<WebElement> original = webElement.findElements(by);
+        List<WebElement> original = null;
+        Span span = webDriver.startSpan("findElements", by);
+        boolean found = false;
+        try {
+            for (int attempt = 0; original == null; attempt++) {
+                long start = System.nanoTime();
+                boolean success = false;
+                try {
+                    original = webElement.findElements(by);
+                    success = true;
+                } catch (StaleElementReferenceException e) {
+                    relocate(e, attempt);
+                } finally {
+                    webDriver.commandCompleted(WebCommand.FIND_ELEMENTS, by,
+                            webElement, start, success);
+                }
+            }
+            found = true;
+        } finally {
+            span.end(found);
+        }
         List<WebElement> elements = new ArrayList<WebElement>();
         for (int i = 0; i < original.size(); i++) {
-            elements.add(new OpenWebElement(webDriver, original.get(i)));
+            elements.add(webDriver.wrapElement(original.get(i)));
         }
         return elements;
     }
 
     /**
-     * @return ApigeeWebElement with additional functionality
+     * @return ApigeeWebElement with additional functionality, re-located
+     *         within this element when it goes stale
      */
     @Override
     public WebElement findElement(By by) {
-        return new OpenWebElement(webDriver, webElement.findElement(by));
+        WebElement element;
+        Span span = webDriver.startSpan("findElement", by);
+        boolean success = false;
+        try {
+            element = locate(by);
+            success = true;
+        } finally {
+            span.end(success);
+        }
+        return webDriver.wrapElement(element).located(by, this);
+    }
+
+    /**
+     * Finds the element within this element, re-locating this element first
+     * if it went stale.
+     *
+     * @param by
+     * @return element found by the underlying driver
+     */
+    WebElement locate(By by) {
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                WebElement element = webElement.findElement(by);
+                success = true;
+                return element;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.commandCompleted(WebCommand.FIND_ELEMENT, by,
+                        webElement, start, success);
+            }
+        }
+    }
+
+    /**
+     * Replaces the stale wrapped element with the one found again by the
+     * locator of this element, within its parent if found in one. Rethrows
+     * the stale reference when the element was not found by a locator, the
+     * webdriver.element.relocate.max attempts of the call are used up or the
+     * locator finds nothing anymore, so a page really missing the element
+     * still fails.
+     *
+     * @param stale
+     *            thrown by the attempt
+     * @param attempt
+     *            re-locations already done in this call
+     */
+    private void relocate(StaleElementReferenceException stale, int attempt) {
+        if (by == null || attempt >= webDriver.getRelocateMax()) {
+            throw stale;
+        }
+        WebElement previous = webElement;
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            webElement = parent == null ? webDriver.getWebDriver()
+                    .findElement(by) : parent.locate(by);
+            success = true;
+        } catch (NoSuchElementException e) {
+            log.debug("stale element not found again by {}", by, e);
+            throw stale;
+        } finally {
+            webDriver.commandCompleted(WebCommand.RELOCATE, by, previous,
+                    start, success);
+        }
+        relocateCount++;
+        webDriver.elementRelocated(this, previous);
+        webDriver.getTracer().current().increment("relocations");
+        log.debug("re-located stale element by {}", by);
     }
 
     @Override
     public boolean isDisplayed() {
-        return webElement.isDisplayed();
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                boolean result = webElement.isDisplayed();
+                success = true;
+                return result;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.commandCompleted(WebCommand.IS_DISPLAYED, null,
+                        webElement, start, success);
+            }
+        }
     }
 
     @Override
     public Point getLocation() {
-        return webElement.getLocation();
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                Point result = webElement.getLocation();
+                success = true;
+                return result;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.commandCompleted(WebCommand.GET_LOCATION, null,
+                        webElement, start, success);
+            }
+        }
     }
 
     @Override
     public Dimension getSize() {
-        return webElement.getSize();
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                Dimension result = webElement.getSize();
+                success = true;
+                return result;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.commandCompleted(WebCommand.GET_SIZE, null,
+                        webElement, start, success);
+            }
+        }
     }
 
     @Override
     public String getCssValue(String propertyName) {
-        return webElement.getCssValue(propertyName);
+        for (int attempt = 0;; attempt++) {
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                String result = webElement.getCssValue(propertyName);
+                success = true;
+                return result;
+            } catch (StaleElementReferenceException e) {
+                relocate(e, attempt);
+            } finally {
+                webDriver.commandCompleted(WebCommand.GET_CSS_VALUE, null,
+                        webElement, start, success);
+            }
+        }
     }
 
     public WebElement getWebElement() {
         return webElement;
     }
 
+    /**
+     * Replaces the element commands are sent to, keeping the identity of the
+     * wrapper.
+     *
+     * @param webElement
+     * @return this wrapper
+     */
     public OpenWebElement setWebElement(WebElement webElement) {
         this.webElement = webElement;
         return this;
@@ -232,6 +656,46 @@ public class OpenWebElement implements WebElement, Locatable {
         return webDriver;
     }
 
+    /**
+     * Remembers how the element was found, so it can be re-located when the
+     * page replaces it. The first locator of a wrapper is kept.
+     *
+     * @param by
+     *            locator of the element
+     * @param parent
+     *            element it was found within, else null for the page
+     * @return this wrapper
+     */
+    OpenWebElement located(By by, OpenWebElement parent) {
+        if (this.by == null) {
+            this.parent = parent;
+            this.by = by;
+        }
+        return this;
+    }
+
+    /**
+     * @return locator the element was found by, else null if it was found
+     *         in a list and is not re-located
+     */
+    public By getBy() {
+        return by;
+    }
+
+    /**
+     * @return element this element was found within, else null
+     */
+    public OpenWebElement getParent() {
+        return parent;
+    }
+
+    /**
+     * @return times the element was found again after going stale
+     */
+    public int getRelocateCount() {
+        return relocateCount;
+    }
+
     public void setWebDriver(OpenWebDriver webDriver) {
         this.webDriver = webDriver;
     }
@@ -241,6 +705,30 @@ public class OpenWebElement implements WebElement, Locatable {
         return ((Locatable) webElement).getCoordinates();
     }
 
+    /**
+     * Wrappers are equal when they wrapped the same element of the same
+     * session when created, compared by the element id of the driver. A
+     * re-located wrapper keeps its identity, so it stays a valid key of hash
+     * based collections.
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof OpenWebElement)) {
+            return false;
+        }
+        OpenWebElement other = (OpenWebElement) obj;
+        return webDriver == other.webDriver
+                && identity.equals(other.identity);
+    }
+
+    @Override
+    public int hashCode() {
+        return identity.hashCode();
+    }
+
     /**
      * Performs a mouseover action relative to this element.
      *
@@ -0,0 +1,124 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Reads the source of the current page in chunks, so a large document is
+ * never held as a whole by the test. The page serializes its source once on
+ * the first read and hands it out one chunk per script call. A navigation
+ * while reading fails the read rather than mixing two documents.
+ */
+public class PageSourceReader extends Reader {
+
+    public static final int DEFAULT_CHUNK_CHARS = 256 * 1024;
+
+    private final OpenWebDriver driver;
+    private final int chunkChars;
+    private String chunk = "";
+    private int index;
+    private long offset;
+    private boolean started;
+    private boolean done;
+    private boolean closed;
+
+    /**
+     * @param driver
+     * @param chunkChars
+     *            characters transferred per script call
+     */
+    public PageSourceReader(OpenWebDriver driver, int chunkChars) {
+        if (chunkChars < 1) {
+            throw new IllegalArgumentException("chunk size " + chunkChars
+                    + " must be one or more");
+        }
+        this.driver = driver;
+        this.chunkChars = chunkChars;
+    }
+
+    @Override
+    public int read(char[] buffer, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("page source reader closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (index == chunk.length()) {
+            if (done) {
+                return -1;
+            }
+            fetch();
+            if (chunk.length() == 0) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, chunk.length() - index);
+        chunk.getChars(index, index + count, buffer, off);
+        index += count;
+        return count;
+    }
+
+    /**
+     * @return characters transferred from the page so far
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        chunk = "";
+        if (started && !done) {
+            try {
+                driver.callLibraryScript(ScriptLibrary.PAGE_SOURCE_CHUNK, -1,
+                        0);
+            } catch (WebDriverException e) {
+                // the page is gone and with it the source
+            }
+        }
+    }
+
+    private void fetch() throws IOException {
+        Object response;
+        try {
+            response = driver.callLibraryScript(ScriptLibrary.PAGE_SOURCE_CHUNK,
+                    offset, chunkChars);
+        } catch (WebDriverException e) {
+            throw new IOException("unable to read page source at " + offset,
+                    e);
+        }
+        started = true;
+        if (response == null) {
+            done = true;
+            throw new IOException("page changed while reading its source at "
+                    + offset);
+        }
+        chunk = (String) response;
+        index = 0;
+        offset += chunk.length();
+        if (chunk.length() < chunkChars) {
+            done = true;
+        }
+    }
+}
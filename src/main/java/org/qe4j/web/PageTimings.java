@@ -0,0 +1,332 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Page load timings aggregated per page across the run. After each get() and
+ * refresh() OpenWebDriver reads the window.performance navigation and resource
+ * timing of the page, and the time spent in waitForAjax() is added to the page
+ * navigated to last. Urls are grouped by the first matching
+ * webdriver.timing.patterns expression, else by the url without query and
+ * with numeric or hex id path segments replaced by {id}.
+ *
+ * Each page and metric has its own LatencyHistogram, so timings of several
+ * instances can be merged. The JVM wide default instance is shared by all
+ * OpenWebDriver instances and writes its summary report to the
+ * webdriver.timing.report file at shutdown.
+ */
+public class PageTimings {
+
+    public static final String DNS = "dns";
+    public static final String CONNECT = "connect";
+    public static final String TTFB = "ttfb";
+    public static final String DOWNLOAD = "download";
+    public static final String DOM_INTERACTIVE = "domInteractive";
+    public static final String DOM_CONTENT_LOADED = "domContentLoaded";
+    public static final String LOAD = "load";
+    public static final String SLOWEST_RESOURCE = "slowestResource";
+    public static final String AJAX_WAIT = "ajaxWait";
+
+    /**
+     * Navigation timing metrics in report order.
+     */
+    public static final List<String> NAVIGATION_METRICS = Collections
+            .unmodifiableList(Arrays.asList(DNS, CONNECT, TTFB,
+                    DOWNLOAD, DOM_INTERACTIVE, DOM_CONTENT_LOADED, LOAD,
+                    SLOWEST_RESOURCE));
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(PageTimings.class);
+
+    private static final long NANOS_PER_MILLI = 1000000;
+
+    private static final Pattern ID_SEGMENT = Pattern
+            .compile("/(\\d+|[0-9a-fA-F]{16,}|[0-9a-fA-F-]{36})(?=/|$)");
+
+    private static PageTimings defaultTimings;
+
+    private final List<Pattern> patterns = new CopyOnWriteArrayList<Pattern>();
+    private final ConcurrentMap<String, ConcurrentMap<String, LatencyHistogram>> pages = new ConcurrentHashMap<String, ConcurrentMap<String, LatencyHistogram>>();
+    private final ConcurrentMap<String, LatencyHistogram> resourceCounts = new ConcurrentHashMap<String, LatencyHistogram>();
+    private volatile File reportFile;
+
+    /**
+     * The JVM wide timings. The first call configures the url patterns and
+     * report file, later calls share them.
+     *
+     * @param properties
+     * @return the JVM wide timings
+     */
+    public static synchronized PageTimings getInstance(Properties properties) {
+        if (defaultTimings == null) {
+            defaultTimings = new PageTimings(
+                    HtmlUnitProfile.parsePatterns(properties
+                            .getProperty(OpenWebDriver.TIMING_PATTERNS_PROP_KEY)));
+            String report = properties
+                    .getProperty(OpenWebDriver.TIMING_REPORT_PROP_KEY);
+            if (report != null && !report.trim().equals("")) {
+                defaultTimings.reportFile = new File(report.trim());
+                Runtime.getRuntime().addShutdownHook(
+                        new Thread("page-timings-report") {
+                            @Override
+                            public void run() {
+                                defaultTimings.writeReport();
+                            }
+                        });
+            }
+        }
+        return defaultTimings;
+    }
+
+    /**
+     * @param patterns
+     *            url patterns grouping pages, in order of precedence
+     */
+    public PageTimings(List<Pattern> patterns) {
+        this.patterns.addAll(patterns);
+    }
+
+    /**
+     * @param url
+     * @return page the url is aggregated under
+     */
+    public String getPage(String url) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(url).find()) {
+                return pattern.pattern();
+            }
+        }
+        return ID_SEGMENT.matcher(CommandTraceRecorder.redactUrl(url))
+                .replaceAll("/{id}");
+    }
+
+    /**
+     * Records a duration of the page.
+     *
+     * @param page
+     * @param metric
+     * @param nanos
+     */
+    public void record(String page, String metric, long nanos) {
+        histogram(histograms(page), metric).record(nanos, true);
+    }
+
+    /**
+     * Records the result of the NAVIGATION_TIMING script of the page.
+     * Metrics the browser did not report are skipped.
+     *
+     * @param page
+     * @param timing
+     *            milliseconds by metric name
+     */
+    public void recordNavigation(String page, Map<?, ?> timing) {
+        ConcurrentMap<String, LatencyHistogram> histograms = histograms(page);
+        for (String metric : NAVIGATION_METRICS) {
+            Object value = timing.get(metric);
+            if (value instanceof Number
+                    && ((Number) value).doubleValue() >= 0) {
+                histogram(histograms, metric).record(
+                        (long) (((Number) value).doubleValue() * NANOS_PER_MILLI),
+                        true);
+            }
+        }
+        Object resources = timing.get("resources");
+        if (resources instanceof Number) {
+            histogram(resourceCounts, page).record(
+                    ((Number) resources).longValue(), true);
+        }
+    }
+
+    /**
+     * @param page
+     * @param metric
+     * @return histogram of the metric, else null if it was never recorded
+     */
+    public LatencyHistogram getHistogram(String page, String metric) {
+        Map<String, LatencyHistogram> histograms = pages.get(page);
+        return histograms == null ? null : histograms.get(metric);
+    }
+
+    /**
+     * @param page
+     * @return histogram of the number of resources loaded per navigation,
+     *         else null if resource timing was never reported
+     */
+    public LatencyHistogram getResourceCounts(String page) {
+        return resourceCounts.get(page);
+    }
+
+    /**
+     * @return pages recorded, sorted
+     */
+    public List<String> getPages() {
+        List<String> sorted = new ArrayList<String>(pages.keySet());
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Adds the timings of another instance, e.g. of another run or thread
+     * group.
+     *
+     * @param other
+     */
+    public void merge(PageTimings other) {
+        for (Map.Entry<String, ConcurrentMap<String, LatencyHistogram>> page : other.pages
+                .entrySet()) {
+            ConcurrentMap<String, LatencyHistogram> histograms = histograms(page
+                    .getKey());
+            for (Map.Entry<String, LatencyHistogram> metric : page.getValue()
+                    .entrySet()) {
+                histogram(histograms, metric.getKey()).add(metric.getValue());
+            }
+        }
+        for (Map.Entry<String, LatencyHistogram> count : other.resourceCounts
+                .entrySet()) {
+            histogram(resourceCounts, count.getKey()).add(count.getValue());
+        }
+    }
+
+    public void reset() {
+        pages.clear();
+        resourceCounts.clear();
+    }
+
+    public File getReportFile() {
+        return reportFile;
+    }
+
+    /**
+     * @return text table of each page and metric in milliseconds
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("%-50s %-17s %7s %9s %9s %9s %9s %9s%n",
+                "page", "metric", "count", "mean", "p50", "p90", "p99", "max"));
+        for (String page : getPages()) {
+            Map<String, LatencyHistogram> sorted = new TreeMap<String, LatencyHistogram>(
+                    pages.get(page));
+            List<String> metrics = new ArrayList<String>(NAVIGATION_METRICS);
+            metrics.add(AJAX_WAIT);
+            for (String metric : sorted.keySet()) {
+                if (!metrics.contains(metric)) {
+                    metrics.add(metric);
+                }
+            }
+            for (String metric : metrics) {
+                LatencyHistogram histogram = sorted.get(metric);
+                if (histogram == null || histogram.getCount() == 0) {
+                    continue;
+                }
+                double ms = NANOS_PER_MILLI;
+                summary.append(String.format(
+                        "%-50s %-17s %7d %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                        page, metric, histogram.getCount(),
+                        histogram.getTotalNanos() / ms / histogram.getCount(),
+                        histogram.getPercentileNanos(50) / ms,
+                        histogram.getPercentileNanos(90) / ms,
+                        histogram.getPercentileNanos(99) / ms,
+                        histogram.getMaxNanos() / ms));
+            }
+            LatencyHistogram resources = resourceCounts.get(page);
+            if (resources != null && resources.getCount() > 0) {
+                summary.append(String.format(
+                        "%-50s %-17s %7d %9.1f %9d %9d %9d %9d%n", page,
+                        "resources", resources.getCount(),
+                        (double) resources.getTotalNanos()
+                                / resources.getCount(),
+                        resources.getPercentileNanos(50),
+                        resources.getPercentileNanos(90),
+                        resources.getPercentileNanos(99),
+                        resources.getMaxNanos()));
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Writes the summary to the file.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void writeReport(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        FileUtils.writeStringToFile(file, getSummary(), "UTF-8");
+    }
+
+    /**
+     * Writes the summary to the configured report file, if any.
+     */
+    public void writeReport() {
+        if (reportFile == null || pages.isEmpty()) {
+            return;
+        }
+        try {
+            writeReport(reportFile);
+        } catch (IOException e) {
+            log.warn("unable to write page timings report " + reportFile, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PageTimings[" + pages.size() + " pages]";
+    }
+
+    private ConcurrentMap<String, LatencyHistogram> histograms(String page) {
+        ConcurrentMap<String, LatencyHistogram> histograms = pages.get(page);
+        if (histograms == null) {
+            ConcurrentMap<String, LatencyHistogram> created = new ConcurrentHashMap<String, LatencyHistogram>();
+            histograms = pages.putIfAbsent(page, created);
+            if (histograms == null) {
+                histograms = created;
+            }
+        }
+        return histograms;
+    }
+
+    private static LatencyHistogram histogram(
+            ConcurrentMap<String, LatencyHistogram> histograms, String key) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,57 @@
+package org.qe4j.web;
+
+import java.lang.reflect.Field;
+import java.net.URL;
+
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Selenium's HttpCommandExecutor sending commands through a shared
+ * GridConnectionPool. The selenium 2.35 executor builds its http client
+ * privately, so the pooled client is swapped in after construction and all
+ * wire protocol handling is left to Selenium. The credentials Selenium puts
+ * on its own client for a hub address with user info are kept by the pool of
+ * that address, see GridConnectionPool.getInstance.
+ */
+public class PooledHttpCommandExecutor extends HttpCommandExecutor {
+
+    private final GridConnectionPool pool;
+
+    public PooledHttpCommandExecutor(URL hubUrl, GridConnectionPool pool) {
+        super(hubUrl);
+        this.pool = pool;
+        try {
+            Field client = HttpCommandExecutor.class.getDeclaredField("client");
+            client.setAccessible(true);
+            client.set(this, pool.getHttpClient());
+        } catch (NoSuchFieldException e) {
+            throw new WebDriverException(
+                    "unable to pool connections with this selenium version", e);
+        } catch (IllegalAccessException e) {
+            throw new WebDriverException(
+                    "unable to pool connections with this selenium version", e);
+        }
+    }
+
+    /**
+     * @return pool of connections to the hub
+     */
+    public GridConnectionPool getPool() {
+        return pool;
+    }
+}
@@ -0,0 +1,371 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Response cache of the CachingProxy with a memory tier and a disk tier,
+ * each bounded in bytes and evicting the least recently used entries.
+ * Entries evicted from memory move to disk, and large entries go straight to
+ * disk. Expired entries are dropped when looked up.
+ */
+public class ProxyCache {
+
+    /**
+     * Cached response. Bodies live either in memory or in a file of the disk
+     * tier.
+     */
+    public static class Entry {
+        private final String url;
+        private final int status;
+        private final String reason;
+        private final List<String[]> headers;
+        private final long expires;
+        private final long length;
+        private volatile byte[] body;
+        private volatile File file;
+
+        /**
+         * @param url
+         * @param status
+         * @param reason
+         * @param headers
+         *            name and value pairs, without hop by hop headers
+         * @param expires
+         *            epoch milliseconds the entry is fresh until
+         * @param body
+         */
+        public Entry(String url, int status, String reason,
+                List<String[]> headers, long expires, byte[] body) {
+            this.url = url;
+            this.status = status;
+            this.reason = reason;
+            this.headers = Collections.unmodifiableList(new ArrayList<String[]>(
+                    headers));
+            this.expires = expires;
+            this.length = body.length;
+            this.body = body;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public List<String[]> getHeaders() {
+            return headers;
+        }
+
+        public long getExpires() {
+            return expires;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return body if held in memory, else null
+         */
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * @return file holding the body if on disk, else null
+         */
+        public File getFile() {
+            return file;
+        }
+
+        public boolean isExpired(long now) {
+            return now >= expires;
+        }
+    }
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(ProxyCache.class);
+
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final long maxEntryBytes;
+    private final File directory;
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<String, Entry>(
+            16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> disk = new LinkedHashMap<String, Entry>(
+            16, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+    private long fileCount;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxMemoryBytes
+     *            bytes of bodies held in memory
+     * @param maxDiskBytes
+     *            bytes of bodies held on disk, zero for no disk tier
+     * @param maxEntryBytes
+     *            largest body cached
+     * @param directory
+     *            directory of the disk tier, emptied of earlier files
+     */
+    public ProxyCache(long maxMemoryBytes, long maxDiskBytes,
+            long maxEntryBytes, File directory) {
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.directory = directory;
+        if (maxDiskBytes > 0) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IllegalArgumentException("unable to create proxy "
+                        + "cache directory " + directory);
+            }
+            File[] files = directory.listFiles();
+            for (File file : files == null ? new File[0] : files) {
+                if (file.getName().endsWith(".body") && !file.delete()) {
+                    log.warn("unable to delete stale cache file {}", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param url
+     * @return fresh entry, else null
+     */
+    public synchronized Entry get(String url) {
+        long now = System.currentTimeMillis();
+        Entry entry = memory.get(url);
+        if (entry != null) {
+            if (!entry.isExpired(now)) {
+                memoryHits.incrementAndGet();
+                return entry;
+            }
+            memory.remove(url);
+            memoryBytes -= entry.getLength();
+        }
+        entry = disk.get(url);
+        if (entry != null) {
+            if (!entry.isExpired(now)) {
+                diskHits.incrementAndGet();
+                return entry;
+            }
+            removeFromDisk(url);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @param length
+     *            body bytes
+     * @return true if a body of the length fits the cache
+     */
+    public boolean accepts(long length) {
+        return length <= maxEntryBytes
+                && (length <= maxMemoryBytes || length <= maxDiskBytes);
+    }
+
+    /**
+     * @return largest body the cache accepts
+     */
+    public long getMaxEntryBytes() {
+        return Math.min(maxEntryBytes, Math.max(maxMemoryBytes, maxDiskBytes));
+    }
+
+    /**
+     * Stores the entry, replacing any earlier one for its url.
+     *
+     * @param entry
+     */
+    public synchronized void put(Entry entry) {
+        if (!accepts(entry.getLength())) {
+            return;
+        }
+        String url = entry.getUrl();
+        Entry old = memory.remove(url);
+        if (old != null) {
+            memoryBytes -= old.getLength();
+        }
+        removeFromDisk(url);
+        stores.incrementAndGet();
+        if (entry.getLength() <= maxMemoryBytes / 8 || maxDiskBytes == 0) {
+            memory.put(url, entry);
+            memoryBytes += entry.getLength();
+            evictMemory();
+        } else {
+            writeToDisk(entry);
+        }
+    }
+
+    private void evictMemory() {
+        Iterator<Entry> entries = memory.values().iterator();
+        while (memoryBytes > maxMemoryBytes && entries.hasNext()) {
+            Entry eldest = entries.next();
+            entries.remove();
+            memoryBytes -= eldest.getLength();
+            evictions.incrementAndGet();
+            if (maxDiskBytes > 0 && !eldest.isExpired(System.currentTimeMillis())) {
+                writeToDisk(eldest);
+            }
+        }
+    }
+
+    private void writeToDisk(Entry entry) {
+        if (entry.getLength() > maxDiskBytes) {
+            return;
+        }
+        File file = new File(directory, (++fileCount) + ".body");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            out.getChannel().write(ByteBuffer.wrap(entry.getBody()));
+        } catch (IOException e) {
+            log.warn("unable to write proxy cache file " + file, e);
+            file.delete();
+            return;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    log.debug("unable to close proxy cache file", e);
+                }
+            }
+        }
+        entry.file = file;
+        entry.body = null;
+        disk.put(entry.getUrl(), entry);
+        diskBytes += entry.getLength();
+        Iterator<Entry> entries = disk.values().iterator();
+        while (diskBytes > maxDiskBytes && entries.hasNext()) {
+            Entry eldest = entries.next();
+            entries.remove();
+            diskBytes -= eldest.getLength();
+            evictions.incrementAndGet();
+            eldest.file.delete();
+        }
+    }
+
+    private void removeFromDisk(String url) {
+        Entry entry = disk.remove(url);
+        if (entry != null) {
+            diskBytes -= entry.getLength();
+            entry.file.delete();
+        }
+    }
+
+    /**
+     * Opens the body of a disk entry for zero copy transfer. The file stays
+     * readable while open even if the entry is evicted meanwhile.
+     *
+     * @param entry
+     * @return channel of the body file, else null if already evicted
+     */
+    public FileChannel openBody(Entry entry) {
+        File file = entry.getFile();
+        if (file == null) {
+            return null;
+        }
+        try {
+            return new RandomAccessFile(file, "r").getChannel();
+        } catch (IOException e) {
+            log.debug("proxy cache file {} evicted", file);
+            return null;
+        }
+    }
+
+    /**
+     * Drops all entries.
+     */
+    public synchronized void clear() {
+        memory.clear();
+        memoryBytes = 0;
+        for (String url : new ArrayList<String>(disk.keySet())) {
+            removeFromDisk(url);
+        }
+    }
+
+    public long getMemoryHitCount() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getStoreCount() {
+        return stores.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return memory.size() + disk.size();
+    }
+
+    /**
+     * @return entries by url, for reporting
+     */
+    public synchronized Map<String, Long> getEntrySizes() {
+        Map<String, Long> sizes = new LinkedHashMap<String, Long>();
+        for (Entry entry : memory.values()) {
+            sizes.put(entry.getUrl(), entry.getLength());
+        }
+        for (Entry entry : disk.values()) {
+            sizes.put(entry.getUrl(), entry.getLength());
+        }
+        return sizes;
+    }
+}
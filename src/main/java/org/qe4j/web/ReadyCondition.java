@@ -0,0 +1,29 @@
+package org.qe4j.web;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Condition ending a wait of OpenWebDriver.waitUntil() early. Checked many
+ * times a second, so implementations should be cheap and quiet. See
+ * ReadyConditions for the common ones.
+ */
+public interface ReadyCondition {
+
+    /**
+     * @param driver
+     * @return true when the page is ready and the wait can end
+     */
+    boolean isReady(OpenWebDriver driver);
+}
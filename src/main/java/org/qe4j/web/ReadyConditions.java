@@ -0,0 +1,225 @@
+package org.qe4j.web;
+
+import java.util.List;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.ui.ExpectedCondition;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Common ready conditions: locator states, javascript predicates, ajax idle
+ * and adapters for Selenium ExpectedConditions.
+ */
+public class ReadyConditions {
+
+    private ReadyConditions() {
+    }
+
+    /**
+     * @param by
+     * @return ready when an element is found
+     */
+    public static ReadyCondition present(final By by) {
+        return new ReadyCondition() {
+            @Override
+            public boolean isReady(OpenWebDriver driver) {
+                return !driver.findElementsNow(by).isEmpty();
+            }
+
+            @Override
+            public String toString() {
+                return "present " + by;
+            }
+        };
+    }
+
+    /**
+     * @param by
+     * @return ready when no element is found
+     */
+    public static ReadyCondition absent(final By by) {
+        return new ReadyCondition() {
+            @Override
+            public boolean isReady(OpenWebDriver driver) {
+                return driver.findElementsNow(by).isEmpty();
+            }
+
+            @Override
+            public String toString() {
+                return "absent " + by;
+            }
+        };
+    }
+
+    /**
+     * @param by
+     * @return ready when a found element is displayed
+     */
+    public static ReadyCondition visible(final By by) {
+        return new ReadyCondition() {
+            @Override
+            public boolean isReady(OpenWebDriver driver) {
+                List<WebElement> elements = driver.findElementsNow(by);
+                for (WebElement element : elements) {
+                    if (element.isDisplayed()) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public String toString() {
+                return "visible " + by;
+            }
+        };
+    }
+
+    /**
+     * @param by
+     * @return ready when the first element found is displayed and enabled
+     */
+    public static ReadyCondition clickable(final By by) {
+        return new ReadyCondition() {
+            @Override
+            public boolean isReady(OpenWebDriver driver) {
+                List<WebElement> elements = driver.findElementsNow(by);
+                return !elements.isEmpty() && elements.get(0).isDisplayed()
+                        && elements.get(0).isEnabled();
+            }
+
+            @Override
+            public String toString() {
+                return "clickable " + by;
+            }
+        };
+    }
+
+    /**
+     * @param predicate
+     *            script returning a boolean, e.g. "return
+     *            document.readyState === 'complete';"
+     * @param args
+     *            script arguments
+     * @return ready when the script returns true
+     */
+    public static ReadyCondition javascript(final String predicate,
+            final Object... args) {
+        return new ReadyCondition() {
+            @Override
+            public boolean isReady(OpenWebDriver driver) {
+                return Boolean.TRUE.equals(driver.executeJavaScript(
+                        predicate, args));
+            }
+
+            @Override
+            public String toString() {
+                return "javascript " + predicate;
+            }
+        };
+    }
+
+    /**
+     * @return ready when the page has no active ajax calls
+     */
+    public static ReadyCondition ajaxIdle() {
+        return new ReadyCondition() {
+            @Override
+            public boolean isReady(OpenWebDriver driver) {
+                return ((Number) driver
+                        .callLibraryScript(ScriptLibrary.AJAX_ACTIVE))
+                        .longValue() <= 0;
+            }
+
+            @Override
+            public String toString() {
+                return "ajax idle";
+            }
+        };
+    }
+
+    /**
+     * @param baselineDigest
+     *            digest of OpenWebDriver.getDomDigest()
+     * @return ready when the digest of the document differs
+     */
+    public static ReadyCondition domChanged(final String baselineDigest) {
+        return domChanged(null, baselineDigest);
+    }
+
+    /**
+     * @param element
+     *            root of the subtree
+     * @param baselineDigest
+     *            digest of OpenWebDriver.getDomDigest(element)
+     * @return ready when the digest of the subtree differs
+     */
+    public static ReadyCondition domChanged(final WebElement element,
+            final String baselineDigest) {
+        return new ReadyCondition() {
+            @Override
+            public boolean isReady(OpenWebDriver driver) {
+                String digest = driver.getDomDigest(element);
+                return digest != null && !digest.equals(baselineDigest);
+            }
+
+            @Override
+            public String toString() {
+                return "dom changed from " + baselineDigest;
+            }
+        };
+    }
+
+    /**
+     * @param condition
+     *            Selenium wait strategy
+     * @return ready when the expected condition returns true or a non null
+     *         value
+     */
+    public static ReadyCondition expected(final ExpectedCondition<?> condition) {
+        return new ReadyCondition() {
+            @Override
+            public boolean isReady(OpenWebDriver driver) {
+                Object value = condition.apply(driver);
+                return value != null && !Boolean.FALSE.equals(value);
+            }
+
+            @Override
+            public String toString() {
+                return condition.toString();
+            }
+        };
+    }
+
+    /**
+     * @param conditions
+     * @return ready when all conditions are ready
+     */
+    public static ReadyCondition all(final ReadyCondition... conditions) {
+        return new ReadyCondition() {
+            @Override
+            public boolean isReady(OpenWebDriver driver) {
+                for (ReadyCondition condition : conditions) {
+                    if (!condition.isReady(driver)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+}
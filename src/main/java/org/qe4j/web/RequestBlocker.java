@@ -0,0 +1,156 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.util.FalsifyingWebConnection;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Request blocking rules of one session from the webdriver.block.patterns
+ * property, comma separated regular expressions found anywhere in the request
+ * url. How the rules are enforced depends on the browser:
+ *
+ * HtmlUnit - blocked requests are answered by the web connection of the
+ * session with an empty 204 response
+ *
+ * local Firefox and Chrome - the session gets its own port on the
+ * CachingProxy, which answers blocked requests with an empty 204 response and
+ * refuses CONNECT tunnels to blocked https hosts
+ *
+ * remote sessions and Internet Explorer - after each page load
+ * XMLHttpRequests to blocked urls are redirected to about:blank in the page,
+ * so they fail quickly; resources loaded by the page itself are not blocked
+ *
+ * Blocked requests are counted per session.
+ */
+public class RequestBlocker {
+
+    private final List<Pattern> patterns;
+    private final AtomicLong blocked = new AtomicLong();
+
+    /**
+     * @param properties
+     * @return blocker of the webdriver.block.patterns property, else null if
+     *         no patterns are set
+     */
+    public static RequestBlocker fromProperties(Properties properties) {
+        List<Pattern> patterns = HtmlUnitProfile.parsePatterns(properties
+                .getProperty(OpenWebDriver.BLOCK_PATTERNS_PROP_KEY));
+        return patterns.isEmpty() ? null : new RequestBlocker(patterns);
+    }
+
+    /**
+     * @param patterns
+     *            urls to block
+     */
+    public RequestBlocker(List<Pattern> patterns) {
+        this.patterns = Collections.unmodifiableList(new ArrayList<Pattern>(
+                patterns));
+    }
+
+    /**
+     * @param url
+     * @return true if the url matches a block pattern
+     */
+    public boolean isBlocked(String url) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(url).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks the url and counts it if blocked.
+     *
+     * @param url
+     * @return true if the request must not be sent
+     */
+    public boolean block(String url) {
+        if (isBlocked(url)) {
+            blocked.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds requests blocked outside the blocker, e.g. in the page.
+     *
+     * @param count
+     */
+    public void addBlocked(long count) {
+        blocked.addAndGet(count);
+    }
+
+    /**
+     * @return requests blocked in the session
+     */
+    public long getBlockedCount() {
+        return blocked.get();
+    }
+
+    public List<Pattern> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * @return pattern expressions for use as javascript regular expressions
+     */
+    public List<String> getExpressions() {
+        List<String> expressions = new ArrayList<String>();
+        for (Pattern pattern : patterns) {
+            expressions.add(pattern.pattern());
+        }
+        return expressions;
+    }
+
+    /**
+     * Blocks requests of an HtmlUnit session.
+     *
+     * @param webClient
+     * @return connection answering blocked requests locally
+     */
+    public FalsifyingWebConnection apply(WebClient webClient) {
+        return new FalsifyingWebConnection(webClient) {
+            @Override
+            public WebResponse getResponse(WebRequest request)
+                    throws IOException {
+                if (block(request.getUrl().toString())) {
+                    return createWebResponse(request, "", "text/plain", 204,
+                            "No Content");
+                }
+                return super.getResponse(request);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "RequestBlocker[" + patterns + ", blocked " + blocked.get()
+                + "]";
+    }
+}
@@ -0,0 +1,315 @@
+package org.qe4j.web;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Library of named javascript functions installed into the page once per
+ * document under the window.__qe4j global and then invoked by name, so each
+ * call only sends a short stub and its arguments. The stub reports when the
+ * library is missing, e.g. after a navigation replaced the document, and
+ * OpenWebDriver installs it again before retrying. Registering a function
+ * bumps the library version so stale installs are replaced too.
+ *
+ * Functions are javascript function expressions receiving the call arguments
+ * (e.g. function(selector) { return document.querySelectorAll(selector).length; }).
+ * Functions keeping state between calls store it on this, the installed
+ * library, or the window.__qe4j_state object when called inline, so it never
+ * clashes with variables of the page.
+ * The default library holds the functions used by OpenWebDriver's own
+ * helpers.
+ */
+public class ScriptLibrary {
+
+    public static final String NAMESPACE = "__qe4j";
+
+    /**
+     * Global holding the state of functions called inline.
+     */
+    public static final String STATE = NAMESPACE + "_state";
+
+    /**
+     * Number of active jQuery ajax calls less those that errored, zero when
+     * jQuery is not present. Used by waitForAjax().
+     */
+    public static final String AJAX_ACTIVE = "ajaxActive";
+
+    public static final String AJAX_ACTIVE_FUNCTION = "function() {"
+            + " if (typeof jQuery === 'undefined' || jQuery == null) return 0;"
+            + " if (jQuery.active == 0) return 0;"
+            + " return jQuery.active - ((jQuery.activeError == undefined)"
+            + " ? 0 : jQuery.activeError); }";
+
+    /**
+     * Redirects XMLHttpRequests of the page matching the regular expressions
+     * passed as an array to about:blank, so they fail without reaching the
+     * network. Returns the requests blocked so far in the page.
+     */
+    public static final String BLOCK_REQUESTS = "blockRequests";
+
+    public static final String BLOCK_REQUESTS_FUNCTION = "function(patterns) {"
+            + " var q = this;"
+            + " if (q.blocking) return q.blocked;"
+            + " var res = [];"
+            + " for (var i = 0; i < patterns.length; i++)"
+            + " res.push(new RegExp(patterns[i]));"
+            + " var open = XMLHttpRequest.prototype.open;"
+            + " XMLHttpRequest.prototype.open = function(method, url) {"
+            + " var args = Array.prototype.slice.call(arguments);"
+            + " for (var j = 0; j < res.length; j++) {"
+            + " if (res[j].test(String(url))) {"
+            + " q.blocked++; args[1] = 'about:blank'; break; } }"
+            + " return open.apply(this, args); };"
+            + " q.blocked = 0; q.blocking = true; return 0; }";
+
+    /**
+     * Number of requests blocked in the page by BLOCK_REQUESTS.
+     */
+    public static final String BLOCKED_COUNT = "blockedCount";
+
+    public static final String BLOCKED_COUNT_FUNCTION = "function() {"
+            + " var q = this; return q.blocked || 0; }";
+
+    /**
+     * Navigation timing of the current page in milliseconds measured from the
+     * start of the navigation, plus the count and slowest duration of the
+     * resources it loaded where resource timing is supported. Null when the
+     * browser has no window.performance.timing.
+     */
+    public static final String NAVIGATION_TIMING = "navigationTiming";
+
+    public static final String NAVIGATION_TIMING_FUNCTION = "function() {"
+            + " var p = window.performance;"
+            + " if (!p || !p.timing) return null;"
+            + " var t = p.timing, s = t.navigationStart, r = {};"
+            + " r.dns = t.domainLookupEnd - t.domainLookupStart;"
+            + " r.connect = t.connectEnd - t.connectStart;"
+            + " r.ttfb = t.responseStart - t.requestStart;"
+            + " r.download = t.responseEnd - t.responseStart;"
+            + " r.domInteractive = t.domInteractive > 0 ? t.domInteractive - s : -1;"
+            + " r.domContentLoaded = t.domContentLoadedEventEnd > 0"
+            + " ? t.domContentLoadedEventEnd - s : -1;"
+            + " r.load = t.loadEventEnd > 0 ? t.loadEventEnd - s : -1;"
+            + " if (p.getEntriesByType) {"
+            + " var e = p.getEntriesByType('resource'), m = 0;"
+            + " for (var i = 0; i < e.length; i++)"
+            + " if (e[i].duration > m) m = e[i].duration;"
+            + " r.resources = e.length; r.slowestResource = m; }"
+            + " return r; }";
+
+    /**
+     * 64 bit digest as 16 hex characters of the DOM below the element passed,
+     * else of the whole document. Covers node names, attributes, text and the
+     * values of form fields, so it changes with anything a user could see.
+     */
+    public static final String DOM_DIGEST = "domDigest";
+
+    public static final String DOM_DIGEST_FUNCTION = "function(root) {"
+            + " var n = root || document.documentElement;"
+            + " if (!n) return null;"
+            + " var h1 = 0x811c9dc5, h2 = 5381;"
+            + " function add(s) { s = String(s) + '\\u0001';"
+            + " for (var i = 0; i < s.length; i++) {"
+            + " var c = s.charCodeAt(i); h1 ^= c;"
+            + " h1 = (h1 + (h1 << 1) + (h1 << 4) + (h1 << 7) + (h1 << 8)"
+            + " + (h1 << 24)) >>> 0;"
+            + " h2 = ((h2 << 5) + h2 + c) | 0; } }"
+            + " var stack = [n];"
+            + " while (stack.length) {"
+            + " var x = stack.pop(); add(x.nodeType); add(x.nodeName);"
+            + " if (x.nodeType == 1) {"
+            + " for (var j = 0; x.attributes && j < x.attributes.length; j++) {"
+            + " add(x.attributes[j].name); add(x.attributes[j].value); }"
+            + " if (/^(INPUT|TEXTAREA|SELECT)$/i.test(x.nodeName)) {"
+            + " add(x.value); add(x.checked); }"
+            + " for (var y = x.lastChild; y; y = y.previousSibling)"
+            + " stack.push(y);"
+            + " } else { add(x.nodeValue); } }"
+            + " function hex(h) { return ('0000000' + (h >>> 0).toString(16))"
+            + ".slice(-8); }"
+            + " return hex(h1) + hex(h2); }";
+
+    /**
+     * Chunk of the page source starting at the offset. The source is
+     * serialized once when offset zero is read and kept in the page until a
+     * chunk shorter than the length was returned, or a negative offset
+     * releases it. Null when the page changed since offset zero was read.
+     */
+    public static final String PAGE_SOURCE_CHUNK = "pageSourceChunk";
+
+    public static final String PAGE_SOURCE_CHUNK_FUNCTION = "function(offset, length) {"
+            + " var q = this;"
+            + " if (offset < 0) { q.source = null; return ''; }"
+            + " if (offset == 0) {"
+            + " var d = document.documentElement;"
+            + " q.source = !d ? '' : typeof d.outerHTML === 'string'"
+            + " ? d.outerHTML : new XMLSerializer().serializeToString(d); }"
+            + " if (q.source == null) return null;"
+            + " var chunk = q.source.substr(offset, length);"
+            + " if (chunk.length < length) q.source = null;"
+            + " return chunk; }";
+
+    /**
+     * Used javascript heap in bytes, -1 where the browser has no
+     * performance.memory, and the number of elements in the document.
+     */
+    public static final String MEMORY_SAMPLE = "memorySample";
+
+    public static final String MEMORY_SAMPLE_FUNCTION = "function() {"
+            + " var p = window.performance, m = p && p.memory;"
+            + " return {heap: m ? m.usedJSHeapSize : -1,"
+            + " nodes: document.getElementsByTagName('*').length}; }";
+
+    private static final String MISSING = NAMESPACE + "_missing";
+
+    private static final Pattern NAME_PATTERN = Pattern
+            .compile("[A-Za-z_$][A-Za-z0-9_$]*");
+
+    private static ScriptLibrary defaultLibrary;
+
+    private final Map<String, String> functions = new LinkedHashMap<String, String>();
+    private final Map<String, String> callScripts = new ConcurrentHashMap<String, String>();
+    private final Map<String, String> inlineScripts = new ConcurrentHashMap<String, String>();
+    private int version;
+    private String installScript;
+
+    /**
+     * @return library shared by all drivers holding the built-in helper
+     *         functions
+     */
+    public static synchronized ScriptLibrary getDefault() {
+        if (defaultLibrary == null) {
+            defaultLibrary = new ScriptLibrary();
+            defaultLibrary.register(AJAX_ACTIVE, AJAX_ACTIVE_FUNCTION);
+            defaultLibrary.register(BLOCK_REQUESTS, BLOCK_REQUESTS_FUNCTION);
+            defaultLibrary.register(BLOCKED_COUNT, BLOCKED_COUNT_FUNCTION);
+            defaultLibrary.register(NAVIGATION_TIMING,
+                    NAVIGATION_TIMING_FUNCTION);
+            defaultLibrary.register(DOM_DIGEST, DOM_DIGEST_FUNCTION);
+            defaultLibrary.register(PAGE_SOURCE_CHUNK,
+                    PAGE_SOURCE_CHUNK_FUNCTION);
+            defaultLibrary.register(MEMORY_SAMPLE, MEMORY_SAMPLE_FUNCTION);
+        }
+        return defaultLibrary;
+    }
+
+    /**
+     * Adds or replaces a function in the library.
+     *
+     * @param name
+     *            javascript identifier to invoke the function by
+     * @param function
+     *            javascript function expression
+     */
+    public synchronized void register(String name, String function) {
+        if (name == null || !NAME_PATTERN.matcher(name).matches()) {
+            throw new IllegalArgumentException("script name [" + name
+                    + "] must be a javascript identifier");
+        }
+        functions.put(name, function);
+        version++;
+        installScript = null;
+        callScripts.clear();
+        inlineScripts.remove(name);
+    }
+
+    public synchronized boolean isRegistered(String name) {
+        return functions.containsKey(name);
+    }
+
+    /**
+     * @return script defining every function of the library under the
+     *         namespace global of the current document
+     */
+    public synchronized String getInstallScript() {
+        if (installScript == null) {
+            StringBuilder script = new StringBuilder();
+            script.append("window.").append(NAMESPACE).append(" = {v: ")
+                    .append(version).append(", f: {");
+            boolean first = true;
+            for (Map.Entry<String, String> function : functions.entrySet()) {
+                if (!first) {
+                    script.append(", ");
+                }
+                script.append(function.getKey()).append(": ")
+                        .append(function.getValue());
+                first = false;
+            }
+            script.append("}}; return true;");
+            installScript = script.toString();
+        }
+        return installScript;
+    }
+
+    /**
+     * @param name
+     * @return short stub invoking the installed function with the script
+     *         arguments, or returning a missing marker if the library is not
+     *         installed in the current document
+     */
+    public String getCallScript(String name) {
+        String script = callScripts.get(name);
+        if (script == null) {
+            synchronized (this) {
+                checkRegistered(name);
+                script = "var q = window." + NAMESPACE + "; return q && q.v === "
+                        + version + " ? q.f." + name
+                        + ".apply(q, arguments) : '" + MISSING + "';";
+                callScripts.put(name, script);
+            }
+        }
+        return script;
+    }
+
+    /**
+     * @param name
+     * @return script defining and invoking the function in one go with the
+     *         inline state object as this, for drivers not using installed
+     *         libraries
+     */
+    public String getInlineScript(String name) {
+        String script = inlineScripts.get(name);
+        if (script == null) {
+            synchronized (this) {
+                checkRegistered(name);
+                script = "var q = window." + STATE + " || (window." + STATE
+                        + " = {}); return (" + functions.get(name)
+                        + ").apply(q, arguments);";
+                inlineScripts.put(name, script);
+            }
+        }
+        return script;
+    }
+
+    /**
+     * @param response
+     *            response of a call script
+     * @return true if the library was not installed in the document
+     */
+    public static boolean isMissing(Object response) {
+        return MISSING.equals(response);
+    }
+
+    private void checkRegistered(String name) {
+        if (!functions.containsKey(name)) {
+            throw new IllegalArgumentException("script " + name
+                    + " is not registered");
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.qe4j.web;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Runs many short lived sessions, typically in process HtmlUnit ones, with a
+ * bound on how many are open at once and how many wait to run. Each task gets
+ * its own OpenWebDriver which is quit when the task ends.
+ *
+ * The executor running the sessions is pluggable. By default a pool with one
+ * thread per concurrent session is used; on a JVM with virtual threads pass
+ * a virtual thread per task executor and the session bound still caps the
+ * open browsers. Driver waits hold no locks while sleeping and stop with a
+ * WebDriverException when the session is cancelled, so sleeping sessions
+ * do not pin carrier threads or outlive their task.
+ */
+public class SessionScheduler {
+
+    /**
+     * Work to run with a session of its own.
+     *
+     * @param <T>
+     *            result of the task
+     */
+    public interface SessionTask<T> {
+        T run(OpenWebDriver driver) throws Exception;
+    }
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(SessionScheduler.class);
+
+    private final Properties properties;
+    private final ExecutorService executor;
+    private final Semaphore sessions;
+    private final Semaphore pending;
+    private final int maxSessions;
+    private final int maxPending;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Creates a scheduler with a thread per concurrent session.
+     *
+     * @param properties
+     *            driver properties of every session
+     * @param maxSessions
+     *            sessions open at the same time
+     * @param maxPending
+     *            tasks submitted and not finished before submit() blocks
+     */
+    public SessionScheduler(Properties properties, int maxSessions,
+            int maxPending) {
+        this(properties, maxSessions, maxPending, Executors.newFixedThreadPool(
+                maxSessions, new SessionThreadFactory()));
+    }
+
+    /**
+     * @param properties
+     *            driver properties of every session
+     * @param maxSessions
+     *            sessions open at the same time
+     * @param maxPending
+     *            tasks submitted and not finished before submit() blocks
+     * @param executor
+     *            runs the tasks, shut down with the scheduler
+     */
+    public SessionScheduler(Properties properties, int maxSessions,
+            int maxPending, ExecutorService executor) {
+        if (maxSessions < 1 || maxPending < maxSessions) {
+            throw new IllegalArgumentException("max sessions must be one or "
+                    + "more and max pending at least max sessions");
+        }
+        this.properties = properties;
+        this.maxSessions = maxSessions;
+        this.maxPending = maxPending;
+        this.executor = executor;
+        sessions = new Semaphore(maxSessions, true);
+        pending = new Semaphore(maxPending, true);
+    }
+
+    /**
+     * Schedules the task, blocking while the maximum number of tasks are
+     * pending.
+     *
+     * @param task
+     * @return result of the task
+     * @throws InterruptedException
+     */
+    public <T> Future<T> submit(final SessionTask<T> task)
+            throws InterruptedException {
+        pending.acquire();
+        SessionFuture<T> future = new SessionFuture<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return runSession(task);
+            }
+        });
+        try {
+            executor.execute(future);
+        } catch (RuntimeException e) {
+            pending.release();
+            throw e;
+        }
+        return future;
+    }
+
+    private <T> T runSession(SessionTask<T> task) throws Exception {
+        sessions.acquire();
+        active.incrementAndGet();
+        OpenWebDriver driver = null;
+        boolean success = false;
+        try {
+            driver = new OpenWebDriver(properties);
+            T result = task.run(driver);
+            success = true;
+            return result;
+        } finally {
+            if (driver != null) {
+                try {
+                    driver.quit();
+                } catch (RuntimeException e) {
+                    log.warn("unable to quit session", e);
+                }
+            }
+            active.decrementAndGet();
+            sessions.release();
+            if (success) {
+                completed.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return sessions currently open
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * @return tasks submitted and not finished or cancelled
+     */
+    public int getPendingCount() {
+        return maxPending - pending.availablePermits();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Stops accepting tasks and waits for the scheduled ones to finish.
+     *
+     * @param timeout
+     * @param unit
+     * @return true if all tasks finished in time
+     * @throws InterruptedException
+     */
+    public boolean shutdown(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Cancels running sessions by interrupting their waits, and the tasks
+     * not started yet.
+     */
+    public void shutdownNow() {
+        for (Runnable queued : executor.shutdownNow()) {
+            if (queued instanceof Future) {
+                ((Future<?>) queued).cancel(false);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SessionScheduler[active " + active.get() + " of "
+                + maxSessions + ", completed " + completed.get()
+                + ", failed " + failed.get() + "]";
+    }
+
+    /**
+     * Task of the scheduler, freeing its pending place when it completes or
+     * is cancelled, also before it ran.
+     */
+    private class SessionFuture<T> extends FutureTask<T> {
+
+        SessionFuture(Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        protected void done() {
+            pending.release();
+        }
+    }
+
+    private static class SessionThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "session-"
+                    + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package org.qe4j.web;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Timed operation of a trace started by the Tracer, e.g. a click, with the
+ * spans started on the same thread before it ends as its children, e.g. the
+ * wait for ajax after the click. A span not sampled keeps the nesting but
+ * records nothing; callers building attribute values should check
+ * isRecording() first.
+ */
+public class Span {
+
+    /**
+     * Span of a disabled tracer, shared and never recording.
+     */
+    public static final Span NOOP = new Span(null, null, null, 0, 0, false);
+
+    private final Tracer tracer;
+    private final Span parent;
+    private final String name;
+    private final long traceId;
+    private final long spanId;
+    private final boolean recording;
+    private final long threadId;
+    private final String threadName;
+    private final long startNanos;
+    private long endNanos;
+    private boolean success = true;
+    private Map<String, Object> attributes;
+
+    Span(Tracer tracer, Span parent, String name, long traceId, long spanId,
+            boolean recording) {
+        this.tracer = tracer;
+        this.parent = parent;
+        this.name = name;
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.recording = recording;
+        if (recording) {
+            Thread thread = Thread.currentThread();
+            threadId = thread.getId();
+            threadName = thread.getName();
+            startNanos = System.nanoTime();
+        } else {
+            threadId = 0;
+            threadName = null;
+            startNanos = 0;
+        }
+    }
+
+    /**
+     * @return true if the span is sampled and records attributes
+     */
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * @param key
+     * @param value
+     * @return this span
+     */
+    public Span setAttribute(String key, Object value) {
+        if (recording) {
+            if (attributes == null) {
+                attributes = new LinkedHashMap<String, Object>();
+            }
+            attributes.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Adds one to a counting attribute, e.g. polls of a wait.
+     *
+     * @param key
+     * @return count after adding, zero if not recording
+     */
+    public long increment(String key) {
+        if (!recording) {
+            return 0;
+        }
+        Object value = attributes == null ? null : attributes.get(key);
+        long count = value instanceof Number ? ((Number) value).longValue() + 1
+                : 1;
+        setAttribute(key, count);
+        return count;
+    }
+
+    /**
+     * Ends the span.
+     *
+     * @param success
+     *            false if the operation failed
+     */
+    public void end(boolean success) {
+        if (tracer == null) {
+            return;
+        }
+        if (recording) {
+            this.success = success;
+            endNanos = System.nanoTime();
+        }
+        tracer.ended(this);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return enclosing span, else null for the root of a trace
+     */
+    public Span getParent() {
+        return parent;
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public long getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return id of the enclosing span, else zero for the root of a trace
+     */
+    public long getParentId() {
+        return parent == null ? 0 : parent.spanId;
+    }
+
+    public long getThreadId() {
+        return threadId;
+    }
+
+    public String getThreadName() {
+        return threadName;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getDurationNanos() {
+        return endNanos - startNanos;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public Map<String, Object> getAttributes() {
+        if (attributes == null) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(attributes);
+    }
+
+    Tracer getTracer() {
+        return tracer;
+    }
+
+    @Override
+    public String toString() {
+        return "Span[" + name + (recording ? ", " + spanId : ", not sampled")
+                + "]";
+    }
+}
@@ -0,0 +1,35 @@
+package org.qe4j.web;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Receives the sampled spans of a Tracer as they end, children before their
+ * parents. Called on the thread ending the span, from many threads at once.
+ */
+public interface SpanExporter {
+
+    /**
+     * @param span
+     *            ended span, not changed after
+     * @param epochMicros
+     *            wall clock time the span started at, in microseconds
+     */
+    void export(Span span, long epochMicros);
+
+    /**
+     * Writes out spans still buffered and releases resources.
+     */
+    void close();
+}
@@ -0,0 +1,108 @@
+package org.qe4j.web;
+
+import java.util.Random;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Distribution of the pauses a virtual user of LoadRunner takes between
+ * steps and journeys, as a person reading a page would. Without think time a
+ * handful of users makes more requests than many real ones, and all at the
+ * same moments.
+ */
+public abstract class ThinkTime {
+
+    /**
+     * @param random
+     *            random numbers of the user thinking
+     * @return next pause in milliseconds
+     */
+    public abstract long nextMillis(Random random);
+
+    /**
+     * @return no pauses
+     */
+    public static ThinkTime none() {
+        return constant(0);
+    }
+
+    /**
+     * @param millis
+     * @return the same pause every time
+     */
+    public static ThinkTime constant(final long millis) {
+        return new ThinkTime() {
+            @Override
+            public long nextMillis(Random random) {
+                return millis;
+            }
+
+            @Override
+            public String toString() {
+                return "constant " + millis + " ms";
+            }
+        };
+    }
+
+    /**
+     * @param minMillis
+     * @param maxMillis
+     * @return pauses evenly spread between the bounds
+     */
+    public static ThinkTime uniform(final long minMillis, final long maxMillis) {
+        if (maxMillis < minMillis) {
+            throw new IllegalArgumentException("max " + maxMillis
+                    + " is less than min " + minMillis);
+        }
+        return new ThinkTime() {
+            @Override
+            public long nextMillis(Random random) {
+                return minMillis
+                        + (long) (random.nextDouble() * (maxMillis - minMillis));
+            }
+
+            @Override
+            public String toString() {
+                return "uniform " + minMillis + "-" + maxMillis + " ms";
+            }
+        };
+    }
+
+    /**
+     * Mostly short pauses with a few long ones, as arrivals of independent
+     * users are.
+     *
+     * @param meanMillis
+     * @param maxMillis
+     *            longest pause, the tail is cut off at
+     * @return exponentially distributed pauses
+     */
+    public static ThinkTime exponential(final long meanMillis,
+            final long maxMillis) {
+        return new ThinkTime() {
+            @Override
+            public long nextMillis(Random random) {
+                double pause = -Math.log(1 - random.nextDouble()) * meanMillis;
+                return Math.min(maxMillis, (long) pause);
+            }
+
+            @Override
+            public String toString() {
+                return "exponential mean " + meanMillis + " ms, max "
+                        + maxMillis + " ms";
+            }
+        };
+    }
+}
@@ -0,0 +1,150 @@
+package org.qe4j.web;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Writes spans to a file in the Trace Event Format, a JSON array of complete
+ * events, which chrome://tracing and the Perfetto UI open without any
+ * server. Each thread is a track in which spans nest by time, and the
+ * attributes, trace and span ids are the arguments of the event. Spans are
+ * streamed to the file as they end; the array is closed by close(), and the
+ * viewers also read a file cut short by a killed JVM.
+ */
+public class TraceFileExporter implements SpanExporter {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(TraceFileExporter.class);
+
+    private final File file;
+    private final String pid;
+    private Writer writer;
+    private boolean first = true;
+    private boolean closed;
+
+    /**
+     * @param file
+     *            trace file, replaced
+     * @throws IOException
+     *             if the file cannot be created
+     */
+    public TraceFileExporter(File file) throws IOException {
+        this.file = file;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"));
+        writer.write("[\n");
+        // the runtime name is pid@host on the usual JVMs
+        String runtime = ManagementFactory.getRuntimeMXBean().getName();
+        int at = runtime.indexOf('@');
+        pid = at > 0 && runtime.substring(0, at).matches("\\d+") ? runtime
+                .substring(0, at) : "1";
+    }
+
+    @Override
+    public synchronized void export(Span span, long epochMicros) {
+        if (closed) {
+            return;
+        }
+        StringBuilder event = new StringBuilder(256);
+        event.append(first ? "" : ",\n");
+        event.append("{\"name\":").append(JSONObject.quote(span.getName()));
+        event.append(",\"cat\":\"qe4j\",\"ph\":\"X\",\"ts\":")
+                .append(epochMicros);
+        event.append(",\"dur\":").append(
+                Math.max(0, span.getDurationNanos() / 1000));
+        event.append(",\"pid\":").append(pid);
+        event.append(",\"tid\":").append(span.getThreadId());
+        event.append(",\"args\":{\"trace\":\"")
+                .append(Long.toHexString(span.getTraceId()))
+                .append("\",\"span\":").append(span.getSpanId())
+                .append(",\"parent\":").append(span.getParentId())
+                .append(",\"thread\":")
+                .append(JSONObject.quote(span.getThreadName()));
+        if (!span.isSuccess()) {
+            event.append(",\"error\":true");
+        }
+        for (Map.Entry<String, Object> attribute : span.getAttributes()
+                .entrySet()) {
+            event.append(',').append(JSONObject.quote(attribute.getKey()))
+                    .append(':');
+            Object value = attribute.getValue();
+            if (value instanceof Number || value instanceof Boolean) {
+                event.append(value);
+            } else {
+                event.append(JSONObject.quote(String.valueOf(value)));
+            }
+        }
+        event.append("}}");
+        try {
+            writer.write(event.toString());
+            first = false;
+        } catch (IOException e) {
+            log.warn("unable to write span to " + file + ", tracing stopped",
+                    e);
+            close();
+        }
+    }
+
+    /**
+     * Writes buffered spans to the file.
+     */
+    public synchronized void flush() {
+        if (closed) {
+            return;
+        }
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            log.warn("unable to flush trace file " + file, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            writer.write("\n]\n");
+            writer.close();
+        } catch (IOException e) {
+            log.warn("unable to close trace file " + file, e);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "TraceFileExporter[" + file + "]";
+    }
+}
@@ -0,0 +1,215 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Starts the Spans of OpenWebDriver and OpenWebElement operations, so a test
+ * reads as a timeline of navigations, finds, clicks and the waits within
+ * them. Spans nest per thread: a span started while another is open on the
+ * same thread is its child. Whether a trace is recorded is decided once at
+ * its root with the webdriver.tracing.sample ratio, and its children follow.
+ * Ended spans of sampled traces go to the exporter, by default a
+ * TraceFileExporter writing webdriver.tracing.file.
+ *
+ * With a sample ratio of zero, the default, start() returns the shared
+ * Span.NOOP without touching the thread or allocating.
+ */
+public class Tracer {
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(Tracer.class);
+
+    private static final Tracer DISABLED = new Tracer(0, null);
+
+    private static Tracer defaultTracer;
+
+    private final double sampleRatio;
+    private volatile SpanExporter exporter;
+    private final ThreadLocal<Span> current = new ThreadLocal<Span>();
+    private final AtomicLong spanIds = new AtomicLong();
+    private final Random random = new Random();
+    private final long originMicros = System.currentTimeMillis() * 1000;
+    private final long originNanos = System.nanoTime();
+
+    /**
+     * @return tracer never sampling
+     */
+    public static Tracer disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Returns the JVM wide tracer, created from the properties of the first
+     * session, so the spans of all sessions go to one trace file. The file is
+     * closed when the JVM shuts down.
+     *
+     * @param properties
+     * @return tracer shared by all sessions
+     */
+    public static synchronized Tracer getInstance(Properties properties) {
+        if (defaultTracer == null) {
+            String sample = properties
+                    .getProperty(OpenWebDriver.TRACING_SAMPLE_PROP_KEY);
+            double ratio = sample == null || sample.trim().equals("") ? 0
+                    : Double.parseDouble(sample.trim());
+            String file = properties
+                    .getProperty(OpenWebDriver.TRACING_FILE_PROP_KEY);
+            if (ratio <= 0) {
+                defaultTracer = DISABLED;
+            } else if (file == null || file.trim().equals("")) {
+                log.warn("tracing sampled without a trace file, spans are"
+                        + " only available to exporters set later");
+                defaultTracer = new Tracer(ratio, null);
+            } else {
+                SpanExporter exporter;
+                try {
+                    exporter = new TraceFileExporter(new File(file.trim()));
+                } catch (IOException e) {
+                    log.warn("unable to create trace file " + file
+                            + ", tracing disabled", e);
+                    defaultTracer = DISABLED;
+                    return defaultTracer;
+                }
+                defaultTracer = new Tracer(ratio, exporter);
+                log.info("tracing {} of tests to {}", ratio, file);
+                final Tracer tracer = defaultTracer;
+                Runtime.getRuntime().addShutdownHook(
+                        new Thread("tracer-close") {
+                            @Override
+                            public void run() {
+                                tracer.close();
+                            }
+                        });
+            }
+        }
+        return defaultTracer;
+    }
+
+    /**
+     * @param sampleRatio
+     *            share of traces recorded, from 0 for none to 1 for all
+     * @param exporter
+     *            receives the ended spans, else null
+     */
+    public Tracer(double sampleRatio, SpanExporter exporter) {
+        this.sampleRatio = sampleRatio;
+        this.exporter = exporter;
+    }
+
+    /**
+     * @return true if any traces are sampled
+     */
+    public boolean isEnabled() {
+        return sampleRatio > 0;
+    }
+
+    /**
+     * Starts a span, as child of the span open on this thread if any. The
+     * span must be ended on the same thread.
+     *
+     * @param name
+     *            operation (e.g. click)
+     * @return the span, never null
+     */
+    public Span start(String name) {
+        if (sampleRatio <= 0) {
+            return Span.NOOP;
+        }
+        Span parent = current.get();
+        Span span;
+        if (parent == null) {
+            boolean sampled = sampleRatio >= 1
+                    || random.nextDouble() < sampleRatio;
+            span = new Span(this, null, name, sampled ? random.nextLong()
+                    : 0, sampled ? spanIds.incrementAndGet() : 0, sampled);
+        } else {
+            span = new Span(this, parent, name, parent.getTraceId(),
+                    parent.isRecording() ? spanIds.incrementAndGet() : 0,
+                    parent.isRecording());
+        }
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * @return span open on this thread, else Span.NOOP
+     */
+    public Span current() {
+        if (sampleRatio <= 0) {
+            return Span.NOOP;
+        }
+        Span span = current.get();
+        return span == null ? Span.NOOP : span;
+    }
+
+    /**
+     * Called by Span.end().
+     */
+    void ended(Span span) {
+        if (current.get() == span) {
+            if (span.getParent() == null) {
+                current.remove();
+            } else {
+                current.set(span.getParent());
+            }
+        }
+        SpanExporter target = exporter;
+        if (span.isRecording() && target != null) {
+            try {
+                target.export(span, originMicros
+                        + (span.getStartNanos() - originNanos) / 1000);
+            } catch (RuntimeException e) {
+                log.warn("span exporter " + target + " failed", e);
+            }
+        }
+    }
+
+    public double getSampleRatio() {
+        return sampleRatio;
+    }
+
+    public SpanExporter getExporter() {
+        return exporter;
+    }
+
+    /**
+     * @param exporter
+     *            receives the ended spans from now on, else null
+     */
+    public void setExporter(SpanExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    /**
+     * Closes the exporter.
+     */
+    public void close() {
+        SpanExporter target = exporter;
+        if (target != null) {
+            target.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Tracer[sample " + sampleRatio + ", " + exporter + "]";
+    }
+}
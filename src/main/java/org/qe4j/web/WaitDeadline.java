@@ -0,0 +1,64 @@
+package org.qe4j.web;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Deadline of the test running on the current thread. Driver waits never
+ * sleep past it and fail with a TimeoutException once it has passed.
+ * DriverManagerListener sets it from the timeOut of TestNG test methods.
+ */
+public class WaitDeadline {
+
+    private static final ThreadLocal<Long> deadline = new ThreadLocal<Long>();
+
+    private WaitDeadline() {
+    }
+
+    /**
+     * @param millis
+     *            milliseconds from now the current test must finish in
+     */
+    public static void set(long millis) {
+        deadline.set(System.nanoTime() + millis * 1000000L);
+    }
+
+    public static void clear() {
+        deadline.remove();
+    }
+
+    public static boolean isSet() {
+        return deadline.get() != null;
+    }
+
+    /**
+     * @return milliseconds left before the deadline, zero or less once
+     *         passed, else Long.MAX_VALUE if no deadline is set
+     */
+    public static long remainingMillis() {
+        Long nanos = deadline.get();
+        if (nanos == null) {
+            return Long.MAX_VALUE;
+        }
+        return (nanos - System.nanoTime()) / 1000000L;
+    }
+
+    /**
+     * @return true if a deadline is set and has passed
+     */
+    public static boolean isPassed() {
+        Long nanos = deadline.get();
+        return nanos != null && nanos - System.nanoTime() <= 0;
+    }
+}
@@ -0,0 +1,69 @@
+package org.qe4j.web;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Commands delegated by OpenWebDriver and OpenWebElement to the underlying
+ * WebDriver which are measured and reported on.
+ */
+public enum WebCommand {
+    CLOSE("close"),
+    FIND_ELEMENT("findElement"),
+    FIND_ELEMENTS("findElements"),
+    GET("get"),
+    GET_CURRENT_URL("getCurrentUrl"),
+    GET_PAGE_SOURCE("getPageSource"),
+    GET_TITLE("getTitle"),
+    GET_WINDOW_HANDLE("getWindowHandle"),
+    GET_WINDOW_HANDLES("getWindowHandles"),
+    QUIT("quit"),
+    REFRESH("refresh"),
+    EXECUTE_JAVASCRIPT("executeJavaScript"),
+    WAIT_FOR_AJAX("waitForAjax"),
+    SCREENSHOT("screenshot"),
+    MOUSE_OVER("mouseOver"),
+    CLICK("click"),
+    SUBMIT("submit"),
+    SEND_KEYS("sendKeys"),
+    CLEAR("clear"),
+    GET_TAG_NAME("getTagName"),
+    GET_ATTRIBUTE("getAttribute"),
+    IS_SELECTED("isSelected"),
+    IS_ENABLED("isEnabled"),
+    IS_DISPLAYED("isDisplayed"),
+    GET_TEXT("getText"),
+    GET_LOCATION("getLocation"),
+    GET_SIZE("getSize"),
+    GET_CSS_VALUE("getCssValue"),
+    RELOCATE("relocate");
+
+    private final String commandName;
+
+    private WebCommand(String commandName) {
+        this.commandName = commandName;
+    }
+
+    /**
+     * @return the WebDriver method name of the command (e.g. findElement)
+     */
+    public String getCommandName() {
+        return commandName;
+    }
+
+    @Override
+    public String toString() {
+        return commandName;
+    }
+}
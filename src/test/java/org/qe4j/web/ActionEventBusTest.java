@@ -0,0 +1,223 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class ActionEventBusTest {
+
+    private static final String BASE_URL = "http://127.0.0.1:9091/test/";
+
+    @Test
+    public void events() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        OpenWebDriver driver = new OpenWebDriver(properties);
+        try {
+            final List<ActionEvent> events = new CopyOnWriteArrayList<ActionEvent>();
+            driver.getActionEvents().subscribe(new ActionEventBus.Listener() {
+                @Override
+                public void onAction(ActionEvent event) {
+                    events.add(event);
+                }
+
+                @Override
+                public boolean isEnabled() {
+                    return true;
+                }
+            });
+            driver.get(BASE_URL + "htmlTest1.html");
+            driver.executeJavaScript("var form = document.createElement('form');"
+                    + " form.action = '#';"
+                    + " form.innerHTML = '<input type=\"text\" id=\"field\">';"
+                    + " document.body.appendChild(form);");
+
+            OpenWebElement field = driver.findElement(By.id("field"));
+            field.sendKeys("abc");
+            field.clear();
+            field.clickNoWait();
+            field.submitNoWait();
+
+            Assert.assertEquals(events.size(), 4, "events " + events);
+            Assert.assertEquals(events.get(0).getType(),
+                    ActionEvent.Type.SEND_KEYS, "sendKeys");
+            Assert.assertEquals(events.get(0).getKeys()[0], "abc", "keys");
+            Assert.assertTrue(
+                    events.get(0).getMessage().startsWith("sendKeys [abc] to "),
+                    "message " + events.get(0).getMessage());
+            Assert.assertEquals(events.get(1).getType(),
+                    ActionEvent.Type.CLEAR, "clear");
+            Assert.assertEquals(events.get(2).getType(),
+                    ActionEvent.Type.CLICK, "click");
+            Assert.assertEquals(events.get(3).getType(),
+                    ActionEvent.Type.SUBMIT, "submit");
+            Assert.assertEquals(events.get(2).getThreadName(), Thread
+                    .currentThread().getName(), "thread of the action");
+            Assert.assertEquals(events.get(2).getElementInfo(),
+                    OpenWebElement.extractElementInfo(field.getWebElement()),
+                    "element info");
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void asyncLogger() throws InterruptedException {
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> threads = new CopyOnWriteArrayList<String>();
+        ActionLogger logger = new ActionLogger(true, 2) {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+
+            @Override
+            protected void write(ActionEvent event, boolean background) {
+                writing.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                threads.add(Thread.currentThread().getName());
+                super.write(event, background);
+            }
+        };
+
+        ActionEvent event = new ActionEvent(ActionEvent.Type.CLICK, null, null);
+        logger.onAction(event);
+        Assert.assertTrue(writing.await(10, TimeUnit.SECONDS),
+                "first event taken");
+        // a slow appender fills the queue, the test thread goes on
+        logger.onAction(event);
+        logger.onAction(event);
+        logger.onAction(event);
+        Assert.assertEquals(logger.getDroppedCount(), 1, "dropped");
+        Assert.assertFalse(logger.flush(50), "still logging");
+
+        release.countDown();
+        Assert.assertTrue(logger.flush(10000), "flushed");
+        Assert.assertEquals(logger.getLoggedCount(), 3, "logged");
+        Assert.assertEquals(threads.get(0), "action-logger",
+                "logged in the background");
+    }
+
+    @Test
+    public void disabledLogger() throws InterruptedException {
+        ActionLogger logger = new ActionLogger(true, 2) {
+            @Override
+            public boolean isEnabled() {
+                return false;
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            logger.onAction(new ActionEvent(ActionEvent.Type.CLICK, null, null));
+        }
+        Assert.assertTrue(logger.flush(0), "nothing queued");
+        Assert.assertEquals(logger.getLoggedCount(), 0, "logged");
+        Assert.assertEquals(logger.getDroppedCount(), 0, "dropped");
+    }
+
+    @Test
+    public void elementInfoOnActingThread() throws InterruptedException {
+        final List<String> threads = new CopyOnWriteArrayList<String>();
+        WebElement element = (WebElement) Proxy.newProxyInstance(getClass()
+                .getClassLoader(), new Class<?>[] { WebElement.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) {
+                        threads.add(Thread.currentThread().getName());
+                        return "[[HtmlUnitDriver] -> id: field]";
+                    }
+                });
+        final ActionEvent event = new ActionEvent(ActionEvent.Type.CLICK,
+                element, null);
+        Thread logger = new Thread("action-logger") {
+            @Override
+            public void run() {
+                event.getMessage();
+            }
+        };
+        logger.start();
+        logger.join();
+        Assert.assertEquals(event.getMessage(), "click [element -> id: field]",
+                "message");
+        Assert.assertEquals(threads, Arrays.asList(Thread.currentThread()
+                .getName()), "element read on the acting thread only");
+    }
+
+    @Test
+    public void disabledListenerBuildsNoEvent() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        OpenWebDriver driver = new OpenWebDriver(properties);
+        try {
+            ActionEventBus actionEvents = driver.getActionEvents();
+            actionEvents.unsubscribe(ActionLogger.getInstance(properties));
+            actionEvents.subscribe(new ActionLogger(true, 2) {
+                @Override
+                public boolean isEnabled() {
+                    return false;
+                }
+            });
+            Assert.assertFalse(actionEvents.hasListeners(), "no interest");
+
+            final List<String> calls = new CopyOnWriteArrayList<String>();
+            WebElement element = (WebElement) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[] { WebElement.class },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method,
+                                Object[] args) {
+                            calls.add(method.getName());
+                            return method.getName().equals("toString")
+                                    ? "[[HtmlUnitDriver] -> id: field]"
+                                    : null;
+                        }
+                    });
+            OpenWebElement field = new OpenWebElement(driver, element);
+            field.clear();
+            field.clickNoWait();
+            Assert.assertEquals(calls, Arrays.asList("clear", "click"),
+                    "element not described");
+        } finally {
+            driver.quit();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.qe4j.web;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class ArtifactAgentTest {
+
+    private static final int EXPORT_BYTES = 3 * 1024 * 1024 + 17;
+    private static final String EXPORT_PATH = "/large%20export.bin";
+
+    private final File root = new File(
+            "target/artifact-test/node/Downloads");
+    private final File local = new File("target/artifact-test/local");
+    private ArtifactAgent agent;
+    private byte[] export;
+
+    @BeforeClass
+    public void startAgent() throws IOException {
+        FileUtils.deleteDirectory(root.getParentFile().getParentFile());
+        export = new byte[EXPORT_BYTES];
+        new Random(42).nextBytes(export);
+        FileUtils.writeByteArrayToFile(new File(root, "large export.bin"),
+                export);
+        FileUtils.writeStringToFile(new File(root.getParentFile(),
+                "secret.txt"), "outside the root");
+        FileUtils.writeStringToFile(new File(root, ".ssh/id_rsa"),
+                "hidden below the root");
+        agent = new ArtifactAgent(root, 0);
+        agent.start();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void stopAgent() {
+        agent.shutdown();
+    }
+
+    @Test
+    public void chunkedTransfer() throws IOException {
+        ArtifactRetriever retriever = new ArtifactRetriever("127.0.0.1",
+                agent.getPort(), 64 * 1024, 0, 5000);
+        File target = retriever.retrieve("large export.bin",
+                new File(local, "chunked.bin"));
+        Assert.assertTrue(Arrays.equals(
+                FileUtils.readFileToByteArray(target), export), "content");
+        Assert.assertEquals(retriever.getBytesReceived(), EXPORT_BYTES,
+                "bytes received");
+        Assert.assertFalse(new File(target.getPath()
+                + ArtifactRetriever.PART_SUFFIX).exists(), "part renamed");
+    }
+
+    @Test
+    public void resume() throws IOException {
+        File target = new File(local, "resumed.bin");
+        File part = new File(target.getPath() + ArtifactRetriever.PART_SUFFIX);
+        int received = 1024 * 1024;
+        FileUtils.writeByteArrayToFile(part,
+                Arrays.copyOf(export, received));
+
+        ArtifactRetriever retriever = new ArtifactRetriever("127.0.0.1",
+                agent.getPort());
+        retriever.retrieve("large export.bin", target);
+        Assert.assertEquals(retriever.getResumeCount(), 1, "resumed");
+        Assert.assertEquals(retriever.getBytesReceived(), EXPORT_BYTES
+                - received, "remaining bytes only");
+        Assert.assertTrue(Arrays.equals(
+                FileUtils.readFileToByteArray(target), export), "content");
+
+        // a complete part file is answered with 416 and just renamed
+        FileUtils.writeByteArrayToFile(part, export);
+        retriever.retrieve("large export.bin", target);
+        Assert.assertEquals(retriever.getBytesReceived(), EXPORT_BYTES
+                - received, "nothing left to receive");
+        Assert.assertEquals(target.length(), EXPORT_BYTES, "complete");
+
+        // a part file larger than the remote file starts over
+        RandomAccessFile larger = new RandomAccessFile(part, "rw");
+        larger.setLength(EXPORT_BYTES + 1);
+        larger.close();
+        retriever.retrieve("large export.bin", target);
+        Assert.assertTrue(Arrays.equals(
+                FileUtils.readFileToByteArray(target), export),
+                "content after restart");
+    }
+
+    @Test
+    public void missingFiles() throws IOException {
+        ArtifactRetriever retriever = new ArtifactRetriever("127.0.0.1",
+                agent.getPort(), 4096, 2, 5000);
+        for (String path : new String[] { "none.bin", "../secret.txt",
+                ".ssh/id_rsa" }) {
+            try {
+                retriever.retrieve(path, new File(local, "missing.bin"));
+                Assert.fail(path + " retrieved");
+            } catch (FileNotFoundException e) {
+                Assert.assertTrue(e.getMessage().contains(path), "message");
+            }
+        }
+        Assert.assertTrue(status("/%2Essh/id_rsa", null).startsWith(
+                "HTTP/1.1 404"), "encoded hidden directory");
+    }
+
+    @Test
+    public void localSession() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        properties.setProperty("webdriver.download.directory", "Downloads");
+        properties.setProperty("webdriver.grid.node.agent.port",
+                String.valueOf(agent.getPort()));
+        OpenWebDriver driver = new OpenWebDriver(properties);
+        try {
+            File target = driver.retrieveDownload("large export.bin",
+                    new File(local, "session.bin"));
+            Assert.assertEquals(target.length(), EXPORT_BYTES, "retrieved");
+        } finally {
+            driver.quit();
+        }
+    }
+
+    /**
+     * @return status line of a GET of the target with the range, if any
+     */
+    private String status(String target, String range) throws IOException {
+        Socket socket = new Socket("127.0.0.1", agent.getPort());
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream output = socket.getOutputStream();
+            output.write(("GET " + target + " HTTP/1.1\r\n"
+                    + "Host: 127.0.0.1\r\n"
+                    + (range == null ? "" : "Range: " + range + "\r\n")
+                    + "\r\n").getBytes("US-ASCII"));
+            output.flush();
+            return new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), "US-ASCII")).readLine();
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void ranges() throws IOException {
+        Assert.assertTrue(agent.getAddress().isLoopbackAddress(),
+                "bound address");
+        Assert.assertTrue(status(EXPORT_PATH, "bytes=10-19").startsWith(
+                "HTTP/1.1 206"), "range");
+        Assert.assertTrue(status(EXPORT_PATH, "bytes=10-5").startsWith(
+                "HTTP/1.1 416"), "end before start");
+        Assert.assertTrue(status(EXPORT_PATH, "bytes=" + EXPORT_BYTES + "-")
+                .startsWith("HTTP/1.1 416"), "start past the end");
+    }
+}
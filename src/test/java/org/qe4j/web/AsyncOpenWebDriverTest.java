@@ -0,0 +1,170 @@
+package org.qe4j.web;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Unit test class for AsyncOpenWebDriver
+ */
+public class AsyncOpenWebDriverTest {
+
+    private static final String URL = "http://127.0.0.1:9091/test/";
+    private static final String URL_TITLE = "HTML TEST1";
+    private static final String URL2 = "http://127.0.0.1:9091/test/htmlTest2.html";
+    private static final String URL2_TITLE = "HTML TEST2";
+
+    public Properties getProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "1");
+        return properties;
+    }
+
+    @Test
+    public void orderedPerSession() throws Exception {
+        final AsyncOpenWebDriver async = new AsyncOpenWebDriver(
+                new OpenWebDriver(getProperties()));
+        final List<Integer> order = Collections
+                .synchronizedList(new ArrayList<Integer>());
+        async.get(URL);
+        Future<String> title = async.getTitle();
+        Future<OpenWebElement> missing = async.findElement(By.id("missing"));
+        List<Future<Integer>> steps = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 10; i++) {
+            final int step = i;
+            steps.add(async.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    order.add(step);
+                    return step;
+                }
+            }));
+        }
+        async.get(URL2);
+        Future<String> title2 = async.getTitle();
+
+        Assert.assertEquals(title.get(), URL_TITLE, "title after get");
+        try {
+            missing.get();
+            Assert.fail("missing element found");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof NoSuchElementException,
+                    "failure kept in future");
+        }
+        for (Future<Integer> step : steps) {
+            step.get();
+        }
+        Assert.assertEquals(title2.get(), URL2_TITLE, "title after get");
+        for (int i = 0; i < order.size(); i++) {
+            Assert.assertEquals(order.get(i).intValue(), i, "submit order");
+        }
+        async.quit().get();
+    }
+
+    @Test
+    public void concurrentSessions() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AsyncOpenWebDriver first = new AsyncOpenWebDriver(new OpenWebDriver(
+                getProperties()), executor);
+        AsyncOpenWebDriver second = new AsyncOpenWebDriver(new OpenWebDriver(
+                getProperties()), executor);
+        Callable<Long> slow = new Callable<Long>() {
+            @Override
+            public Long call() throws InterruptedException {
+                Thread.sleep(1000);
+                return System.nanoTime();
+            }
+        };
+        long start = System.nanoTime();
+        Future<Long> firstDone = first.submit(slow);
+        Future<Long> secondDone = second.submit(slow);
+        Assert.assertTrue(firstDone.get() - start < 1900000000L,
+                "first not queued behind second");
+        Assert.assertTrue(secondDone.get() - start < 1900000000L,
+                "second not queued behind first");
+        first.get(URL);
+        second.get(URL2);
+        Assert.assertEquals(first.getTitle().get(), URL_TITLE, "first title");
+        Assert.assertEquals(second.getTitle().get(), URL2_TITLE,
+                "second title");
+        first.quit().get();
+        second.quit().get();
+        executor.shutdown();
+    }
+
+    @Test
+    public void chainedSessions() throws Exception {
+        final AsyncOpenWebDriver first = new AsyncOpenWebDriver(
+                new OpenWebDriver(getProperties()));
+        final AsyncOpenWebDriver second = new AsyncOpenWebDriver(
+                new OpenWebDriver(getProperties()));
+        final List<String> callbacks = Collections
+                .synchronizedList(new ArrayList<String>());
+        first.get(URL);
+        // the second session navigates once the first one read its title
+        ListenableFuture<String> chained = Futures.transform(
+                first.getTitle(), new AsyncFunction<String, String>() {
+                    @Override
+                    public ListenableFuture<String> apply(String title) {
+                        callbacks.add(title);
+                        second.get(URL2);
+                        return second.getTitle();
+                    }
+                });
+        final CountDownLatch done = new CountDownLatch(1);
+        Futures.addCallback(chained, new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String title) {
+                callbacks.add(title);
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                done.countDown();
+            }
+        });
+
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS), "chain completed");
+        Assert.assertEquals(callbacks,
+                Arrays.asList(URL_TITLE, URL2_TITLE), "titles in order");
+        first.quit().get();
+        second.quit().get();
+    }
+}
@@ -0,0 +1,330 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Minimal harness in the manner of JMH for measuring OpenWebDriver operations
+ * in the JVM of the test, with warmup and measurement iterations of a fixed
+ * duration. Every operation is timed on its own into a LatencyHistogram, so
+ * percentiles come with the average, and the bytes allocated by the measuring
+ * thread per operation are reported where the JVM tells. Results are written
+ * in the JSON layout of JMH, so the same tooling can compare runs.
+ */
+public class BenchmarkRunner {
+
+    public static final String INCLUDE_PROP_KEY = "benchmark.include";
+    public static final String WARMUP_PROP_KEY = "benchmark.warmup.iterations";
+    public static final String ITERATIONS_PROP_KEY = "benchmark.iterations";
+    public static final String TIME_PROP_KEY = "benchmark.time.millis";
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(BenchmarkRunner.class);
+
+    private static final double[] PERCENTILES = { 0, 50, 90, 95, 99, 99.9,
+            100 };
+
+    /**
+     * Student t quantiles for a 99.9% confidence interval by degrees of
+     * freedom, as JMH reports the score error.
+     */
+    private static final double[] T_999 = { 0, 636.62, 31.6, 12.92, 8.61,
+            6.87, 5.96, 5.41, 5.04, 4.78, 4.59, 4.44, 4.32, 4.22, 4.14, 4.07,
+            4.01, 3.97, 3.92, 3.88, 3.85, 3.82, 3.79, 3.77, 3.75, 3.73, 3.71,
+            3.69, 3.67, 3.66, 3.65 };
+
+    /**
+     * Operation measured by a benchmark.
+     */
+    public interface Operation {
+
+        /**
+         * Prepares the next invocation, not measured.
+         */
+        void setUp() throws Exception;
+
+        /**
+         * The measured invocation.
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * Operation without preparation.
+     */
+    public abstract static class SimpleOperation implements Operation {
+
+        @Override
+        public void setUp() {
+        }
+    }
+
+    private final String prefix;
+    private final Pattern include;
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationMillis;
+    private final JSONArray results = new JSONArray();
+    private long allocatedByRuns;
+
+    /**
+     * @param prefix
+     *            prefix of the benchmark names, usually the class name
+     * @param include
+     *            regular expression the benchmark names must contain, else
+     *            null for all
+     * @param warmupIterations
+     * @param iterations
+     *            measurement iterations
+     * @param iterationMillis
+     *            duration of each iteration, at least one operation runs
+     */
+    public BenchmarkRunner(String prefix, String include, int warmupIterations,
+            int iterations, long iterationMillis) {
+        this.prefix = prefix;
+        this.include = include == null || include.trim().equals("") ? null
+                : Pattern.compile(include);
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationMillis = iterationMillis;
+    }
+
+    /**
+     * @param prefix
+     * @return runner of the benchmark system properties, defaulting to 3
+     *         warmup and 5 measurement iterations of one second
+     */
+    public static BenchmarkRunner fromSystemProperties(String prefix) {
+        return new BenchmarkRunner(prefix, System.getProperty(INCLUDE_PROP_KEY),
+                Integer.getInteger(WARMUP_PROP_KEY, 3),
+                Integer.getInteger(ITERATIONS_PROP_KEY, 5), Long.getLong(
+                        TIME_PROP_KEY, 1000));
+    }
+
+    /**
+     * @param name
+     * @return true if the benchmark is selected
+     */
+    public boolean isIncluded(String name) {
+        return include == null || include.matcher(prefix + "." + name).find();
+    }
+
+    /**
+     * Runs a benchmark, unless it is not included, and keeps its result.
+     *
+     * @param name
+     *            benchmark name, appended to the prefix
+     * @param params
+     *            parameters of the run, reported with the result
+     * @param operation
+     * @return average microseconds per operation, else -1 if not included
+     */
+    public double run(String name, Map<String, String> params,
+            Operation operation) throws Exception {
+        if (!isIncluded(name)) {
+            return -1;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            iterate(operation, null);
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        double[] scores = new double[iterations];
+        long allocated = 0;
+        long operations = 0;
+        for (int i = 0; i < iterations; i++) {
+            long nanos = histogram.getTotalNanos();
+            allocatedByRuns = 0;
+            long count = iterate(operation, histogram);
+            scores[i] = (histogram.getTotalNanos() - nanos) / 1000d / count;
+            allocated = allocated < 0 || allocatedByRuns < 0 ? -1 : allocated
+                    + allocatedByRuns;
+            operations += count;
+        }
+
+        double mean = 0;
+        for (double score : scores) {
+            mean += score;
+        }
+        mean /= iterations;
+        double error = Double.NaN;
+        if (iterations > 1) {
+            double variance = 0;
+            for (double score : scores) {
+                variance += (score - mean) * (score - mean);
+            }
+            double deviation = Math.sqrt(variance / (iterations - 1));
+            int freedom = iterations - 1;
+            error = (freedom < T_999.length ? T_999[freedom] : 3.29)
+                    * deviation / Math.sqrt(iterations);
+        }
+
+        JSONObject result = new JSONObject();
+        try {
+            result.put("jmhVersion", "qe4j");
+            result.put("benchmark", prefix + "." + name);
+            result.put("mode", "avgt");
+            result.put("threads", 1);
+            result.put("forks", 0);
+            result.put("jvm", System.getProperty("java.home"));
+            result.put("jdkVersion", System.getProperty("java.version"));
+            result.put("vmName", System.getProperty("java.vm.name"));
+            result.put("warmupIterations", warmupIterations);
+            result.put("warmupTime", iterationMillis + " ms");
+            result.put("measurementIterations", iterations);
+            result.put("measurementTime", iterationMillis + " ms");
+            JSONObject jsonParams = new JSONObject();
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                jsonParams.put(param.getKey(), param.getValue());
+            }
+            result.put("params", jsonParams);
+
+            JSONObject primary = new JSONObject();
+            primary.put("score", mean);
+            primary.put("scoreError", Double.isNaN(error) ? "NaN" : error);
+            primary.put("scoreConfidence", Double.isNaN(error) ? new JSONArray()
+                    .put(mean).put(mean) : new JSONArray().put(mean - error)
+                    .put(mean + error));
+            JSONObject percentiles = new JSONObject();
+            for (double percentile : PERCENTILES) {
+                percentiles.put(String.valueOf(percentile),
+                        histogram.getPercentileNanos(percentile) / 1000d);
+            }
+            primary.put("scorePercentiles", percentiles);
+            primary.put("scoreUnit", "us/op");
+            JSONArray raw = new JSONArray();
+            for (double score : scores) {
+                raw.put(score);
+            }
+            primary.put("rawData", new JSONArray().put(raw));
+            result.put("primaryMetric", primary);
+
+            JSONObject secondary = new JSONObject();
+            secondary.put("ops", metric(operations, "ops"));
+            if (allocated >= 0) {
+                secondary.put("gc.alloc.rate.norm",
+                        metric((double) allocated / operations, "B/op"));
+            }
+            result.put("secondaryMetrics", secondary);
+        } catch (JSONException e) {
+            throw new IllegalStateException("unable to build result of "
+                    + name, e);
+        }
+        results.put(result);
+        log.info("{} {}: {} us/op (p50 {}, p99 {}), {} ops",
+                new Object[] { name, params, String.format("%.1f", mean),
+                        histogram.getPercentileNanos(50) / 1000,
+                        histogram.getPercentileNanos(99) / 1000, operations });
+        return mean;
+    }
+
+    /**
+     * @return results of the benchmarks run, in the JSON layout of JMH
+     */
+    public JSONArray getResults() {
+        return results;
+    }
+
+    /**
+     * Writes the results as a JSON array.
+     *
+     * @param file
+     */
+    public void writeResults(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try {
+            FileUtils.writeStringToFile(file, results.toString(2), "UTF-8");
+        } catch (JSONException e) {
+            throw new IOException("unable to write results to " + file, e);
+        }
+    }
+
+    /**
+     * Runs operations for one iteration.
+     *
+     * @param histogram
+     *            receives the duration of each operation, else null while
+     *            warming up
+     * @return operations run
+     */
+    private long iterate(Operation operation, LatencyHistogram histogram)
+            throws Exception {
+        long end = System.nanoTime() + iterationMillis * 1000000L;
+        long count = 0;
+        do {
+            operation.setUp();
+            long before = histogram == null ? -1 : allocatedBytes();
+            long start = System.nanoTime();
+            operation.run();
+            long elapsed = System.nanoTime() - start;
+            if (histogram != null) {
+                histogram.record(elapsed, true);
+                long after = allocatedBytes();
+                allocatedByRuns = before < 0 || allocatedByRuns < 0 ? -1
+                        : allocatedByRuns + after - before;
+            }
+            count++;
+        } while (System.nanoTime() < end);
+        return count;
+    }
+
+    private static JSONObject metric(double score, String unit)
+            throws JSONException {
+        JSONObject metric = new JSONObject();
+        metric.put("score", score);
+        metric.put("scoreError", "NaN");
+        metric.put("scoreUnit", unit);
+        return metric;
+    }
+
+    /**
+     * @return bytes allocated by the current thread, else -1 if the JVM does
+     *         not tell
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * @return parameters of a run, in the order given
+     */
+    public static Map<String, String> params(String... keyValues) {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        for (int i = 0; i + 1 < keyValues.length; i++) {
+            params.put(keyValues[i], keyValues[++i]);
+        }
+        return params;
+    }
+}
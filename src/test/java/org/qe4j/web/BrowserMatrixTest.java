@@ -0,0 +1,71 @@
+package org.qe4j.web;
+
+import java.util.Properties;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Unit test class for BrowserMatrix
+ */
+public class BrowserMatrixTest {
+
+    private static final String URL = "http://127.0.0.1:9091/test/";
+    private static final String URL_TITLE = "HTML TEST1";
+
+    @Test
+    public void run() throws InterruptedException {
+        Properties base = new Properties();
+        base.setProperty("webdriver.platform", "local");
+        base.setProperty("webdriver.browser-version", "3.6");
+        base.setProperty("webdriver.wait", "10");
+
+        Properties fast = new Properties();
+        fast.setProperty("webdriver.browser", "HtmlUnit");
+        fast.setProperty("webdriver.htmlunit.fast", "true");
+
+        BrowserMatrix matrix = new BrowserMatrix(base)
+                .addTarget("htmlunit", "HtmlUnit", null, null)
+                .addTarget(new BrowserMatrix.Target("htmlunit-fast", fast))
+                .addTarget("unsupported", "Netscape", null, null)
+                .setCreationLimit("htmlunit", 1);
+        BrowserMatrixReport report = matrix
+                .run(new BrowserMatrix.Scenario() {
+                    @Override
+                    public void run(OpenWebDriver driver,
+                            BrowserMatrix.Target target) throws Exception {
+                        driver.get(URL);
+                        Assert.assertEquals(driver.getTitle(), URL_TITLE,
+                                target + " title");
+                        Thread.sleep(1000);
+                    }
+                });
+
+        Assert.assertEquals(report.getResults().size(), 3, "all targets");
+        Assert.assertTrue(report.getResult("htmlunit").isSuccess(), "htmlunit");
+        Assert.assertTrue(report.getResult("htmlunit-fast").isSuccess(),
+                "htmlunit fast");
+        BrowserMatrixReport.Result unsupported = report
+                .getResult("unsupported");
+        Assert.assertTrue(
+                unsupported.getError() instanceof IllegalArgumentException,
+                "unsupported browser");
+        Assert.assertFalse(report.isSuccess(), "matrix failed");
+        Assert.assertTrue(report.getWallNanos() < report.getSerialNanos(),
+                "targets ran in parallel");
+    }
+}
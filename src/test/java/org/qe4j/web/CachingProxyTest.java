@@ -0,0 +1,170 @@
+package org.qe4j.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class CachingProxyTest {
+
+    private final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(getClass());
+
+    private static final String BASE_URL = "http://127.0.0.1:9091/test/";
+
+    private CachingProxy newProxy(long memory, long disk, String name)
+            throws IOException {
+        File directory = new File(System.getProperty("java.io.tmpdir"),
+                "qe4j-proxy-test-" + name);
+        ProxyCache cache = new ProxyCache(memory, disk, 1024 * 1024,
+                directory);
+        CachingProxy proxy = new CachingProxy(0, cache,
+                HtmlUnitProfile.parsePatterns("\\.(js|css|gif)$"), 60,
+                HtmlUnitProfile.parsePatterns("nocache"));
+        proxy.start();
+        return proxy;
+    }
+
+    private String[] fetch(CachingProxy proxy, String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url)
+                .openConnection(new Proxy(Proxy.Type.HTTP,
+                        new InetSocketAddress("127.0.0.1", proxy.getPort())));
+        Assert.assertEquals(connection.getResponseCode(), 200, "status of "
+                + url);
+        InputStream in = connection.getInputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        in.close();
+        return new String[] { connection.getHeaderField("X-Cache"),
+                body.toString("UTF-8") };
+    }
+
+    @Test
+    public void memoryTier() throws IOException {
+        CachingProxy proxy = newProxy(1024 * 1024, 0, "memory");
+        try {
+            String[] first = fetch(proxy, BASE_URL + "script.js");
+            String[] second = fetch(proxy, BASE_URL + "script.js");
+            Assert.assertEquals(first[0], "MISS", "first fetch");
+            Assert.assertEquals(second[0], "HIT", "second fetch");
+            Assert.assertEquals(second[1], first[1], "cached content");
+            Assert.assertTrue(first[1].contains("scriptLoaded"), "content");
+
+            String[] page = fetch(proxy, BASE_URL + "htmlTest1.html");
+            Assert.assertEquals(page[0], "MISS", "page not matching patterns");
+            Assert.assertEquals(fetch(proxy, BASE_URL + "htmlTest1.html")[0],
+                    "MISS", "page not cached");
+
+            Assert.assertEquals(proxy.getHitCount(), 1, "hits");
+            Assert.assertEquals(proxy.getMissCount(), 3, "misses");
+            Assert.assertEquals(proxy.getBytesSaved(), second[1].length(),
+                    "bytes saved");
+            Assert.assertEquals(proxy.getCache().getMemoryHitCount(), 1,
+                    "memory hits");
+            Assert.assertEquals(proxy.getCacheEntries(), 1, "entries");
+            log.info("{}", proxy);
+        } finally {
+            proxy.shutdown();
+        }
+    }
+
+    @Test
+    public void diskTier() throws IOException {
+        CachingProxy proxy = newProxy(0, 1024 * 1024, "disk");
+        try {
+            String[] first = fetch(proxy, BASE_URL + "style.css");
+            String[] second = fetch(proxy, BASE_URL + "style.css");
+            Assert.assertEquals(second[0], "HIT", "second fetch");
+            Assert.assertEquals(second[1], first[1], "cached content");
+            Assert.assertEquals(proxy.getCache().getDiskHitCount(), 1,
+                    "disk hits");
+            Assert.assertEquals(proxy.getCacheMemoryBytes(), 0, "memory bytes");
+            Assert.assertEquals(proxy.getCacheDiskBytes(), first[1].length(),
+                    "disk bytes");
+        } finally {
+            proxy.shutdown();
+        }
+    }
+
+    @Test
+    public void eviction() {
+        File directory = new File(System.getProperty("java.io.tmpdir"),
+                "qe4j-proxy-test-eviction");
+        ProxyCache cache = new ProxyCache(80, 15, 50, directory);
+        for (int i = 0; i < 10; i++) {
+            cache.put(new ProxyCache.Entry("url" + i, 200, "OK",
+                    new ArrayList<String[]>(),
+                    System.currentTimeMillis() + 60000, new byte[10]));
+        }
+        Assert.assertEquals(cache.getMemoryBytes(), 80, "memory bounded");
+        Assert.assertEquals(cache.getDiskBytes(), 10, "disk bounded");
+        Assert.assertNull(cache.get("url0"), "oldest evicted");
+        Assert.assertNotNull(cache.get("url1").getFile(), "demoted to disk");
+        Assert.assertNotNull(cache.get("url9").getBody(), "newest in memory");
+        Assert.assertFalse(cache.accepts(51), "larger than max entry");
+
+        cache.put(new ProxyCache.Entry("expired", 200, "OK",
+                new ArrayList<String[]>(), System.currentTimeMillis() - 1,
+                new byte[1]));
+        Assert.assertNull(cache.get("expired"), "expired");
+        cache.clear();
+        Assert.assertEquals(cache.getEntryCount(), 0, "cleared");
+    }
+
+    @Test
+    public void sharedBySessions() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        properties.setProperty("webdriver.proxy.enabled", "true");
+        properties.setProperty("webdriver.proxy.cache.disk", "0");
+        properties.setProperty("webdriver.proxy.cache.patterns",
+                "\\.(js|css|gif)$");
+
+        OpenWebDriver first = new OpenWebDriver(properties);
+        CachingProxy proxy = CachingProxy.getInstance(properties);
+        long hits = proxy.getHitCount();
+        first.get(BASE_URL + "htmlResources.html");
+        Assert.assertEquals(first.getTitle(), "HTML RESOURCES", "first page");
+        first.quit();
+
+        OpenWebDriver second = new OpenWebDriver(properties);
+        second.get(BASE_URL + "htmlResources.html");
+        Assert.assertEquals(second.executeJavaScript(
+                "return window.scriptLoaded;"), Boolean.TRUE,
+                "script loaded from cache");
+        second.quit();
+        Assert.assertTrue(proxy.getHitCount() > hits, "shared cache hits");
+        log.info("{}", proxy);
+    }
+}
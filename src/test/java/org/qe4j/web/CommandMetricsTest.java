@@ -0,0 +1,157 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Properties;
+
+import javax.management.ObjectName;
+
+import org.openqa.selenium.By;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Unit test class for CommandMetrics and LatencyHistogram
+ */
+public class CommandMetricsTest {
+
+    private static final String URL = "http://127.0.0.1:9091/test/";
+
+    public Properties getProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        return properties;
+    }
+
+    @Test
+    public void bucketBounds() {
+        long[] values = { 0, 1, 7, 8, 9, 15, 16, 1000, 123456789L,
+                Long.MAX_VALUE };
+        for (long value : values) {
+            int index = LatencyHistogram.bucketIndex(value);
+            Assert.assertTrue(
+                    LatencyHistogram.bucketUpperBound(index) >= value,
+                    "upper bound covers " + value);
+            if (index > 0) {
+                Assert.assertTrue(
+                        LatencyHistogram.bucketUpperBound(index - 1) < value,
+                        "previous bucket excludes " + value);
+            }
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L, i % 100 != 0);
+        }
+        Assert.assertEquals(histogram.getCount(), 1000, "count");
+        Assert.assertEquals(histogram.getErrorCount(), 10, "errors");
+        Assert.assertEquals(histogram.getMaxNanos(), 1000000, "max");
+        long p50 = histogram.getPercentileNanos(50);
+        Assert.assertTrue(p50 >= 500000 && p50 <= 500000 * 1.125, "p50 "
+                + p50);
+        long p99 = histogram.getPercentileNanos(99);
+        Assert.assertTrue(p99 >= 990000 && p99 <= 1000000, "p99 " + p99);
+        Assert.assertEquals(histogram.getPercentileNanos(100), 1000000,
+                "p100 is max");
+    }
+
+    @Test
+    public void merge() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(10, true);
+        second.record(2000, false);
+        first.add(second);
+        Assert.assertEquals(first.getCount(), 2, "merged count");
+        Assert.assertEquals(first.getErrorCount(), 1, "merged errors");
+        Assert.assertEquals(first.getMaxNanos(), 2000, "merged max");
+    }
+
+    @Test
+    public void recordByLocator() {
+        CommandMetrics metrics = new CommandMetrics();
+        metrics.record(WebCommand.FIND_ELEMENT, By.id("a"), 1000, true);
+        metrics.record(WebCommand.FIND_ELEMENT, By.cssSelector("a"), 3000,
+                true);
+        metrics.record(WebCommand.CLICK, null, 2000, false);
+        Assert.assertEquals(metrics.getTotalCount(), 3, "total");
+        Assert.assertEquals(metrics.getHistogram(WebCommand.FIND_ELEMENT)
+                .getCount(), 2, "find element count");
+        Assert.assertEquals(
+                metrics.getHistogram(WebCommand.FIND_ELEMENT,
+                        LocatorStrategy.CSS_SELECTOR).getCount(), 1,
+                "css selector count");
+        Assert.assertNull(metrics.getHistogram(WebCommand.FIND_ELEMENT,
+                LocatorStrategy.XPATH), "xpath never recorded");
+        Assert.assertEquals(metrics.getCommandStats().size(), 2,
+                "command stats");
+        Assert.assertEquals(metrics.getLocatorStats().size(), 2,
+                "locator stats");
+        metrics.reset();
+        Assert.assertEquals(metrics.getTotalCount(), 0, "reset");
+    }
+
+    @Test
+    public void recordOverhead() {
+        CommandMetrics metrics = new CommandMetrics();
+        By by = By.id("overhead");
+        int iterations = 200000;
+        for (int i = 0; i < iterations; i++) {
+            metrics.record(WebCommand.FIND_ELEMENT, by, i, true);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            metrics.record(WebCommand.FIND_ELEMENT, by, i, true);
+        }
+        long perCall = (System.nanoTime() - start) / iterations;
+        Assert.assertTrue(perCall < 1000, "recording took " + perCall
+                + "ns per call");
+    }
+
+    @Test
+    public void driverRecords() throws IOException {
+        OpenWebDriver driver = new OpenWebDriver(getProperties());
+        CommandMetrics metrics = new CommandMetrics();
+        driver.setCommandMetrics(metrics);
+        driver.get(URL);
+        driver.findElement(By.id("html1")).getText();
+        driver.findElements(By.tagName("div"));
+        List<CommandStats> stats = metrics.getLocatorStats();
+        Assert.assertEquals(stats.size(), 2, "find stats by locator");
+        Assert.assertEquals(metrics.getHistogram(WebCommand.GET).getCount(),
+                1, "get recorded");
+        Assert.assertEquals(metrics.getHistogram(WebCommand.GET_TEXT)
+                .getCount(), 1, "element getText recorded");
+        driver.quit();
+    }
+
+    @Test
+    public void jmxRegistration() throws Exception {
+        CommandMetrics.getDefault();
+        Assert.assertTrue(
+                ManagementFactory.getPlatformMBeanServer().isRegistered(
+                        new ObjectName(CommandMetrics.OBJECT_NAME)),
+                "registered with platform MBean server");
+    }
+}
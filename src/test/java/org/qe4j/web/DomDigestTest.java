@@ -0,0 +1,115 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class DomDigestTest {
+
+    private static final String BASE_URL = "http://127.0.0.1:9091/test/";
+
+    private OpenWebDriver newDriver() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        OpenWebDriver driver = new OpenWebDriver(properties);
+        driver.get(BASE_URL + "htmlTest1.html");
+        return driver;
+    }
+
+    @Test
+    public void digest() throws IOException {
+        OpenWebDriver driver = newDriver();
+        try {
+            String baseline = driver.getDomDigest();
+            Assert.assertTrue(baseline.matches("[0-9a-f]{16}"), "hex digest "
+                    + baseline);
+            Assert.assertEquals(driver.getDomDigest(), baseline, "stable");
+
+            WebElement html1 = driver.findElement(By.id("html1"));
+            String subtree = driver.getDomDigest(html1);
+            Assert.assertNotEquals(subtree, baseline, "subtree digest");
+
+            driver.executeJavaScript("document.getElementById('html3')"
+                    + ".setAttribute('class', 'changed');");
+            Assert.assertNotEquals(driver.getDomDigest(), baseline,
+                    "attribute changed");
+            Assert.assertEquals(driver.getDomDigest(html1), subtree,
+                    "other subtree unchanged");
+            Assert.assertFalse(driver.waitUntil(ReadyConditions.domChanged(
+                    html1, subtree), 200), "subtree not changed");
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void waitForDomChange() throws IOException {
+        OpenWebDriver driver = newDriver();
+        try {
+            String baseline = driver.getDomDigest();
+            Assert.assertFalse(driver.waitForDomChange(baseline, 200),
+                    "no change");
+            driver.executeJavaScript("setTimeout(function() {"
+                    + " document.getElementById('html1').innerHTML = 'done';"
+                    + " }, 300);");
+            Assert.assertTrue(driver.waitForDomChange(baseline, 5000),
+                    "changed later");
+            Assert.assertEquals(driver.findElement(By.id("html1")).getText(),
+                    "done", "change applied");
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void pageSourceReader() throws IOException {
+        OpenWebDriver driver = newDriver();
+        try {
+            PageSourceReader reader = driver.getPageSourceReader(16);
+            String source = IOUtils.toString(reader);
+            reader.close();
+            Assert.assertTrue(source.contains("HTML TEST1"), "title");
+            Assert.assertTrue(source.contains("html test 3"), "last element");
+            Assert.assertEquals(reader.getOffset(), source.length(), "offset");
+            Assert.assertTrue(source.length() > 16, "several chunks");
+
+            PageSourceReader interrupted = driver.getPageSourceReader(16);
+            char[] buffer = new char[16];
+            Assert.assertEquals(interrupted.read(buffer), 16, "first chunk");
+            driver.get(BASE_URL + "htmlTest2.html");
+            try {
+                IOUtils.toString(interrupted);
+                Assert.fail("read across navigation");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage().contains("page changed"),
+                        e.getMessage());
+            }
+            interrupted.close();
+        } finally {
+            driver.quit();
+        }
+    }
+}
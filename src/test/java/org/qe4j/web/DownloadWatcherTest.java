@@ -0,0 +1,135 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.openqa.selenium.TimeoutException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class DownloadWatcherTest {
+
+    private File newDirectory(String name) throws IOException {
+        File directory = new File("target/download-test/" + name);
+        FileUtils.deleteDirectory(directory);
+        directory.mkdirs();
+        return directory;
+    }
+
+    @Test
+    public void firefoxPartFile() throws IOException, InterruptedException {
+        File directory = newDirectory("firefox");
+        DownloadWatcher watcher = new DownloadWatcher(directory, 50);
+        File download = new File(directory, "report.zip");
+        File part = new File(directory, "report.zip.part");
+        FileUtils.writeStringToFile(download, "");
+        FileUtils.writeStringToFile(part, "first half");
+        Assert.assertNull(watcher.poll(null), "first scan");
+        Thread.sleep(100);
+        Assert.assertNull(watcher.poll(null), "part file next to download");
+        Assert.assertEquals(watcher.getInProgress().size(), 1, "in progress");
+
+        FileUtils.writeStringToFile(download, "first half, second half");
+        part.delete();
+        Assert.assertNull(watcher.poll(null), "changed since last scan");
+        Thread.sleep(100);
+        Assert.assertEquals(watcher.poll(null), download, "complete");
+        Assert.assertNull(watcher.poll(null), "reported once");
+    }
+
+    @Test
+    public void chromeTempFile() throws IOException, InterruptedException {
+        File directory = newDirectory("chrome");
+        DownloadWatcher watcher = new DownloadWatcher(directory, 50);
+        FileUtils.writeStringToFile(new File(directory,
+                "Unconfirmed 1234.crdownload"), "partial");
+        FileUtils.writeStringToFile(new File(directory, "other.txt"), "other");
+        watcher.poll(null);
+        Thread.sleep(100);
+        FileFilter pdf = new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(".pdf");
+            }
+        };
+        Assert.assertNull(watcher.poll(pdf), "temp file in progress");
+
+        File download = new File(directory, "invoice.pdf");
+        Assert.assertTrue(new File(directory, "Unconfirmed 1234.crdownload")
+                .renameTo(download), "renamed");
+        watcher.poll(pdf);
+        Thread.sleep(100);
+        Assert.assertEquals(watcher.poll(pdf), download, "complete");
+    }
+
+    @Test
+    public void sessionDirectory() throws IOException {
+        File base = newDirectory("sessions");
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        properties.setProperty("webdriver.download.directory",
+                base.getAbsolutePath());
+        properties.setProperty("webdriver.download.stable.millis", "50");
+
+        OpenWebDriver first = new OpenWebDriver(properties);
+        OpenWebDriver second = new OpenWebDriver(properties);
+        final File directory = first.getSessionDownloadDir();
+        File empty = second.getSessionDownloadDir();
+        try {
+            Assert.assertEquals(directory.getParentFile(),
+                    base.getAbsoluteFile(), "within download directory");
+            Assert.assertNotEquals(second.getSessionDownloadDir(), directory,
+                    "directory per session");
+
+            Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                        FileUtils.writeStringToFile(new File(directory,
+                                "data.csv"), "a,b,c");
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            writer.start();
+            File download = first.awaitDownload(null, 5000);
+            Assert.assertEquals(download.getName(), "data.csv", "download");
+            try {
+                second.awaitDownload(null, 200);
+                Assert.fail("other session downloaded nothing");
+            } catch (TimeoutException e) {
+                Assert.assertTrue(e.getMessage().contains(
+                        second.getSessionDownloadDir().getPath()), "message");
+            }
+        } finally {
+            first.quit();
+            second.quit();
+        }
+        Assert.assertTrue(new File(directory, "data.csv").isFile(),
+                "downloads kept");
+        Assert.assertFalse(empty.exists(), "empty directory removed");
+    }
+}
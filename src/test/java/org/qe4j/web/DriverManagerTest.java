@@ -0,0 +1,115 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Unit test class for DriverManager
+ */
+@Test(singleThreaded = true)
+public class DriverManagerTest {
+
+    private static final String URL = "http://127.0.0.1:9091/test/";
+    private static final String URL_TITLE = "HTML TEST1";
+
+    @BeforeClass
+    public void setProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        DriverManager.setProperties(properties);
+    }
+
+    @AfterClass
+    public void releaseAll() {
+        DriverManager.releaseAll();
+    }
+
+    @Test
+    public void driverPerThread() throws Exception {
+        final Map<OpenWebDriver, Boolean> created = Collections
+                .synchronizedMap(new IdentityHashMap<OpenWebDriver, Boolean>());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<String>> titles = new ArrayList<Future<String>>();
+        for (int i = 0; i < 4; i++) {
+            titles.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    OpenWebDriver driver = DriverManager.getDriver();
+                    Assert.assertSame(DriverManager.getDriver(), driver,
+                            "same driver within thread");
+                    created.put(driver, Boolean.TRUE);
+                    driver.get(URL);
+                    try {
+                        return driver.getTitle();
+                    } finally {
+                        DriverManager.releaseDriver();
+                        Assert.assertFalse(DriverManager.hasDriver(),
+                                "released");
+                    }
+                }
+            }));
+        }
+        for (Future<String> title : titles) {
+            Assert.assertEquals(title.get(), URL_TITLE, "title");
+        }
+        executor.shutdown();
+        Assert.assertEquals(created.size(), 4, "driver per thread");
+    }
+
+    @Test
+    public void releaseAllThreads() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final OpenWebDriver other = executor.submit(
+                new Callable<OpenWebDriver>() {
+                    @Override
+                    public OpenWebDriver call() throws IOException {
+                        return DriverManager.getDriver();
+                    }
+                }).get();
+        OpenWebDriver driver = DriverManager.getDriver();
+        Assert.assertNotSame(driver, other, "separate drivers");
+        DriverManager.releaseAll();
+        Assert.assertFalse(DriverManager.hasDriver(), "released");
+        Assert.assertFalse(executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return DriverManager.hasDriver();
+            }
+        }).get(), "released in other thread");
+        Assert.assertNotSame(DriverManager.getDriver(), driver,
+                "new driver after release");
+        DriverManager.releaseDriver();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,91 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class ElementIdentityMapTest {
+
+    private static final String BASE_URL = "http://127.0.0.1:9091/test/";
+
+    private OpenWebDriver newDriver() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        return new OpenWebDriver(properties);
+    }
+
+    @Test
+    public void canonicalWrappers() throws IOException {
+        OpenWebDriver driver = newDriver();
+        try {
+            driver.get(BASE_URL + "htmlTest1.html");
+            OpenWebElement first = driver.findElement(By.id("html1"));
+            OpenWebElement again = driver.findElement(By.id("html1"));
+            Assert.assertSame(again, first, "same wrapper");
+
+            List<WebElement> divs = driver.findElements(By.tagName("div"));
+            Assert.assertSame(divs.get(0), first, "wrapper from list");
+            WebElement body = driver.findElement(By.tagName("body"));
+            Assert.assertSame(body.findElement(By.id("html3")), divs.get(1),
+                    "wrapper from element search");
+
+            Set<WebElement> distinct = new HashSet<WebElement>(divs);
+            distinct.addAll(driver.findElements(By.cssSelector("div")));
+            Assert.assertEquals(distinct.size(), 2, "deduplicated");
+
+            ElementIdentityMap map = driver.getElementIdentityMap();
+            Assert.assertTrue(map.getReusedCount() >= 4, "reused");
+            Assert.assertEquals(map.getCreatedCount(), 3, "created");
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void equality() throws IOException {
+        OpenWebDriver driver = newDriver();
+        OpenWebDriver other = newDriver();
+        try {
+            driver.get(BASE_URL + "htmlTest1.html");
+            other.get(BASE_URL + "htmlTest1.html");
+            OpenWebElement element = driver.findElement(By.id("html1"));
+            OpenWebElement copy = new OpenWebElement(driver,
+                    element.getWebElement());
+            Assert.assertEquals(copy, element, "same element");
+            Assert.assertEquals(copy.hashCode(), element.hashCode(),
+                    "hash code");
+            Assert.assertNotEquals(driver.findElement(By.id("html3")),
+                    element, "other element");
+            Assert.assertNotEquals(other.findElement(By.id("html1")),
+                    element, "other session");
+        } finally {
+            driver.quit();
+            other.quit();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebElement;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class ElementRelocateTest {
+
+    private static final String BASE_URL = "http://127.0.0.1:9091/test/";
+
+    private final ThreadLocal<OpenWebDriver> driver = new ThreadLocal<OpenWebDriver>();
+
+    @BeforeMethod
+    public void openDriver() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "1");
+        OpenWebDriver webDriver = new OpenWebDriver(properties);
+        webDriver.get(BASE_URL + "htmlTest1.html");
+        driver.set(webDriver);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void quitDriver() {
+        driver.get().quit();
+        driver.remove();
+    }
+
+    /**
+     * Replaces the element by a new one with the same id, as a re-render
+     * would.
+     */
+    private void rerender(String id, String html) {
+        driver.get().executeJavaScript(
+                "var old = document.getElementById('" + id + "');"
+                        + " var div = document.createElement('div');"
+                        + " div.id = '" + id + "';"
+                        + " div.innerHTML = '" + html + "';"
+                        + " old.parentNode.replaceChild(div, old);");
+    }
+
+    @Test
+    public void relocate() {
+        OpenWebDriver webDriver = driver.get();
+        OpenWebElement element = webDriver.findElement(By.id("html1"));
+        Assert.assertEquals(element.getText(), "html test 1", "text");
+        Assert.assertEquals(element.getBy(), By.id("html1"), "locator");
+        WebElement stale = element.getWebElement();
+
+        rerender("html1", "replaced");
+        Assert.assertEquals(element.getText(), "replaced", "re-located text");
+        Assert.assertNotSame(element.getWebElement(), stale, "element found");
+        Assert.assertEquals(element.getRelocateCount(), 1, "element count");
+        Assert.assertEquals(webDriver.getRelocateCount(), 1, "session count");
+        Assert.assertSame(webDriver.findElement(By.id("html1")), element,
+                "canonical wrapper of the new element");
+
+        rerender("html1", "again");
+        element.click();
+        Assert.assertEquals(element.getRelocateCount(), 2, "after the click");
+    }
+
+    @Test
+    public void identityKept() {
+        OpenWebDriver webDriver = driver.get();
+        OpenWebElement element = webDriver.findElement(By.id("html1"));
+        OpenWebElement other = webDriver.findElement(By.id("html3"));
+        Set<WebElement> elements = new HashSet<WebElement>();
+        elements.add(element);
+        elements.add(other);
+        int hashCode = element.hashCode();
+
+        rerender("html1", "replaced");
+        Assert.assertEquals(element.getText(), "replaced", "re-located text");
+        Assert.assertEquals(element.getRelocateCount(), 1, "element count");
+        Assert.assertEquals(element.hashCode(), hashCode, "hash code");
+        Assert.assertTrue(elements.contains(element), "still in the set");
+        Assert.assertNotEquals(element, other, "other element");
+        Assert.assertSame(webDriver.findElement(By.id("html1")), element,
+                "canonical wrapper of the new element");
+    }
+
+    @Test
+    public void relocateWithinParent() {
+        OpenWebDriver webDriver = driver.get();
+        rerender("html3", "<span class=\"child\">first</span>");
+        OpenWebElement parent = webDriver.findElement(By.id("html3"));
+        OpenWebElement child = (OpenWebElement) parent.findElement(By
+                .className("child"));
+        Assert.assertSame(child.getParent(), parent, "parent");
+        Assert.assertEquals(child.getText(), "first", "text");
+
+        rerender("html3", "<span class=\"child\">second</span>");
+        Assert.assertEquals(child.getText(), "second", "re-located text");
+        Assert.assertEquals(child.getRelocateCount(), 1, "child count");
+        Assert.assertEquals(parent.getRelocateCount(), 1, "parent count");
+        Assert.assertEquals(webDriver.getRelocateCount(), 2, "session count");
+    }
+
+    @Test(expectedExceptions = StaleElementReferenceException.class)
+    public void budgetExhausted() {
+        OpenWebDriver webDriver = driver.get();
+        webDriver.setRelocateMax(0);
+        OpenWebElement element = webDriver.findElement(By.id("html1"));
+        rerender("html1", "replaced");
+        element.getText();
+    }
+
+    @Test
+    public void removed() {
+        OpenWebDriver webDriver = driver.get();
+        OpenWebElement element = webDriver.findElement(By.id("html1"));
+        webDriver.executeJavaScript("var old = document.getElementById('html1');"
+                + " old.parentNode.removeChild(old);");
+        try {
+            element.getText();
+            Assert.fail("removed element found");
+        } catch (StaleElementReferenceException e) {
+            // the page really lost the element
+        }
+        Assert.assertEquals(element.getRelocateCount(), 0, "element count");
+    }
+
+    @Test
+    public void listElementsNotRelocated() {
+        OpenWebDriver webDriver = driver.get();
+        List<WebElement> elements = webDriver.findElements(By.tagName("div"));
+        OpenWebElement element = (OpenWebElement) elements.get(0);
+        Assert.assertNull(element.getBy(), "no locator of its own");
+        rerender("html1", "replaced");
+        try {
+            element.getText();
+            Assert.fail("stale list element read");
+        } catch (StaleElementReferenceException e) {
+            // position in a list is no locator
+        }
+    }
+}
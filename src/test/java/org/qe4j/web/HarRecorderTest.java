@@ -0,0 +1,119 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class HarRecorderTest {
+
+    private static final String BASE_URL = "http://127.0.0.1:9091/test/";
+
+    private JSONObject read(File file) throws IOException, JSONException {
+        return new JSONObject(FileUtils.readFileToString(file, "UTF-8"))
+                .getJSONObject("log");
+    }
+
+    @Test
+    public void htmlUnitSession() throws IOException, JSONException {
+        File directory = new File("target/har-test");
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        properties.setProperty("webdriver.har.directory",
+                directory.getPath());
+        properties.setProperty("webdriver.har.bodies", "true");
+        properties.setProperty("webdriver.har.body.max", "16");
+        // the proxy is shared by the JVM, so configure it as CachingProxyTest
+        properties.setProperty("webdriver.proxy.cache.disk", "0");
+        properties.setProperty("webdriver.proxy.cache.patterns",
+                "\\.(js|css|gif)$");
+
+        OpenWebDriver driver = new OpenWebDriver(properties);
+        HarRecorder recorder = driver.getHarRecorder();
+        Assert.assertNotNull(recorder, "recording");
+        driver.get(BASE_URL + "htmlResources.html");
+        driver.startHarPage("second page");
+        driver.get(BASE_URL + "htmlTest1.html");
+        driver.quit();
+        Assert.assertTrue(recorder.isClosed(), "closed on quit");
+
+        JSONObject log = read(recorder.getFile());
+        JSONArray entries = log.getJSONArray("entries");
+        Assert.assertEquals(entries.length(), recorder.getEntryCount(),
+                "entries written");
+        Assert.assertTrue(entries.length() >= 3, "page and resources");
+
+        JSONObject first = entries.getJSONObject(0);
+        Assert.assertEquals(first.getString("pageref"), "page_1", "page");
+        JSONObject request = first.getJSONObject("request");
+        Assert.assertEquals(request.getString("url"), BASE_URL
+                + "htmlResources.html", "url");
+        Assert.assertEquals(request.getString("method"), "GET", "method");
+        JSONObject response = first.getJSONObject("response");
+        Assert.assertEquals(response.getInt("status"), 200, "status");
+        Assert.assertTrue(response.getInt("bodySize") > 16, "body size");
+        Assert.assertEquals(response.getJSONObject("content")
+                .getString("text").length(), 16, "body capped");
+        JSONObject timings = first.getJSONObject("timings");
+        Assert.assertTrue(timings.getDouble("wait") >= 0, "wait timing");
+        Assert.assertTrue(timings.getDouble("receive") >= 0,
+                "receive timing");
+
+        JSONArray pages = log.getJSONArray("pages");
+        Assert.assertEquals(pages.length(), 3, "pages");
+        Assert.assertEquals(pages.getJSONObject(0).getString("title"),
+                BASE_URL + "htmlResources.html", "get page title");
+        Assert.assertEquals(pages.getJSONObject(1).getString("title"),
+                "second page", "marked page title");
+        Assert.assertEquals(entries.getJSONObject(entries.length() - 1)
+                .getString("pageref"), "page_3", "last page");
+    }
+
+    @Test
+    public void emptyRecording() throws IOException, JSONException {
+        HarRecorder recorder = new HarRecorder(new File(
+                "target/har-test/empty.har"), false, 0);
+        recorder.startPage("nothing");
+        HarRecorder.Entry entry = recorder.newEntry("GET", BASE_URL, "HTTP/1.1",
+                new ArrayList<String[]>(), 20);
+        entry.setResponse(204, "No Content", new ArrayList<String[]>(), 40);
+        entry.setComment("blocked");
+        recorder.write(entry);
+        recorder.close();
+
+        JSONObject log = read(recorder.getFile());
+        Assert.assertEquals(log.getJSONArray("entries").length(), 1,
+                "entries");
+        JSONObject written = log.getJSONArray("entries").getJSONObject(0);
+        Assert.assertEquals(written.getString("comment"), "blocked",
+                "comment");
+        Assert.assertEquals(written.getJSONObject("timings")
+                .getDouble("wait"), 0.0, "answered locally");
+        Assert.assertEquals(log.getJSONArray("pages").length(), 1, "pages");
+    }
+}
@@ -0,0 +1,92 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Unit test class for HtmlUnitProfile, logging page load time of the fast
+ * mode against the default HtmlUnit driver.
+ */
+public class HtmlUnitProfileTest {
+
+    private final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(getClass());
+
+    private static final String URL = "http://127.0.0.1:9091/test/htmlResources.html";
+
+    public Properties getProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        return properties;
+    }
+
+    @Test
+    public void isAllowed() {
+        Properties properties = getProperties();
+        properties.setProperty("webdriver.htmlunit.allow", "127\\.0\\.0\\.1");
+        properties.setProperty("webdriver.htmlunit.deny",
+                "analytics, \\.woff$");
+        HtmlUnitProfile profile = HtmlUnitProfile.fromProperties(properties);
+        Assert.assertTrue(profile.isAllowed("http://127.0.0.1/app.js"),
+                "allowed");
+        Assert.assertFalse(profile.isAllowed("http://cdn.example.com/app.js"),
+                "not in allow list");
+        Assert.assertFalse(profile.isAllowed("http://127.0.0.1/analytics.js"),
+                "denied");
+        Assert.assertFalse(profile.isAllowed("http://127.0.0.1/font.woff"),
+                "denied suffix");
+        Assert.assertFalse(profile.isAllowed("http://127.0.0.1/logo.PNG?v=2"),
+                "image");
+        Assert.assertEquals(profile.getCacheSize(),
+                HtmlUnitProfile.DEFAULT_CACHE_SIZE, "default cache size");
+    }
+
+    @Test
+    public void fastMode() throws IOException {
+        OpenWebDriver driver = new OpenWebDriver(getProperties());
+        long start = System.nanoTime();
+        driver.get(URL);
+        long defaultLoad = System.nanoTime() - start;
+        Assert.assertEquals(driver.executeJavaScript(
+                "return window.scriptLoaded;"), Boolean.TRUE, "script loaded");
+        driver.quit();
+
+        Properties properties = getProperties();
+        properties.setProperty("webdriver.htmlunit.fast", "true");
+        properties.setProperty("webdriver.htmlunit.deny", "script\\.js");
+        driver = new OpenWebDriver(properties);
+        FastHtmlUnitDriver fast = (FastHtmlUnitDriver) driver.getWebDriver();
+        start = System.nanoTime();
+        driver.get(URL);
+        long fastLoad = System.nanoTime() - start;
+        Assert.assertEquals(driver.getTitle(), "HTML RESOURCES", "page loaded");
+        Assert.assertNull(driver.executeJavaScript(
+                "return window.scriptLoaded;"), "script blocked");
+        Assert.assertTrue(fast.getBlockedCount() >= 1, "blocked requests");
+        Assert.assertTrue(fast.getRequestCount() > fast.getBlockedCount(),
+                "page requested");
+        driver.quit();
+        log.info("page load default {} ms, fast {} ms", defaultLoad / 1000000,
+                fastLoad / 1000000);
+    }
+}
@@ -0,0 +1,232 @@
+package org.qe4j.web;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebDriverException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class LoadRunnerTest {
+
+    private static final String BASE_URL = "http://127.0.0.1:9091/test/";
+
+    private Properties properties() {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "0");
+        return properties;
+    }
+
+    @Test
+    public void profile() {
+        LoadProfile profile = new LoadProfile(4, 400, 1000, 800);
+        Assert.assertEquals(profile.getStartMillis(0), 0, "first user start");
+        Assert.assertEquals(profile.getStartMillis(3), 300, "last user start");
+        Assert.assertEquals(profile.getStopMillis(0), 2200, "first user stop");
+        Assert.assertEquals(profile.getStopMillis(3), 1600, "last user stop");
+        Assert.assertEquals(profile.getTotalMillis(), 2200, "total");
+    }
+
+    @Test
+    public void thinkTime() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            long uniform = ThinkTime.uniform(100, 200).nextMillis(random);
+            Assert.assertTrue(uniform >= 100 && uniform <= 200, "uniform "
+                    + uniform);
+            long exponential = ThinkTime.exponential(100, 300).nextMillis(
+                    random);
+            Assert.assertTrue(exponential >= 0 && exponential <= 300,
+                    "exponential " + exponential);
+        }
+        Assert.assertEquals(ThinkTime.none().nextMillis(random), 0, "none");
+    }
+
+    @Test
+    public void journeys() throws InterruptedException {
+        final List<LoadReport> reports = new CopyOnWriteArrayList<LoadReport>();
+        LoadRunner runner = new LoadRunner(properties(), new LoadProfile(3,
+                300, 1200, 300), ThinkTime.constant(50)).setSnapshotMillis(
+                400).setListener(new LoadRunner.Listener() {
+            @Override
+            public void report(LoadReport report) {
+                reports.add(report);
+            }
+        });
+        LoadReport report = runner.run(new LoadRunner.Journey() {
+            @Override
+            public void run(LoadRunner.Session session) throws Exception {
+                session.step("home", new LoadRunner.Step() {
+                    @Override
+                    public void run(OpenWebDriver driver) {
+                        driver.get(BASE_URL + "htmlTest1.html");
+                    }
+                });
+                session.think();
+                session.step("find", new LoadRunner.Step() {
+                    @Override
+                    public void run(OpenWebDriver driver) {
+                        driver.findElement(By.id("html1"));
+                    }
+                });
+                session.step("next", new LoadRunner.Step() {
+                    @Override
+                    public void run(OpenWebDriver driver) {
+                        driver.get(BASE_URL + "htmlTest2.html");
+                    }
+                });
+            }
+        });
+
+        Assert.assertTrue(report.isFinished(), "final report");
+        Assert.assertEquals(report.getActiveUsers(), 0, "users left");
+        Assert.assertTrue(report.getCompletedJourneys() >= 3, "journeys "
+                + report.getCompletedJourneys());
+        Assert.assertEquals(report.getFailedJourneys(), 0, "failed");
+        Assert.assertEquals(report.getErrorRate(), 0d, "error rate");
+        Assert.assertEquals(report.getStepStats("home").getCount(),
+                report.getCompletedJourneys(), "home steps");
+        Assert.assertEquals(report.getStepStats("next").getCount(),
+                report.getCompletedJourneys(), "next steps");
+        Assert.assertEquals(report.getStepStats(LoadRunner.NEW_SESSION)
+                .getCount(), 3, "a session per user");
+        Assert.assertTrue(report.getJourneyStats().getP90() >= 50,
+                "journeys include think time");
+        Assert.assertTrue(report.getSummary().contains("home"), "summary "
+                + report.getSummary());
+
+        Assert.assertTrue(reports.size() >= 2, "snapshots " + reports.size());
+        Assert.assertFalse(reports.get(0).isFinished(), "live snapshot");
+        Assert.assertTrue(reports.get(reports.size() - 1).isFinished(),
+                "final report last");
+    }
+
+    @Test
+    public void errors() throws InterruptedException {
+        LoadRunner runner = new LoadRunner(properties(), new LoadProfile(2, 0,
+                10000, 0), ThinkTime.none()).setMaxIterations(4)
+                .setSnapshotMillis(0);
+        LoadReport report = runner.run(new LoadRunner.Journey() {
+            @Override
+            public void run(final LoadRunner.Session session) throws Exception {
+                session.step("home", new LoadRunner.Step() {
+                    @Override
+                    public void run(OpenWebDriver driver) {
+                        driver.get(BASE_URL + "htmlTest1.html");
+                    }
+                });
+                session.step("missing", new LoadRunner.Step() {
+                    @Override
+                    public void run(OpenWebDriver driver) {
+                        if (session.getIteration() % 2 == 0) {
+                            driver.findElement(By.id("missing"));
+                        }
+                    }
+                });
+            }
+        });
+
+        Assert.assertEquals(report.getCompletedJourneys(), 4, "completed");
+        Assert.assertEquals(report.getFailedJourneys(), 4, "failed");
+        Assert.assertEquals(report.getErrorRate(), 0.5, "error rate");
+        Assert.assertEquals(report.getStepStats("missing").getErrorCount(), 4,
+                "step errors");
+        Assert.assertEquals(
+                report.getErrors().get(NoSuchElementException.class.getName()),
+                Long.valueOf(4), "errors by type " + report.getErrors());
+        Assert.assertEquals(report.getStepStats(LoadRunner.NEW_SESSION)
+                .getCount(), 2 + 2, "failed sessions replaced");
+    }
+
+    @Test
+    public void failedOpens() throws InterruptedException {
+        final AtomicInteger opens = new AtomicInteger();
+        LoadRunner runner = new LoadRunner(properties(), new LoadProfile(1, 0,
+                30000, 0), ThinkTime.none()) {
+            @Override
+            protected OpenWebDriver newDriver(Properties properties)
+                    throws Exception {
+                if (opens.incrementAndGet() == 1) {
+                    throw new WebDriverException("no browser available");
+                }
+                return super.newDriver(properties);
+            }
+        }.setMaxIterations(2).setSnapshotMillis(0);
+        LoadReport report = runner.run(new LoadRunner.Journey() {
+            @Override
+            public void run(LoadRunner.Session session) throws Exception {
+                session.step("home", new LoadRunner.Step() {
+                    @Override
+                    public void run(OpenWebDriver driver) {
+                        driver.get(BASE_URL + "htmlTest1.html");
+                    }
+                });
+            }
+        });
+
+        Assert.assertEquals(report.getCompletedJourneys(), 1, "completed");
+        Assert.assertEquals(report.getFailedJourneys(), 1,
+                "failed open counted");
+        Assert.assertEquals(report.getErrorRate(), 0.5, "error rate");
+        Assert.assertEquals(report.getStepStats(LoadRunner.NEW_SESSION)
+                .getErrorCount(), 1, "open errors");
+    }
+
+    @Test
+    public void failedAssertion() throws InterruptedException {
+        final AtomicInteger opens = new AtomicInteger();
+        LoadRunner runner = new LoadRunner(properties(), new LoadProfile(1, 0,
+                30000, 0), ThinkTime.none()) {
+            @Override
+            protected OpenWebDriver newDriver(Properties properties)
+                    throws Exception {
+                opens.incrementAndGet();
+                return super.newDriver(properties);
+            }
+        }.setMaxIterations(3).setSnapshotMillis(0);
+        final AtomicInteger journeys = new AtomicInteger();
+        LoadReport report = runner.run(new LoadRunner.Journey() {
+            @Override
+            public void run(LoadRunner.Session session) throws Exception {
+                session.step("home", new LoadRunner.Step() {
+                    @Override
+                    public void run(OpenWebDriver driver) {
+                        driver.get(BASE_URL + "htmlTest1.html");
+                        Assert.assertTrue(journeys.incrementAndGet() != 2,
+                                "page flow assertion");
+                    }
+                });
+            }
+        });
+
+        Assert.assertEquals(journeys.get(), 3, "user went on");
+        Assert.assertEquals(report.getCompletedJourneys(), 2, "completed");
+        Assert.assertEquals(report.getFailedJourneys(), 1, "failed");
+        Assert.assertEquals(report.getErrors().get(
+                AssertionError.class.getName()), Long.valueOf(1), "errors");
+        Assert.assertEquals(opens.get(), 2, "failed session replaced");
+    }
+}
@@ -0,0 +1,164 @@
+package org.qe4j.web;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.Platform;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class MemoryWatchdogTest {
+
+    private static final String BASE_URL = "http://127.0.0.1:9091/test/";
+
+    @Test
+    public void thresholds() {
+        MemoryWatchdog watchdog = new MemoryWatchdog(60000, 1000, 50);
+        Assert.assertTrue(watchdog.isDue(), "first sample due");
+        Assert.assertFalse(watchdog.record(500, 10), "below thresholds");
+        Assert.assertFalse(watchdog.isDue(), "within interval");
+        Assert.assertTrue(watchdog.record(1500, 10), "heap exceeded");
+        Assert.assertTrue(watchdog.record(-1, 51), "dom exceeded");
+
+        watchdog.recycled();
+        Assert.assertTrue(watchdog.isDue(), "fresh session sampled");
+        Assert.assertFalse(watchdog.record(-1, 51), "exceeded after recycle");
+        Assert.assertTrue(watchdog.isSuspended(), "suspended");
+        Assert.assertFalse(watchdog.record(-1, 60), "still suspended");
+        Assert.assertFalse(watchdog.record(-1, 10), "recovered");
+        Assert.assertTrue(watchdog.record(2000, 10), "recycles again");
+        Assert.assertEquals(watchdog.getPeakHeapBytes(), 2000, "peak");
+        Assert.assertEquals(watchdog.getRecycleCount(), 1, "recycles");
+    }
+
+    @Test
+    public void recycleSession() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        properties.setProperty("webdriver.memory.watchdog.enabled", "true");
+        properties.setProperty("webdriver.memory.interval", "0");
+        properties.setProperty("webdriver.memory.heap.max", "0");
+        properties.setProperty("webdriver.memory.dom.max", "6");
+
+        OpenWebDriver driver = new OpenWebDriver(properties);
+        try {
+            driver.get(BASE_URL + "htmlTest1.html");
+            MemoryWatchdog watchdog = driver.getMemoryWatchdog();
+            Assert.assertEquals(watchdog.getLastDomNodes(), 6, "dom nodes");
+            Assert.assertEquals(watchdog.getRecycleCount(), 0, "small page");
+            driver.manage().addCookie(new Cookie("monitor", "42"));
+            WebDriver before = driver.getWebDriver();
+
+            driver.get(BASE_URL + "htmlResources.html");
+            Assert.assertEquals(watchdog.getRecycleCount(), 1, "recycled");
+            Assert.assertNotSame(driver.getWebDriver(), before, "new session");
+            Assert.assertEquals(driver.getCurrentUrl(), BASE_URL
+                    + "htmlResources.html", "url restored");
+            Assert.assertEquals(driver.manage().getCookieNamed("monitor")
+                    .getValue(), "42", "cookie restored");
+            Assert.assertEquals(driver.getTitle(), "HTML RESOURCES", "usable");
+
+            driver.get(BASE_URL + "htmlTest1.html");
+            Assert.assertFalse(watchdog.isSuspended(), "fresh session fine");
+            Assert.assertEquals(watchdog.getSampleCount(), 3, "samples");
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void singlePageApplication() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        properties.setProperty("webdriver.memory.watchdog.enabled", "true");
+        properties.setProperty("webdriver.memory.interval", "0");
+        properties.setProperty("webdriver.memory.heap.max", "0");
+        properties.setProperty("webdriver.memory.dom.max", "6");
+
+        OpenWebDriver driver = new OpenWebDriver(properties);
+        try {
+            driver.get(BASE_URL + "htmlTest1.html");
+            MemoryWatchdog watchdog = driver.getMemoryWatchdog();
+            driver.executeJavaScript("for (var i = 0; i < 10; i++) {"
+                    + " document.body.appendChild("
+                    + "document.createElement('div')); }");
+            WebDriver before = driver.getWebDriver();
+
+            // the page stays the same, the clicks sample its memory
+            driver.findElement(By.id("html1")).click();
+            Assert.assertEquals(watchdog.getSampleCount(), 2, "click sampled");
+            Assert.assertEquals(watchdog.getRecycleCount(), 1, "recycled");
+            Assert.assertNotSame(driver.getWebDriver(), before, "new session");
+            driver.findElement(By.id("html1")).clickNoWait();
+            Assert.assertEquals(watchdog.getSampleCount(), 3,
+                    "click without wait sampled");
+            Assert.assertEquals(watchdog.getLastDomNodes(), 6, "page reloaded");
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void failedRecycleKeepsSession() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+
+        OpenWebDriver driver = new OpenWebDriver(properties) {
+            private int started;
+
+            @Override
+            protected WebDriver initLocalWebDriver(Browser browser,
+                    String version, Platform platform, Properties properties)
+                    throws IOException {
+                if (++started > 1) {
+                    throw new WebDriverException("no browser available");
+                }
+                return super.initLocalWebDriver(browser, version, platform,
+                        properties);
+            }
+        };
+        try {
+            driver.get(BASE_URL + "htmlTest1.html");
+            WebDriver before = driver.getWebDriver();
+            try {
+                driver.recycle();
+                Assert.fail("recycled without a browser");
+            } catch (WebDriverException e) {
+                // the farm is out of browsers
+            }
+            Assert.assertSame(driver.getWebDriver(), before, "old session");
+            Assert.assertEquals(driver.getTitle(), "HTML TEST1",
+                    "still usable");
+        } finally {
+            driver.quit();
+        }
+    }
+}
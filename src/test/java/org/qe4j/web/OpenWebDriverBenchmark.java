@@ -0,0 +1,414 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Benchmarks of the OpenWebDriver hot paths against HtmlUnit, so they run
+ * offline and without a browser. The test webapp is served in process along
+ * with a generated page of a large DOM: rows of elements, half of them
+ * hidden, followed by a form with every input type setInput handles and the
+ * element the locators look for, so lookups walk the whole document.
+ *
+ * Run with the benchmark profile, which writes JSON results in the layout of
+ * JMH to target/benchmarks:
+ *
+ * mvn test -Pbenchmark [-Dbenchmark.include=findElement]
+ * [-Dbenchmark.elements=2000] [-Dbenchmark.htmlunit.fast=false,true]
+ */
+public class OpenWebDriverBenchmark {
+
+    public static final String ELEMENTS_PROP_KEY = "benchmark.elements";
+    public static final String FAST_PROP_KEY = "benchmark.htmlunit.fast";
+    public static final String BUSY_MILLIS_PROP_KEY = "benchmark.ajax.busy.millis";
+    public static final String RESULT_PROP_KEY = "benchmark.result";
+
+    public static final String WEBAPP_DIR = "src/test/resources/webapp";
+    public static final String LARGE_PAGE = "bench/large.html";
+
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(OpenWebDriverBenchmark.class);
+
+    /**
+     * Keeps results of the measured operations reachable, so they cannot be
+     * optimized away.
+     */
+    static volatile Object sink;
+
+    private final int elements;
+    private final long busyMillis;
+    private HttpServer server;
+
+    /**
+     * @param elements
+     *            rows of the generated page
+     * @param busyMillis
+     *            time the busy page keeps an ajax call active
+     */
+    public OpenWebDriverBenchmark(int elements, long busyMillis) {
+        this.elements = elements;
+        this.busyMillis = busyMillis;
+    }
+
+    /**
+     * Serves the test webapp and the generated page on a free port of the
+     * loopback address.
+     */
+    public void start() throws IOException {
+        final byte[] largePage = generatePage(elements).getBytes("UTF-8");
+        final File webapp = new File(WEBAPP_DIR);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/test/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath()
+                        .substring("/test/".length());
+                byte[] body = null;
+                String type = "text/html";
+                if (path.equals(LARGE_PAGE)) {
+                    body = largePage;
+                } else {
+                    File file = new File(webapp, path.equals("") ? "htmlTest1.html"
+                            : path);
+                    if (file.isFile()
+                            && file.getCanonicalPath().startsWith(
+                                    webapp.getCanonicalPath())) {
+                        body = FileUtils.readFileToByteArray(file);
+                        type = contentType(file.getName());
+                    }
+                }
+                try {
+                    if (body == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    exchange.getResponseHeaders().set("Content-Type", type);
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        log.info("serving benchmark pages at {}", getBaseUrl());
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * @return url of the test webapp
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/test/";
+    }
+
+    /**
+     * @param rows
+     * @return page of the given rows, followed by a form with each input type
+     *         and the target of the locators
+     */
+    public static String generatePage(int rows) {
+        StringBuilder page = new StringBuilder(rows * 160 + 2048);
+        page.append("<html><head><title>large dom</title>");
+        // stands in for the framework waitForAjax polls
+        page.append("<script>var jQuery = { active: 0 };</script>");
+        page.append("</head><body><div id=\"rows\">");
+        for (int i = 0; i < rows; i++) {
+            page.append("<div class=\"row\" id=\"row").append(i).append('"');
+            if (i % 2 == 1) {
+                page.append(" style=\"display: none\"");
+            }
+            page.append("><span class=\"cell\">cell ").append(i)
+                    .append("</span><a href=\"#row").append(i)
+                    .append("\">row ").append(i).append("</a></div>");
+        }
+        page.append("</div><form id=\"form\" action=\"#\">");
+        page.append("<input type=\"text\" id=\"text\" name=\"text\" value=\"\">");
+        page.append("<input type=\"password\" id=\"password\" name=\"password\" value=\"\">");
+        page.append("<input type=\"number\" id=\"number\" name=\"number\" value=\"\">");
+        page.append("<input type=\"url\" id=\"url\" name=\"url\" value=\"\">");
+        page.append("<textarea id=\"textarea\" name=\"textarea\"></textarea>");
+        page.append("<select id=\"select\" name=\"select\">");
+        page.append("<option value=\"a\">A</option><option value=\"b\">B</option></select>");
+        page.append("<input type=\"radio\" name=\"radio\" value=\"a\" checked>");
+        page.append("<input type=\"radio\" name=\"radio\" value=\"b\">");
+        page.append("<input type=\"checkbox\" id=\"checkbox\" name=\"checkbox\" value=\"on\">");
+        page.append("</form><div id=\"target\" class=\"target\" name=\"target\">");
+        page.append("<a href=\"#target\">target link</a></div>");
+        page.append("</body></html>");
+        return page.toString();
+    }
+
+    /**
+     * Runs all included benchmarks in a new HtmlUnit session.
+     *
+     * @param runner
+     * @param fast
+     *            true for FastHtmlUnitDriver (webdriver.htmlunit.fast)
+     */
+    public void run(BenchmarkRunner runner, boolean fast) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "0");
+        properties.setProperty(OpenWebDriver.HTMLUNIT_FAST_PROP_KEY,
+                String.valueOf(fast));
+        properties.setProperty("webdriver.async.enabled", "true");
+        properties.setProperty("webdriver.async.timeout", "30");
+        properties.setProperty("webdriver.async.sleep.interval", "5");
+        properties.setProperty("webdriver.async.idle", "0");
+        properties.setProperty("webdriver.async.sleep.after", "0");
+        final OpenWebDriver driver = new OpenWebDriver(properties);
+        try {
+            driver.get(getBaseUrl() + LARGE_PAGE);
+            String driverName = fast ? "fastHtmlUnit" : "htmlUnit";
+            String size = String.valueOf(elements);
+
+            Map<String, By> single = new LinkedHashMap<String, By>();
+            single.put("id", By.id("target"));
+            single.put("name", By.name("target"));
+            single.put("className", By.className("target"));
+            single.put("tagName", By.tagName("textarea"));
+            single.put("cssSelector", By.cssSelector("#target a"));
+            single.put("xpath", By.xpath("//div[@id='target']/a"));
+            single.put("linkText", By.linkText("target link"));
+            single.put("partialLinkText", By.partialLinkText("target li"));
+            for (Map.Entry<String, By> locator : single.entrySet()) {
+                final By by = locator.getValue();
+                runner.run("findElement", BenchmarkRunner.params("driver",
+                        driverName, "elements", size, "locator",
+                        locator.getKey()),
+                        new BenchmarkRunner.SimpleOperation() {
+                            @Override
+                            public void run() {
+                                sink = driver.findElement(by);
+                            }
+                        });
+            }
+
+            Map<String, By> multiple = new LinkedHashMap<String, By>();
+            multiple.put("className", By.className("row"));
+            multiple.put("tagName", By.tagName("span"));
+            multiple.put("cssSelector", By.cssSelector("div.row > a"));
+            multiple.put("xpath", By.xpath("//div[@class='row']"));
+            for (Map.Entry<String, By> locator : multiple.entrySet()) {
+                final By by = locator.getValue();
+                runner.run("findElements", BenchmarkRunner.params("driver",
+                        driverName, "elements", size, "locator",
+                        locator.getKey()),
+                        new BenchmarkRunner.SimpleOperation() {
+                            @Override
+                            public void run() {
+                                sink = driver.findElements(by);
+                            }
+                        });
+            }
+
+            runner.run("findVisibleElements", BenchmarkRunner.params("driver",
+                    driverName, "elements", size),
+                    new BenchmarkRunner.SimpleOperation() {
+                        @Override
+                        public void run() {
+                            sink = driver.findVisibleElements(By
+                                    .className("row"));
+                        }
+                    });
+
+            Map<String, Object[]> inputs = new LinkedHashMap<String, Object[]>();
+            inputs.put("text", new Object[] { "first value", "second value" });
+            inputs.put("password", new Object[] { "secret", "changed" });
+            inputs.put("number", new Object[] { "42", "7" });
+            inputs.put("url", new Object[] { "http://a.example",
+                    "http://b.example" });
+            inputs.put("textarea", new Object[] { "first\nlines",
+                    "second\nlines" });
+            inputs.put("select", new Object[] { "b", "a" });
+            inputs.put("radio", new Object[] { "b", "a" });
+            inputs.put("checkbox", new Object[] { Boolean.TRUE, Boolean.FALSE });
+            for (final Map.Entry<String, Object[]> input : inputs.entrySet()) {
+                final By by = By.name(input.getKey());
+                runner.run("setInput", BenchmarkRunner.params("driver",
+                        driverName, "elements", size, "type", input.getKey()),
+                        new BenchmarkRunner.Operation() {
+                            private int invocation;
+                            private Object value;
+
+                            @Override
+                            public void setUp() {
+                                Object[] values = input.getValue();
+                                value = values[invocation++ % values.length];
+                            }
+
+                            @Override
+                            public void run() {
+                                sink = driver.editInput(by, value);
+                            }
+                        });
+                runner.run("getInputValue", BenchmarkRunner.params("driver",
+                        driverName, "elements", size, "type", input.getKey()),
+                        new BenchmarkRunner.SimpleOperation() {
+                            @Override
+                            public void run() {
+                                sink = driver.getInputValue(by);
+                            }
+                        });
+            }
+
+            runner.run("waitForAjax", BenchmarkRunner.params("driver",
+                    driverName, "elements", size, "page", "idle"),
+                    new BenchmarkRunner.SimpleOperation() {
+                        @Override
+                        public void run() {
+                            driver.waitForAjax();
+                        }
+                    });
+            runner.run("waitForAjax", BenchmarkRunner.params("driver",
+                    driverName, "elements", size, "page", "busy"),
+                    new BenchmarkRunner.Operation() {
+                        @Override
+                        public void setUp() {
+                            driver.executeJavaScript("jQuery.active = 1;"
+                                    + " setTimeout(function() {"
+                                    + " jQuery.active = 0; }, " + busyMillis
+                                    + ");");
+                        }
+
+                        @Override
+                        public void run() {
+                            driver.waitForAjax();
+                        }
+                    });
+
+            runner.run("executeJavaScript", BenchmarkRunner.params("driver",
+                    driverName, "elements", size, "script", "constant"),
+                    new BenchmarkRunner.SimpleOperation() {
+                        @Override
+                        public void run() {
+                            sink = driver.executeJavaScript("return 1;");
+                        }
+                    });
+            runner.run("executeJavaScript", BenchmarkRunner.params("driver",
+                    driverName, "elements", size, "script", "domQuery"),
+                    new BenchmarkRunner.SimpleOperation() {
+                        @Override
+                        public void run() {
+                            sink = driver.executeJavaScript("return document"
+                                    + ".getElementsByTagName('div').length;");
+                        }
+                    });
+
+            final List<WebElement> raw = driver.getWebDriver().findElements(
+                    By.className("row"));
+            runner.run("wrapperAllocation", BenchmarkRunner.params("driver",
+                    driverName, "elements", size, "wrapper", "new"),
+                    new BenchmarkRunner.SimpleOperation() {
+                        private int invocation;
+
+                        @Override
+                        public void run() {
+                            sink = new OpenWebElement(driver, raw
+                                    .get(invocation++ % raw.size()));
+                        }
+                    });
+            runner.run("wrapperAllocation", BenchmarkRunner.params("driver",
+                    driverName, "elements", size, "wrapper", "identityMap"),
+                    new BenchmarkRunner.SimpleOperation() {
+                        private int invocation;
+
+                        @Override
+                        public void run() {
+                            sink = driver.wrapElement(raw.get(invocation++
+                                    % raw.size()));
+                        }
+                    });
+        } finally {
+            sink = null;
+            driver.quit();
+        }
+    }
+
+    private static String contentType(String name) {
+        if (name.endsWith(".js")) {
+            return "application/javascript";
+        } else if (name.endsWith(".css")) {
+            return "text/css";
+        } else if (name.endsWith(".gif")) {
+            return "image/gif";
+        }
+        return "text/html";
+    }
+
+    /**
+     * Runs the benchmarks configured by the benchmark system properties and
+     * writes the results.
+     *
+     * @param args
+     *            optional result file, else benchmark.result, else a time
+     *            stamped file in target/benchmarks
+     */
+    public static void main(String[] args) throws Exception {
+        String result = args.length > 0 ? args[0] : System
+                .getProperty(RESULT_PROP_KEY);
+        File file = result == null || result.trim().equals("") ? new File(
+                "target/benchmarks/OpenWebDriverBenchmark-"
+                        + new SimpleDateFormat("yyyyMMdd-HHmmss")
+                                .format(new Date()) + ".json") : new File(
+                result);
+        BenchmarkRunner runner = BenchmarkRunner
+                .fromSystemProperties(OpenWebDriverBenchmark.class.getName());
+        OpenWebDriverBenchmark benchmark = new OpenWebDriverBenchmark(
+                Integer.getInteger(ELEMENTS_PROP_KEY, 2000), Long.getLong(
+                        BUSY_MILLIS_PROP_KEY, 50));
+        benchmark.start();
+        try {
+            for (String fast : System.getProperty(FAST_PROP_KEY, "false,true")
+                    .split(",")) {
+                benchmark.run(runner, Boolean.parseBoolean(fast.trim()));
+            }
+        } finally {
+            benchmark.stop();
+        }
+        runner.writeResults(file);
+        log.info("wrote {} benchmark results to {}", runner.getResults()
+                .length(), file);
+    }
+}
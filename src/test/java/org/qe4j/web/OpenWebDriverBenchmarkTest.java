@@ -0,0 +1,87 @@
+package org.qe4j.web;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Runs every benchmark once on a small page so they keep working, and the
+ * full benchmarks in the benchmark group of the benchmark profile.
+ */
+public class OpenWebDriverBenchmarkTest {
+
+    @Test
+    public void smoke() throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner(
+                OpenWebDriverBenchmark.class.getName(), null, 0, 2, 1);
+        OpenWebDriverBenchmark benchmark = new OpenWebDriverBenchmark(20, 10);
+        benchmark.start();
+        try {
+            benchmark.run(runner, false);
+        } finally {
+            benchmark.stop();
+        }
+
+        File file = new File("target/benchmark-test/smoke.json");
+        runner.writeResults(file);
+        JSONArray results = new JSONArray(FileUtils.readFileToString(file,
+                "UTF-8"));
+        Assert.assertEquals(results.length(), 35, "benchmarks run");
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            String name = result.getString("benchmark") + " "
+                    + result.getJSONObject("params");
+            JSONObject primary = result.getJSONObject("primaryMetric");
+            Assert.assertTrue(primary.getDouble("score") > 0, "score of "
+                    + name);
+            Assert.assertEquals(primary.getString("scoreUnit"), "us/op",
+                    "unit of " + name);
+            Assert.assertEquals(primary.getJSONArray("rawData")
+                    .getJSONArray(0).length(), 2, "iterations of " + name);
+            Assert.assertTrue(primary.getJSONObject("scorePercentiles")
+                    .getDouble("100.0") > 0, "max of " + name);
+        }
+        JSONObject busy = null;
+        for (int i = 0; i < results.length(); i++) {
+            JSONObject params = results.getJSONObject(i).getJSONObject(
+                    "params");
+            if ("busy".equals(params.optString("page"))) {
+                busy = results.getJSONObject(i);
+            }
+        }
+        Assert.assertNotNull(busy, "busy page benchmarked");
+        Assert.assertTrue(busy.getJSONObject("primaryMetric")
+                .getDouble("score") >= 10000, "busy wait polled until idle");
+    }
+
+    @Test
+    public void include() {
+        BenchmarkRunner runner = new BenchmarkRunner("bench", "find.*s$", 0,
+                1, 1);
+        Assert.assertTrue(runner.isIncluded("findElements"), "included");
+        Assert.assertFalse(runner.isIncluded("findElement"), "excluded");
+    }
+
+    @Test(groups = "benchmark")
+    public void benchmark() throws Exception {
+        OpenWebDriverBenchmark.main(new String[0]);
+    }
+}
@@ -3,6 +3,7 @@ package org.qe4j.web;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
@@ -11,6 +12,7 @@ import org.openqa.selenium.By;
 import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.NoSuchWindowException;
 import org.openqa.selenium.Platform;
+import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.interactions.Actions;
@@ -227,6 +229,136 @@ public class OpenWebDriverTest {
         Assert.assertEquals(handles.size(), 2, "multiple window handles");
     }
 
+    @Test
+    public void readCache() throws IOException {
+        Properties properties = getProperties();
+        properties.setProperty("webdriver.cache.reads", "true");
+        OpenWebDriver driver = new OpenWebDriver(properties);
+        DriverReadCache cache = driver.getReadCache();
+        driver.get(URL);
+        Assert.assertEquals(driver.getTitle(), URL_TITLE, "title read");
+        Assert.assertEquals(driver.getTitle(), URL_TITLE, "title cached");
+        Assert.assertEquals(cache.getMissCount(DriverReadCache.Value.TITLE),
+                1, "title miss");
+        Assert.assertEquals(cache.getHitCount(DriverReadCache.Value.TITLE), 1,
+                "title hit");
+        driver.navigate().to(URL2);
+        Assert.assertEquals(driver.getTitle(), URL2_TITLE,
+                "title invalidated by navigation");
+        driver.findElement(By.id("html2")).click();
+        Assert.assertEquals(driver.getCurrentUrl(), URL2,
+                "current url after click");
+        Assert.assertEquals(
+                cache.getMissCount(DriverReadCache.Value.CURRENT_URL), 1,
+                "current url miss");
+
+        // the driver's own scripts keep the cache, the caller's do not
+        Assert.assertTrue(driver.waitUntil(ReadyConditions.ajaxIdle(), 5000),
+                "ajax idle");
+        driver.getDomDigest();
+        Assert.assertEquals(driver.getCurrentUrl(), URL2, "after the wait");
+        Assert.assertEquals(
+                cache.getMissCount(DriverReadCache.Value.CURRENT_URL), 1,
+                "current url kept by internal scripts");
+        driver.executeJavaScript("document.title = 'changed';");
+        Assert.assertEquals(driver.getTitle(), "changed",
+                "title invalidated by a script");
+        driver.quit();
+    }
+
+    @Test
+    public void callScript() throws IOException {
+        OpenWebDriver driver = new OpenWebDriver(getProperties());
+        ScriptLibrary library = new ScriptLibrary();
+        library.register(ScriptLibrary.AJAX_ACTIVE,
+                ScriptLibrary.AJAX_ACTIVE_FUNCTION);
+        library.register("sum", "function(a, b) { return a + b; }");
+        driver.setScriptLibrary(library);
+        driver.get(URL);
+        Assert.assertEquals(driver.executeJavaScript(library
+                .getCallScript("sum"), 1, 2), "__qe4j_missing",
+                "not installed before first call");
+        Assert.assertEquals(((Number) driver.callScript("sum", 1, 2))
+                .intValue(), 3, "installed on first call");
+        Assert.assertEquals(((Number) driver.executeJavaScript(library
+                .getCallScript("sum"), 2, 3)).intValue(), 5,
+                "installed in page");
+        driver.get(URL2);
+        Assert.assertEquals(((Number) driver.callScript("sum", 3, 4))
+                .intValue(), 7, "reinstalled after navigation");
+        driver.waitForAjax();
+
+        driver.setScriptLibraryEnabled(false);
+        Assert.assertEquals(((Number) driver.callScript("sum", 4, 5))
+                .intValue(), 9, "inline call");
+        driver.quit();
+    }
+
+    @Test
+    public void inlineScriptState() throws IOException {
+        OpenWebDriver driver = new OpenWebDriver(getProperties());
+        driver.setScriptLibraryEnabled(false);
+        driver.get(URL);
+        driver.executeJavaScript("window.blocked = 'page value';");
+        driver.callScript(ScriptLibrary.BLOCK_REQUESTS,
+                Arrays.asList("tracking"));
+        Assert.assertEquals(((Number) driver
+                .callScript(ScriptLibrary.BLOCKED_COUNT)).intValue(), 0,
+                "blocked count");
+        Assert.assertEquals(driver.executeJavaScript("return window.blocked;"),
+                "page value", "page variable kept");
+        Assert.assertEquals(driver.executeJavaScript(
+                "return typeof window.blocking;"), "undefined",
+                "no page global");
+        Assert.assertEquals(driver.executeJavaScript("return window."
+                + ScriptLibrary.STATE + ".blocking;"), true,
+                "state under the namespace");
+        driver.quit();
+    }
+
+    @Test
+    public void waitUntil() throws IOException {
+        OpenWebDriver driver = new OpenWebDriver(getProperties());
+        driver.get(URL);
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(driver.waitUntil(
+                ReadyConditions.present(By.id("html1")), 5000), "present");
+        Assert.assertTrue(driver.waitUntil(ReadyConditions.javascript(
+                "return document.title === arguments[0];", URL_TITLE), 5000),
+                "javascript predicate");
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000,
+                "ready conditions end waits early");
+
+        driver.executeJavaScript("setTimeout(function() {"
+                + " var div = document.createElement('div');"
+                + " div.id = 'late'; document.body.appendChild(div); }, 300);");
+        Assert.assertTrue(driver.waitUntil(
+                ReadyConditions.present(By.id("late")), 5000),
+                "element added later");
+        Assert.assertFalse(driver.waitUntil(
+                ReadyConditions.visible(By.id("missing")), 300),
+                "bounded wait");
+
+        driver.findElement(By.id("html1")).clickMinWait(5,
+                ReadyConditions.absent(By.id("missing")));
+        Assert.assertTrue(System.currentTimeMillis() - start < 4000,
+                "click min wait ends early");
+        driver.quit();
+    }
+
+    @Test(expectedExceptions = TimeoutException.class)
+    public void waitDeadline() throws IOException {
+        OpenWebDriver driver = new OpenWebDriver(getProperties());
+        WaitDeadline.set(200);
+        try {
+            driver.get(URL);
+            driver.waitUntil(ReadyConditions.present(By.id("missing")), 5000);
+        } finally {
+            WaitDeadline.clear();
+            driver.quit();
+        }
+    }
+
     @Test
     public void lookupPlatform() {
         Assert.assertEquals(OpenWebDriver.lookupPlatform("Xp"), Platform.XP,
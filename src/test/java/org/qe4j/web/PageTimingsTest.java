@@ -0,0 +1,105 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class PageTimingsTest {
+
+    private static final String BASE_URL = "http://127.0.0.1:9091/test/";
+
+    @Test
+    public void htmlUnitSession() throws IOException, InterruptedException {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        properties.setProperty("webdriver.timing.enabled", "true");
+        properties.setProperty("webdriver.async.enabled", "true");
+        properties.setProperty("webdriver.async.timeout", "5");
+        properties.setProperty("webdriver.async.sleep.interval", "5");
+        properties.setProperty("webdriver.async.idle", "0");
+        properties.setProperty("webdriver.async.sleep.after", "0");
+
+        OpenWebDriver driver = new OpenWebDriver(properties);
+        try {
+            PageTimings timings = driver.getPageTimings();
+            Assert.assertNotNull(timings, "timings enabled");
+            String page = timings.getPage(BASE_URL + "htmlTest2.html");
+            LatencyHistogram ajax = timings.getHistogram(page,
+                    PageTimings.AJAX_WAIT);
+            long ajaxCount = ajax == null ? 0 : ajax.getCount();
+            driver.get(BASE_URL + "htmlTest2.html?run=1");
+            driver.refresh();
+            Assert.assertEquals(timings.getHistogram(page,
+                    PageTimings.AJAX_WAIT).getCount(), ajaxCount + 1,
+                    "ajax wait of refresh");
+            Assert.assertTrue(timings.getPages().contains(page), "page");
+            Assert.assertTrue(timings.getSummary().contains(page), "summary");
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void aggregation() throws IOException {
+        PageTimings timings = new PageTimings(
+                HtmlUnitProfile.parsePatterns("/search\\?"));
+        Assert.assertEquals(timings.getPage(BASE_URL + "search?q=a"),
+                "/search\\?", "pattern");
+        Assert.assertEquals(timings.getPage(BASE_URL + "order/1234/items#top"),
+                BASE_URL + "order/{id}/items", "id segment");
+
+        Map<String, Object> timing = new HashMap<String, Object>();
+        timing.put("ttfb", 12L);
+        timing.put("load", 250.5d);
+        timing.put("domContentLoaded", -1L);
+        timing.put("resources", 3L);
+        timings.recordNavigation("home", timing);
+        timings.record("home", PageTimings.AJAX_WAIT, 5000000);
+
+        PageTimings other = new PageTimings(
+                HtmlUnitProfile.parsePatterns(""));
+        other.recordNavigation("home", timing);
+        other.recordNavigation("cart", timing);
+        timings.merge(other);
+
+        Assert.assertEquals(timings.getHistogram("home", PageTimings.TTFB)
+                .getCount(), 2, "merged");
+        Assert.assertEquals(timings.getHistogram("home", PageTimings.LOAD)
+                .getMaxNanos(), 250500000, "milliseconds");
+        Assert.assertNull(timings.getHistogram("home",
+                PageTimings.DOM_CONTENT_LOADED), "not reported");
+        Assert.assertEquals(timings.getResourceCounts("home").getMaxNanos(),
+                3, "resources");
+        Assert.assertEquals(timings.getPages().size(), 2, "pages");
+
+        File report = new File("target/timing-test/report.txt");
+        timings.writeReport(report);
+        String summary = FileUtils.readFileToString(report, "UTF-8");
+        Assert.assertTrue(summary.contains("ajaxWait"), "ajax wait reported");
+        Assert.assertTrue(summary.contains("cart"), "merged page reported");
+    }
+}
@@ -0,0 +1,132 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class RequestBlockerTest {
+
+    private static final String BASE_URL = "http://127.0.0.1:9091/test/";
+
+    public Properties getProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        return properties;
+    }
+
+    private HttpURLConnection open(int port, String url) throws IOException {
+        return (HttpURLConnection) new URL(url).openConnection(new Proxy(
+                Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", port)));
+    }
+
+    @Test
+    public void proxySession() throws IOException {
+        ProxyCache cache = new ProxyCache(1024 * 1024, 0, 1024 * 1024,
+                new File(System.getProperty("java.io.tmpdir")));
+        CachingProxy proxy = new CachingProxy(0, cache,
+                HtmlUnitProfile.parsePatterns("\\.(js|css)$"), 60,
+                HtmlUnitProfile.parsePatterns(""));
+        proxy.start();
+        try {
+            RequestBlocker blocker = new RequestBlocker(
+                    HtmlUnitProfile.parsePatterns("script\\.js"));
+            CachingProxy.Session session = proxy.openSession(blocker, false);
+            Assert.assertNotEquals(session.getPort(), proxy.getPort(),
+                    "session port");
+
+            HttpURLConnection blocked = open(session.getPort(), BASE_URL
+                    + "script.js");
+            Assert.assertEquals(blocked.getResponseCode(), 204, "blocked");
+            Assert.assertEquals(blocked.getHeaderField("X-Cache"), "BLOCKED",
+                    "answered by proxy");
+            for (int i = 0; i < 2; i++) {
+                HttpURLConnection allowed = open(session.getPort(), BASE_URL
+                        + "style.css");
+                Assert.assertEquals(allowed.getResponseCode(), 200, "allowed");
+                Assert.assertEquals(allowed.getHeaderField("X-Cache"), "MISS",
+                        "session not caching");
+                allowed.getInputStream().close();
+            }
+            Assert.assertEquals(blocker.getBlockedCount(), 1, "blocked count");
+
+            HttpURLConnection shared = open(proxy.getPort(), BASE_URL
+                    + "script.js");
+            Assert.assertEquals(shared.getResponseCode(), 200,
+                    "not blocked on shared port");
+            shared.getInputStream().close();
+            session.close();
+        } finally {
+            proxy.shutdown();
+        }
+    }
+
+    @Test
+    public void htmlUnit() throws IOException {
+        Properties properties = getProperties();
+        properties.setProperty("webdriver.block.patterns", "script\\.js");
+        OpenWebDriver driver = new OpenWebDriver(properties);
+        try {
+            Assert.assertTrue(
+                    driver.getWebDriver() instanceof BlockingHtmlUnitDriver,
+                    "blocking driver");
+            driver.get(BASE_URL + "htmlResources.html");
+            Assert.assertEquals(driver.getTitle(), "HTML RESOURCES",
+                    "page loaded");
+            Assert.assertNull(driver.executeJavaScript(
+                    "return window.scriptLoaded;"), "script blocked");
+            Assert.assertEquals(driver.getBlockedRequestCount(), 1,
+                    "blocked count");
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void inPage() throws IOException {
+        OpenWebDriver driver = new OpenWebDriver(getProperties());
+        try {
+            driver.get(BASE_URL + "htmlTest1.html");
+            driver.callScript(ScriptLibrary.BLOCK_REQUESTS,
+                    Arrays.asList("htmlTest2"));
+            Object status = driver.executeJavaScript("var x = new "
+                    + "XMLHttpRequest(); x.open('GET', 'htmlTest2.html', "
+                    + "false); try { x.send(); } catch (e) { return -1; } "
+                    + "return x.status;");
+            Assert.assertNotEquals(((Number) status).intValue(), 200,
+                    "request not sent");
+            Assert.assertEquals(((Number) driver
+                    .callScript(ScriptLibrary.BLOCKED_COUNT)).intValue(), 1,
+                    "blocked in page");
+            Assert.assertEquals(driver.getBlockedRequestCount(), 0,
+                    "no blocker configured");
+        } finally {
+            driver.quit();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.qe4j.web;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.WebDriverException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Unit test class for SessionScheduler, logging session throughput of the
+ * scheduler against a thread per session.
+ */
+public class SessionSchedulerTest {
+
+    private final org.slf4j.Logger log = org.slf4j.LoggerFactory
+            .getLogger(getClass());
+
+    private static final String URL = "http://127.0.0.1:9091/test/";
+    private static final String URL_TITLE = "HTML TEST1";
+    private static final int SESSIONS = 24;
+    private static final int MAX_SESSIONS = 8;
+
+    public Properties getProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        return properties;
+    }
+
+    @Test
+    public void throughput() throws Exception {
+        final AtomicInteger maxActive = new AtomicInteger();
+        final SessionScheduler scheduler = new SessionScheduler(
+                getProperties(), MAX_SESSIONS, MAX_SESSIONS * 2);
+        long start = System.nanoTime();
+        List<Future<String>> titles = new ArrayList<Future<String>>();
+        SessionScheduler.SessionTask<String> task = new SessionScheduler.SessionTask<String>() {
+            @Override
+            public String run(OpenWebDriver driver) {
+                int active = scheduler.getActiveCount();
+                synchronized (maxActive) {
+                    if (active > maxActive.get()) {
+                        maxActive.set(active);
+                    }
+                }
+                driver.get(URL);
+                return driver.getTitle();
+            }
+        };
+        for (int i = 0; i < SESSIONS; i++) {
+            titles.add(scheduler.submit(task));
+        }
+        for (Future<String> title : titles) {
+            Assert.assertEquals(title.get(), URL_TITLE, "title");
+        }
+        long scheduled = System.nanoTime() - start;
+        Assert.assertTrue(scheduler.shutdown(10, TimeUnit.SECONDS), "shutdown");
+        Assert.assertEquals(scheduler.getCompletedCount(), SESSIONS,
+                "completed");
+        Assert.assertTrue(maxActive.get() <= MAX_SESSIONS, "bounded sessions");
+
+        // thread per session as tests run today
+        start = System.nanoTime();
+        final List<String> threadTitles = new ArrayList<String>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < SESSIONS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        OpenWebDriver driver = new OpenWebDriver(
+                                getProperties());
+                        driver.get(URL);
+                        synchronized (threadTitles) {
+                            threadTitles.add(driver.getTitle());
+                        }
+                        driver.quit();
+                    } catch (Exception e) {
+                        log.error("session failed", e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long perThread = System.nanoTime() - start;
+        Assert.assertEquals(threadTitles.size(), SESSIONS, "thread sessions");
+        log.info("{} sessions: scheduler {} per second, thread per session "
+                + "{} per second", new Object[] { SESSIONS,
+                SESSIONS * 1e9 / scheduled, SESSIONS * 1e9 / perThread });
+    }
+
+    @Test
+    public void cancelWait() throws Exception {
+        SessionScheduler scheduler = new SessionScheduler(getProperties(), 1, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        Future<Object> waiting = scheduler
+                .submit(new SessionScheduler.SessionTask<Object>() {
+                    @Override
+                    public Object run(OpenWebDriver driver) {
+                        started.countDown();
+                        driver.sleep(60000);
+                        return null;
+                    }
+                });
+        started.await();
+        scheduler.shutdownNow();
+        try {
+            waiting.get(10, TimeUnit.SECONDS);
+            Assert.fail("wait not cancelled");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof WebDriverException,
+                    "wait interrupted");
+        }
+        Assert.assertTrue(scheduler.shutdown(10, TimeUnit.SECONDS), "shutdown");
+        Assert.assertEquals(scheduler.getFailedCount(), 1, "failed session");
+    }
+
+    @Test
+    public void cancelBeforeRun() throws Exception {
+        SessionScheduler scheduler = new SessionScheduler(getProperties(), 1, 2);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<Object> running = scheduler
+                .submit(new SessionScheduler.SessionTask<Object>() {
+                    @Override
+                    public Object run(OpenWebDriver driver)
+                            throws InterruptedException {
+                        started.countDown();
+                        release.await(10, TimeUnit.SECONDS);
+                        return null;
+                    }
+                });
+        started.await();
+        SessionScheduler.SessionTask<String> title = new SessionScheduler.SessionTask<String>() {
+            @Override
+            public String run(OpenWebDriver driver) {
+                driver.get(URL);
+                return driver.getTitle();
+            }
+        };
+        Future<String> queued = scheduler.submit(title);
+        Assert.assertEquals(scheduler.getPendingCount(), 2, "pending");
+        Assert.assertTrue(queued.cancel(false), "cancelled before run");
+        Assert.assertEquals(scheduler.getPendingCount(), 1,
+                "place of the cancelled task freed");
+
+        // would block forever if the cancelled task kept its place
+        Future<String> next = scheduler.submit(title);
+        release.countDown();
+        Assert.assertEquals(next.get(10, TimeUnit.SECONDS), URL_TITLE, "title");
+        running.get(10, TimeUnit.SECONDS);
+
+        final CountDownLatch blocking = new CountDownLatch(1);
+        scheduler.submit(new SessionScheduler.SessionTask<Object>() {
+            @Override
+            public Object run(OpenWebDriver driver)
+                    throws InterruptedException {
+                blocking.countDown();
+                new CountDownLatch(1).await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        });
+        blocking.await();
+        Future<String> drained = scheduler.submit(title);
+        scheduler.shutdownNow();
+        Assert.assertTrue(drained.isCancelled(), "drained task cancelled");
+        Assert.assertTrue(scheduler.shutdown(10, TimeUnit.SECONDS), "shutdown");
+        Assert.assertEquals(scheduler.getPendingCount(), 0,
+                "places of drained tasks freed");
+    }
+}
@@ -0,0 +1,176 @@
+package org.qe4j.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openqa.selenium.By;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * This file is part of QE4J.
+ *
+ * QE4J is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * QE4J is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * QE4J. If not, see <http://www.gnu.org/licenses/>.
+ */
+public class TracingTest {
+
+    private static final String BASE_URL = "http://127.0.0.1:9091/test/";
+
+    private static class Spans implements SpanExporter {
+        private final List<Span> ended = new CopyOnWriteArrayList<Span>();
+
+        @Override
+        public void export(Span span, long epochMicros) {
+            ended.add(span);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        Span get(String name) {
+            for (Span span : ended) {
+                if (span.getName().equals(name)) {
+                    return span;
+                }
+            }
+            throw new AssertionError("no span " + name + " in " + ended);
+        }
+    }
+
+    @Test
+    public void driverSpans() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("webdriver.platform", "local");
+        properties.setProperty("webdriver.browser", "HtmlUnit");
+        properties.setProperty("webdriver.browser-version", "3.6");
+        properties.setProperty("webdriver.wait", "10");
+        properties.setProperty("webdriver.async.enabled", "true");
+        properties.setProperty("webdriver.async.timeout", "5");
+        properties.setProperty("webdriver.async.sleep.interval", "1");
+        properties.setProperty("webdriver.async.idle", "0");
+        properties.setProperty("webdriver.async.sleep.after", "0");
+        OpenWebDriver driver = new OpenWebDriver(properties);
+        try {
+            Spans spans = new Spans();
+            Tracer tracer = new Tracer(1, spans);
+            driver.setTracer(tracer);
+
+            Span test = tracer.start("test");
+            driver.get(BASE_URL + "htmlTest1.html");
+            OpenWebElement element = driver.findElement(By.id("html1"));
+            element.click();
+            test.end(true);
+
+            Span get = spans.get("get");
+            Assert.assertEquals(get.getAttributes().get("url"), BASE_URL
+                    + "htmlTest1.html", "url");
+            Assert.assertEquals(get.getParentId(), test.getSpanId(),
+                    "navigation in the test");
+            Span find = spans.get("findElement");
+            Assert.assertEquals(find.getAttributes().get("locator"),
+                    By.id("html1").toString(), "locator");
+            Span click = spans.get("click");
+            Assert.assertNotNull(click.getAttributes().get("element"),
+                    "element");
+            Span wait = spans.get("waitForAjax");
+            Assert.assertEquals(wait.getParentId(), click.getSpanId(),
+                    "wait within the click");
+            Assert.assertEquals(wait.getTraceId(), test.getTraceId(), "trace");
+            Assert.assertTrue(
+                    ((Number) wait.getAttributes().get("polls")).longValue() >= 1,
+                    "polls " + wait.getAttributes());
+            Assert.assertTrue(wait.isSuccess(), "wait succeeded");
+            Assert.assertTrue(
+                    click.getDurationNanos() >= wait.getDurationNanos(),
+                    "click lasts the wait");
+            Assert.assertEquals(spans.ended.get(spans.ended.size() - 1), test,
+                    "test ended last");
+            Assert.assertSame(tracer.current(), Span.NOOP, "no span open");
+        } finally {
+            driver.quit();
+        }
+    }
+
+    @Test
+    public void failedSpan() {
+        Spans spans = new Spans();
+        Tracer tracer = new Tracer(1, spans);
+        Span parent = tracer.start("parent");
+        Span child = tracer.start("child");
+        Assert.assertSame(tracer.current(), child, "child open");
+        child.end(false);
+        Assert.assertSame(tracer.current(), parent, "parent open again");
+        parent.end(true);
+        Assert.assertFalse(spans.get("child").isSuccess(), "child failed");
+        Assert.assertTrue(spans.get("parent").isSuccess(), "parent succeeded");
+    }
+
+    @Test
+    public void notSampled() {
+        Tracer disabled = Tracer.disabled();
+        Assert.assertSame(disabled.start("click"), Span.NOOP, "disabled");
+        Span.NOOP.setAttribute("key", "value").end(true);
+        Assert.assertTrue(Span.NOOP.getAttributes().isEmpty(), "no attributes");
+
+        Spans spans = new Spans();
+        Tracer tracer = new Tracer(0.000000001, spans);
+        for (int i = 0; i < 100; i++) {
+            Span root = tracer.start("test");
+            Span child = tracer.start("click");
+            Assert.assertEquals(child.isRecording(), root.isRecording(),
+                    "child follows the root");
+            child.end(true);
+            root.end(true);
+        }
+        Assert.assertSame(tracer.current(), Span.NOOP, "no span open");
+        Assert.assertTrue(spans.ended.size() <= 2, "sampled " + spans.ended);
+    }
+
+    @Test
+    public void traceFile() throws IOException, JSONException {
+        File file = File.createTempFile("trace", ".json");
+        try {
+            TraceFileExporter exporter = new TraceFileExporter(file);
+            Tracer tracer = new Tracer(1, exporter);
+            Span click = tracer.start("click").setAttribute("element",
+                    "<a id=\"x\">");
+            tracer.start("waitForAjax").setAttribute("polls", 3L).end(false);
+            click.end(true);
+            tracer.close();
+
+            JSONArray events = new JSONArray(FileUtils.readFileToString(file,
+                    "UTF-8"));
+            Assert.assertEquals(events.length(), 2, "events");
+            JSONObject wait = events.getJSONObject(0);
+            Assert.assertEquals(wait.getString("name"), "waitForAjax", "name");
+            Assert.assertEquals(wait.getString("ph"), "X", "complete event");
+            JSONObject args = wait.getJSONObject("args");
+            Assert.assertEquals(args.getLong("polls"), 3, "polls");
+            Assert.assertTrue(args.getBoolean("error"), "error");
+            Assert.assertEquals(args.getLong("parent"), events.getJSONObject(1)
+                    .getJSONObject("args").getLong("span"), "parent");
+            Assert.assertEquals(events.getJSONObject(1).getJSONObject("args")
+                    .getString("element"), "<a id=\"x\">", "element");
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1 @@
+window.scriptLoaded = true;